@@ -0,0 +1,249 @@
+package com.gtnewhorizons.neid;
+
+import javax.annotation.Nullable;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.FlightRecorderListener;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+import jdk.jfr.Timespan;
+
+/**
+ * The {@code jdk.jfr} side of {@link NEIDEvents}. It lives in the {@code jfr} source set, which is compiled for Java
+ * 11, and {@link NEIDEvents} only loads it by name once it has seen that this JVM has a flight recorder.
+ */
+final class NEIDJfrEvents implements NEIDEvents.Recorder {
+
+    @Name("com.gtnewhorizons.neid.SectionDecode")
+    @Label("Section Decode")
+    @Category({ "NotEnoughIDs", "Chunk IO" })
+    @Description("Reading the block ids or metadata of a chunk section from NBT")
+    static class SectionDecode extends Event {
+
+        @Label("Tags")
+        String tags;
+
+        @Label("Bytes")
+        @DataAmount
+        int bytes;
+    }
+
+    @Name("com.gtnewhorizons.neid.SectionEncode")
+    @Label("Section Encode")
+    @Category({ "NotEnoughIDs", "Chunk IO" })
+    @Description("Writing the block ids or metadata of a chunk section to NBT")
+    static class SectionEncode extends Event {
+
+        @Label("Tags")
+        String tags;
+
+        @Label("Bytes")
+        @DataAmount
+        int bytes;
+    }
+
+    @Name("com.gtnewhorizons.neid.MemSlotSync")
+    @Label("MemSlot Sync")
+    @Category({ "NotEnoughIDs", "Ultramine" })
+    @Description("Copying a chunk section between the NEID arrays and Ultramine's MemSlot")
+    static class MemSlotSync extends Event {
+
+        @Label("Direction")
+        String direction;
+
+        @Label("Blocks")
+        int blocks;
+    }
+
+    @Name("com.gtnewhorizons.neid.ChunkPacketBuild")
+    @Label("Chunk Packet Build")
+    @Category({ "NotEnoughIDs", "Network" })
+    @Description("Building the RAW16 payload of a chunk packet")
+    static class ChunkPacketBuild extends Event {
+
+        @Label("Sections")
+        int sections;
+
+        @Label("Raw Bytes")
+        @DataAmount
+        int rawBytes;
+    }
+
+    @Name("com.gtnewhorizons.neid.ChunkPacketCompress")
+    @Label("Chunk Packet Compress")
+    @Category({ "NotEnoughIDs", "Network" })
+    @Description("Encoding and deflating a RAW16 chunk payload for the wire")
+    static class ChunkPacketCompress extends Event {
+
+        @Label("Encoding")
+        String encoding;
+
+        @Label("Deflate Level")
+        int level;
+
+        @Label("Raw Bytes")
+        @DataAmount
+        int rawBytes;
+
+        @Label("Compressed Bytes")
+        @DataAmount
+        int compressedBytes;
+    }
+
+    @Name("com.gtnewhorizons.neid.TransformerRun")
+    @Label("Client Block Transformer Run")
+    @Category({ "NotEnoughIDs", "Network" })
+    @Description("One ClientBlockTransformer applied to a block, a section or a bulk of blocks")
+    static class TransformerRun extends Event {
+
+        @Label("Transformer")
+        String transformer;
+
+        @Label("Blocks Scanned")
+        int scanned;
+
+        @Label("Blocks Changed")
+        int changed;
+
+        // Measured by TransformerProfiler, the event itself is committed after the run
+        @Label("Elapsed")
+        @Timespan(Timespan.NANOSECONDS)
+        long elapsed;
+    }
+
+    private static class Listener implements FlightRecorderListener {
+
+        @Override
+        public void recorderInitialized(FlightRecorder recorder) {
+            update(recorder);
+        }
+
+        @Override
+        public void recordingStateChanged(Recording changed) {
+            update(FlightRecorder.getFlightRecorder());
+        }
+
+        private static void update(FlightRecorder recorder) {
+            boolean running = false;
+            for (Recording recording : recorder.getRecordings()) {
+                running |= recording.getState() == RecordingState.RUNNING;
+            }
+            NEIDEvents.recording = running;
+        }
+    }
+
+    @Override
+    public void install() {
+        FlightRecorder.register(SectionDecode.class);
+        FlightRecorder.register(SectionEncode.class);
+        FlightRecorder.register(MemSlotSync.class);
+        FlightRecorder.register(ChunkPacketBuild.class);
+        FlightRecorder.register(ChunkPacketCompress.class);
+        FlightRecorder.register(TransformerRun.class);
+        // Called right away if the recorder is already up, e.g. with -XX:StartFlightRecording
+        FlightRecorder.addListener(new Listener());
+    }
+
+    @Nullable
+    @Override
+    public Object beginSectionDecode() {
+        return begin(new SectionDecode());
+    }
+
+    @Override
+    public void endSectionDecode(Object token, String tags, int bytes) {
+        final SectionDecode event = (SectionDecode) token;
+        event.tags = tags;
+        event.bytes = bytes;
+        event.commit();
+    }
+
+    @Nullable
+    @Override
+    public Object beginSectionEncode() {
+        return begin(new SectionEncode());
+    }
+
+    @Override
+    public void endSectionEncode(Object token, String tags, int bytes) {
+        final SectionEncode event = (SectionEncode) token;
+        event.tags = tags;
+        event.bytes = bytes;
+        event.commit();
+    }
+
+    @Nullable
+    @Override
+    public Object beginMemSlotSync() {
+        return begin(new MemSlotSync());
+    }
+
+    @Override
+    public void endMemSlotSync(Object token, String direction, int blocks) {
+        final MemSlotSync event = (MemSlotSync) token;
+        event.direction = direction;
+        event.blocks = blocks;
+        event.commit();
+    }
+
+    @Nullable
+    @Override
+    public Object beginChunkPacketBuild() {
+        return begin(new ChunkPacketBuild());
+    }
+
+    @Override
+    public void endChunkPacketBuild(Object token, int sections, int rawBytes) {
+        final ChunkPacketBuild event = (ChunkPacketBuild) token;
+        event.sections = sections;
+        event.rawBytes = rawBytes;
+        event.commit();
+    }
+
+    @Nullable
+    @Override
+    public Object beginChunkPacketCompress() {
+        return begin(new ChunkPacketCompress());
+    }
+
+    @Override
+    public void endChunkPacketCompress(Object token, String encoding, int level, int rawBytes, int compressedBytes) {
+        final ChunkPacketCompress event = (ChunkPacketCompress) token;
+        event.encoding = encoding;
+        event.level = level;
+        event.rawBytes = rawBytes;
+        event.compressedBytes = compressedBytes;
+        event.commit();
+    }
+
+    @Override
+    public void transformerRun(String transformer, int scanned, int changed, long elapsedNanos) {
+        final TransformerRun event = new TransformerRun();
+        if (!event.isEnabled()) {
+            return;
+        }
+        event.transformer = transformer;
+        event.scanned = scanned;
+        event.changed = changed;
+        event.elapsed = elapsedNanos;
+        event.commit();
+    }
+
+    /**
+     * @return The started event, or null if the running recordings leave its type disabled.
+     */
+    @Nullable
+    private static Object begin(Event event) {
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+}
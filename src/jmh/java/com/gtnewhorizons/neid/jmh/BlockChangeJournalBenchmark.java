@@ -0,0 +1,99 @@
+package com.gtnewhorizons.neid.jmh;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.gtnewhorizons.neid.network.SectionChangeJournal;
+
+/**
+ * One tick of block changes in a chunk: flagging every change and clearing the pending updates once they are sent,
+ * with the {@link SectionChangeJournal} of MixinPlayerInstance and with vanilla's scan of its 64 entry list. Run with
+ * {@code -prof gc} for the allocation per tick.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BlockChangeJournalBenchmark {
+
+    public enum Changes {
+
+        /** A block toggled over and over, like a redstone clock. */
+        ONE_BLOCK(64, 0),
+        /** A machine or a small build, within one section. */
+        ONE_SECTION(64, 16),
+        /** A tree growing or a player digging, over a few sections. */
+        FOUR_SECTIONS(64, 64),
+        /** An explosion or a world edit, past vanilla's 64 entries. */
+        WHOLE_CHUNK(512, 256);
+
+        final int count;
+        // Changes are spread over this many layers from y = 64, 0 puts them all on one block
+        final int height;
+
+        Changes(int count, int height) {
+            this.count = count;
+            this.height = height;
+        }
+    }
+
+    @Param
+    public Changes changes;
+
+    private final SectionChangeJournal journal = new SectionChangeJournal();
+    private final short[] vanillaList = new short[64];
+    private int[] xs, ys, zs;
+
+    @Setup
+    public void generate() {
+        final Random random = new Random(1);
+        xs = new int[changes.count];
+        ys = new int[changes.count];
+        zs = new int[changes.count];
+        for (int i = 0; i < changes.count; i++) {
+            xs[i] = changes.height == 0 ? 3 : random.nextInt(16);
+            ys[i] = changes.height == 0 ? 70 : 64 + random.nextInt(changes.height) & 255;
+            zs[i] = changes.height == 0 ? 5 : random.nextInt(16);
+        }
+    }
+
+    @Benchmark
+    public SectionChangeJournal journal() {
+        for (int i = 0; i < xs.length; i++) {
+            journal.mark(xs[i], ys[i], zs[i]);
+        }
+        journal.clear();
+        return journal;
+    }
+
+    // PlayerInstance.flagChunkForUpdate, which stops keeping positions after 64
+    @Benchmark
+    public int vanilla() {
+        int tiles = 0;
+        for (int i = 0; i < xs.length && tiles < vanillaList.length; i++) {
+            final short position = (short) (xs[i] << 12 | zs[i] << 8 | ys[i]);
+            boolean seen = false;
+            for (int j = 0; j < tiles && !seen; j++) {
+                seen = vanillaList[j] == position;
+            }
+            if (!seen) {
+                vanillaList[tiles++] = position;
+            }
+        }
+        return tiles;
+    }
+}
@@ -0,0 +1,183 @@
+package com.gtnewhorizons.neid.jmh;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.gtnewhorizons.neid.Constants;
+import com.gtnewhorizons.neid.NEIDMemSlot;
+import com.gtnewhorizons.neid.SectionCodec;
+
+/**
+ * Per block cost of reading and writing ids and metadata, in section order and at random positions. The
+ * ExtendedBlockStorage methods ({@code getBlockByExtId}, {@code func_150818_a}, {@code getExtBlockMetadata}) need the
+ * block registry, so the {@link SectionCodec} array access they go through is measured without the {@code Block}
+ * lookups, next to the same access through {@link NEIDMemSlot} and with the reflective MemSlot mirroring that the mixin
+ * does on Ultramine.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SectionAccessBenchmark {
+
+    @Param
+    public SyntheticSections sections;
+
+    private short[] ids;
+    private short[] metas;
+    private NEIDMemSlot slot;
+    private int modificationCount;
+    private Method slotSetBlockId;
+    // Positions packed as y << 8 | z << 4 | x, in section order or shuffled
+    private int[] sequential;
+    private int[] random;
+
+    @Setup
+    public void generate() throws NoSuchMethodException {
+        ids = new short[Constants.BLOCKS_PER_EBS];
+        metas = new short[Constants.BLOCKS_PER_EBS];
+        sections.generate(42, ids, metas);
+        slot = new NEIDMemSlot();
+        System.arraycopy(ids, 0, slot.getBlocksArray(), 0, ids.length);
+        System.arraycopy(metas, 0, slot.getMetadataArray(), 0, metas.length);
+        slotSetBlockId = slot.getClass().getMethod("setBlockId", int.class, int.class, int.class, int.class);
+
+        sequential = new int[Constants.BLOCKS_PER_EBS];
+        random = new int[Constants.BLOCKS_PER_EBS];
+        for (int i = 0; i < sequential.length; i++) {
+            sequential[i] = i;
+            random[i] = i;
+        }
+        final Random shuffle = new Random(7);
+        for (int i = random.length - 1; i > 0; i--) {
+            final int j = shuffle.nextInt(i + 1);
+            final int swap = random[i];
+            random[i] = random[j];
+            random[j] = swap;
+        }
+    }
+
+    // The ExtendedBlockStorage mixin's setBlockId, which also counts the modification
+    private void setBlockId(int x, int y, int z, int id) {
+        SectionCodec.set(ids, x, y, z, id);
+        ++modificationCount;
+    }
+
+    private int readAll(int[] positions) {
+        int sum = 0;
+        for (int p : positions) {
+            final int x = p & 15, y = p >> 8, z = p >> 4 & 15;
+            sum += SectionCodec.get(ids, x, y, z) + SectionCodec.get(metas, x, y, z);
+        }
+        return sum;
+    }
+
+    // Writes the id one up, so that every call actually changes the array
+    private int writeAll(int[] positions) {
+        for (int p : positions) {
+            final int x = p & 15, y = p >> 8, z = p >> 4 & 15;
+            setBlockId(x, y, z, SectionCodec.get(ids, x, y, z) + 1 & Constants.MAX_BLOCK_ID);
+        }
+        return modificationCount;
+    }
+
+    private int readAllSlot(int[] positions) {
+        int sum = 0;
+        for (int p : positions) {
+            sum += slot.getBlockId(p & 15, p >> 8, p >> 4 & 15) + slot.getMeta(p & 15, p >> 8, p >> 4 & 15);
+        }
+        return sum;
+    }
+
+    private int writeAllSlot(int[] positions) {
+        int last = 0;
+        for (int p : positions) {
+            final int x = p & 15, y = p >> 8, z = p >> 4 & 15;
+            last = slot.getBlockId(x, y, z) + 1 & Constants.MAX_BLOCK_ID;
+            slot.setBlockId(x, y, z, last);
+        }
+        return last;
+    }
+
+    // What setBlockId costs on Ultramine, where every write is also sent to the MemSlot through reflection
+    private int writeAllMirrored(int[] positions) throws InvocationTargetException, IllegalAccessException {
+        for (int p : positions) {
+            final int x = p & 15, y = p >> 8, z = p >> 4 & 15;
+            final int id = SectionCodec.get(ids, x, y, z) + 1 & Constants.MAX_BLOCK_ID;
+            setBlockId(x, y, z, id);
+            slotSetBlockId.invoke(slot, x, y, z, id);
+        }
+        return modificationCount;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Constants.BLOCKS_PER_EBS)
+    public int getSequential() {
+        return readAll(sequential);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Constants.BLOCKS_PER_EBS)
+    public int getRandom() {
+        return readAll(random);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Constants.BLOCKS_PER_EBS)
+    public int setSequential() {
+        return writeAll(sequential);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Constants.BLOCKS_PER_EBS)
+    public int setRandom() {
+        return writeAll(random);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Constants.BLOCKS_PER_EBS)
+    public int memSlotGetSequential() {
+        return readAllSlot(sequential);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Constants.BLOCKS_PER_EBS)
+    public int memSlotGetRandom() {
+        return readAllSlot(random);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Constants.BLOCKS_PER_EBS)
+    public int memSlotSetSequential() {
+        return writeAllSlot(sequential);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Constants.BLOCKS_PER_EBS)
+    public int memSlotSetRandom() {
+        return writeAllSlot(random);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Constants.BLOCKS_PER_EBS)
+    public int setRandomMirrored() throws InvocationTargetException, IllegalAccessException {
+        return writeAllMirrored(random);
+    }
+}
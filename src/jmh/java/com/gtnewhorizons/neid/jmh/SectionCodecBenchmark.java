@@ -0,0 +1,149 @@
+package com.gtnewhorizons.neid.jmh;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.gtnewhorizons.neid.Constants;
+import com.gtnewhorizons.neid.NEIDMemSlot;
+import com.gtnewhorizons.neid.SectionCodec;
+import com.gtnewhorizons.neid.network.PalettedSectionCodec;
+
+/**
+ * Full section encode and decode in every format a section goes through:
+ * <ul>
+ * <li>blocks16: the "Blocks16"/"Data16" NBT arrays, also the copy of {@code getBlockData}/{@code setBlockData}</li>
+ * <li>legacy: the vanilla "Blocks"/"Add"/"Data" compatibility planes written next to them on save, and read back from
+ * pre-NEID worlds</li>
+ * <li>memSlot: Ultramine's {@code setData} and {@code copyLSB}/{@code copyMSB}/{@code copyBlockMetadata}</li>
+ * <li>paletted: the section encoding of PALETTED chunk packets</li>
+ * </ul>
+ * Only the ids and metadata are measured, light is a plain copy in every format.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SectionCodecBenchmark {
+
+    @Param
+    public SyntheticSections sections;
+
+    private short[] ids;
+    private short[] metas;
+    private short[] outIds;
+    private short[] outMetas;
+
+    private byte[] blocks16;
+    private byte[] data16;
+    private byte[] lsb;
+    private byte[] msb;
+    private byte[] nibbleMetas;
+    private byte[] light;
+    private NEIDMemSlot slot;
+    private byte[] slotLsb;
+    private byte[] slotMsb;
+    private byte[] slotMetas;
+    private ByteBuffer paletted;
+    private ByteBuffer palettedOut;
+
+    @Setup
+    public void generate() {
+        ids = new short[Constants.BLOCKS_PER_EBS];
+        metas = new short[Constants.BLOCKS_PER_EBS];
+        sections.generate(42, ids, metas);
+        outIds = new short[Constants.BLOCKS_PER_EBS];
+        outMetas = new short[Constants.BLOCKS_PER_EBS];
+
+        blocks16 = SectionCodec.encodeShorts(ids);
+        data16 = SectionCodec.encodeShorts(metas);
+        final byte[][] planes = SectionCodec.encodeLegacyBlocks(ids);
+        lsb = planes[0];
+        msb = planes[1];
+        nibbleMetas = SectionCodec.encodeLegacyMetadata(metas);
+        light = new byte[Constants.BLOCKS_PER_EBS / 2];
+
+        slot = new NEIDMemSlot();
+        slot.setData(lsb, msb, nibbleMetas, light, light);
+        slotLsb = new byte[Constants.BLOCKS_PER_EBS];
+        slotMsb = new byte[Constants.BLOCKS_PER_EBS / 2];
+        slotMetas = new byte[Constants.BLOCKS_PER_EBS / 2];
+
+        palettedOut = ByteBuffer.allocate(PalettedSectionCodec.MAX_ENCODED_SIZE);
+        PalettedSectionCodec.encode(ids, 0, metas, 0, palettedOut);
+        palettedOut.flip();
+        paletted = ByteBuffer.allocate(palettedOut.remaining());
+        paletted.put(palettedOut).flip();
+    }
+
+    @Benchmark
+    public void blocks16Encode(Blackhole blackhole) {
+        blackhole.consume(SectionCodec.encodeShorts(ids));
+        blackhole.consume(SectionCodec.encodeShorts(metas));
+    }
+
+    @Benchmark
+    public short[] blocks16Decode() {
+        SectionCodec.decodeShorts(blocks16, 0, outIds);
+        SectionCodec.decodeShorts(data16, 0, outMetas);
+        return outIds;
+    }
+
+    /**
+     * The compatibility planes written on every save.
+     */
+    @Benchmark
+    public void legacyEncode(Blackhole blackhole) {
+        blackhole.consume(SectionCodec.encodeLegacyBlocks(ids));
+        blackhole.consume(SectionCodec.encodeLegacyMetadata(metas));
+    }
+
+    @Benchmark
+    public short[] legacyDecode() {
+        SectionCodec.decodeLegacyBlocks(lsb, msb, outIds);
+        SectionCodec.decodeLegacyMetadata(nibbleMetas, outMetas);
+        return outIds;
+    }
+
+    @Benchmark
+    public NEIDMemSlot memSlotSetData() {
+        slot.setData(lsb, msb, nibbleMetas, light, light);
+        return slot;
+    }
+
+    @Benchmark
+    public byte[] memSlotCopy() {
+        slot.copyLSB(slotLsb, 0);
+        slot.copyMSB(slotMsb, 0);
+        slot.copyBlockMetadata(slotMetas, 0);
+        return slotMsb;
+    }
+
+    @Benchmark
+    public ByteBuffer palettedEncode() {
+        palettedOut.clear();
+        PalettedSectionCodec.encode(ids, 0, metas, 0, palettedOut);
+        return palettedOut;
+    }
+
+    @Benchmark
+    public short[] palettedDecode() {
+        paletted.rewind();
+        PalettedSectionCodec.decode(paletted, outIds, 0, outMetas, 0);
+        return outIds;
+    }
+}
@@ -0,0 +1,83 @@
+package com.gtnewhorizons.neid.jmh;
+
+import java.util.Random;
+
+import com.gtnewhorizons.neid.Constants;
+
+/**
+ * Sections with the id and metadata distributions of real worlds, seeded so that every fork benchmarks the same data.
+ * Ids come from a small set of common blocks plus a Zipf distributed tail, as in modded packs where a few blocks make
+ * up most of a section and the rest are scattered ores, decoration and machines.
+ */
+public enum SyntheticSections {
+
+    /** Underground: stone with dirt, gravel and ore veins, all vanilla ids. */
+    UNDERGROUND(0.0, new int[] { 1, 3, 13 }, new double[] { 0.86, 0.05, 0.03 }, 16, 256, 4),
+    /** Around the surface: half air, grass, dirt, water, and modded plants with ids up to 6000. */
+    SURFACE(0.5, new int[] { 2, 3, 9, 1 }, new double[] { 0.08, 0.12, 0.1, 0.12 }, 48, 6000, 16),
+    /** A base: mostly air, with hundreds of distinct modded blocks and metadata spread over the NEID range. */
+    MODDED_BASE(0.6, new int[] { 1, 4 }, new double[] { 0.05, 0.05 }, 400, Constants.MAX_BLOCK_ID, 16);
+
+    private final double air;
+    private final int[] common;
+    private final double[] commonShare;
+    private final int tailSize;
+    private final int maxId;
+    private final int metas;
+
+    SyntheticSections(double air, int[] common, double[] commonShare, int tailSize, int maxId, int metas) {
+        this.air = air;
+        this.common = common;
+        this.commonShare = commonShare;
+        this.tailSize = tailSize;
+        this.maxId = maxId;
+        this.metas = metas;
+    }
+
+    /**
+     * Fills {@code ids} and {@code metas} with one section. The air share of the profile is at the top of the section,
+     * like in one that crosses the surface.
+     */
+    public void generate(long seed, short[] ids, short[] metas) {
+        final Random random = new Random(seed);
+        final int[] tail = new int[tailSize];
+        for (int i = 0; i < tail.length; i++) {
+            tail[i] = 1 + random.nextInt(maxId);
+        }
+        // Cumulative Zipf weights with s = 1
+        final double[] zipf = new double[tailSize];
+        double total = 0;
+        for (int i = 0; i < zipf.length; i++) {
+            total += 1.0 / (i + 1);
+            zipf[i] = total;
+        }
+
+        final int solid = (int) (Constants.BLOCKS_PER_EBS * (1 - air));
+        for (int i = 0; i < Constants.BLOCKS_PER_EBS; i++) {
+            if (i >= solid) {
+                ids[i] = 0;
+                metas[i] = 0;
+                continue;
+            }
+            double roll = random.nextDouble();
+            int id = 0;
+            for (int c = 0; c < common.length && id == 0; c++) {
+                roll -= commonShare[c];
+                if (roll < 0) {
+                    id = common[c];
+                }
+            }
+            if (id == 0) {
+                final double target = random.nextDouble() * total;
+                int t = 0;
+                while (zipf[t] < target) {
+                    t++;
+                }
+                id = tail[t];
+            }
+            ids[i] = (short) id;
+            // Common blocks rarely carry metadata
+            metas[i] = (short) (id == common[0] ? 0 : random.nextInt(this.metas));
+        }
+    }
+}
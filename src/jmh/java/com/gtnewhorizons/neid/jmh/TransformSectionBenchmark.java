@@ -0,0 +1,117 @@
+package com.gtnewhorizons.neid.jmh;
+
+import java.nio.ShortBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntToLongFunction;
+
+import net.minecraft.world.World;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.gtnewhorizon.gtnhlib.util.CoordinatePacker;
+import com.gtnewhorizon.gtnhlib.util.data.BlockMeta;
+import com.gtnewhorizons.neid.Constants;
+import com.gtnewhorizons.neid.mixins.interfaces.ClientBlockTransformer;
+
+/**
+ * Per section cost of a {@link ClientBlockTransformer} that only implements {@code transformBlock}, called through the
+ * packed coordinate bulk hook and through the default section adapter, against the same transform written against the
+ * section arrays. The transform clears metadata 7 on a checkerboard, so it needs positions but no block lookups.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransformSectionBenchmark {
+
+    private static final int CX = 160;
+    private static final int EBS_Y = 64;
+    private static final int CZ = -320;
+
+    private final ClientBlockTransformer perBlock = (world, x, y, z, blockMeta) -> {
+        if (((x ^ z) & 1) == 0 && blockMeta.getBlockMeta() == 7) {
+            blockMeta.setBlockMeta(0);
+            return true;
+        }
+        return false;
+    };
+
+    private final ClientBlockTransformer sectionNative = new ClientBlockTransformer() {
+
+        @Override
+        public boolean transformBlock(World world, int x, int y, int z, BlockMeta blockMeta) {
+            return perBlock.transformBlock(world, x, y, z, blockMeta);
+        }
+
+        @Override
+        public void transformSection(World world, int cx, int ebsY, int cz, short[] ids, int idOffset, short[] metas,
+                int metaOffset) {
+            for (int i = 0; i < Constants.BLOCKS_PER_EBS; i++) {
+                final int x = cx + (i & 15);
+                final int z = cz + (i >> 4 & 15);
+                if (((x ^ z) & 1) == 0 && metas[metaOffset + i] == 7) {
+                    metas[metaOffset + i] = 0;
+                }
+            }
+        }
+    };
+
+    private short[] sourceIds;
+    private short[] sourceMetas;
+    private short[] ids;
+    private short[] metas;
+
+    @Setup
+    public void generate() {
+        final Random random = new Random(42);
+        sourceIds = new short[Constants.BLOCKS_PER_EBS];
+        sourceMetas = new short[Constants.BLOCKS_PER_EBS];
+        for (int i = 0; i < Constants.BLOCKS_PER_EBS; i++) {
+            sourceIds[i] = (short) random.nextInt(4);
+            sourceMetas[i] = (short) random.nextInt(16);
+        }
+        ids = new short[Constants.BLOCKS_PER_EBS];
+        metas = new short[Constants.BLOCKS_PER_EBS];
+    }
+
+    // The transform is not idempotent on the data, so every run starts from a fresh copy (the same cost for all three)
+    private void reset() {
+        System.arraycopy(sourceIds, 0, ids, 0, ids.length);
+        System.arraycopy(sourceMetas, 0, metas, 0, metas.length);
+    }
+
+    @Benchmark
+    public short[] packedCoordinateBulk() {
+        reset();
+        final IntToLongFunction coord = i -> CoordinatePacker
+                .pack(CX + (i & 15), EBS_Y + (i >> 8 & 255), CZ + (i >> 4 & 15));
+        perBlock.transformBulk(null, coord, ShortBuffer.wrap(ids), ShortBuffer.wrap(metas));
+        return metas;
+    }
+
+    @Benchmark
+    public short[] defaultSectionAdapter() {
+        reset();
+        perBlock.transformSection(null, CX, EBS_Y, CZ, ids, 0, metas, 0);
+        return metas;
+    }
+
+    @Benchmark
+    public short[] sectionNative() {
+        reset();
+        sectionNative.transformSection(null, CX, EBS_Y, CZ, ids, 0, metas, 0);
+        return metas;
+    }
+}
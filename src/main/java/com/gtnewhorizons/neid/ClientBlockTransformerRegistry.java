@@ -1,40 +1,313 @@
 package com.gtnewhorizons.neid;
 
 import java.nio.ShortBuffer;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.function.IntToLongFunction;
 
+import javax.annotation.Nullable;
+
+import net.minecraft.block.Block;
+import net.minecraft.init.Blocks;
 import net.minecraft.world.World;
 
+import com.gtnewhorizon.gtnhlib.util.CoordinatePacker;
 import com.gtnewhorizon.gtnhlib.util.data.BlockMeta;
 import com.gtnewhorizons.neid.mixins.interfaces.ClientBlockTransformer;
 
+/**
+ * The registered {@link ClientBlockTransformer}s. Registration happens on the main thread during startup, but sections
+ * are transformed on whatever thread builds the packet, so readers only ever see an immutable snapshot that is
+ * replaced as a whole.
+ */
 public class ClientBlockTransformerRegistry {
 
-    private static final List<ClientBlockTransformer> TRANSFORMERS = new ArrayList<>();
+    private static final ThreadLocal<BlockMeta> POOLED = ThreadLocal.withInitial(() -> new BlockMeta(Blocks.air, 0));
+    // Copy of the ids and metas before a profiled transformer ran, to count what it changed
+    private static final ThreadLocal<short[]> SCRATCH = ThreadLocal
+            .withInitial(() -> new short[Constants.BLOCKS_PER_EBS * 2]);
+
+    private static volatile Snapshot snapshot = new Snapshot(
+            new ClientBlockTransformer[0],
+            new TransformerProfiler.Profile[0]);
+
+    /**
+     * Bumped whenever the set of transformers changes, invalidates every cached section payload.
+     */
+    private static volatile int epoch;
 
-    public static void registerTransformer(ClientBlockTransformer transformer) {
-        TRANSFORMERS.add(transformer);
+    private static class Snapshot {
+
+        final ClientBlockTransformer[] transformers;
+        final TransformerProfiler.Profile[] profiles;
+        // The interest set of each transformer, null for the ones that see every block
+        final BitSet[] interests;
+        // Union of all interest sets, null if any transformer sees every block
+        @Nullable
+        final BitSet combined;
+
+        Snapshot(ClientBlockTransformer[] transformers, TransformerProfiler.Profile[] profiles) {
+            this.transformers = transformers;
+            this.profiles = profiles;
+            this.interests = new BitSet[transformers.length];
+            BitSet union = new BitSet();
+            for (int i = 0; i < transformers.length; i++) {
+                final BitSet ids = transformers[i].getInterestingBlockIds();
+                interests[i] = ids == null ? null : (BitSet) ids.clone();
+                if (ids == null) {
+                    union = null;
+                } else if (union != null) {
+                    union.or(ids);
+                }
+            }
+            this.combined = union;
+        }
+    }
+
+    public static synchronized void registerTransformer(ClientBlockTransformer transformer) {
+        final ClientBlockTransformer[] current = snapshot.transformers;
+        final ClientBlockTransformer[] transformers = Arrays.copyOf(current, current.length + 1);
+        transformers[current.length] = transformer;
+        final TransformerProfiler.Profile[] profiles = Arrays.copyOf(snapshot.profiles, current.length + 1);
+        profiles[current.length] = TransformerProfiler.create(transformer);
+        snapshot = new Snapshot(transformers, profiles);
+        epoch++;
+    }
+
+    /**
+     * Reads the {@link ClientBlockTransformer#getInterestingBlockIds()} of every transformer again, for transformers
+     * whose interests changed after they were registered.
+     */
+    public static synchronized void refreshInterests() {
+        final Snapshot current = snapshot;
+        snapshot = new Snapshot(current.transformers, current.profiles);
+        epoch++;
+    }
+
+    public static int getEpoch() {
+        return epoch;
+    }
+
+    public static boolean hasTransformers() {
+        return snapshot.transformers.length != 0;
     }
 
     public static boolean transformBlock(World world, int x, int y, int z, BlockMeta blockMeta) {
-        int size = TRANSFORMERS.size();
+        final Snapshot current = snapshot;
+        final boolean profiling = TransformerProfiler.isActive();
 
         boolean didSomething = false;
 
-        for (int i = 0; i < size; i++) {
-            didSomething |= TRANSFORMERS.get(i).transformBlock(world, x, y, z, blockMeta);
+        for (int i = 0; i < current.transformers.length; i++) {
+            final BitSet ids = current.interests[i];
+            if (ids != null && !ids.get(Block.getIdFromBlock(blockMeta.getBlock()))) {
+                continue;
+            }
+            if (profiling) {
+                final long start = System.nanoTime();
+                final boolean changed = current.transformers[i].transformBlock(world, x, y, z, blockMeta);
+                current.profiles[i].record(1, changed ? 1 : 0, System.nanoTime() - start);
+                didSomething |= changed;
+            } else {
+                didSomething |= current.transformers[i].transformBlock(world, x, y, z, blockMeta);
+            }
         }
 
         return didSomething;
     }
 
+    /**
+     * {@link #transformBlock} with a per thread {@link BlockMeta}, for callers that transform one block at a time.
+     *
+     * @return The transformed block, only valid until the next call on this thread, or null if nothing changed it.
+     */
+    @Nullable
+    public static BlockMeta transformPooled(World world, int x, int y, int z, Block block, int meta) {
+        if (!hasTransformers()) {
+            return null;
+        }
+        final BlockMeta pooled = POOLED.get();
+        pooled.setBlock(block);
+        pooled.setBlockMeta(meta);
+        return transformBlock(world, x, y, z, pooled) ? pooled : null;
+    }
+
     public static void transformBulk(World world, IntToLongFunction coord, ShortBuffer blocks, ShortBuffer metas) {
-        int size = TRANSFORMERS.size();
+        final Snapshot current = snapshot;
+        if (current.combined != null && !containsAny(blocks, current.combined)) {
+            return;
+        }
+
+        final long start = NEIDMetrics.start();
+        final boolean profiling = TransformerProfiler.isActive();
+        for (int i = 0; i < current.transformers.length; i++) {
+            final BitSet ids = current.interests[i];
+            final TransformerProfiler.Profile profile = profiling ? current.profiles[i] : null;
+            if (ids != null) {
+                transformMatching(current.transformers[i], ids, profile, world, coord, blocks, metas);
+            } else if (profile != null) {
+                final int len = blocks.capacity();
+                final short[] before = scratch(len);
+                for (int j = 0; j < len; j++) {
+                    before[j] = blocks.get(j);
+                    before[len + j] = metas.get(j);
+                }
+                final long start = System.nanoTime();
+                current.transformers[i].transformBulk(world, coord, blocks, metas);
+                final long elapsed = System.nanoTime() - start;
+                int changed = 0;
+                for (int j = 0; j < len; j++) {
+                    if (before[j] != blocks.get(j) || before[len + j] != metas.get(j)) {
+                        changed++;
+                    }
+                }
+                profile.record(len, changed, elapsed);
+            } else {
+                current.transformers[i].transformBulk(world, coord, blocks, metas);
+            }
+        }
+        NEIDMetrics.transformed(start);
+    }
 
-        for (int i = 0; i < size; i++) {
-            TRANSFORMERS.get(i).transformBulk(world, coord, blocks, metas);
+    /**
+     * Transforms one section in place, see {@link ClientBlockTransformer#transformSection}.
+     */
+    public static void transformSection(World world, int cx, int ebsY, int cz, short[] ids, int idOffset,
+            short[] metas, int metaOffset) {
+        final Snapshot current = snapshot;
+        if (current.combined != null && !containsAny(ids, idOffset, current.combined)) {
+            return;
+        }
+
+        final long start = NEIDMetrics.start();
+        final boolean profiling = TransformerProfiler.isActive();
+        for (int i = 0; i < current.transformers.length; i++) {
+            final BitSet interests = current.interests[i];
+            final TransformerProfiler.Profile profile = profiling ? current.profiles[i] : null;
+            if (interests != null) {
+                transformMatching(
+                        current.transformers[i],
+                        interests,
+                        profile,
+                        world,
+                        cx,
+                        ebsY,
+                        cz,
+                        ids,
+                        idOffset,
+                        metas,
+                        metaOffset);
+            } else if (profile != null) {
+                final int len = Constants.BLOCKS_PER_EBS;
+                final short[] before = scratch(len);
+                System.arraycopy(ids, idOffset, before, 0, len);
+                System.arraycopy(metas, metaOffset, before, len, len);
+                final long start = System.nanoTime();
+                current.transformers[i].transformSection(world, cx, ebsY, cz, ids, idOffset, metas, metaOffset);
+                final long elapsed = System.nanoTime() - start;
+                int changed = 0;
+                for (int j = 0; j < len; j++) {
+                    if (before[j] != ids[idOffset + j] || before[len + j] != metas[metaOffset + j]) {
+                        changed++;
+                    }
+                }
+                profile.record(len, changed, elapsed);
+            } else {
+                current.transformers[i].transformSection(world, cx, ebsY, cz, ids, idOffset, metas, metaOffset);
+            }
+        }
+        NEIDMetrics.transformed(start);
+    }
+
+    /**
+     * @return A per thread array of at least {@code 2 * len} shorts.
+     */
+    private static short[] scratch(int len) {
+        short[] scratch = SCRATCH.get();
+        if (scratch.length < len * 2) {
+            scratch = new short[len * 2];
+            SCRATCH.set(scratch);
+        }
+        return scratch;
+    }
+
+    private static boolean containsAny(short[] ids, int idOffset, BitSet interests) {
+        for (int i = 0; i < Constants.BLOCKS_PER_EBS; i++) {
+            if (interests.get(ids[idOffset + i] & 0xFFFF)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void transformMatching(ClientBlockTransformer transformer, BitSet interests,
+            @Nullable TransformerProfiler.Profile profile, World world, int cx, int ebsY, int cz, short[] ids,
+            int idOffset, short[] metas, int metaOffset) {
+        final long start = profile != null ? System.nanoTime() : 0;
+        final BlockMeta pooled = POOLED.get();
+        int scanned = 0;
+        int changed = 0;
+        for (int i = 0; i < Constants.BLOCKS_PER_EBS; i++) {
+            final int id = ids[idOffset + i] & 0xFFFF;
+            if (!interests.get(id)) {
+                continue;
+            }
+            scanned++;
+            pooled.setBlock(Block.getBlockById(id));
+            pooled.setBlockMeta(metas[metaOffset + i] & 0xFFFF);
+
+            if (transformer.transformBlock(world, cx + (i & 15), ebsY + (i >> 8), cz + (i >> 4 & 15), pooled)) {
+                ids[idOffset + i] = (short) Block.getIdFromBlock(pooled.getBlock());
+                metas[metaOffset + i] = (short) pooled.getBlockMeta();
+                changed++;
+            }
+        }
+        if (profile != null) {
+            profile.record(scanned, changed, System.nanoTime() - start);
+        }
+    }
+
+    private static boolean containsAny(ShortBuffer blocks, BitSet ids) {
+        final int len = blocks.capacity();
+        for (int i = 0; i < len; i++) {
+            if (ids.get(blocks.get(i) & 0xFFFF)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void transformMatching(ClientBlockTransformer transformer, BitSet ids,
+            @Nullable TransformerProfiler.Profile profile, World world, IntToLongFunction coord, ShortBuffer blocks,
+            ShortBuffer metas) {
+        final long start = profile != null ? System.nanoTime() : 0;
+        final BlockMeta pooled = POOLED.get();
+        final int len = blocks.capacity();
+        int scanned = 0;
+        int changed = 0;
+        for (int i = 0; i < len; i++) {
+            final int id = blocks.get(i) & 0xFFFF;
+            if (!ids.get(id)) {
+                continue;
+            }
+            scanned++;
+            pooled.setBlock(Block.getBlockById(id));
+            pooled.setBlockMeta(metas.get(i) & 0xFFFF);
+
+            final long c = coord.applyAsLong(i);
+            if (transformer.transformBlock(
+                    world,
+                    CoordinatePacker.unpackX(c),
+                    CoordinatePacker.unpackY(c),
+                    CoordinatePacker.unpackZ(c),
+                    pooled)) {
+                blocks.put(i, (short) Block.getIdFromBlock(pooled.getBlock()));
+                metas.put(i, (short) pooled.getBlockMeta());
+                changed++;
+            }
+        }
+        if (profile != null) {
+            profile.record(scanned, changed, System.nanoTime() - start);
         }
     }
 }
@@ -0,0 +1,164 @@
+package com.gtnewhorizons.neid;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import net.minecraft.command.CommandBase;
+import net.minecraft.command.CommandException;
+import net.minecraft.command.ICommandSender;
+import net.minecraft.command.WrongUsageException;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.util.ChatComponentText;
+
+import com.gtnewhorizons.neid.network.BlockChangeStats;
+import com.gtnewhorizons.neid.network.ChunkCompression;
+import com.gtnewhorizons.neid.network.MultiBlockChangeRecorder;
+import com.gtnewhorizons.neid.network.SectionCacheMirror;
+import com.gtnewhorizons.neid.network.SectionPayloadCache;
+
+/**
+ * {@code /neid <subcommand>}: server side diagnostics.
+ */
+public class CommandNEID extends CommandBase {
+
+    @Override
+    public String getCommandName() {
+        return "neid";
+    }
+
+    @Override
+    public String getCommandUsage(ICommandSender sender) {
+        return "/neid <stats|record start|record stop|transformers [on|off|reset]|trace [dump]|memory [json]>";
+    }
+
+    @Override
+    public void processCommand(ICommandSender sender, String[] args) {
+        if (args.length == 0) {
+            throw new WrongUsageException(getCommandUsage(sender));
+        }
+
+        switch (args[0]) {
+            case "stats":
+                sender.addChatMessage(new ChatComponentText(SectionPayloadCache.getStats()));
+                sender.addChatMessage(new ChatComponentText(ChunkCompression.getStats()));
+                sender.addChatMessage(new ChatComponentText(SectionCacheMirror.getStats()));
+                sender.addChatMessage(new ChatComponentText(BlockChangeStats.getStats()));
+                break;
+            case "record":
+                processRecord(sender, args);
+                break;
+            case "transformers":
+                processTransformers(sender, args);
+                break;
+            case "trace":
+                processTrace(sender, args);
+                break;
+            case "memory":
+                processMemory(sender, args);
+                break;
+            default:
+                throw new WrongUsageException(getCommandUsage(sender));
+        }
+    }
+
+    private void processRecord(ICommandSender sender, String[] args) {
+        if (args.length < 2) {
+            throw new WrongUsageException(getCommandUsage(sender));
+        }
+        switch (args[1]) {
+            case "start":
+                final File file = MinecraftServer.getServer().getFile(MultiBlockChangeRecorder.FILE_NAME);
+                try {
+                    MultiBlockChangeRecorder.start(file);
+                } catch (IOException e) {
+                    throw new CommandException("Could not open " + file + ": " + e.getMessage());
+                }
+                sender.addChatMessage(new ChatComponentText("Recording S22 packets to " + file));
+                break;
+            case "stop":
+                final long packets = MultiBlockChangeRecorder.stop();
+                sender.addChatMessage(new ChatComponentText("Recorded " + packets + " S22 packets"));
+                break;
+            default:
+                throw new WrongUsageException(getCommandUsage(sender));
+        }
+    }
+
+    private void processTransformers(ICommandSender sender, String[] args) {
+        if (args.length >= 2) {
+            switch (args[1]) {
+                case "on":
+                    TransformerProfiler.setEnabled(true);
+                    break;
+                case "off":
+                    TransformerProfiler.setEnabled(false);
+                    break;
+                case "reset":
+                    TransformerProfiler.reset();
+                    break;
+                default:
+                    throw new WrongUsageException(getCommandUsage(sender));
+            }
+        }
+        final List<String> report = TransformerProfiler.getReport();
+        sender.addChatMessage(
+                new ChatComponentText(
+                        "Transformer profiling " + (TransformerProfiler.isEnabled() ? "on" : "off") + ", "
+                                + report.size() + " transformers"));
+        for (String line : report) {
+            sender.addChatMessage(new ChatComponentText(line));
+        }
+    }
+
+    private void processTrace(ICommandSender sender, String[] args) {
+        sender.addChatMessage(new ChatComponentText(NEIDTrace.getStatus()));
+        if (args.length < 2) {
+            return;
+        }
+        if (!"dump".equals(args[1])) {
+            throw new WrongUsageException(getCommandUsage(sender));
+        }
+        final File file = MinecraftServer.getServer().getFile(NEIDTrace.FILE_NAME);
+        try {
+            NEIDTrace.dump(file);
+        } catch (IOException e) {
+            throw new CommandException("Could not write " + file + ": " + e.getMessage());
+        }
+        sender.addChatMessage(new ChatComponentText("Wrote the trace buffer to " + file));
+    }
+
+    private void processMemory(ICommandSender sender, String[] args) {
+        File json = null;
+        if (args.length >= 2) {
+            if (!"json".equals(args[1])) {
+                throw new WrongUsageException(getCommandUsage(sender));
+            }
+            json = MinecraftServer.getServer().getFile(MemoryReport.FILE_NAME);
+        }
+        if (!MemoryReport.start(sender, json)) {
+            throw new CommandException("A memory report is already running");
+        }
+        sender.addChatMessage(new ChatComponentText("Walking the loaded chunks in the background..."));
+    }
+
+    @Override
+    public List<String> addTabCompletionOptions(ICommandSender sender, String[] args) {
+        if (args.length == 1) {
+            return getListOfStringsMatchingLastWord(args, "stats", "record", "transformers", "trace", "memory");
+        }
+        if (args.length == 2 && "record".equals(args[0])) {
+            return getListOfStringsMatchingLastWord(args, "start", "stop");
+        }
+        if (args.length == 2 && "transformers".equals(args[0])) {
+            return getListOfStringsMatchingLastWord(args, "on", "off", "reset");
+        }
+        if (args.length == 2 && "trace".equals(args[0])) {
+            return getListOfStringsMatchingLastWord(args, "dump");
+        }
+        if (args.length == 2 && "memory".equals(args[0])) {
+            return getListOfStringsMatchingLastWord(args, "json");
+        }
+        return null;
+    }
+}
@@ -0,0 +1,333 @@
+package com.gtnewhorizons.neid;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.Nullable;
+
+import net.minecraft.command.ICommandSender;
+import net.minecraft.util.ChatComponentText;
+import net.minecraft.world.WorldServer;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+import net.minecraftforge.common.DimensionManager;
+
+import com.google.gson.GsonBuilder;
+import com.gtnewhorizons.neid.mixins.interfaces.IExtendedBlockStorageMixin;
+
+import cpw.mods.fml.common.FMLCommonHandler;
+import cpw.mods.fml.common.eventhandler.SubscribeEvent;
+import cpw.mods.fml.common.gameevent.TickEvent;
+
+/**
+ * {@code /neid memory}: what the NEID section arrays of the loaded chunks cost and what other layouts would save.
+ *
+ * The server thread only collects references to the arrays of every loaded section. A background thread then copies
+ * each section before looking at it, so a section that changes during the walk is seen either before or after the
+ * change of each array, and the numbers can be off by the few blocks that changed. The report is handed back to the
+ * server thread to be sent to whoever asked for it.
+ */
+public class MemoryReport {
+
+    public static final String FILE_NAME = "neid_memory.json";
+
+    private static final int ARRAY_BYTES = Constants.BLOCKS_PER_EBS * 2;
+    // The blocks and metadata of a NEIDMemSlot, which duplicate the EBS arrays
+    private static final int SLOT_DUPLICATE_BYTES = Constants.BLOCKS_PER_EBS * 2 * 2;
+
+    private static final AtomicBoolean running = new AtomicBoolean();
+
+    private static class SectionRef {
+
+        final short[] ids;
+        final short[] metas;
+        @Nullable
+        final NEIDMemSlot slot;
+
+        SectionRef(short[] ids, short[] metas, @Nullable NEIDMemSlot slot) {
+            this.ids = ids;
+            this.metas = metas;
+            this.slot = slot;
+        }
+    }
+
+    private static class DimensionRefs {
+
+        final int dimension;
+        final String name;
+        final int chunks;
+        final List<SectionRef> sections;
+
+        DimensionRefs(int dimension, String name, int chunks, List<SectionRef> sections) {
+            this.dimension = dimension;
+            this.name = name;
+            this.chunks = chunks;
+            this.sections = sections;
+        }
+    }
+
+    /**
+     * One dimension, or the sum of all of them. Serialized as is into the JSON report.
+     */
+    static class Stats {
+
+        Integer dimension;
+        String name;
+        long chunks;
+        long sections;
+        // block16BArray and block16BMetaArray
+        long neidArrayBytes;
+        long memSlots;
+        long memSlotDuplicateBytes;
+        // MemSlots whose blocks or metadata differ from the EBS arrays
+        long memSlotsDiverged;
+        long airSections;
+        // All blocks the same, not air
+        long uniformSections;
+        long zeroMetaSections;
+        // Estimated size of the same sections as a palette and packed indices
+        long palettedBytes;
+        long duplicateSections;
+        long dedupedBytes;
+
+        long palettedSavings() {
+            return neidArrayBytes - palettedBytes;
+        }
+
+        long dedupSavings() {
+            return neidArrayBytes - dedupedBytes;
+        }
+
+        void add(Stats other) {
+            chunks += other.chunks;
+            sections += other.sections;
+            neidArrayBytes += other.neidArrayBytes;
+            memSlots += other.memSlots;
+            memSlotDuplicateBytes += other.memSlotDuplicateBytes;
+            memSlotsDiverged += other.memSlotsDiverged;
+            airSections += other.airSections;
+            uniformSections += other.uniformSections;
+            zeroMetaSections += other.zeroMetaSections;
+            palettedBytes += other.palettedBytes;
+        }
+
+        String format() {
+            return String.format(
+                    "%s: %d sections in %d chunks, %.1f MiB NEID arrays, %.1f MiB duplicated in %d MemSlots"
+                            + " (%d diverged), %d air, %d uniform, %d zero meta, paletted would save %.1f MiB,"
+                            + " deduplicated %.1f MiB (%d duplicates)",
+                    dimension == null ? "Total" : "DIM" + dimension + " (" + name + ")",
+                    sections,
+                    chunks,
+                    mib(neidArrayBytes),
+                    mib(memSlotDuplicateBytes),
+                    memSlots,
+                    memSlotsDiverged,
+                    airSections,
+                    uniformSections,
+                    zeroMetaSections,
+                    mib(palettedSavings()),
+                    mib(dedupSavings()),
+                    duplicateSections);
+        }
+
+        private static double mib(long bytes) {
+            return bytes / (1024.0 * 1024.0);
+        }
+    }
+
+    static class Report {
+
+        final long timestamp = System.currentTimeMillis();
+        final List<Stats> dimensions = new ArrayList<>();
+        final Stats total = new Stats();
+    }
+
+    private final ICommandSender sender;
+    private final List<DimensionRefs> refs;
+    @Nullable
+    private final File jsonFile;
+    private final ConcurrentLinkedQueue<String> messages = new ConcurrentLinkedQueue<>();
+    private volatile boolean done;
+
+    private MemoryReport(ICommandSender sender, List<DimensionRefs> refs, @Nullable File jsonFile) {
+        this.sender = sender;
+        this.refs = refs;
+        this.jsonFile = jsonFile;
+    }
+
+    /**
+     * Collects the loaded sections and starts the report, called on the server thread.
+     *
+     * @param jsonFile Where to also write the report as JSON, or null
+     * @return False if a report is already being computed.
+     */
+    public static boolean start(ICommandSender sender, @Nullable File jsonFile) {
+        if (!running.compareAndSet(false, true)) {
+            return false;
+        }
+        final List<DimensionRefs> refs = new ArrayList<>();
+        for (WorldServer world : DimensionManager.getWorlds()) {
+            final List<SectionRef> sections = new ArrayList<>();
+            int chunks = 0;
+            for (Object o : world.theChunkProviderServer.func_152380_a()) {
+                chunks++;
+                for (ExtendedBlockStorage ebs : ((Chunk) o).getBlockStorageArray()) {
+                    if (ebs == null) {
+                        continue;
+                    }
+                    final IExtendedBlockStorageMixin ebsMixin = (IExtendedBlockStorageMixin) ebs;
+                    final Object slot = ebsMixin.neid$getUltramineSlot();
+                    sections.add(
+                            new SectionRef(
+                                    ebsMixin.getBlock16BArray(),
+                                    ebsMixin.getBlock16BMetaArray(),
+                                    slot instanceof NEIDMemSlot ? (NEIDMemSlot) slot : null));
+                }
+            }
+            refs.add(
+                    new DimensionRefs(world.provider.dimensionId, world.provider.getDimensionName(), chunks, sections));
+        }
+
+        final MemoryReport report = new MemoryReport(sender, refs, jsonFile);
+        FMLCommonHandler.instance().bus().register(report);
+        final Thread thread = new Thread(report::run, "NEID Memory Report");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+        return true;
+    }
+
+    private void run() {
+        try {
+            final Report report = analyze();
+            for (Stats stats : report.dimensions) {
+                messages.add(stats.format());
+            }
+            messages.add(report.total.format());
+            if (jsonFile != null) {
+                try (Writer out = Files.newBufferedWriter(jsonFile.toPath(), StandardCharsets.UTF_8)) {
+                    new GsonBuilder().setPrettyPrinting().create().toJson(report, out);
+                }
+                messages.add("Wrote the memory report to " + jsonFile);
+            }
+        } catch (IOException e) {
+            messages.add("Could not write " + jsonFile + ": " + e.getMessage());
+        } catch (RuntimeException e) {
+            NEID.LOG.error("NEID memory report failed", e);
+            messages.add("The memory report failed: " + e);
+        } finally {
+            done = true;
+            running.set(false);
+        }
+    }
+
+    @SubscribeEvent
+    public void onServerTick(TickEvent.ServerTickEvent event) {
+        if (event.phase != TickEvent.Phase.END) {
+            return;
+        }
+        // Read before draining, so that nothing added before the report finished is left behind
+        final boolean finished = done;
+        String message;
+        while ((message = messages.poll()) != null) {
+            sender.addChatMessage(new ChatComponentText(message));
+        }
+        if (finished) {
+            FMLCommonHandler.instance().bus().unregister(this);
+        }
+    }
+
+    private Report analyze() {
+        final Report report = new Report();
+        final short[] ids = new short[Constants.BLOCKS_PER_EBS];
+        final short[] metas = new short[Constants.BLOCKS_PER_EBS];
+        final int[] values = new int[Constants.BLOCKS_PER_EBS];
+        // Content hash to number of sections with that content, across all dimensions
+        final Map<Long, Integer> allContents = new HashMap<>();
+
+        for (DimensionRefs dimension : refs) {
+            final Stats stats = new Stats();
+            stats.dimension = dimension.dimension;
+            stats.name = dimension.name;
+            stats.chunks = dimension.chunks;
+            final Set<Long> contents = new HashSet<>();
+
+            for (SectionRef section : dimension.sections) {
+                System.arraycopy(section.ids, 0, ids, 0, ids.length);
+                System.arraycopy(section.metas, 0, metas, 0, metas.length);
+                stats.sections++;
+                stats.neidArrayBytes += (section.ids.length + section.metas.length) * 2L;
+
+                boolean zeroMeta = true;
+                long hash = 0xCBF29CE484222325L;
+                for (int i = 0; i < values.length; i++) {
+                    zeroMeta &= metas[i] == 0;
+                    values[i] = (ids[i] & 0xFFFF) << 16 | metas[i] & 0xFFFF;
+                    hash = (hash ^ values[i]) * 0x100000001B3L;
+                }
+                if (zeroMeta) {
+                    stats.zeroMetaSections++;
+                }
+
+                Arrays.sort(values);
+                int distinct = 1;
+                for (int i = 1; i < values.length; i++) {
+                    if (values[i] != values[i - 1]) {
+                        distinct++;
+                    }
+                }
+                if (distinct == 1) {
+                    if (values[0] == 0) {
+                        stats.airSections++;
+                    } else {
+                        stats.uniformSections++;
+                    }
+                }
+                stats.palettedBytes += palettedBytes(distinct);
+
+                if (contents.add(hash)) {
+                    stats.dedupedBytes += ARRAY_BYTES * 2;
+                } else {
+                    stats.duplicateSections++;
+                }
+                allContents.merge(hash, 1, Integer::sum);
+
+                if (section.slot != null) {
+                    stats.memSlots++;
+                    stats.memSlotDuplicateBytes += SLOT_DUPLICATE_BYTES;
+                    if (!Arrays.equals(section.slot.getBlocksArray(), ids)
+                            || !Arrays.equals(section.slot.getMetadataArray(), metas)) {
+                        stats.memSlotsDiverged++;
+                    }
+                }
+            }
+            report.dimensions.add(stats);
+            report.total.add(stats);
+        }
+        report.total.dedupedBytes = (long) allContents.size() * ARRAY_BYTES * 2;
+        report.total.duplicateSections = report.total.sections - allContents.size();
+        return report;
+    }
+
+    /**
+     * @return The size of a section stored as a palette of {@code distinct} id and metadata pairs, 4 bytes each, and
+     *         one index per block packed into as few bits as the palette needs.
+     */
+    static long palettedBytes(int distinct) {
+        final int bits = distinct <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(distinct - 1);
+        return distinct * 4L + (long) Constants.BLOCKS_PER_EBS * bits / 8;
+    }
+}
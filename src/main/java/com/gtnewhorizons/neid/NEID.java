@@ -1,10 +1,26 @@
 package com.gtnewhorizons.neid;
 
+import net.minecraft.server.MinecraftServer;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
 import com.gtnewhorizon.gtnhlib.config.ConfigException;
 import com.gtnewhorizon.gtnhlib.config.ConfigurationManager;
+import com.gtnewhorizons.neid.network.BlockChangeStats;
+import com.gtnewhorizons.neid.network.ChunkDictionary;
+import com.gtnewhorizons.neid.network.ChunkEncodeExecutor;
+import com.gtnewhorizons.neid.network.ClientSectionCache;
+import com.gtnewhorizons.neid.network.MultiBlockChangeRecorder;
+import com.gtnewhorizons.neid.network.NEIDNetwork;
+import com.gtnewhorizons.neid.network.SectionPayloadCache;
+import com.gtnewhorizons.neid.upgrade.LegacyChunkUpgrader;
 
 import cpw.mods.fml.common.Mod;
 import cpw.mods.fml.common.event.FMLPreInitializationEvent;
+import cpw.mods.fml.common.event.FMLServerStartedEvent;
+import cpw.mods.fml.common.event.FMLServerStartingEvent;
+import cpw.mods.fml.common.event.FMLServerStoppingEvent;
 
 @Mod(
         modid = "neid",
@@ -13,6 +29,8 @@ import cpw.mods.fml.common.event.FMLPreInitializationEvent;
         dependencies = "after:battlegear2@[1.3.0,);" + " required-after:gtnhlib@[0.6.18,);")
 public class NEID {
 
+    public static final Logger LOG = LogManager.getLogger("NotEnoughIDs");
+
     // Force early loading of NEIDChunkAllocService to register with Ultramine
     static {
         // Just reference the class to trigger its static initializer
@@ -27,9 +45,43 @@ public class NEID {
             throw new RuntimeException("Failed to register NotEnoughIDs config!");
         }
 
+        NEIDNetwork.init();
+        ChunkDictionary.load(event.getModConfigurationDirectory());
+        TransformerProfiler.init();
+        NEIDEvents.init();
+        NEIDMetrics.init();
+        if (event.getSide().isClient()) {
+            ClientSectionCache.init(event.getModConfigurationDirectory().getParentFile());
+        }
+
         // NEIDChunkAllocService is registered automatically via static initializer
         // Chunk save/load handled by MixinAnvilChunkLoader (vanilla Forge)
         // or by direct slot access in MixinExtendedBlockStorage (Ultramine)
     }
 
+    @Mod.EventHandler
+    public void serverStarting(FMLServerStartingEvent event) {
+        event.registerServerCommand(new CommandNEID());
+    }
+
+    @Mod.EventHandler
+    public void serverStarted(FMLServerStartedEvent event) {
+        BlockChangeStats.reset();
+        if (NEIDConfig.SectionDeltaUpdates && NEIDNetwork.isUltramine()) {
+            // MixinPlayerInstance is not applied there, see Mixins
+            LOG.info("SectionDeltaUpdates has no effect on Ultramine, block changes are sent as vanilla packets");
+        }
+        if (NEIDConfig.UpgradeLegacyChunks) {
+            LegacyChunkUpgrader.start(MinecraftServer.getServer());
+        }
+    }
+
+    @Mod.EventHandler
+    public void serverStopping(FMLServerStoppingEvent event) {
+        LegacyChunkUpgrader.stop();
+        SectionPayloadCache.clear();
+        ChunkEncodeExecutor.shutdown();
+        MultiBlockChangeRecorder.stop();
+    }
+
 }
@@ -2,6 +2,8 @@ package com.gtnewhorizons.neid;
 
 import javax.annotation.Nonnull;
 
+import com.gtnewhorizons.neid.NEIDTrace.Category;
+
 /**
  * NEID implementation of ChunkAllocService that allocates NEIDMemSlot instead of Ultramine's Unsafe7MemSlot. This
  * service is registered at runtime to replace Ultramine's default allocator.
@@ -31,8 +33,7 @@ public class NEIDChunkAllocService {
             // Not running on Ultramine - this is fine
             // System.out.println("[NEID] Running on standard Forge (Ultramine not detected)");
         } catch (Exception e) {
-            System.err.println("[NEID] Failed to register Ultramine service: " + e.getMessage());
-            e.printStackTrace();
+            NEIDTrace.error(Category.STARTUP, "Failed to register Ultramine service", e);
         }
     }
 
@@ -42,7 +43,7 @@ public class NEIDChunkAllocService {
      */
     @Nonnull
     public Object allocateSlot() {
-        return new NEIDMemSlot();
+        return new NEIDMemSlot(true);
     }
 
     /**
@@ -21,4 +21,80 @@ public class NEIDConfig {
     @Config.Comment("Extend DataWatch IDs. Vanilla limit is 31, new limit is 127.")
     public static boolean ExtendDataWatcher = false;
 
+    @Config.Comment("Re-save chunks that are still stored in the pre-NEID Blocks/Add/Data format. Loaded chunks are re-saved on their next save, idle region files are upgraded in the background.")
+    public static boolean UpgradeLegacyChunks = false;
+
+    @Config.Comment("Maximum amount of chunk data (uncompressed bytes) the background upgrader reads per second.")
+    @Config.RangeInt(min = 65536)
+    public static int LegacyUpgradeBytesPerSecond = 8 * 1024 * 1024;
+
+    @Config.Comment("Maximum number of legacy chunks queued for rewriting per server tick.")
+    @Config.RangeInt(min = 1, max = 256)
+    public static int LegacyUpgradeChunksPerTick = 4;
+
+    @Config.Comment("The background upgrader pauses while the average server tick takes longer than this (in milliseconds).")
+    @Config.RangeInt(min = 1, max = 1000)
+    public static int LegacyUpgradeMaxTickMillis = 40;
+
+    @Config.Comment("Send chunk block data as per-section palettes to clients that support it. Clients that do not get the raw 16-bit format.")
+    public static boolean PalettedChunkPackets = true;
+
+    @Config.Comment("Memory budget (in megabytes) of the server side cache of chunk sections prepared for sending, shared by all players. 0 disables the cache.")
+    @Config.RangeInt(min = 0, max = 4096)
+    public static int SectionCacheMegabytes = 64;
+
+    @Config.Comment("Threads that encode and compress chunk packets in the background. 0 compresses them on the network thread that sends them.")
+    @Config.RangeInt(min = 0, max = 32)
+    public static int ChunkEncodeThreads = 2;
+
+    @Config.Comment("Lowest deflate level of chunk packets sent to NEID clients, used for players with a low ping and while the server is busy. 0 sends chunk data uncompressed.")
+    @Config.RangeInt(min = 0, max = 9)
+    public static int ChunkCompressionMinLevel = 1;
+
+    @Config.Comment("Highest deflate level of chunk packets sent to NEID clients, used for players with a high ping or a congested connection. Set both levels to the same value to always use one level.")
+    @Config.RangeInt(min = 0, max = 9)
+    public static int ChunkCompressionMaxLevel = 9;
+
+    @Config.Comment("Players with a ping (in milliseconds) up to this get chunk packets at the lowest compression level.")
+    @Config.RangeInt(min = 0, max = 10000)
+    public static int ChunkCompressionLowPingMillis = 10;
+
+    @Config.Comment("Players with a ping (in milliseconds) of at least this get chunk packets at the highest compression level, pings in between scale the level.")
+    @Config.RangeInt(min = 1, max = 10000)
+    public static int ChunkCompressionHighPingMillis = 200;
+
+    @Config.Comment("Chunk packets get the lowest compression level while the average server tick takes longer than this (in milliseconds).")
+    @Config.RangeInt(min = 1, max = 1000)
+    public static int ChunkCompressionBusyTickMillis = 40;
+
+    @Config.Comment("Prime chunk packet compression with config/neid_chunk_dictionary.bin if it exists. It is only used with clients that have the same file, see ChunkDictionaryTool for how to train one.")
+    public static boolean ChunkPacketDictionary = true;
+
+    @Config.Comment("Send changes to many blocks of a chunk in one tick as compact per-section deltas to NEID clients, instead of resending whole sections. Sections are still resent when that is smaller. Has no effect on Ultramine, which replaces the vanilla PlayerManager that the deltas are built in.")
+    public static boolean SectionDeltaUpdates = true;
+
+    @Config.Comment("Client side: number of received chunk sections kept in memory, so that the server can send a reference instead of a section seen before in the session. 0 disables the cache.")
+    @Config.RangeInt(min = 0, max = 262144)
+    public static int ClientSectionCacheEntries = 4096;
+
+    @Config.Comment("Client side: number of additional sections spilled to disk once the in-memory section cache is full. 0 keeps the cache in memory only.")
+    @Config.RangeInt(min = 0, max = 1048576)
+    public static int ClientSectionCacheDiskEntries = 0;
+
+    @Config.Comment("Client side: unpack received chunk sections and count their blocks on the network thread, so that the client thread only swaps the finished arrays into the chunk.")
+    public static boolean DecodeChunksOnNetworkThread = true;
+
+    @Config.Comment("Client side, for debugging: recount the blocks of every received section even when the server sent its ref counts, and log the sections where they differ.")
+    public static boolean VerifySectionRefCounts = false;
+
+    @Config.Comment("Server side: the most sections tracked per player for the client section cache. 0 never sends cached section references.")
+    @Config.RangeInt(min = 0, max = 1048576)
+    public static int SectionCacheMirrorEntries = 16384;
+
+    @Config.Comment("Count calls, scanned and changed blocks and time spent per registered client block transformer from startup. Can also be toggled at runtime with /neid transformers or over JMX.")
+    public static boolean ProfileClientBlockTransformers = false;
+
+    @Config.Comment("Keep counters and latency histograms of chunk storage, saving and loading, chunk packets and client block transformers, exposed over JMX under com.gtnewhorizons.neid:type=Metrics. Turning this off disables the metrics entirely.")
+    public static boolean Metrics = true;
+
 }
@@ -0,0 +1,194 @@
+package com.gtnewhorizons.neid;
+
+import javax.annotation.Nullable;
+
+/**
+ * Java Flight Recorder events for the chunk load, save, sync and packet paths. The event classes only exist in
+ * NEIDJfrEvents, which is compiled for Java 11 in the {@code jfr} source set and loaded by name, so this class builds
+ * and runs on Java 8 and callers only deal with it.
+ *
+ * A hook brackets the work with a {@code begin} and an {@code end} call:
+ *
+ * <pre>
+ * final Object event = NEIDEvents.beginSectionDecode();
+ * ...
+ * NEIDEvents.endSectionDecode(event, "Blocks16", bytes);
+ * </pre>
+ *
+ * While no recording is running, {@code begin} is one volatile read and returns null, which {@code end} ignores.
+ */
+public final class NEIDEvents {
+
+    public static final String SYNC_TO_NEID = "MemSlot to NEID";
+    public static final String SYNC_TO_MEMSLOT = "NEID to MemSlot";
+
+    private static final boolean AVAILABLE = isJfrPresent();
+    private static final String RECORDER_CLASS = "com.gtnewhorizons.neid.NEIDJfrEvents";
+
+    // Set before the recorder is installed, and only read once recording is true
+    private static Recorder recorder;
+
+    // Set by the recorder while at least one recording is running
+    static volatile boolean recording;
+
+    private NEIDEvents() {}
+
+    /**
+     * The flight recorder implementation of the hooks below, see {@link NEIDEvents} for what they bracket.
+     */
+    interface Recorder {
+
+        void install();
+
+        @Nullable
+        Object beginSectionDecode();
+
+        void endSectionDecode(Object event, String tags, int bytes);
+
+        @Nullable
+        Object beginSectionEncode();
+
+        void endSectionEncode(Object event, String tags, int bytes);
+
+        @Nullable
+        Object beginMemSlotSync();
+
+        void endMemSlotSync(Object event, String direction, int blocks);
+
+        @Nullable
+        Object beginChunkPacketBuild();
+
+        void endChunkPacketBuild(Object event, int sections, int rawBytes);
+
+        @Nullable
+        Object beginChunkPacketCompress();
+
+        void endChunkPacketCompress(Object event, String encoding, int level, int rawBytes, int compressedBytes);
+
+        void transformerRun(String transformer, int scanned, int changed, long elapsedNanos);
+    }
+
+    /**
+     * Starts following the recordings of the flight recorder, if this JVM has one.
+     */
+    public static void init() {
+        if (!AVAILABLE) {
+            return;
+        }
+        try {
+            recorder = (Recorder) Class.forName(RECORDER_CLASS).getDeclaredConstructor().newInstance();
+            recorder.install();
+        } catch (UnsupportedClassVersionError e) {
+            // Java 8 builds with the flight recorder backport, the events are compiled for Java 11
+            NEID.LOG.info("The NEID flight recorder events need Java 11 or newer");
+        } catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+            NEID.LOG.warn("Could not set up the NEID flight recorder events", e);
+        }
+    }
+
+    public static boolean isRecording() {
+        return recording;
+    }
+
+    /**
+     * Brackets reading one block or metadata array of a section from NBT.
+     */
+    @Nullable
+    public static Object beginSectionDecode() {
+        return recording ? recorder.beginSectionDecode() : null;
+    }
+
+    /**
+     * @param tags  The NBT tags the section was read from
+     * @param bytes Their size
+     */
+    public static void endSectionDecode(@Nullable Object event, String tags, int bytes) {
+        if (event != null) {
+            recorder.endSectionDecode(event, tags, bytes);
+        }
+    }
+
+    /**
+     * Brackets writing the block or metadata tags of a section to NBT.
+     */
+    @Nullable
+    public static Object beginSectionEncode() {
+        return recording ? recorder.beginSectionEncode() : null;
+    }
+
+    /**
+     * @param tags  The NBT tags written, the NEID ones along with the compatibility ones
+     * @param bytes Their size
+     */
+    public static void endSectionEncode(@Nullable Object event, String tags, int bytes) {
+        if (event != null) {
+            recorder.endSectionEncode(event, tags, bytes);
+        }
+    }
+
+    /**
+     * Brackets copying a section between the NEID arrays and Ultramine's MemSlot.
+     */
+    @Nullable
+    public static Object beginMemSlotSync() {
+        return recording ? recorder.beginMemSlotSync() : null;
+    }
+
+    /**
+     * @param direction {@link #SYNC_TO_NEID} or {@link #SYNC_TO_MEMSLOT}
+     * @param blocks    The blocks copied
+     */
+    public static void endMemSlotSync(@Nullable Object event, String direction, int blocks) {
+        if (event != null) {
+            recorder.endMemSlotSync(event, direction, blocks);
+        }
+    }
+
+    /**
+     * Brackets building the RAW16 payload of one chunk.
+     */
+    @Nullable
+    public static Object beginChunkPacketBuild() {
+        return recording ? recorder.beginChunkPacketBuild() : null;
+    }
+
+    public static void endChunkPacketBuild(@Nullable Object event, int sections, int rawBytes) {
+        if (event != null) {
+            recorder.endChunkPacketBuild(event, sections, rawBytes);
+        }
+    }
+
+    /**
+     * Brackets encoding and deflating a RAW16 chunk payload for the wire.
+     */
+    @Nullable
+    public static Object beginChunkPacketCompress() {
+        return recording ? recorder.beginChunkPacketCompress() : null;
+    }
+
+    public static void endChunkPacketCompress(@Nullable Object event, String encoding, int level, int rawBytes,
+            int compressedBytes) {
+        if (event != null) {
+            recorder.endChunkPacketCompress(event, encoding, level, rawBytes, compressedBytes);
+        }
+    }
+
+    /**
+     * Records a {@link com.gtnewhorizons.neid.mixins.interfaces.ClientBlockTransformer} run that has already been
+     * timed by {@link TransformerProfiler}.
+     */
+    public static void transformerRun(String transformer, int scanned, int changed, long elapsedNanos) {
+        if (recording) {
+            recorder.transformerRun(transformer, scanned, changed, elapsedNanos);
+        }
+    }
+
+    private static boolean isJfrPresent() {
+        try {
+            Class.forName("jdk.jfr.FlightRecorder", false, NEIDEvents.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+}
@@ -40,11 +40,26 @@ public class NEIDMemSlot {
 
     private static final int BLOCKS_PER_EBS = Constants.BLOCKS_PER_EBS; // 4096
 
+    /**
+     * Size of the arrays of one slot.
+     */
+    public static final int BYTES = BLOCKS_PER_EBS * 2 * 2 + 2048 * 2;
+
+    private boolean released;
+    // True for the slot of an ExtendedBlockStorage, false for copies
+    private final boolean section;
+
     public NEIDMemSlot() {
+        this(false);
+    }
+
+    NEIDMemSlot(boolean section) {
+        this.section = section;
         this.blocks = new short[BLOCKS_PER_EBS];
         this.metadata = new short[BLOCKS_PER_EBS];
         this.blockLight = new byte[2048];
         this.skyLight = new byte[2048];
+        NEIDMetrics.slotAllocated();
     }
 
     // Direct access to NEID arrays
@@ -309,5 +324,12 @@ public class NEIDMemSlot {
     public void release() {
         // NEID uses on-heap storage, so no off-heap memory to release
         // Arrays will be garbage collected automatically
+        if (!released) {
+            released = true;
+            NEIDMetrics.slotReleased();
+            if (section) {
+                NEIDMetrics.sectionReleased();
+            }
+        }
     }
 }
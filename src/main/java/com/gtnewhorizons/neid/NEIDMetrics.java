@@ -0,0 +1,469 @@
+package com.gtnewhorizons.neid;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.gtnewhorizons.neid.network.ChunkEncoding;
+
+/**
+ * Counters and histograms of NEID's hot paths, exposed as MBeans under {@code com.gtnewhorizons.neid:type=Metrics*}.
+ * Chunk IO, Netty and encoder threads all record into them, so everything is built from {@link LongAdder}s, which
+ * stripe updates across cells instead of contending on one value. With {@link NEIDConfig#Metrics} off nothing is
+ * registered and every hook returns after reading one field.
+ */
+public class NEIDMetrics {
+
+    // Set once during preInit, before the threads that record start
+    private static boolean enabled;
+
+    private static final LongAdder sectionArraysAllocated = new LongAdder();
+    // Sections are only released with their Ultramine slot, without Ultramine only replaced arrays are released
+    private static final LongAdder sectionArraysReleased = new LongAdder();
+
+    private static final LongAdder slotsAllocated = new LongAdder();
+    private static final LongAdder slotsReleased = new LongAdder();
+    private static final LongAdder syncsToNeid = new LongAdder();
+    private static final LongAdder syncsToMemSlot = new LongAdder();
+    private static final LongAdder blocksSyncedToNeid = new LongAdder();
+    private static final LongAdder blocksSyncedToMemSlot = new LongAdder();
+
+    private static final LongAdder bytesEncoded = new LongAdder();
+    private static final LongAdder bytesDecoded = new LongAdder();
+    private static final Histogram encodeNanos = new Histogram();
+    private static final Histogram decodeNanos = new Histogram();
+
+    private static final Packets[] packets = new Packets[ChunkEncoding.values().length];
+    private static final Histogram transformNanos = new Histogram();
+
+    static {
+        for (ChunkEncoding encoding : ChunkEncoding.values()) {
+            packets[encoding.ordinal()] = new Packets();
+        }
+    }
+
+    public interface HistogramMBean {
+
+        long getCount();
+
+        long getSum();
+
+        double getMean();
+
+        long getMax();
+
+        long getP50();
+
+        long getP90();
+
+        long getP99();
+
+        void reset();
+    }
+
+    public interface StorageMBean {
+
+        long getSectionArraysAllocated();
+
+        long getSectionArraysReleased();
+
+        long getSectionArraysLive();
+
+        long getSectionArrayBytes();
+
+        long getSlotsAllocated();
+
+        long getSlotsReleased();
+
+        long getSlotsLive();
+
+        long getSlotBytes();
+
+        long getSyncsToNeid();
+
+        long getSyncsToMemSlot();
+
+        long getBlocksSyncedToNeid();
+
+        long getBlocksSyncedToMemSlot();
+    }
+
+    public interface ChunkIOMBean {
+
+        long getEncodeOperations();
+
+        long getBytesEncoded();
+
+        double getEncodeMegabytesPerSecond();
+
+        long getDecodeOperations();
+
+        long getBytesDecoded();
+
+        double getDecodeMegabytesPerSecond();
+    }
+
+    public interface PacketsMBean {
+
+        long getPackets();
+
+        long getRawBytes();
+
+        long getWireBytes();
+
+        double getCompressionRatio();
+    }
+
+    /**
+     * Distribution of non-negative values in power of two buckets. Percentiles are reported as the upper bound of the
+     * bucket they fall into, so they overestimate by less than a factor of two.
+     */
+    public static class Histogram implements HistogramMBean {
+
+        private final LongAdder[] buckets = new LongAdder[64];
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        Histogram() {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        void record(long value) {
+            if (value < 0) {
+                value = 0;
+            }
+            buckets[64 - Long.numberOfLeadingZeros(value) & 63].increment();
+            count.increment();
+            sum.add(value);
+            max.accumulate(value);
+        }
+
+        @Override
+        public long getCount() {
+            return count.sum();
+        }
+
+        @Override
+        public long getSum() {
+            return sum.sum();
+        }
+
+        @Override
+        public double getMean() {
+            final long n = getCount();
+            return n == 0 ? 0.0 : (double) getSum() / n;
+        }
+
+        @Override
+        public long getMax() {
+            return max.get();
+        }
+
+        @Override
+        public long getP50() {
+            return percentile(0.50);
+        }
+
+        @Override
+        public long getP90() {
+            return percentile(0.90);
+        }
+
+        @Override
+        public long getP99() {
+            return percentile(0.99);
+        }
+
+        private long percentile(double fraction) {
+            final long[] counts = new long[buckets.length];
+            long total = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                counts[i] = buckets[i].sum();
+                total += counts[i];
+            }
+            if (total == 0) {
+                return 0;
+            }
+            final long rank = (long) Math.ceil(total * fraction);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return i == 0 ? 0 : Math.min(getMax(), i == 63 ? Long.MAX_VALUE : (1L << i) - 1);
+                }
+            }
+            return getMax();
+        }
+
+        @Override
+        public void reset() {
+            for (LongAdder bucket : buckets) {
+                bucket.reset();
+            }
+            count.reset();
+            sum.reset();
+            max.reset();
+        }
+    }
+
+    private static class Storage implements StorageMBean {
+
+        @Override
+        public long getSectionArraysAllocated() {
+            return sectionArraysAllocated.sum();
+        }
+
+        @Override
+        public long getSectionArraysReleased() {
+            return sectionArraysReleased.sum();
+        }
+
+        @Override
+        public long getSectionArraysLive() {
+            return getSectionArraysAllocated() - getSectionArraysReleased();
+        }
+
+        @Override
+        public long getSectionArrayBytes() {
+            return getSectionArraysLive() * Constants.BLOCKS_PER_EBS * 2;
+        }
+
+        @Override
+        public long getSlotsAllocated() {
+            return slotsAllocated.sum();
+        }
+
+        @Override
+        public long getSlotsReleased() {
+            return slotsReleased.sum();
+        }
+
+        @Override
+        public long getSlotsLive() {
+            return getSlotsAllocated() - getSlotsReleased();
+        }
+
+        @Override
+        public long getSlotBytes() {
+            return getSlotsLive() * NEIDMemSlot.BYTES;
+        }
+
+        @Override
+        public long getSyncsToNeid() {
+            return syncsToNeid.sum();
+        }
+
+        @Override
+        public long getSyncsToMemSlot() {
+            return syncsToMemSlot.sum();
+        }
+
+        @Override
+        public long getBlocksSyncedToNeid() {
+            return blocksSyncedToNeid.sum();
+        }
+
+        @Override
+        public long getBlocksSyncedToMemSlot() {
+            return blocksSyncedToMemSlot.sum();
+        }
+    }
+
+    private static class ChunkIO implements ChunkIOMBean {
+
+        @Override
+        public long getEncodeOperations() {
+            return encodeNanos.getCount();
+        }
+
+        @Override
+        public long getBytesEncoded() {
+            return bytesEncoded.sum();
+        }
+
+        @Override
+        public double getEncodeMegabytesPerSecond() {
+            return throughput(bytesEncoded.sum(), encodeNanos.getSum());
+        }
+
+        @Override
+        public long getDecodeOperations() {
+            return decodeNanos.getCount();
+        }
+
+        @Override
+        public long getBytesDecoded() {
+            return bytesDecoded.sum();
+        }
+
+        @Override
+        public double getDecodeMegabytesPerSecond() {
+            return throughput(bytesDecoded.sum(), decodeNanos.getSum());
+        }
+
+        private static double throughput(long bytes, long nanos) {
+            return nanos == 0 ? 0.0 : bytes * 1e3 / nanos;
+        }
+    }
+
+    private static class Packets implements PacketsMBean {
+
+        private final LongAdder count = new LongAdder();
+        private final LongAdder rawBytes = new LongAdder();
+        private final LongAdder wireBytes = new LongAdder();
+
+        @Override
+        public long getPackets() {
+            return count.sum();
+        }
+
+        @Override
+        public long getRawBytes() {
+            return rawBytes.sum();
+        }
+
+        @Override
+        public long getWireBytes() {
+            return wireBytes.sum();
+        }
+
+        @Override
+        public double getCompressionRatio() {
+            final long wire = getWireBytes();
+            return wire == 0 ? 0.0 : (double) getRawBytes() / wire;
+        }
+    }
+
+    /**
+     * Applies {@link NEIDConfig#Metrics} and registers the MBeans.
+     */
+    public static void init() {
+        enabled = NEIDConfig.Metrics;
+        if (!enabled) {
+            return;
+        }
+        register(new Storage(), StorageMBean.class, "type=Metrics,name=Storage");
+        register(new ChunkIO(), ChunkIOMBean.class, "type=Metrics,name=ChunkIO");
+        register(encodeNanos, HistogramMBean.class, "type=Metrics,name=SectionEncodeNanos");
+        register(decodeNanos, HistogramMBean.class, "type=Metrics,name=SectionDecodeNanos");
+        register(transformNanos, HistogramMBean.class, "type=Metrics,name=TransformNanos");
+        for (ChunkEncoding encoding : ChunkEncoding.values()) {
+            register(packets[encoding.ordinal()], PacketsMBean.class, "type=Metrics,name=Packets,encoding=" + encoding);
+        }
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return The start time to pass to the hooks that measure a duration, 0 while metrics are off.
+     */
+    public static long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * An ExtendedBlockStorage was constructed with its block16BArray and block16BMetaArray.
+     */
+    public static void sectionAllocated() {
+        if (enabled) {
+            sectionArraysAllocated.add(2);
+        }
+    }
+
+    /**
+     * The Ultramine slot of an ExtendedBlockStorage was released, which happens when its chunk is unloaded.
+     */
+    public static void sectionReleased() {
+        if (enabled) {
+            sectionArraysReleased.add(2);
+        }
+    }
+
+    /**
+     * A section's arrays were replaced by decoded ones, which releases the old pair.
+     */
+    public static void sectionArraysReplaced() {
+        if (enabled) {
+            sectionArraysAllocated.add(2);
+            sectionArraysReleased.add(2);
+        }
+    }
+
+    public static void slotAllocated() {
+        if (enabled) {
+            slotsAllocated.increment();
+        }
+    }
+
+    public static void slotReleased() {
+        if (enabled) {
+            slotsReleased.increment();
+        }
+    }
+
+    public static void syncedToNeid(int blocks) {
+        if (enabled) {
+            syncsToNeid.increment();
+            blocksSyncedToNeid.add(blocks);
+        }
+    }
+
+    public static void syncedToMemSlot(int blocks) {
+        if (enabled) {
+            syncsToMemSlot.increment();
+            blocksSyncedToMemSlot.add(blocks);
+        }
+    }
+
+    /**
+     * A section's block or metadata tags were written for saving.
+     */
+    public static void sectionEncoded(long start, int bytes) {
+        if (enabled) {
+            encodeNanos.record(System.nanoTime() - start);
+            bytesEncoded.add(bytes);
+        }
+    }
+
+    /**
+     * A section's block or metadata tags were read while loading.
+     */
+    public static void sectionDecoded(long start, int bytes) {
+        if (enabled) {
+            decodeNanos.record(System.nanoTime() - start);
+            bytesDecoded.add(bytes);
+        }
+    }
+
+    /**
+     * A chunk packet was written to a connection.
+     *
+     * @param rawBytes  The RAW16 payload the packet carries
+     * @param wireBytes The compressed payload actually written
+     */
+    public static void packetWritten(ChunkEncoding encoding, int rawBytes, int wireBytes) {
+        if (enabled) {
+            final Packets stats = packets[encoding.ordinal()];
+            stats.count.increment();
+            stats.rawBytes.add(rawBytes);
+            stats.wireBytes.add(wireBytes);
+        }
+    }
+
+    /**
+     * The client block transformers ran over a section or a bulk of blocks.
+     */
+    public static void transformed(long start) {
+        if (enabled) {
+            transformNanos.record(System.nanoTime() - start);
+        }
+    }
+
+    private static <T> void register(T bean, Class<T> type, String properties) {
+        TransformerProfiler.register(bean, type, properties);
+    }
+}
@@ -0,0 +1,245 @@
+package com.gtnewhorizons.neid;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.annotation.Nullable;
+
+/**
+ * Diagnostic tracing for hot paths. Tracing is configured once at startup with system properties, so that the level
+ * flags are constants and a disabled trace point costs nothing:
+ *
+ * <pre>
+ * -Dneid.trace=error|warn|info|debug|trace   level to record, off if unset
+ * -Dneid.trace.categories=client_chunk,...   categories to record, all if unset
+ * -Dneid.trace.buffer=4096                   entries kept, rounded up to a power of two
+ * </pre>
+ *
+ * Trace points guard the message construction with the level flag:
+ *
+ * <pre>
+ * if (NEIDTrace.DEBUG) NEIDTrace.debug(Category.CLIENT_CHUNK, "fillChunk mask=" + mask);
+ * </pre>
+ *
+ * Entries go to a lock-free ring buffer that keeps the most recent ones. It is written to {@link #FILE_NAME} on
+ * {@code /neid trace dump} and after every {@link #error}. Errors and warnings are always logged, whether or not
+ * tracing is enabled.
+ */
+public final class NEIDTrace {
+
+    public static final String FILE_NAME = "neid_trace.log";
+
+    public enum Level {
+        ERROR,
+        WARN,
+        INFO,
+        DEBUG,
+        TRACE
+    }
+
+    public enum Category {
+        /** Client side chunk packet application. */
+        CLIENT_CHUNK,
+        /** ExtendedBlockStorage bookkeeping. */
+        STORAGE,
+        /** Copying between NEID's arrays and Ultramine's MemSlot. */
+        ULTRAMINE_SYNC,
+        /** Chunk saving and loading. */
+        CHUNK_IO,
+        /** Mod and service startup. */
+        STARTUP
+    }
+
+    @Nullable
+    private static final Level LEVEL = parseLevel(System.getProperty("neid.trace"));
+
+    public static final boolean ENABLED = LEVEL != null;
+    public static final boolean WARN = isLevelOn(Level.WARN);
+    public static final boolean INFO = isLevelOn(Level.INFO);
+    public static final boolean DEBUG = isLevelOn(Level.DEBUG);
+    public static final boolean TRACE = isLevelOn(Level.TRACE);
+
+    private static final int CATEGORIES = parseCategories(System.getProperty("neid.trace.categories"));
+    private static final int CAPACITY = Integer
+            .highestOneBit(Math.max(16, Integer.getInteger("neid.trace.buffer", 4096)) * 2 - 1);
+    // Errors dump the buffer at most this often
+    private static final long DUMP_INTERVAL_NANOS = 10_000_000_000L;
+
+    private static final AtomicReferenceArray<Entry> ring = new AtomicReferenceArray<>(ENABLED ? CAPACITY : 1);
+    private static final AtomicLong next = new AtomicLong();
+    private static final long START = System.nanoTime();
+    private static final AtomicLong lastDump = new AtomicLong(START - DUMP_INTERVAL_NANOS);
+
+    private static final class Entry {
+
+        final long nanos = System.nanoTime();
+        final String thread = Thread.currentThread().getName();
+        final Level level;
+        final Category category;
+        final String message;
+        @Nullable
+        final Throwable throwable;
+
+        Entry(Level level, Category category, String message, @Nullable Throwable throwable) {
+            this.level = level;
+            this.category = category;
+            this.message = message;
+            this.throwable = throwable;
+        }
+
+        @Override
+        public String toString() {
+            final String line = String.format(
+                    "%10.3f [%s] %s/%s: %s",
+                    (nanos - START) / 1e6,
+                    thread,
+                    level,
+                    category,
+                    message);
+            if (throwable == null) {
+                return line;
+            }
+            final StringWriter stack = new StringWriter();
+            throwable.printStackTrace(new PrintWriter(stack));
+            return line + System.lineSeparator() + stack;
+        }
+    }
+
+    private NEIDTrace() {}
+
+    public static boolean isEnabled(Category category) {
+        return ENABLED && (CATEGORIES & 1 << category.ordinal()) != 0;
+    }
+
+    public static void info(Category category, String message) {
+        record(Level.INFO, category, message, null);
+    }
+
+    public static void debug(Category category, String message) {
+        record(Level.DEBUG, category, message, null);
+    }
+
+    public static void trace(Category category, String message) {
+        record(Level.TRACE, category, message, null);
+    }
+
+    /**
+     * Logs a warning and records it.
+     */
+    public static void warn(Category category, String message, @Nullable Throwable throwable) {
+        NEID.LOG.warn(message, throwable);
+        record(Level.WARN, category, message, throwable);
+    }
+
+    /**
+     * Logs an error, records it and writes the buffer to {@link #FILE_NAME} so that the entries leading up to it are
+     * kept.
+     */
+    public static void error(Category category, String message, @Nullable Throwable throwable) {
+        NEID.LOG.error(message, throwable);
+        if (!record(Level.ERROR, category, message, throwable)) {
+            return;
+        }
+        final long now = System.nanoTime();
+        final long last = lastDump.get();
+        if (now - last >= DUMP_INTERVAL_NANOS && lastDump.compareAndSet(last, now)) {
+            final File file = new File(FILE_NAME);
+            try {
+                dump(file);
+                NEID.LOG.error("Wrote the NEID trace buffer to {}", file.getAbsolutePath());
+            } catch (IOException e) {
+                NEID.LOG.warn("Could not write {}", file, e);
+            }
+        }
+    }
+
+    private static boolean record(Level level, Category category, String message, @Nullable Throwable throwable) {
+        if (!isLevelOn(level) || !isEnabled(category)) {
+            return false;
+        }
+        ring.set((int) (next.getAndIncrement() & (CAPACITY - 1)), new Entry(level, category, message, throwable));
+        return true;
+    }
+
+    /**
+     * @return The buffered entries, oldest first. Entries recorded while the buffer is read may be missing or appear
+     *         out of order.
+     */
+    public static List<String> snapshot() {
+        final List<String> lines = new ArrayList<>();
+        if (!ENABLED) {
+            return lines;
+        }
+        final long end = next.get();
+        for (long i = Math.max(0, end - CAPACITY); i < end; i++) {
+            final Entry entry = ring.get((int) (i & (CAPACITY - 1)));
+            if (entry != null) {
+                lines.add(entry.toString());
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Writes {@link #snapshot()} to {@code file}.
+     */
+    public static void dump(File file) throws IOException {
+        try (Writer out = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            out.write("NEID trace, level " + LEVEL + ", " + next.get() + " entries recorded" + System.lineSeparator());
+            for (String line : snapshot()) {
+                out.write(line);
+                out.write(System.lineSeparator());
+            }
+        }
+    }
+
+    public static String getStatus() {
+        if (!ENABLED) {
+            return "NEID trace: off (start with -Dneid.trace=<level> to enable)";
+        }
+        return String.format(
+                "NEID trace: level %s, %d entries recorded, buffer of %d",
+                LEVEL,
+                next.get(),
+                CAPACITY);
+    }
+
+    private static boolean isLevelOn(Level level) {
+        return LEVEL != null && level.ordinal() <= LEVEL.ordinal();
+    }
+
+    @Nullable
+    private static Level parseLevel(@Nullable String value) {
+        if (value == null || value.isEmpty() || "off".equalsIgnoreCase(value)) {
+            return null;
+        }
+        try {
+            return Level.valueOf(value.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            return Level.DEBUG;
+        }
+    }
+
+    private static int parseCategories(@Nullable String value) {
+        if (value == null || value.isEmpty()) {
+            return -1;
+        }
+        int mask = 0;
+        for (String name : value.split(",")) {
+            try {
+                mask |= 1 << Category.valueOf(name.trim().toUpperCase(Locale.ROOT)).ordinal();
+            } catch (IllegalArgumentException ignored) {}
+        }
+        return mask;
+    }
+}
@@ -0,0 +1,200 @@
+package com.gtnewhorizons.neid;
+
+import java.nio.ByteBuffer;
+
+import javax.annotation.Nullable;
+
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagList;
+
+/**
+ * Conversions between the on-disk section formats. NEID stores sections as "Blocks16"/"Data16" (16-bit big-endian ids
+ * and metadata). Pre-NEID worlds only carry the vanilla "Blocks"/"Add"/"Data" arrays, which have to be widened every
+ * time such a section is loaded until it gets re-saved. The block access of ExtendedBlockStorage also goes through the
+ * array helpers here, so that it can be benchmarked without the block registry.
+ */
+public class SectionCodec {
+
+    /**
+     * @return The index of a block in the id and metadata arrays of a section.
+     */
+    public static int index(int x, int y, int z) {
+        return y << 8 | z << 4 | x;
+    }
+
+    /**
+     * @return The id or metadata at a position in a section's array.
+     */
+    public static int get(short[] data, int x, int y, int z) {
+        return data[index(x, y, z)] & 0xFFFF;
+    }
+
+    /**
+     * Stores an id or metadata at a position in a section's array.
+     */
+    public static void set(short[] data, int x, int y, int z, int value) {
+        data[index(x, y, z)] = (short) value;
+    }
+
+    /**
+     * Decodes the vanilla LSB array plus the optional "Add" nibble array into 16-bit block ids.
+     */
+    public static void decodeLegacyBlocks(byte[] lsbData, @Nullable byte[] msbData, short[] out) {
+        if (msbData != null) {
+            for (int i = 0; i < out.length; i += 2) {
+                final byte msPart = msbData[i >> 1];
+                out[i] = (short) ((lsbData[i] & 0xFF) | (msPart & 0xF) << 8);
+                out[i + 1] = (short) ((lsbData[i + 1] & 0xFF) | (msPart & 0xF0) << 4);
+            }
+        } else {
+            for (int i = 0; i < out.length; ++i) {
+                out[i] = (short) (lsbData[i] & 0xFF);
+            }
+        }
+    }
+
+    /**
+     * Decodes the vanilla 4-bit metadata nibble array into 16-bit metadata.
+     */
+    public static void decodeLegacyMetadata(byte[] metaData, short[] out) {
+        for (int i = 0; i < out.length; i += 2) {
+            final byte meta = metaData[i >> 1];
+            out[i] = (short) (meta & 0xF);
+            out[i + 1] = (short) ((meta >> 4) & 0xF);
+        }
+    }
+
+    /**
+     * Encodes a short array in the "Blocks16"/"Data16" byte layout.
+     */
+    public static byte[] encodeShorts(short[] data) {
+        final byte[] ret = new byte[data.length * 2];
+        ByteBuffer.wrap(ret).asShortBuffer().put(data);
+        return ret;
+    }
+
+    /**
+     * Decodes the "Blocks16"/"Data16" byte layout into a short array.
+     */
+    public static void decodeShorts(byte[] data, int offset, short[] out) {
+        ByteBuffer.wrap(data, offset, out.length * 2).asShortBuffer().get(out);
+    }
+
+    /**
+     * Builds the vanilla "Blocks" array and, if any id needs it, the "Add" array. Ids above the vanilla range are
+     * dropped (written as air) so that pre-NEID readers only lose the blocks they cannot represent anyway.
+     *
+     * @return {@code {lsb, msb}}, where msb is null when no id exceeds 255
+     */
+    public static byte[][] encodeLegacyBlocks(short[] data) {
+        final byte[] lsbData = new byte[data.length];
+        byte[] msbData = null;
+        for (int i = 0; i < data.length; ++i) {
+            final int id = data[i] & 0xFFFF;
+            if (id <= 255) {
+                lsbData[i] = (byte) id;
+            } else if (id <= Constants.VANILLA_MAX_BLOCK_ID) {
+                if (msbData == null) {
+                    msbData = new byte[data.length / 2];
+                }
+                lsbData[i] = (byte) id;
+                if ((i & 1) == 0) {
+                    msbData[i >> 1] |= (byte) (id >>> 8 & 0xF);
+                } else {
+                    msbData[i >> 1] |= (byte) (id >>> 4 & 0xF0);
+                }
+            }
+        }
+        return new byte[][] { lsbData, msbData };
+    }
+
+    /**
+     * Builds the vanilla "Data" nibble array. Metadata outside of 0-15 is written as 0.
+     */
+    public static byte[] encodeLegacyMetadata(short[] data) {
+        final byte[] metaData = new byte[data.length / 2];
+        for (int i = 0; i < data.length; i += 2) {
+            int meta1 = data[i];
+            int meta2 = data[i + 1];
+
+            if (meta1 < 0 || meta1 > 15) {
+                meta1 = 0;
+            }
+            if (meta2 < 0 || meta2 > 15) {
+                meta2 = 0;
+            }
+
+            metaData[i >> 1] = (byte) (meta2 << 4 | meta1);
+        }
+        return metaData;
+    }
+
+    /**
+     * @return True if the section only has the vanilla block arrays and would take the conversion path when loaded.
+     */
+    public static boolean isLegacySection(NBTTagCompound section) {
+        return !section.hasKey("Blocks16") && section.hasKey("Blocks");
+    }
+
+    /**
+     * @param level The "Level" compound of a chunk
+     * @return True if any section of the chunk is still in the legacy format.
+     */
+    public static boolean hasLegacySections(NBTTagCompound level) {
+        final NBTTagList sections = level.getTagList("Sections", 10);
+        for (int i = 0; i < sections.tagCount(); i++) {
+            if (isLegacySection(sections.getCompoundTagAt(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Rewrites a legacy section compound in place so that it matches what NEID writes on save: "Blocks16"/"Data16",
+     * plus the vanilla arrays when {@link NEIDConfig#PostNeidWorldsSupport} is enabled.
+     *
+     * @return True if the section was changed.
+     */
+    public static boolean upgradeSection(NBTTagCompound section) {
+        if (!isLegacySection(section)) {
+            return false;
+        }
+
+        final short[] blocks = new short[Constants.BLOCKS_PER_EBS];
+        final short[] metas = new short[Constants.BLOCKS_PER_EBS];
+
+        decodeLegacyBlocks(
+                section.getByteArray("Blocks"),
+                section.hasKey("Add") ? section.getByteArray("Add") : null,
+                blocks);
+        if (section.hasKey("Data")) {
+            decodeLegacyMetadata(section.getByteArray("Data"), metas);
+        }
+
+        section.setByteArray("Blocks16", encodeShorts(blocks));
+        section.setByteArray("Data16", encodeShorts(metas));
+
+        if (!NEIDConfig.PostNeidWorldsSupport) {
+            section.removeTag("Blocks");
+            section.removeTag("Add");
+            section.removeTag("Data");
+        }
+        return true;
+    }
+
+    /**
+     * Upgrades every legacy section of a chunk.
+     *
+     * @param level The "Level" compound of a chunk
+     * @return True if any section was changed.
+     */
+    public static boolean upgradeChunk(NBTTagCompound level) {
+        final NBTTagList sections = level.getTagList("Sections", 10);
+        boolean changed = false;
+        for (int i = 0; i < sections.tagCount(); i++) {
+            changed |= upgradeSection(sections.getCompoundTagAt(i));
+        }
+        return changed;
+    }
+}
@@ -0,0 +1,32 @@
+package com.gtnewhorizons.neid;
+
+import java.util.concurrent.TimeUnit;
+
+import net.minecraft.server.MinecraftServer;
+
+/**
+ * How busy the server thread is, for work that backs off while the server falls behind.
+ */
+public final class ServerLoad {
+
+    private ServerLoad() {}
+
+    /**
+     * @return The mean duration of the last 100 ticks.
+     */
+    public static long averageTickNanos(MinecraftServer server) {
+        final long[] tickTimes = server.tickTimeArray;
+        long total = 0;
+        for (long tickTime : tickTimes) {
+            total += tickTime;
+        }
+        return total / tickTimes.length;
+    }
+
+    /**
+     * @return True if the last 100 ticks took less than {@code maxTickMillis} on average.
+     */
+    public static boolean isKeepingUp(MinecraftServer server, int maxTickMillis) {
+        return averageTickNanos(server) < TimeUnit.MILLISECONDS.toNanos(maxTickMillis);
+    }
+}
@@ -0,0 +1,205 @@
+package com.gtnewhorizons.neid;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import com.gtnewhorizons.neid.mixins.interfaces.ClientBlockTransformer;
+
+/**
+ * Optional per transformer counters for {@link ClientBlockTransformerRegistry}. Transformers run on every thread that
+ * builds chunk packets, so the counters are {@link LongAdder}s and a disabled profiler costs one volatile read per
+ * call. Toggled with {@code /neid transformers} or over JMX under {@code com.gtnewhorizons.neid:type=Transformer*}.
+ * Runs are also timed while a flight recording is running, see {@link NEIDEvents#transformerRun}.
+ */
+public class TransformerProfiler {
+
+    private static final String DOMAIN = "com.gtnewhorizons.neid";
+
+    private static volatile boolean enabled;
+
+    private static final List<Profile> profiles = new CopyOnWriteArrayList<>();
+
+    public interface ProfileMBean {
+
+        String getTransformer();
+
+        long getInvocations();
+
+        long getBlocksScanned();
+
+        long getBlocksChanged();
+
+        long getTotalNanos();
+
+        void reset();
+    }
+
+    public interface ControlMBean {
+
+        boolean isEnabled();
+
+        void setEnabled(boolean enabled);
+
+        String[] getReport();
+
+        void reset();
+    }
+
+    public static class Profile implements ProfileMBean {
+
+        private final String transformer;
+        private final LongAdder invocations = new LongAdder();
+        private final LongAdder blocksScanned = new LongAdder();
+        private final LongAdder blocksChanged = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+
+        Profile(String transformer) {
+            this.transformer = transformer;
+        }
+
+        void record(int scanned, int changed, long elapsed) {
+            if (enabled) {
+                invocations.increment();
+                blocksScanned.add(scanned);
+                blocksChanged.add(changed);
+                nanos.add(elapsed);
+            }
+            NEIDEvents.transformerRun(transformer, scanned, changed, elapsed);
+        }
+
+        @Override
+        public String getTransformer() {
+            return transformer;
+        }
+
+        @Override
+        public long getInvocations() {
+            return invocations.sum();
+        }
+
+        @Override
+        public long getBlocksScanned() {
+            return blocksScanned.sum();
+        }
+
+        @Override
+        public long getBlocksChanged() {
+            return blocksChanged.sum();
+        }
+
+        @Override
+        public long getTotalNanos() {
+            return nanos.sum();
+        }
+
+        @Override
+        public void reset() {
+            invocations.reset();
+            blocksScanned.reset();
+            blocksChanged.reset();
+            nanos.reset();
+        }
+
+        @Override
+        public String toString() {
+            final long calls = getInvocations();
+            final long scanned = getBlocksScanned();
+            final long total = getTotalNanos();
+            return String.format(
+                    "%s: %d calls, %d blocks scanned, %d changed, %.2f ms total, %.1f ns/block",
+                    transformer,
+                    calls,
+                    scanned,
+                    getBlocksChanged(),
+                    total / 1e6,
+                    scanned == 0 ? 0.0 : (double) total / scanned);
+        }
+    }
+
+    private static class Control implements ControlMBean {
+
+        @Override
+        public boolean isEnabled() {
+            return TransformerProfiler.isEnabled();
+        }
+
+        @Override
+        public void setEnabled(boolean enabled) {
+            TransformerProfiler.setEnabled(enabled);
+        }
+
+        @Override
+        public String[] getReport() {
+            return TransformerProfiler.getReport().toArray(new String[0]);
+        }
+
+        @Override
+        public void reset() {
+            TransformerProfiler.reset();
+        }
+    }
+
+    /**
+     * Applies {@link NEIDConfig#ProfileClientBlockTransformers} and registers the control MBean.
+     */
+    public static void init() {
+        enabled = NEIDConfig.ProfileClientBlockTransformers;
+        register(new Control(), ControlMBean.class, "type=TransformerProfiler");
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void setEnabled(boolean enabled) {
+        TransformerProfiler.enabled = enabled;
+    }
+
+    /**
+     * @return Whether transformer runs need to be timed, for the counters or for the flight recorder.
+     */
+    static boolean isActive() {
+        return enabled || NEIDEvents.isRecording();
+    }
+
+    /**
+     * Creates the counters of a newly registered transformer.
+     */
+    static Profile create(ClientBlockTransformer transformer) {
+        final Profile profile = new Profile(profiles.size() + ":" + transformer.getClass().getName());
+        profiles.add(profile);
+        final String name = ObjectName.quote(profile.getTransformer());
+        register(profile, ProfileMBean.class, "type=Transformer,name=" + name);
+        return profile;
+    }
+
+    public static List<String> getReport() {
+        final List<String> lines = new ArrayList<>();
+        for (Profile profile : profiles) {
+            lines.add(profile.toString());
+        }
+        return lines;
+    }
+
+    public static void reset() {
+        for (Profile profile : profiles) {
+            profile.reset();
+        }
+    }
+
+    static <T> void register(T bean, Class<T> type, String properties) {
+        try {
+            ManagementFactory.getPlatformMBeanServer()
+                    .registerMBean(new StandardMBean(bean, type, false), new ObjectName(DOMAIN + ":" + properties));
+        } catch (JMException | SecurityException e) {
+            NEID.LOG.warn("Could not register MBean {}", properties, e);
+        }
+    }
+}
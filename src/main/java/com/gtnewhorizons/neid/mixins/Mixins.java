@@ -19,6 +19,9 @@ public enum Mixins implements IMixins {
             "minecraft.MixinS23PacketBlockChange",
             "minecraft.MixinS24PacketBlockAction",
             "minecraft.MixinS26PacketMapChunkBulk",
+            "minecraft.MixinS21PacketChunkDataEncoding",
+            "minecraft.MixinMessageSerializer",
+            "minecraft.MixinNetHandlerPlayServer",
             "minecraft.MixinItemInWorldManager",
             "minecraft.MixinAnvilChunkLoader",
             "minecraft.MixinBlock",
@@ -28,6 +31,12 @@ public enum Mixins implements IMixins {
     VANILLA_STARTUP_ONLY_WITHOUT_THERMOS(new MixinBuilder()
         .addCommonMixins("minecraft.MixinS21PacketChunkData")
         .addExcludedMod(TargetMods.THERMOS)),
+    // Ultramine ships its own AnvilChunkLoader and PlayerManager: no legacy chunk upgrader or section deltas there
+    VANILLA_STARTUP_ONLY_WITHOUT_ULTRAMINE(new MixinBuilder()
+        .addCommonMixins(
+            "minecraft.MixinAnvilChunkLoaderPendingSaves",
+            "minecraft.MixinPlayerInstance")
+        .addExcludedMod(TargetMods.ULTRAMINE)),
     VANILLA_STARTUP_ONLY_WITH_THERMOS(new MixinBuilder()
         .addCommonMixins("minecraft.MixinS21PacketChunkDataThermosTainted")
         .addRequiredMod(TargetMods.THERMOS)),
@@ -36,7 +45,8 @@ public enum Mixins implements IMixins {
             "minecraft.client.MixinRenderGlobal",
             "minecraft.client.MixinNetHandlerPlayClient",
             "minecraft.client.MixinPlayerControllerMP",
-            "minecraft.client.MixinChunk")),
+            "minecraft.client.MixinChunk",
+            "minecraft.client.MixinExtendedBlockStorageLight")),
     VANILLA_STARTUP_DATAWATCHER(new MixinBuilder()
         .addCommonMixins("minecraft.MixinDataWatcher")
         .setApplyIf(() -> NEIDConfig.ExtendDataWatcher));
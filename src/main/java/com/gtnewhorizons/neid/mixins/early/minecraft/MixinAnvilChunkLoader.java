@@ -1,6 +1,7 @@
 package com.gtnewhorizons.neid.mixins.early.minecraft;
 
 import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.world.chunk.Chunk;
 import net.minecraft.world.chunk.NibbleArray;
 import net.minecraft.world.chunk.storage.AnvilChunkLoader;
 import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
@@ -9,8 +10,10 @@ import org.spongepowered.asm.mixin.Mixin;
 import org.spongepowered.asm.mixin.injection.At;
 import org.spongepowered.asm.mixin.injection.Redirect;
 
-import com.gtnewhorizons.neid.Constants;
 import com.gtnewhorizons.neid.NEIDConfig;
+import com.gtnewhorizons.neid.NEIDEvents;
+import com.gtnewhorizons.neid.NEIDMetrics;
+import com.gtnewhorizons.neid.SectionCodec;
 import com.gtnewhorizons.neid.mixins.interfaces.IExtendedBlockStorageMixin;
 import com.llamalad7.mixinextras.injector.wrapoperation.Operation;
 import com.llamalad7.mixinextras.injector.wrapoperation.WrapOperation;
@@ -31,37 +34,26 @@ public class MixinAnvilChunkLoader {
             require = 0)
     private void neid$overrideWriteLSBArray(NBTTagCompound nbt, String s, byte[] oldbrokenbytes,
             @Local(ordinal = 0) ExtendedBlockStorage ebs) {
+        final Object event = NEIDEvents.beginSectionEncode();
+        final long start = NEIDMetrics.start();
         IExtendedBlockStorageMixin ebsMixin = (IExtendedBlockStorageMixin) ebs;
-        nbt.setByteArray("Blocks16", ebsMixin.getBlockData());
+        final byte[] blocks16 = ebsMixin.getBlockData();
+        nbt.setByteArray("Blocks16", blocks16);
+        String tags = "Blocks16";
+        int bytes = blocks16.length;
         if (NEIDConfig.PostNeidWorldsSupport) {
-            final short[] data = ebsMixin.getBlock16BArray();
-            final byte[] lsbData = new byte[data.length];
-            byte[] msbData = null;
-            for (int i = 0; i < data.length; ++i) {
-                final int id = data[i] & 0xFFFF;
-                if (id <= 255) {
-                    lsbData[i] = (byte) id;
-                } else if (id <= Constants.VANILLA_MAX_BLOCK_ID) {
-                    if (msbData == null) {
-                        msbData = new byte[data.length / 2];
-                    }
-                    lsbData[i] = (byte) id;
-                    if (i % 2 == 0) {
-                        final byte[] array = msbData;
-                        final int n = i / 2;
-                        array[n] |= (byte) (id >>> 8 & 0xF);
-                    } else {
-                        final byte[] array2 = msbData;
-                        final int n2 = i / 2;
-                        array2[n2] |= (byte) (id >>> 4 & 0xF0);
-                    }
-                }
-            }
-            nbt.setByteArray("Blocks", lsbData);
-            if (msbData != null) {
-                nbt.setByteArray("Add", msbData);
+            final byte[][] legacy = SectionCodec.encodeLegacyBlocks(ebsMixin.getBlock16BArray());
+            nbt.setByteArray("Blocks", legacy[0]);
+            tags = "Blocks16,Blocks";
+            bytes += legacy[0].length;
+            if (legacy[1] != null) {
+                nbt.setByteArray("Add", legacy[1]);
+                tags = "Blocks16,Blocks,Add";
+                bytes += legacy[1].length;
             }
         }
+        NEIDEvents.endSectionEncode(event, tags, bytes);
+        NEIDMetrics.sectionEncoded(start, bytes);
     }
 
     @Redirect(
@@ -73,27 +65,21 @@ public class MixinAnvilChunkLoader {
             require = 0)
     private void neid$overrideWriteMetadataArray(NBTTagCompound nbt, String s, byte[] oldbrokenbytes,
             @Local(ordinal = 0) ExtendedBlockStorage ebs) {
+        final Object event = NEIDEvents.beginSectionEncode();
+        final long start = NEIDMetrics.start();
         IExtendedBlockStorageMixin ebsMixin = (IExtendedBlockStorageMixin) ebs;
-        nbt.setByteArray("Data16", ebsMixin.getBlockMeta());
+        final byte[] data16 = ebsMixin.getBlockMeta();
+        nbt.setByteArray("Data16", data16);
+        String tags = "Data16";
+        int bytes = data16.length;
         if (NEIDConfig.PostNeidWorldsSupport) {
-            final short[] data = ebsMixin.getBlock16BMetaArray();
-            final byte[] metaData = new byte[data.length / 2];
-            for (int i = 0; i < data.length; i += 2) {
-                int meta1 = data[i];
-                int meta2 = data[i + 1];
-
-                if (meta1 < 0 || meta1 > 15) {
-                    meta1 = 0;
-                }
-                if (meta2 < 0 || meta2 > 15) {
-                    meta2 = 0;
-                }
-
-                metaData[i / 2] = (byte) (meta2 << 4 | meta1);
-                final int meta = data[i];
-            }
-            nbt.setByteArray("Data", metaData);
+            final byte[] data = SectionCodec.encodeLegacyMetadata(ebsMixin.getBlock16BMetaArray());
+            nbt.setByteArray("Data", data);
+            tags = "Data16,Data";
+            bytes += data.length;
         }
+        NEIDEvents.endSectionEncode(event, tags, bytes);
+        NEIDMetrics.sectionEncoded(start, bytes);
     }
 
     @Redirect(
@@ -103,24 +89,25 @@ public class MixinAnvilChunkLoader {
                     target = "Lnet/minecraft/world/chunk/storage/ExtendedBlockStorage;setBlockLSBArray([B)V"),
             require = 0)
     private void neid$overrideReadLSBArray(ExtendedBlockStorage ebs, byte[] oldbrokenbytes,
-            @Local(ordinal = 1) NBTTagCompound nbt) {
+            @Local(ordinal = 1) NBTTagCompound nbt, @Local Chunk chunk) {
+        final Object event = NEIDEvents.beginSectionDecode();
+        final long start = NEIDMetrics.start();
         IExtendedBlockStorageMixin ebsMixin = (IExtendedBlockStorageMixin) ebs;
         if (nbt.hasKey("Blocks16")) {
-            ebsMixin.setBlockData(nbt.getByteArray("Blocks16"), 0);
+            final byte[] blocks16 = nbt.getByteArray("Blocks16");
+            ebsMixin.setBlockData(blocks16, 0);
+            NEIDEvents.endSectionDecode(event, "Blocks16", blocks16.length);
+            NEIDMetrics.sectionDecoded(start, blocks16.length);
         } else if (nbt.hasKey("Blocks")) {
-            final short[] out = ebsMixin.getBlock16BArray();
-            final byte[] lsbData = nbt.getByteArray("Blocks");
-            if (nbt.hasKey("Add")) {
-                final byte[] msbData = nbt.getByteArray("Add");
-                for (int i = 0; i < out.length; i += 2) {
-                    final byte msPart = msbData[i / 2];
-                    out[i] = (short) ((lsbData[i] & 0xFF) | (msPart & 0xF) << 8);
-                    out[i + 1] = (short) ((lsbData[i + 1] & 0xFF) | (msPart & 0xF0) << 4);
-                }
-            } else {
-                for (int j = 0; j < out.length; ++j) {
-                    out[j] = (short) (lsbData[j] & 0xFF);
-                }
+            final byte[] blocks = nbt.getByteArray("Blocks");
+            final byte[] add = nbt.hasKey("Add") ? nbt.getByteArray("Add") : null;
+            SectionCodec.decodeLegacyBlocks(blocks, add, ebsMixin.getBlock16BArray());
+            final int bytes = blocks.length + (add != null ? add.length : 0);
+            NEIDEvents.endSectionDecode(event, add != null ? "Blocks,Add" : "Blocks", bytes);
+            NEIDMetrics.sectionDecoded(start, bytes);
+            if (NEIDConfig.UpgradeLegacyChunks) {
+                // Pay the conversion once: the next save writes this chunk in the NEID format
+                chunk.isModified = true;
             }
         } else {
             assert false;
@@ -166,17 +153,19 @@ public class MixinAnvilChunkLoader {
             require = 0)
     private void neid$overrideReadMetadataArray(ExtendedBlockStorage ebs, NibbleArray oldNibble,
             @Local(ordinal = 1) NBTTagCompound nbt) {
+        final Object event = NEIDEvents.beginSectionDecode();
+        final long start = NEIDMetrics.start();
         IExtendedBlockStorageMixin ebsMixin = (IExtendedBlockStorageMixin) ebs;
         if (nbt.hasKey("Data16")) {
-            ebsMixin.setBlockMeta(nbt.getByteArray("Data16"), 0);
+            final byte[] data16 = nbt.getByteArray("Data16");
+            ebsMixin.setBlockMeta(data16, 0);
+            NEIDEvents.endSectionDecode(event, "Data16", data16.length);
+            NEIDMetrics.sectionDecoded(start, data16.length);
         } else if (nbt.hasKey("Data")) {
-            final short[] out = ebsMixin.getBlock16BMetaArray();
-            final byte[] metaData = nbt.getByteArray("Data");
-            for (int i = 0; i < out.length; i += 2) {
-                final byte meta = metaData[i / 2];
-                out[i] = (short) (meta & 0xF);
-                out[i + 1] = (short) ((meta >> 4) & 0xF);
-            }
+            final byte[] data = nbt.getByteArray("Data");
+            SectionCodec.decodeLegacyMetadata(data, ebsMixin.getBlock16BMetaArray());
+            NEIDEvents.endSectionDecode(event, "Data", data.length);
+            NEIDMetrics.sectionDecoded(start, data.length);
         } else {
             assert false;
         }
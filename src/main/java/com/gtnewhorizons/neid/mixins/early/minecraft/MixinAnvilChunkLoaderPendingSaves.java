@@ -0,0 +1,32 @@
+package com.gtnewhorizons.neid.mixins.early.minecraft;
+
+import java.util.Set;
+
+import net.minecraft.world.ChunkCoordIntPair;
+import net.minecraft.world.chunk.storage.AnvilChunkLoader;
+
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Shadow;
+
+import com.gtnewhorizons.neid.mixins.interfaces.IAnvilChunkLoaderMixin;
+
+/**
+ * Exposes the pending save queue of the vanilla/Forge AnvilChunkLoader so the legacy chunk upgrader never rewrites a
+ * chunk whose newer data is still waiting to be written.
+ */
+@Mixin(AnvilChunkLoader.class)
+public class MixinAnvilChunkLoaderPendingSaves implements IAnvilChunkLoaderMixin {
+
+    @Shadow
+    private Set pendingAnvilChunksCoordinates;
+
+    @Shadow
+    private Object syncLockObject;
+
+    @Override
+    public boolean neid$isSavePending(int chunkX, int chunkZ) {
+        synchronized (this.syncLockObject) {
+            return this.pendingAnvilChunksCoordinates.contains(new ChunkCoordIntPair(chunkX, chunkZ));
+        }
+    }
+}
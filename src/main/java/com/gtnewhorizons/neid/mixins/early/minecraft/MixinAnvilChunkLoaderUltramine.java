@@ -13,6 +13,8 @@ import org.spongepowered.asm.mixin.injection.Inject;
 import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
 import org.spongepowered.asm.mixin.injection.callback.LocalCapture;
 
+import com.gtnewhorizons.neid.NEIDTrace;
+import com.gtnewhorizons.neid.NEIDTrace.Category;
 import com.gtnewhorizons.neid.mixins.interfaces.IExtendedBlockStorageMixin;
 
 /**
@@ -69,8 +71,7 @@ public class MixinAnvilChunkLoaderUltramine {
 
                 // System.out.println("[NEID] Successfully loaded NEID data from EbsSaveFakeNbt!");
             } catch (Exception e) {
-                System.err.println("[NEID] Failed to load from EbsSaveFakeNbt: " + e.getMessage());
-                e.printStackTrace();
+                NEIDTrace.error(Category.CHUNK_IO, "Failed to load from EbsSaveFakeNbt", e);
             }
         } else {
             // System.out.println("[NEID] No NEID tags in EbsSaveFakeNbt");
@@ -157,8 +158,7 @@ public class MixinAnvilChunkLoaderUltramine {
             // System.out.println("[NEID] Successfully synced " + (blocks.length) + " blocks to Ultramine slot");
         } catch (Exception e) {
             // Ultramine slot not available or reflection failed
-            System.err.println("[NEID] Failed to sync to Ultramine slot during load: " + e.getMessage());
-            e.printStackTrace();
+            NEIDTrace.error(Category.ULTRAMINE_SYNC, "Failed to sync to Ultramine slot during load", e);
         }
     }
 }
@@ -3,6 +3,8 @@ package com.gtnewhorizons.neid.mixins.early.minecraft;
 import java.io.DataOutput;
 import java.io.IOException;
 
+import javax.annotation.Nullable;
+
 import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
 
 import org.spongepowered.asm.mixin.Final;
@@ -14,6 +16,10 @@ import org.spongepowered.asm.mixin.injection.Redirect;
 import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
 import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
 
+import com.gtnewhorizons.neid.NEIDEvents;
+import com.gtnewhorizons.neid.NEIDMetrics;
+import com.gtnewhorizons.neid.NEIDTrace;
+import com.gtnewhorizons.neid.NEIDTrace.Category;
 import com.gtnewhorizons.neid.mixins.interfaces.IExtendedBlockStorageMixin;
 
 /**
@@ -39,6 +45,8 @@ public class MixinEbsSaveFakeNbt {
     private void neid$addNeidTags(CallbackInfo ci) {
         // System.out.println("[NEID] EbsSaveFakeNbt.convertToNbt() RETURN - adding NEID tags");
 
+        final Object event = NEIDEvents.beginSectionEncode();
+        final long start = NEIDMetrics.start();
         try {
             IExtendedBlockStorageMixin ebsMixin = (IExtendedBlockStorageMixin) ebs;
             net.minecraft.nbt.NBTTagCompound nbt = (net.minecraft.nbt.NBTTagCompound) (Object) this;
@@ -70,10 +78,10 @@ public class MixinEbsSaveFakeNbt {
             // System.out.println("[NEID] Adding Data16 tag: " + data16.length + " bytes");
             nbt.setByteArray("Data16", data16);
 
+            endEncode(event, start, vanillaBlocks, vanillaMSB, vanillaData, blocks16, data16);
             // System.out.println("[NEID] All NBT tags added successfully");
         } catch (Exception e) {
-            System.err.println("[NEID] Failed to add NEID tags: " + e.getMessage());
-            e.printStackTrace();
+            NEIDTrace.error(Category.CHUNK_IO, "Failed to add NEID tags", e);
         }
     }
 
@@ -99,6 +107,8 @@ public class MixinEbsSaveFakeNbt {
         // System.out.println("[NEID] Synced data from Ultramine slot");
 
         // Add NEID tags DIRECTLY to this NBTTagCompound's tagMap!
+        final Object event = NEIDEvents.beginSectionEncode();
+        final long start = NEIDMetrics.start();
         try {
             byte[] blocks16 = ebsMixin.getBlockData();
             byte[] data16 = ebsMixin.getBlockMeta();
@@ -115,8 +125,7 @@ public class MixinEbsSaveFakeNbt {
                 createMapMethod.invoke(this, 0); // Create mutable map
                 // System.out.println("[NEID] Created mutable tagMap via reflection");
             } catch (Exception createMapEx) {
-                System.err.println("[NEID] Failed to create mutable map: " + createMapEx.getMessage());
-                createMapEx.printStackTrace();
+                NEIDTrace.error(Category.CHUNK_IO, "Failed to create mutable map", createMapEx);
                 return; // Can't continue without mutable map
             }
 
@@ -124,6 +133,8 @@ public class MixinEbsSaveFakeNbt {
             net.minecraft.nbt.NBTTagCompound nbt = (net.minecraft.nbt.NBTTagCompound) (Object) this;
             nbt.setByteArray("Blocks16", blocks16);
             nbt.setByteArray("Data16", data16);
+            NEIDEvents.endSectionEncode(event, "Blocks16,Data16", blocks16.length + data16.length);
+            NEIDMetrics.sectionEncoded(start, blocks16.length + data16.length);
 
             // System.out.println("[NEID] NEID tags added to tagMap successfully!");
 
@@ -132,8 +143,7 @@ public class MixinEbsSaveFakeNbt {
             syncNeidToUltramineSlot(ebs, ebsMixin);
             // System.out.println("[NEID] Synced NEID arrays back to MemSlot for client");
         } catch (Exception e) {
-            System.err.println("[NEID] FAILED to add NEID tags: " + e.getMessage());
-            e.printStackTrace();
+            NEIDTrace.error(Category.CHUNK_IO, "Failed to add NEID tags to tagMap", e);
         }
     }
 
@@ -150,6 +160,8 @@ public class MixinEbsSaveFakeNbt {
 
         // Only add NEID tags if NOT in NBT form (meaning write() is serializing from slot)
         if (!isNbt) {
+            final Object event = NEIDEvents.beginSectionEncode();
+            final long start = NEIDMetrics.start();
             IExtendedBlockStorageMixin ebsMixin = (IExtendedBlockStorageMixin) ebs;
 
             // CRITICAL: Write vanilla tags FIRST for Ultramine compatibility!
@@ -181,6 +193,8 @@ public class MixinEbsSaveFakeNbt {
             // Write NEID Data16 (full 16-bit metadata)
             byte[] data16 = ebsMixin.getBlockMeta();
             writeByteArray(out, "Data16", data16, 0, data16.length);
+
+            endEncode(event, start, vanillaBlocks, vanillaMSB, vanillaData, blocks16, data16);
         }
 
         // Write the end marker
@@ -240,6 +254,7 @@ public class MixinEbsSaveFakeNbt {
                 return;
             }
 
+            final Object event = NEIDEvents.beginMemSlotSync();
             short[] blocks = ebsMixin.getBlock16BArray();
             short[] metadata = ebsMixin.getBlock16BMetaArray();
 
@@ -259,6 +274,8 @@ public class MixinEbsSaveFakeNbt {
                     }
                 }
             }
+            NEIDEvents.endMemSlotSync(event, NEIDEvents.SYNC_TO_NEID, blocks.length);
+            NEIDMetrics.syncedToNeid(blocks.length);
             // System.out.println("[NEID] Successfully synced FROM Ultramine slot to NEID arrays");
         } catch (Exception e) {
             // Not Ultramine or reflection failed - data is already in our arrays
@@ -278,6 +295,7 @@ public class MixinEbsSaveFakeNbt {
                 return;
             }
 
+            final Object event = NEIDEvents.beginMemSlotSync();
             short[] blocks = ebsMixin.getBlock16BArray();
             short[] metadata = ebsMixin.getBlock16BMetaArray();
 
@@ -299,13 +317,25 @@ public class MixinEbsSaveFakeNbt {
                     }
                 }
             }
+            NEIDEvents.endMemSlotSync(event, NEIDEvents.SYNC_TO_MEMSLOT, blocks.length);
+            NEIDMetrics.syncedToMemSlot(blocks.length);
             // System.out.println("[NEID] Successfully synced " + blocks.length + " blocks to Ultramine slot");
         } catch (Exception e) {
-            System.err.println("[NEID] Failed to sync NEID to slot: " + e.getMessage());
-            e.printStackTrace();
+            NEIDTrace.error(Category.ULTRAMINE_SYNC, "Failed to sync NEID to slot", e);
         }
     }
 
+    private static void endEncode(@Nullable Object event, long start, byte[] blocks, @Nullable byte[] add,
+            byte[] data, byte[] blocks16, byte[] data16) {
+        final int bytes = blocks.length + (add != null ? add.length : 0) + data.length + blocks16.length
+                + data16.length;
+        NEIDEvents.endSectionEncode(
+                event,
+                add != null ? "Blocks,Add,Data,Blocks16,Data16" : "Blocks,Data,Blocks16,Data16",
+                bytes);
+        NEIDMetrics.sectionEncoded(start, bytes);
+    }
+
     /**
      * Helper method to write byte array NBT tag. Copied from EbsSaveFakeNbt to avoid access issues.
      */
@@ -1,8 +1,5 @@
 package com.gtnewhorizons.neid.mixins.early.minecraft;
 
-import java.nio.ByteBuffer;
-import java.nio.ShortBuffer;
-
 import net.minecraft.block.Block;
 import net.minecraft.init.Blocks;
 import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
@@ -17,7 +14,13 @@ import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
 
 import com.gtnewhorizons.neid.Constants;
 import com.gtnewhorizons.neid.NEIDConfig;
+import com.gtnewhorizons.neid.NEIDEvents;
+import com.gtnewhorizons.neid.NEIDMetrics;
+import com.gtnewhorizons.neid.NEIDTrace;
+import com.gtnewhorizons.neid.NEIDTrace.Category;
+import com.gtnewhorizons.neid.SectionCodec;
 import com.gtnewhorizons.neid.mixins.interfaces.IExtendedBlockStorageMixin;
+import com.gtnewhorizons.neid.network.SectionPayloadCache;
 
 @Mixin(ExtendedBlockStorage.class)
 public class MixinExtendedBlockStorage implements IExtendedBlockStorageMixin {
@@ -32,6 +35,60 @@ public class MixinExtendedBlockStorage implements IExtendedBlockStorageMixin {
     private short[] block16BArray = new short[Constants.BLOCKS_PER_EBS];
     private short[] block16BMetaArray = new short[Constants.BLOCKS_PER_EBS];
 
+    // Identifies the contents of the arrays for SectionPayloadCache
+    private final long generationStamp = SectionPayloadCache.nextStamp();
+    private int modificationCount;
+
+    // Content hash of the last chunk packet applied on the client, valid while modificationCount is unchanged
+    private long renderHash;
+    private int renderModificationCount;
+
+    @Inject(method = "<init>*", at = @At("RETURN"), require = 1)
+    private void neid$countArrays(CallbackInfo ci) {
+        NEIDMetrics.sectionAllocated();
+    }
+
+    @Override
+    public long neid$getGeneration() {
+        return generationStamp << 32 | (modificationCount & 0xFFFFFFFFL);
+    }
+
+    @Override
+    public long neid$getRenderHash() {
+        return renderModificationCount == modificationCount ? renderHash : 0;
+    }
+
+    @Override
+    public void neid$setRenderHash(long hash) {
+        this.renderHash = hash;
+        this.renderModificationCount = modificationCount;
+    }
+
+    @Override
+    public int neid$getBlockRefCount() {
+        return this.blockRefCount;
+    }
+
+    @Override
+    public int neid$getTickRefCount() {
+        return this.tickRefCount;
+    }
+
+    @Override
+    public Object neid$getUltramineSlot() {
+        return getUltramineSlot();
+    }
+
+    @Override
+    public void neid$setArrays(short[] blocks, short[] metas, int blockRefCount, int tickRefCount) {
+        this.block16BArray = blocks;
+        this.block16BMetaArray = metas;
+        NEIDMetrics.sectionArraysReplaced();
+        this.blockRefCount = blockRefCount;
+        this.tickRefCount = tickRefCount;
+        ++this.modificationCount;
+    }
+
     @Override
     public short[] getBlock16BArray() {
         return this.block16BArray;
@@ -44,18 +101,12 @@ public class MixinExtendedBlockStorage implements IExtendedBlockStorageMixin {
 
     @Override
     public byte[] getBlockData() {
-        final byte[] ret = new byte[this.block16BArray.length * 2];
-        // Use native byte order (little-endian on x86) to match Ultramine server
-        ByteBuffer.wrap(ret).asShortBuffer().put(this.block16BArray);
-        return ret;
+        return SectionCodec.encodeShorts(this.block16BArray);
     }
 
     @Override
     public byte[] getBlockMeta() {
-        final byte[] ret = new byte[this.block16BMetaArray.length * 2];
-        // Use native byte order (little-endian on x86) to match Ultramine server
-        ByteBuffer.wrap(ret).asShortBuffer().put(this.block16BMetaArray);
-        return ret;
+        return SectionCodec.encodeShorts(this.block16BMetaArray);
     }
 
     /**
@@ -114,16 +165,14 @@ public class MixinExtendedBlockStorage implements IExtendedBlockStorageMixin {
 
     @Override
     public void setBlockData(byte[] data, int offset) {
-        // Use native byte order (little-endian on x86) to match Ultramine server
-        ShortBuffer.wrap(this.block16BArray)
-                .put(ByteBuffer.wrap(data, offset, Constants.BLOCKS_PER_EBS * 2).asShortBuffer());
+        SectionCodec.decodeShorts(data, offset, this.block16BArray);
+        ++this.modificationCount;
     }
 
     @Override
     public void setBlockMeta(byte[] data, int offset) {
-        // Use native byte order (little-endian on x86) to match Ultramine server
-        ShortBuffer.wrap(this.block16BMetaArray)
-                .put(ByteBuffer.wrap(data, offset, Constants.BLOCKS_PER_EBS * 2).asShortBuffer());
+        SectionCodec.decodeShorts(data, offset, this.block16BMetaArray);
+        ++this.modificationCount;
     }
 
     // Ultramine slot accessor - cached to avoid repeated reflection
@@ -146,11 +195,12 @@ public class MixinExtendedBlockStorage implements IExtendedBlockStorageMixin {
     private int getBlockId(int x, int y, int z) {
         // ALWAYS read from NEID array - it's the source of truth
         // We sync TO MemSlot before copy() for packet sending, but MemSlot is NOT kept in sync during normal gameplay
-        return block16BArray[y << 8 | z << 4 | x] & 0xFFFF;
+        return SectionCodec.get(block16BArray, x, y, z);
     }
 
     private void setBlockId(int x, int y, int z, int id) {
-        block16BArray[y << 8 | z << 4 | x] = (short) id;
+        SectionCodec.set(block16BArray, x, y, z, id);
+        ++this.modificationCount;
 
         // Sync to Ultramine slot if available
         Object slot = getUltramineSlot();
@@ -168,11 +218,12 @@ public class MixinExtendedBlockStorage implements IExtendedBlockStorageMixin {
     private int getBlockMetadata(int x, int y, int z) {
         // ALWAYS read from NEID array - it's the source of truth
         // We sync TO MemSlot before copy() for packet sending, but MemSlot is NOT kept in sync during normal gameplay
-        return this.block16BMetaArray[y << 8 | z << 4 | x] & 0xFFFF;
+        return SectionCodec.get(this.block16BMetaArray, x, y, z);
     }
 
     private void setBlockMetadata(int x, int y, int z, int meta) {
-        this.block16BMetaArray[y << 8 | z << 4 | x] = (short) (meta & 0xFFFF);
+        SectionCodec.set(this.block16BMetaArray, x, y, z, meta);
+        ++this.modificationCount;
 
         // Sync to Ultramine slot if available
         Object slot = getUltramineSlot();
@@ -278,6 +329,7 @@ public class MixinExtendedBlockStorage implements IExtendedBlockStorageMixin {
                 if (block == null) {
                     if (NEIDConfig.RemoveInvalidBlocks) {
                         block16BArray[off] = 0;
+                        ++this.modificationCount;
                     }
                 } else if (block != Blocks.air) {
                     ++blockRefCount;
@@ -288,19 +340,18 @@ public class MixinExtendedBlockStorage implements IExtendedBlockStorageMixin {
             }
         }
 
-        // Log on client side to see what's happening
-        if (Thread.currentThread().getName().contains("Client")) {
-            System.err.println(
-                    "[NEID CLIENT] removeInvalidBlocks: nonAir=" + nonAir
+        if (NEIDTrace.DEBUG) {
+            NEIDTrace.debug(
+                    Category.STORAGE,
+                    "removeInvalidBlocks: nonAir=" + nonAir
                             + ", blockRefCount changed from "
                             + oldBlockRefCount
                             + " to "
                             + this.blockRefCount);
 
-            // If data disappeared, print stack trace to find who cleared it!
+            // If data disappeared, record a stack trace to find who cleared it!
             if (oldBlockRefCount > 0 && this.blockRefCount == 0) {
-                System.err.println("[NEID CLIENT] WARNING: Data disappeared! Stack trace:");
-                new Exception().printStackTrace();
+                NEIDTrace.warn(Category.STORAGE, "Section data disappeared in removeInvalidBlocks", new Exception());
             }
         }
     }
@@ -316,6 +367,7 @@ public class MixinExtendedBlockStorage implements IExtendedBlockStorageMixin {
         for (int i = 0; i < Constants.BLOCKS_PER_EBS; i++) {
             this.block16BArray[i] = (short) (this.block16BArray[i] & 0x00FF);
         }
+        ++this.modificationCount;
         ci.cancel(); // Don't execute original buggy implementation
     }
 
@@ -327,15 +379,17 @@ public class MixinExtendedBlockStorage implements IExtendedBlockStorageMixin {
     @Inject(method = "copy", at = @At("HEAD"), remap = false, require = 0)
     private void neid$syncBeforeCopy(CallbackInfoReturnable<ExtendedBlockStorage> cir) {
         // Check if MemSlot has data BEFORE syncing
-        try {
-            Object slot = getUltramineSlot();
-            if (slot != null) {
-                java.lang.reflect.Method getBlockId = slot.getClass()
-                        .getMethod("getBlockId", int.class, int.class, int.class);
-                int sampleBlock = (int) getBlockId.invoke(slot, 0, 0, 0);
-                System.err.println("[NEID] copy() HEAD: MemSlot sample block(0,0,0)=" + sampleBlock);
-            }
-        } catch (Exception e) {}
+        if (NEIDTrace.TRACE) {
+            try {
+                Object slot = getUltramineSlot();
+                if (slot != null) {
+                    java.lang.reflect.Method getBlockId = slot.getClass()
+                            .getMethod("getBlockId", int.class, int.class, int.class);
+                    int sampleBlock = (int) getBlockId.invoke(slot, 0, 0, 0);
+                    NEIDTrace.trace(Category.ULTRAMINE_SYNC, "copy() HEAD: MemSlot sample block(0,0,0)=" + sampleBlock);
+                }
+            } catch (Exception e) {}
+        }
 
         // CRITICAL: Sync FROM MemSlot TO NEID first!
         // This populates NEID arrays with freshly generated chunk data
@@ -353,16 +407,21 @@ public class MixinExtendedBlockStorage implements IExtendedBlockStorageMixin {
     @Inject(method = "copy", at = @At("RETURN"), remap = false, require = 0)
     private void neid$syncAfterCopy(CallbackInfoReturnable<ExtendedBlockStorage> cir) {
         ExtendedBlockStorage copy = cir.getReturnValue();
-        System.err.println("[NEID] copy() RETURN inject called, copy=" + copy);
+        if (NEIDTrace.DEBUG) {
+            NEIDTrace.debug(Category.ULTRAMINE_SYNC, "copy() RETURN inject called, copy=" + copy);
+        }
         if (copy != null && copy != (Object) this) {
             IExtendedBlockStorageMixin copyMixin = (IExtendedBlockStorageMixin) copy;
 
             // The copy has a new MemSlot with correct data, but empty NEID arrays
             // Sync FROM the copy's MemSlot TO the copy's NEID arrays
             try {
-                System.err.println("[NEID] Starting sync for copy...");
+                if (NEIDTrace.TRACE) {
+                    NEIDTrace.trace(Category.ULTRAMINE_SYNC, "Starting sync for copy");
+                }
                 Object copySlot = copy.getClass().getMethod("getSlot").invoke(copy);
                 if (copySlot != null) {
+                    final Object fromEvent = NEIDEvents.beginMemSlotSync();
                     short[] blocks = copyMixin.getBlock16BArray();
                     short[] metadata = copyMixin.getBlock16BMetaArray();
 
@@ -384,14 +443,23 @@ public class MixinExtendedBlockStorage implements IExtendedBlockStorageMixin {
                             }
                         }
                     }
-                    System.err.println("[NEID] Synced copy's NEID arrays from MemSlot! nonAir blocks: " + nonAir);
+                    NEIDEvents.endMemSlotSync(fromEvent, NEIDEvents.SYNC_TO_NEID, blocks.length);
+                    NEIDMetrics.syncedToNeid(blocks.length);
+                    if (NEIDTrace.DEBUG) {
+                        NEIDTrace.debug(
+                                Category.ULTRAMINE_SYNC,
+                                "Synced copy's NEID arrays from MemSlot, nonAir blocks: " + nonAir);
+                    }
 
                     // CRITICAL: Now sync BACK from NEID arrays TO MemSlot!
                     // Ultramine reads packet data from MemSlot, not from NEID arrays!
                     // We must update the copy's MemSlot with data from NEID arrays
-                    System.err.println("[NEID] Syncing NEID arrays back to copy's MemSlot...");
+                    if (NEIDTrace.TRACE) {
+                        NEIDTrace.trace(Category.ULTRAMINE_SYNC, "Syncing NEID arrays back to copy's MemSlot");
+                    }
 
                     // Reuse slotClass variable from above
+                    final Object toEvent = NEIDEvents.beginMemSlotSync();
                     java.lang.reflect.Method setBlockId = slotClass
                             .getMethod("setBlockId", int.class, int.class, int.class, int.class);
                     java.lang.reflect.Method setMeta = slotClass
@@ -408,11 +476,14 @@ public class MixinExtendedBlockStorage implements IExtendedBlockStorageMixin {
                             }
                         }
                     }
-                    System.err.println("[NEID] Successfully synced NEID arrays back to copy's MemSlot!");
+                    NEIDEvents.endMemSlotSync(toEvent, NEIDEvents.SYNC_TO_MEMSLOT, blocks.length);
+                    NEIDMetrics.syncedToMemSlot(blocks.length);
+                    if (NEIDTrace.TRACE) {
+                        NEIDTrace.trace(Category.ULTRAMINE_SYNC, "Synced NEID arrays back to copy's MemSlot");
+                    }
                 }
             } catch (Exception e) {
-                System.err.println("[NEID] CRITICAL: Failed to sync copy's NEID arrays!");
-                e.printStackTrace();
+                NEIDTrace.error(Category.ULTRAMINE_SYNC, "Failed to sync copy's NEID arrays", e);
             }
         }
     }
@@ -427,7 +498,9 @@ public class MixinExtendedBlockStorage implements IExtendedBlockStorageMixin {
             return;
         }
 
+        final Object event = NEIDEvents.beginMemSlotSync();
         try {
+            ++this.modificationCount;
             Class<?> slotClass = slot.getClass();
             java.lang.reflect.Method getBlockId = slotClass.getMethod("getBlockId", int.class, int.class, int.class);
             java.lang.reflect.Method getMeta = slotClass.getMethod("getMeta", int.class, int.class, int.class);
@@ -453,6 +526,8 @@ public class MixinExtendedBlockStorage implements IExtendedBlockStorageMixin {
                     }
                 }
             }
+            NEIDEvents.endMemSlotSync(event, NEIDEvents.SYNC_TO_NEID, synced);
+            NEIDMetrics.syncedToNeid(synced);
             // System.out.println(
             // "[NEID] Synced FROM MemSlot to NEID: " + synced
             // + " blocks (nonAir="
@@ -461,8 +536,7 @@ public class MixinExtendedBlockStorage implements IExtendedBlockStorageMixin {
             // + over255
             // + ")");
         } catch (Exception e) {
-            System.err.println("[NEID] Failed to sync FROM MemSlot: " + e.getMessage());
-            e.printStackTrace();
+            NEIDTrace.error(Category.ULTRAMINE_SYNC, "Failed to sync FROM MemSlot", e);
         }
     }
 
@@ -476,6 +550,7 @@ public class MixinExtendedBlockStorage implements IExtendedBlockStorageMixin {
             return;
         }
 
+        final Object event = NEIDEvents.beginMemSlotSync();
         try {
             Class<?> slotClass = slot.getClass();
             java.lang.reflect.Method setBlockId = slotClass
@@ -498,10 +573,11 @@ public class MixinExtendedBlockStorage implements IExtendedBlockStorageMixin {
                     }
                 }
             }
+            NEIDEvents.endMemSlotSync(event, NEIDEvents.SYNC_TO_MEMSLOT, synced);
+            NEIDMetrics.syncedToMemSlot(synced);
             // System.out.println("[NEID] Synced " + synced + " blocks to MemSlot (nonZero=" + nonZero + ")");
         } catch (Exception e) {
-            System.err.println("[NEID] Failed to sync to MemSlot: " + e.getMessage());
-            e.printStackTrace();
+            NEIDTrace.error(Category.ULTRAMINE_SYNC, "Failed to sync to MemSlot", e);
         }
     }
 
@@ -0,0 +1,37 @@
+package com.gtnewhorizons.neid.mixins.early.minecraft;
+
+import net.minecraft.network.Packet;
+import net.minecraft.util.MessageSerializer;
+
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+import com.gtnewhorizons.neid.network.ConnectionState;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+
+/**
+ * Makes the connection a packet is written to visible to its writePacketData.
+ */
+@Mixin(MessageSerializer.class)
+public class MixinMessageSerializer {
+
+    @Inject(
+            method = "encode(Lio/netty/channel/ChannelHandlerContext;Lnet/minecraft/network/Packet;Lio/netty/buffer/ByteBuf;)V",
+            at = @At("HEAD"),
+            require = 1)
+    private void neid$enterConnection(ChannelHandlerContext ctx, Packet packet, ByteBuf out, CallbackInfo ci) {
+        ConnectionState.setCurrent(ConnectionState.peek(ctx.channel()));
+    }
+
+    @Inject(
+            method = "encode(Lio/netty/channel/ChannelHandlerContext;Lnet/minecraft/network/Packet;Lio/netty/buffer/ByteBuf;)V",
+            at = @At("RETURN"),
+            require = 1)
+    private void neid$exitConnection(ChannelHandlerContext ctx, Packet packet, ByteBuf out, CallbackInfo ci) {
+        ConnectionState.setCurrent(null);
+    }
+}
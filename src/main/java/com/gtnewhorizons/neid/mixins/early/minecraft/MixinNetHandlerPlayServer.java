@@ -0,0 +1,47 @@
+package com.gtnewhorizons.neid.mixins.early.minecraft;
+
+import net.minecraft.network.NetHandlerPlayServer;
+import net.minecraft.network.NetworkManager;
+import net.minecraft.network.Packet;
+
+import org.spongepowered.asm.mixin.Final;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Shadow;
+import org.spongepowered.asm.mixin.Unique;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+import com.gtnewhorizons.neid.mixins.interfaces.IChunkPacketMixin;
+import com.gtnewhorizons.neid.mixins.interfaces.INetHandlerPlayServerMixin;
+import com.gtnewhorizons.neid.network.ConnectionState;
+
+@Mixin(NetHandlerPlayServer.class)
+public class MixinNetHandlerPlayServer implements INetHandlerPlayServerMixin {
+
+    @Shadow
+    @Final
+    public NetworkManager netManager;
+
+    @Unique
+    private ConnectionState neid$connectionState;
+
+    @Override
+    public ConnectionState neid$getConnectionState() {
+        if (neid$connectionState == null) {
+            neid$connectionState = ConnectionState.get(netManager.channel());
+        }
+        return neid$connectionState;
+    }
+
+    /**
+     * Packets are sent from the server thread in the order the connection writes them, which is the order a section
+     * cache has to see them in.
+     */
+    @Inject(method = "sendPacket(Lnet/minecraft/network/Packet;)V", at = @At("HEAD"), require = 1)
+    private void neid$prepareChunkPacket(Packet packet, CallbackInfo ci) {
+        if (packet instanceof IChunkPacketMixin) {
+            ((IChunkPacketMixin) packet).neid$prepareFor(neid$getConnectionState());
+        }
+    }
+}
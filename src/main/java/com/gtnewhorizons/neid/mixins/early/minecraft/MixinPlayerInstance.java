@@ -0,0 +1,179 @@
+package com.gtnewhorizons.neid.mixins.early.minecraft;
+
+import java.io.IOException;
+import java.util.List;
+
+import net.minecraft.block.Block;
+import net.minecraft.entity.player.EntityPlayerMP;
+import net.minecraft.network.Packet;
+import net.minecraft.network.PacketBuffer;
+import net.minecraft.network.play.server.S21PacketChunkData;
+import net.minecraft.network.play.server.S22PacketMultiBlockChange;
+import net.minecraft.tileentity.TileEntity;
+import net.minecraft.world.ChunkCoordIntPair;
+import net.minecraft.world.WorldServer;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraftforge.common.ForgeModContainer;
+
+import org.spongepowered.asm.mixin.Final;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Shadow;
+import org.spongepowered.asm.mixin.Unique;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+import com.gtnewhorizons.neid.NEIDConfig;
+import com.gtnewhorizons.neid.mixins.interfaces.INetHandlerPlayServerMixin;
+import com.gtnewhorizons.neid.network.BlockChangeStats;
+import com.gtnewhorizons.neid.network.SectionChangeJournal;
+import com.gtnewhorizons.neid.network.SectionDelta;
+
+import io.netty.buffer.Unpooled;
+
+/**
+ * Journals the changed blocks of every watched chunk per section and sends them as a {@link SectionDelta} when that is
+ * cheaper than vanilla's S22 records or section resends, and every watching player understands deltas.
+ */
+@Mixin(targets = "net.minecraft.server.management.PlayerManager$PlayerInstance")
+public abstract class MixinPlayerInstance {
+
+    @Shadow
+    @Final
+    private List<EntityPlayerMP> playersWatchingChunk;
+    @Shadow
+    @Final
+    private ChunkCoordIntPair chunkLocation;
+    @Shadow
+    private int numberOfTilesToUpdate;
+    @Shadow
+    private int flagsYAreasToUpdate;
+
+    @Unique
+    private final SectionChangeJournal neid$journal = new SectionChangeJournal();
+
+    @Shadow
+    public abstract void sendToAllPlayersWatchingChunk(Packet packet);
+
+    @Shadow
+    private void sendTileToAllPlayersWatchingChunk(TileEntity tileEntity) {}
+
+    /**
+     * Changes are collected per chunk until the end of the tick and repeated changes of a block are sent once, in its
+     * final state. Vanilla finds the repeats by scanning the list of changed blocks, the journal knows them in
+     * constant time and, unlike vanilla's 64 entry list, keeps every changed block. sendChunkUpdate then builds one
+     * packet per chunk and tick for all watching players, which is as far as changes can be batched: no packet carries
+     * changes of more than one chunk. The journal reuses its bitmaps, so flagging changes allocates nothing after the
+     * first tick a section changes in, see BlockChangeJournalBenchmark.
+     */
+    @Inject(method = "flagChunkForUpdate", at = @At("HEAD"), cancellable = true, require = 1)
+    private void neid$journalChange(int x, int y, int z, CallbackInfo ci) {
+        final boolean duplicate = !neid$journal.mark(x, y, z) && numberOfTilesToUpdate > 0;
+        BlockChangeStats.onFlagged(duplicate);
+        if (duplicate) {
+            ci.cancel();
+        }
+    }
+
+    @Inject(method = "sendChunkUpdate", at = @At("HEAD"), cancellable = true, require = 1)
+    private void neid$sendSectionDelta(CallbackInfo ci) {
+        if (!NEIDConfig.SectionDeltaUpdates || numberOfTilesToUpdate < 2 || !neid$allWatchersSupportDeltas()) {
+            return;
+        }
+        final WorldServer world = playersWatchingChunk.get(0).getServerForPlayer();
+        final Chunk chunk = world.getChunkFromChunkCoords(chunkLocation.chunkXPos, chunkLocation.chunkZPos);
+        final SectionDelta.Plan plan = SectionDelta
+                .plan(chunk, neid$journal, numberOfTilesToUpdate >= ForgeModContainer.clumpingThreshold);
+        if (plan == null) {
+            return;
+        }
+
+        final int x0 = chunkLocation.chunkXPos * 16;
+        final int z0 = chunkLocation.chunkZPos * 16;
+        if (plan.data != null) {
+            sendToAllPlayersWatchingChunk(neid$createDeltaPacket(plan.data));
+            for (int section = 0; section < 16; section++) {
+                if ((plan.deltaMask & 1 << section) == 0) {
+                    continue;
+                }
+                final long[] bits = neid$journal.getBits(section);
+                for (int word = 0; word < bits.length; word++) {
+                    for (long remaining = bits[word]; remaining != 0; remaining &= remaining - 1) {
+                        final int index = word << 6 | Long.numberOfTrailingZeros(remaining);
+                        final int x = x0 + (index & 15);
+                        final int y = section << 4 | index >> 8;
+                        final int z = z0 + (index >> 4 & 15);
+                        final Block block = world.getBlock(x, y, z);
+                        if (block.hasTileEntity(world.getBlockMetadata(x, y, z))) {
+                            neid$sendTile(world.getTileEntity(x, y, z));
+                        }
+                    }
+                }
+            }
+        }
+        if (plan.fullMask != 0) {
+            sendToAllPlayersWatchingChunk(new S21PacketChunkData(chunk, false, plan.fullMask));
+            for (int section = 0; section < 16; section++) {
+                if ((plan.fullMask & 1 << section) != 0) {
+                    final int y = section << 4;
+                    for (Object tileEntity : world.func_147486_a(x0, y, z0, x0 + 16, y + 16, z0 + 16)) {
+                        neid$sendTile((TileEntity) tileEntity);
+                    }
+                }
+            }
+        }
+        BlockChangeStats.onSectionDelta(Integer.bitCount(plan.deltaMask), Integer.bitCount(plan.fullMask));
+        numberOfTilesToUpdate = 0;
+        flagsYAreasToUpdate = 0;
+        neid$journal.clear();
+        ci.cancel();
+    }
+
+    @Inject(method = "sendChunkUpdate", at = @At("RETURN"), require = 1)
+    private void neid$clearJournal(CallbackInfo ci) {
+        if (numberOfTilesToUpdate == 0) {
+            neid$journal.clear();
+        }
+    }
+
+    @Unique
+    private boolean neid$allWatchersSupportDeltas() {
+        if (playersWatchingChunk.isEmpty()) {
+            return false;
+        }
+        for (EntityPlayerMP player : playersWatchingChunk) {
+            if (player.playerNetServerHandler == null || ((INetHandlerPlayServerMixin) player.playerNetServerHandler)
+                    .neid$getConnectionState().getProtocolVersion() < SectionDelta.PROTOCOL_VERSION) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Unique
+    private void neid$sendTile(TileEntity tileEntity) {
+        if (tileEntity != null) {
+            sendTileToAllPlayersWatchingChunk(tileEntity);
+        }
+    }
+
+    /**
+     * S22 has no constructor that takes raw data, so the packet is read from what it would write.
+     */
+    @Unique
+    private S22PacketMultiBlockChange neid$createDeltaPacket(byte[] data) {
+        final PacketBuffer buf = new PacketBuffer(Unpooled.buffer(14 + data.length));
+        buf.writeInt(chunkLocation.chunkXPos);
+        buf.writeInt(chunkLocation.chunkZPos);
+        buf.writeShort(SectionDelta.EXTENDED_MARKER | SectionDelta.FORMAT_SECTION_DELTA);
+        buf.writeInt(data.length);
+        buf.writeBytes(data);
+        final S22PacketMultiBlockChange packet = new S22PacketMultiBlockChange();
+        try {
+            packet.readPacketData(buf);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return packet;
+    }
+}
@@ -1,9 +1,5 @@
 package com.gtnewhorizons.neid.mixins.early.minecraft;
 
-import java.nio.ByteBuffer;
-import java.nio.ShortBuffer;
-import java.util.function.IntToLongFunction;
-
 import net.minecraft.world.chunk.Chunk;
 import net.minecraft.world.chunk.NibbleArray;
 import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
@@ -16,13 +12,17 @@ import org.spongepowered.asm.mixin.injection.ModifyConstant;
 import org.spongepowered.asm.mixin.injection.Redirect;
 import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
 
-import com.gtnewhorizon.gtnhlib.util.CoordinatePacker;
-import com.gtnewhorizons.neid.ClientBlockTransformerRegistry;
 import com.gtnewhorizons.neid.Constants;
-import com.gtnewhorizons.neid.mixins.interfaces.IExtendedBlockStorageMixin;
+import com.gtnewhorizons.neid.NEIDEvents;
+import com.gtnewhorizons.neid.network.ChunkPacketContext;
+import com.gtnewhorizons.neid.network.ChunkPayloadCodec;
+import com.gtnewhorizons.neid.network.SectionPayload;
+import com.gtnewhorizons.neid.network.SectionPayloadCache;
 import com.llamalad7.mixinextras.injector.WrapWithCondition;
 import com.llamalad7.mixinextras.sugar.Local;
+import com.llamalad7.mixinextras.sugar.Share;
 import com.llamalad7.mixinextras.sugar.ref.LocalIntRef;
+import com.llamalad7.mixinextras.sugar.ref.LocalRef;
 
 @Mixin(targets = "net.minecraft.network.play.server.S21PacketChunkData")
 public class MixinS21PacketChunkData {
@@ -49,12 +49,40 @@ public class MixinS21PacketChunkData {
         return Constants.BYTES_PER_CHUNK;
     }
 
+    /**
+     * The payload is inflated into a per thread buffer and copied out at its exact size, see
+     * MixinS21PacketChunkDataEncoding, so the array vanilla sizes for the worst case is not needed.
+     */
     @ModifyConstant(
             method = "readPacketData",
             constant = @Constant(intValue = Constants.VANILLA_BYTES_PER_EBS),
             require = 0)
     private static int neid$OverrideBytesPerEBS(int i) {
-        return Constants.BYTES_PER_EBS;
+        return 0;
+    }
+
+    /**
+     * The flight recorder event is shared as a local of the method, so nothing is left behind if building throws.
+     */
+    @Inject(method = "func_149269_a", at = @At("HEAD"), require = 0)
+    private static void neid$beginBuildEvent(Chunk chunk, boolean full, int mask, CallbackInfoReturnable<?> cir,
+            @Share("buildEvent") LocalRef<Object> buildEvent) {
+        redirectCalled.set(false);
+        buildEvent.set(NEIDEvents.beginChunkPacketBuild());
+    }
+
+    /**
+     * Vanilla assembles every payload in one static buffer, which would be shared between the threads encoding chunks.
+     */
+    @Redirect(
+            method = "func_149269_a",
+            at = @At(
+                    value = "FIELD",
+                    target = "Lnet/minecraft/network/play/server/S21PacketChunkData;field_149286_i:[B"),
+            require = 0)
+    private static byte[] neid$getExtractBuffer(@Local(argsOnly = true) Chunk chunk,
+            @Local(argsOnly = true) boolean full, @Local(argsOnly = true) int mask) {
+        return ChunkPayloadCodec.rawBuffer(ChunkPacketContext.extractedLength(chunk, full, mask));
     }
 
     @Redirect(
@@ -63,12 +91,13 @@ public class MixinS21PacketChunkData {
                     value = "INVOKE",
                     target = "Lnet/minecraft/world/chunk/storage/ExtendedBlockStorage;getBlockLSBArray()[B"),
             require = 0)
-    private static byte[] neid$injectNewDataCopy(ExtendedBlockStorage ebs, @Local(ordinal = 0) byte[] thebytes,
-            @Local(ordinal = 1) LocalIntRef offset) {
+    private static byte[] neid$injectNewDataCopy(ExtendedBlockStorage ebs, @Local(argsOnly = true) Chunk chunk,
+            @Local(ordinal = 0) byte[] thebytes, @Local(ordinal = 1) LocalIntRef offset) {
         redirectCalled.set(true); // Помечаем что наш код выполняется
-        IExtendedBlockStorageMixin ebsMixin = (IExtendedBlockStorageMixin) ebs;
-        byte[] data = ebsMixin.getBlockData();
-        System.arraycopy(data, 0, thebytes, offset.get(), Constants.BLOCKS_PER_EBS * 2);
+        // Copied and transformed once per section generation, shared by every player the section is sent to
+        SectionPayload payload = SectionPayloadCache.get(chunk, ebs);
+        ChunkPacketContext.addBuiltSection(ebs.getYLocation() >> 4, payload);
+        payload.writeIds(thebytes, offset.get());
         offset.set(offset.get() + (Constants.BLOCKS_PER_EBS * 2));
         return fakeByteArray;
     }
@@ -92,9 +121,7 @@ public class MixinS21PacketChunkData {
             require = 0)
     private static NibbleArray neid$injectNewMetadataCopy(ExtendedBlockStorage ebs, @Local(ordinal = 0) byte[] thebytes,
             @Local(ordinal = 1) LocalIntRef offset) {
-        IExtendedBlockStorageMixin ebsMixin = (IExtendedBlockStorageMixin) ebs;
-        byte[] meta = ebsMixin.getBlockMeta();
-        System.arraycopy(meta, 0, thebytes, offset.get(), Constants.BLOCKS_PER_EBS * 2);
+        ChunkPacketContext.getBuiltSection(ebs.getYLocation() >> 4).writeMetas(thebytes, offset.get());
         offset.set(offset.get() + (Constants.BLOCKS_PER_EBS * 2));
         return fakeNibbleArray;
     }
@@ -121,63 +148,23 @@ public class MixinS21PacketChunkData {
         return null;
     }
 
+    /**
+     * Client block transformers have already been applied when the section payloads were built, see SectionPayload.
+     */
     @Inject(method = "func_149269_a", at = @At("TAIL"), require = 0)
-    private static void neid$modifyChunkData(Chunk chunk, boolean firstSync, int flags, CallbackInfoReturnable<?> cir)
-            throws Exception {
+    private static void neid$modifyChunkData(Chunk chunk, boolean firstSync, int flags, CallbackInfoReturnable<?> cir,
+            @Share("buildEvent") LocalRef<Object> buildEvent) {
         // Если redirect не вызывался (Ultramine master), не выполняем этот код
         if (!redirectCalled.get()) {
             return;
         }
         redirectCalled.set(false); // Сбрасываем флаг
-
-        // Get return value via reflection to avoid compile dependency on S21PacketChunkData.Extracted
-        Object dataObj = cir.getReturnValue();
-        if (dataObj == null) return;
-
-        java.lang.reflect.Field field150282a = dataObj.getClass().getDeclaredField("field_150282_a");
-        field150282a.setAccessible(true);
-        byte[] dataBytes = (byte[]) field150282a.get(dataObj);
-
-        ExtendedBlockStorage[] ebs = chunk.getBlockStorageArray();
-
-        ShortBuffer[] blocks = new ShortBuffer[ebs.length];
-        ShortBuffer[] metas = new ShortBuffer[ebs.length];
-
-        int cursor = 0;
-
-        final int ebsLength = Constants.BLOCKS_PER_EBS * 2;
-
-        for (int i = 0; i < ebs.length; ++i) {
-            if (ebs[i] != null && (!firstSync || !ebs[i].isEmpty()) && (flags & 1 << i) != 0) {
-                blocks[i] = ByteBuffer.wrap(dataBytes, cursor, ebsLength).asShortBuffer();
-                cursor += ebsLength;
-            }
-        }
-
-        for (int i = 0; i < ebs.length; ++i) {
-            if (ebs[i] != null && (!firstSync || !ebs[i].isEmpty()) && (flags & 1 << i) != 0) {
-                metas[i] = ByteBuffer.wrap(dataBytes, cursor, ebsLength).asShortBuffer();
-                cursor += ebsLength;
-            }
-        }
-
-        int cx = chunk.xPosition * 16;
-        int cz = chunk.zPosition * 16;
-
-        for (int i = 0; i < ebs.length; i++) {
-            if (ebs[i] != null && (!firstSync || !ebs[i].isEmpty()) && (flags & 1 << i) != 0) {
-                int ebsY = ebs[i].getYLocation();
-
-                IntToLongFunction coord = blockIndex -> {
-                    int x = blockIndex & 15;
-                    int z = (blockIndex >> 4) & 15;
-                    int y = (blockIndex >> 8) & 255;
-
-                    return CoordinatePacker.pack(x + cx, y + ebsY, z + cz);
-                };
-
-                ClientBlockTransformerRegistry.transformBulk(chunk.worldObj, coord, blocks[i], metas[i]);
-            }
+        ChunkPacketContext.markRaw16Built();
+        if (buildEvent.get() != null) {
+            NEIDEvents.endChunkPacketBuild(
+                    buildEvent.get(),
+                    ChunkPacketContext.extractedSections(chunk, firstSync, flags),
+                    ChunkPacketContext.extractedLength(chunk, firstSync, flags));
         }
     }
 }
@@ -0,0 +1,299 @@
+package com.gtnewhorizons.neid.mixins.early.minecraft;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import javax.annotation.Nullable;
+
+import net.minecraft.network.PacketBuffer;
+import net.minecraft.network.play.server.S21PacketChunkData;
+import net.minecraft.world.chunk.Chunk;
+
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Shadow;
+import org.spongepowered.asm.mixin.Unique;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.Redirect;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+import com.gtnewhorizons.neid.NEIDConfig;
+import com.gtnewhorizons.neid.NEIDEvents;
+import com.gtnewhorizons.neid.NEIDMetrics;
+import com.gtnewhorizons.neid.mixins.interfaces.IChunkPacketMixin;
+import com.gtnewhorizons.neid.network.CachedPayloads;
+import com.gtnewhorizons.neid.network.ChunkDeflater;
+import com.gtnewhorizons.neid.network.ChunkDictionary;
+import com.gtnewhorizons.neid.network.ChunkEncoding;
+import com.gtnewhorizons.neid.network.ChunkPacketContext;
+import com.gtnewhorizons.neid.network.ChunkPayloadCodec;
+import com.gtnewhorizons.neid.network.ClientSectionCache;
+import com.gtnewhorizons.neid.network.ClientSession;
+import com.gtnewhorizons.neid.network.CompressedPayloads;
+import com.gtnewhorizons.neid.network.ConnectionState;
+import com.gtnewhorizons.neid.network.DecodedChunk;
+import com.gtnewhorizons.neid.network.MessageSectionCacheMiss;
+import com.gtnewhorizons.neid.network.NEIDNetwork;
+import com.gtnewhorizons.neid.network.SectionPayload;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Writes RAW16 chunk data in the encoding the receiving client advertised, tagging the encoding into the full chunk
+ * flag. Clients that did not advertise anything get the untouched vanilla packet.
+ */
+@Mixin(S21PacketChunkData.class)
+public class MixinS21PacketChunkDataEncoding implements IChunkPacketMixin {
+
+    @Shadow
+    private int field_149284_a;
+    @Shadow
+    private int field_149282_b;
+    @Shadow
+    private int field_149283_c;
+    @Shadow
+    private int field_149280_d;
+    @Shadow
+    private byte[] field_149278_f;
+    @Shadow
+    private boolean field_149279_g;
+
+    @Unique
+    private ChunkEncoding neid$layout = ChunkEncoding.LEGACY;
+    @Unique
+    private SectionPayload[] neid$sections;
+    @Unique
+    private CompressedPayloads neid$payloads;
+    // Null if the packet was not built with a payload for every section
+    @Unique
+    private CachedPayloads neid$cached;
+    @Unique
+    private DecodedChunk neid$decoded;
+    // Ref counts of the received sections, null if the server did not send them
+    @Unique
+    private int[] neid$refCounts;
+    @Unique
+    private boolean neid$cacheMisses;
+
+    @Override
+    public ChunkEncoding neid$getLayout() {
+        return neid$layout;
+    }
+
+    @Nullable
+    @Override
+    public DecodedChunk neid$takeDecoded(byte[] data) {
+        return neid$decoded != null && neid$decoded.take(data) ? neid$decoded : null;
+    }
+
+    @Override
+    public boolean neid$hasCacheMisses(int chunk) {
+        return neid$cacheMisses;
+    }
+
+    @Inject(method = "<init>(Lnet/minecraft/world/chunk/Chunk;ZI)V", at = @At("RETURN"), require = 1)
+    private void neid$captureLayout(Chunk chunk, boolean full, int mask, CallbackInfo ci) {
+        neid$layout = ChunkPacketContext.takeBuiltLayout();
+        neid$sections = ChunkPacketContext.takeBuiltSections();
+        if (neid$layout == ChunkEncoding.RAW16) {
+            neid$payloads = new CompressedPayloads(this::neid$compress);
+            if (neid$sections.length == Integer.bitCount(field_149283_c & 65535)) {
+                neid$cached = new CachedPayloads(neid$sections, this::neid$compressCached);
+            }
+        }
+    }
+
+    /**
+     * Starts compressing what the connection will need ahead of the write, for every player watching the chunk.
+     */
+    @Override
+    public void neid$prepareFor(ConnectionState state) {
+        if (neid$payloads != null) {
+            neid$payloads.precompress(state);
+        }
+        if (neid$cached != null) {
+            final int[] sections = { neid$sections.length };
+            neid$cached.prepare(state, new int[] { field_149284_a }, new int[] { field_149282_b }, sections);
+        }
+    }
+
+    @Inject(method = "writePacketData", at = @At("HEAD"), cancellable = true, require = 1)
+    private void neid$writeEncoded(PacketBuffer buf, CallbackInfo ci) {
+        if (neid$layout != ChunkEncoding.RAW16) {
+            return;
+        }
+        ChunkEncoding encoding = ConnectionState.currentChunkEncoding();
+        if (encoding == ChunkEncoding.LEGACY) {
+            return;
+        }
+
+        byte[] compressed = null;
+        if (encoding == ChunkEncoding.PALETTED && neid$cached != null) {
+            compressed = neid$cached.take(ConnectionState.current());
+        }
+        if (compressed != null) {
+            encoding = ChunkEncoding.CACHED_PALETTED;
+        } else {
+            compressed = neid$payloads.get(
+                    encoding,
+                    ConnectionState.currentDeflateLevel(),
+                    ConnectionState.currentDictionary(),
+                    ConnectionState.currentProtocolVersion() >= ChunkPayloadCodec.REF_COUNTS_PROTOCOL_VERSION);
+        }
+        NEIDMetrics.packetWritten(encoding, field_149278_f.length, compressed.length);
+        buf.writeInt(field_149284_a);
+        buf.writeInt(field_149282_b);
+        buf.writeByte(ChunkEncoding.toTag(field_149279_g, encoding));
+        buf.writeShort((short) (field_149283_c & 65535));
+        buf.writeShort((short) (field_149280_d & 65535));
+        buf.writeInt(compressed.length);
+        buf.writeBytes(compressed);
+        ci.cancel();
+    }
+
+    /**
+     * Compresses the payload for one combination, see {@link CompressedPayloads}.
+     */
+    @Unique
+    private byte[] neid$compress(ChunkEncoding encoding, int level, @Nullable ChunkDictionary dictionary,
+            boolean refCounts) {
+        final Object event = NEIDEvents.beginChunkPacketCompress();
+        final byte[] compressed;
+        if (encoding == ChunkEncoding.PALETTED) {
+            final int sections = Integer.bitCount(field_149283_c & 65535);
+            final ByteBuf encoded = ChunkPayloadCodec.encodePooled(
+                    field_149278_f,
+                    0,
+                    field_149278_f.length,
+                    sections,
+                    field_149279_g,
+                    neid$sections.length == sections ? neid$sections : null,
+                    0,
+                    null,
+                    refCounts);
+            try {
+                compressed = ChunkDeflater.deflate(encoded, level, dictionary);
+            } finally {
+                encoded.release();
+            }
+        } else {
+            compressed = ChunkDeflater.deflate(field_149278_f, 0, field_149278_f.length, level, dictionary);
+        }
+        NEIDEvents.endChunkPacketCompress(event, encoding.name(), level, field_149278_f.length, compressed.length);
+        return compressed;
+    }
+
+    /**
+     * Encodes and compresses the payload for one connection with a section cache, see {@link CachedPayloads}.
+     */
+    @Unique
+    private byte[] neid$compressCached(byte[] sectionKinds, int level, @Nullable ChunkDictionary dictionary,
+            boolean refCounts) {
+        final Object event = NEIDEvents.beginChunkPacketCompress();
+        final ByteBuf encoded = ChunkPayloadCodec.encodePooled(
+                field_149278_f,
+                0,
+                field_149278_f.length,
+                neid$sections.length,
+                field_149279_g,
+                neid$sections,
+                0,
+                sectionKinds,
+                refCounts);
+        final byte[] compressed;
+        try {
+            compressed = ChunkDeflater.deflate(encoded, level, dictionary);
+        } finally {
+            encoded.release();
+        }
+        NEIDEvents.endChunkPacketCompress(
+                event,
+                ChunkEncoding.CACHED_PALETTED.name(),
+                level,
+                field_149278_f.length,
+                compressed.length);
+        return compressed;
+    }
+
+    @Redirect(
+            method = "readPacketData",
+            at = @At(value = "INVOKE", target = "Lnet/minecraft/network/PacketBuffer;readBoolean()Z"),
+            require = 1)
+    private boolean neid$readTag(PacketBuffer buf) {
+        final int tag = buf.readUnsignedByte();
+        neid$layout = ChunkEncoding.fromTag(tag);
+        return ChunkEncoding.flagFromTag(tag);
+    }
+
+    @Redirect(
+            method = "readPacketData",
+            at = @At(value = "INVOKE", target = "Ljava/util/zip/Inflater;inflate([B)I"),
+            require = 1)
+    private int neid$inflate(Inflater inflater, byte[] out) throws DataFormatException {
+        // The packet does not say whether it carries sky light, so the payload size is only known once it is inflated
+        final int sections = Integer.bitCount(field_149283_c & 65535);
+        if (!neid$layout.isPaletted()) {
+            final ByteBuffer inflated = ChunkDeflater.inflateAll(inflater, neid$expectedLength(true));
+            final int length = inflated.remaining();
+            if (length != neid$expectedLength(true) && length != neid$expectedLength(false)) {
+                throw new DataFormatException("Chunk data of " + length + " bytes does not match its section mask");
+            }
+            field_149278_f = Arrays.copyOfRange(inflated.array(), inflated.position(), inflated.limit());
+            return field_149278_f.length;
+        }
+        final ByteBuffer inflated = ChunkDeflater.inflateAll(
+                inflater,
+                ChunkPayloadCodec
+                        .maxEncodedLength(sections, ChunkPayloadCodec.rawLength(sections, true, field_149279_g)));
+        try {
+            final int length = ChunkPayloadCodec.decodedLength(inflated);
+            if (length != ChunkPayloadCodec.rawLength(sections, true, field_149279_g)
+                    && length != ChunkPayloadCodec.rawLength(sections, false, field_149279_g)) {
+                throw new DataFormatException("Paletted chunk data does not match its section mask");
+            }
+            field_149278_f = new byte[length];
+            final int[] refCounts = ChunkPayloadCodec.hasRefCounts(inflated) ? new int[32] : null;
+            ChunkPayloadCodec.decode(
+                    inflated,
+                    field_149278_f,
+                    0,
+                    neid$layout == ChunkEncoding.CACHED_PALETTED,
+                    refCounts);
+            neid$layout = ChunkEncoding.RAW16;
+            neid$refCounts = refCounts;
+            final long[] misses = ClientSectionCache.takeMisses();
+            if (misses.length > 0) {
+                // The missing sections were decoded as air, which the counts do not describe
+                neid$refCounts = null;
+                neid$cacheMisses = true;
+                final int[] chunk = { field_149284_a, field_149282_b };
+                NEIDNetwork.CHANNEL.sendToServer(new MessageSectionCacheMiss(chunk, misses));
+            }
+            return field_149278_f.length;
+        } catch (RuntimeException e) {
+            throw new DataFormatException("Bad paletted chunk data: " + e);
+        }
+    }
+
+    /**
+     * @return The length of the packet's payload in the layout it was sent in, with or without sky light.
+     */
+    @Unique
+    private int neid$expectedLength(boolean skyLight) {
+        final int sections = Integer.bitCount(field_149283_c & 65535);
+        if (ClientSession.resolveLayout(neid$layout) == ChunkEncoding.RAW16) {
+            return ChunkPayloadCodec.rawLength(sections, skyLight, field_149279_g);
+        }
+        final int msbSections = Integer.bitCount(field_149280_d & 65535);
+        return ChunkPayloadCodec.legacyLength(sections, msbSections, skyLight, field_149279_g);
+    }
+
+    @Inject(method = "readPacketData", at = @At("RETURN"), require = 1)
+    private void neid$decodeSections(PacketBuffer buf, CallbackInfo ci) {
+        if (neid$layout == ChunkEncoding.RAW16 && NEIDConfig.DecodeChunksOnNetworkThread) {
+            neid$decoded = DecodedChunk.decode(field_149278_f, field_149283_c, neid$refCounts);
+        }
+    }
+}
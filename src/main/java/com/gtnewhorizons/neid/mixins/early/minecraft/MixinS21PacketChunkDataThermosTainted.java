@@ -1,17 +1,23 @@
 package com.gtnewhorizons.neid.mixins.early.minecraft;
 
 import net.minecraft.network.play.server.S21PacketChunkData;
+import net.minecraft.world.chunk.Chunk;
 import net.minecraft.world.chunk.NibbleArray;
 import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
 
 import org.spongepowered.asm.mixin.Mixin;
 import org.spongepowered.asm.mixin.injection.At;
 import org.spongepowered.asm.mixin.injection.Constant;
+import org.spongepowered.asm.mixin.injection.Inject;
 import org.spongepowered.asm.mixin.injection.ModifyConstant;
 import org.spongepowered.asm.mixin.injection.Redirect;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
 
 import com.gtnewhorizons.neid.Constants;
-import com.gtnewhorizons.neid.mixins.interfaces.IExtendedBlockStorageMixin;
+import com.gtnewhorizons.neid.network.ChunkPacketContext;
+import com.gtnewhorizons.neid.network.ChunkPayloadCodec;
+import com.gtnewhorizons.neid.network.SectionPayload;
+import com.gtnewhorizons.neid.network.SectionPayloadCache;
 import com.llamalad7.mixinextras.injector.WrapWithCondition;
 import com.llamalad7.mixinextras.sugar.Local;
 import com.llamalad7.mixinextras.sugar.ref.LocalIntRef;
@@ -38,12 +44,30 @@ public class MixinS21PacketChunkDataThermosTainted {
         return Constants.BYTES_PER_CHUNK;
     }
 
+    /**
+     * The payload is inflated into a per thread buffer and copied out at its exact size, see
+     * MixinS21PacketChunkDataEncoding, so the array vanilla sizes for the worst case is not needed.
+     */
     @ModifyConstant(
             method = "readPacketData",
             constant = @Constant(intValue = Constants.VANILLA_BYTES_PER_EBS),
             require = 1)
     private static int neid$OverrideBytesPerEBS(int i) {
-        return Constants.BYTES_PER_EBS;
+        return 0;
+    }
+
+    /**
+     * Vanilla assembles every payload in one static buffer, which would be shared between the threads encoding chunks.
+     */
+    @Redirect(
+            method = "func_149269_a",
+            at = @At(
+                    value = "FIELD",
+                    target = "Lnet/minecraft/network/play/server/S21PacketChunkData;field_149286_i:[B"),
+            require = 0)
+    private static byte[] neid$getExtractBuffer(@Local(argsOnly = true) Chunk chunk,
+            @Local(argsOnly = true) boolean full, @Local(argsOnly = true) int mask) {
+        return ChunkPayloadCodec.rawBuffer(ChunkPacketContext.extractedLength(chunk, full, mask));
     }
 
     @Redirect(
@@ -52,11 +76,11 @@ public class MixinS21PacketChunkDataThermosTainted {
                     value = "INVOKE",
                     target = "Lnet/minecraft/world/chunk/storage/ExtendedBlockStorage;getBlockLSBArray()[B"),
             require = 1)
-    private static byte[] neid$injectNewDataCopy(ExtendedBlockStorage ebs, @Local(ordinal = 0) byte[] thebytes,
-            @Local(ordinal = 1) LocalIntRef offset) {
-        IExtendedBlockStorageMixin ebsMixin = (IExtendedBlockStorageMixin) ebs;
-        byte[] data = ebsMixin.getBlockData();
-        System.arraycopy(data, 0, thebytes, offset.get(), Constants.BLOCKS_PER_EBS * 2);
+    private static byte[] neid$injectNewDataCopy(ExtendedBlockStorage ebs, @Local(argsOnly = true) Chunk chunk,
+            @Local(ordinal = 0) byte[] thebytes, @Local(ordinal = 1) LocalIntRef offset) {
+        SectionPayload payload = SectionPayloadCache.get(chunk, ebs);
+        ChunkPacketContext.addBuiltSection(ebs.getYLocation() >> 4, payload);
+        payload.writeIds(thebytes, offset.get());
         offset.set(offset.get() + (Constants.BLOCKS_PER_EBS * 2));
         return fakeByteArray;
     }
@@ -80,9 +104,7 @@ public class MixinS21PacketChunkDataThermosTainted {
             require = 1)
     private static NibbleArray neid$injectNewMetadataCopy(ExtendedBlockStorage ebs, @Local(ordinal = 0) byte[] thebytes,
             @Local(ordinal = 1) LocalIntRef offset) {
-        IExtendedBlockStorageMixin ebsMixin = (IExtendedBlockStorageMixin) ebs;
-        byte[] meta = ebsMixin.getBlockMeta();
-        System.arraycopy(meta, 0, thebytes, offset.get(), Constants.BLOCKS_PER_EBS * 2);
+        ChunkPacketContext.getBuiltSection(ebs.getYLocation() >> 4).writeMetas(thebytes, offset.get());
         offset.set(offset.get() + (Constants.BLOCKS_PER_EBS * 2));
         return fakeNibbleArray;
     }
@@ -110,4 +132,9 @@ public class MixinS21PacketChunkDataThermosTainted {
         return null;
     }
 
+    @Inject(method = "func_149269_a", at = @At("TAIL"), require = 1)
+    private static void neid$markRaw16(Chunk chunk, boolean firstSync, int flags, CallbackInfoReturnable<?> cir) {
+        ChunkPacketContext.markRaw16Built();
+    }
+
 }
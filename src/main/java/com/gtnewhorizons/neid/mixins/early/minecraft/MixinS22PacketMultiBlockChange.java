@@ -4,26 +4,47 @@ import java.io.DataOutputStream;
 import java.io.IOException;
 
 import net.minecraft.block.Block;
-import net.minecraft.init.Blocks;
+import net.minecraft.network.PacketBuffer;
 import net.minecraft.network.play.server.S22PacketMultiBlockChange;
+import net.minecraft.world.ChunkCoordIntPair;
 import net.minecraft.world.chunk.Chunk;
 
 import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Shadow;
 import org.spongepowered.asm.mixin.Unique;
 import org.spongepowered.asm.mixin.injection.At;
 import org.spongepowered.asm.mixin.injection.Constant;
+import org.spongepowered.asm.mixin.injection.Inject;
 import org.spongepowered.asm.mixin.injection.ModifyConstant;
 import org.spongepowered.asm.mixin.injection.Redirect;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
 
 import com.gtnewhorizon.gtnhlib.util.data.BlockMeta;
 import com.gtnewhorizons.neid.ClientBlockTransformerRegistry;
+import com.gtnewhorizons.neid.network.BlockChangeStats;
+import com.gtnewhorizons.neid.network.ConnectionState;
+import com.gtnewhorizons.neid.network.MultiBlockChangeCodec;
+import com.gtnewhorizons.neid.network.MultiBlockChangeRecorder;
+import com.gtnewhorizons.neid.network.SectionDelta;
 import com.llamalad7.mixinextras.sugar.Local;
 
 @Mixin(S22PacketMultiBlockChange.class)
 public class MixinS22PacketMultiBlockChange {
 
+    @Shadow
+    private ChunkCoordIntPair field_148863_a;
+    @Shadow
+    private byte[] field_148862_b;
+    @Shadow
+    private int field_148864_c;
+
+    // Stands for records whose compact form is not smaller, which are written as they are
+    @Unique
+    private static final byte[] neid$NOT_SMALLER = new byte[0];
+
+    // The records in MultiBlockChangeCodec's compact form, built on the first write to a client that supports it
     @Unique
-    private final BlockMeta pooled = new BlockMeta(Blocks.air, 0);
+    private volatile byte[] neid$compact;
 
     /**
      * These values are the number of bytes per block. These are not necessarily the same as within the other
@@ -51,22 +72,54 @@ public class MixinS22PacketMultiBlockChange {
         Block block = p_i45181_3_.getBlock(l, j1, i1);
         int meta = p_i45181_3_.getBlockMetadata(l, j1, i1);
 
-        pooled.setBlock(block);
-        pooled.setBlockMeta(meta);
-
-        boolean didSomething = ClientBlockTransformerRegistry.transformBlock(
+        BlockMeta transformed = ClientBlockTransformerRegistry.transformPooled(
                 p_i45181_3_.worldObj,
                 l + p_i45181_3_.xPosition * 16,
                 j1,
                 i1 + p_i45181_3_.zPosition * 16,
-                pooled);
+                block,
+                meta);
 
-        if (didSomething) {
-            block = pooled.getBlock();
-            meta = pooled.getBlockMeta();
+        if (transformed != null) {
+            block = transformed.getBlock();
+            meta = transformed.getBlockMeta();
         }
 
         dataOutputStream.writeShort(Block.getIdFromBlock(block));
         dataOutputStream.writeShort(meta);
     }
+
+    @Inject(method = "<init>(I[SLnet/minecraft/world/chunk/Chunk;)V", at = @At("RETURN"), require = 1)
+    private void neid$onBuilt(CallbackInfo ci) {
+        BlockChangeStats.onMultiBlockChange(field_148864_c);
+        if (MultiBlockChangeRecorder.isRecording()) {
+            MultiBlockChangeRecorder.record(field_148864_c, field_148862_b);
+        }
+    }
+
+    @Inject(method = "writePacketData", at = @At("HEAD"), cancellable = true, require = 1)
+    private void neid$writeCompact(PacketBuffer buf, CallbackInfo ci) {
+        if (field_148862_b == null || SectionDelta.isExtended(field_148864_c)
+                || ConnectionState.currentProtocolVersion() < MultiBlockChangeCodec.PROTOCOL_VERSION) {
+            return;
+        }
+        byte[] compact = neid$compact;
+        if (compact == null) {
+            compact = MultiBlockChangeCodec.compactIfSmaller(field_148862_b, field_148864_c);
+            if (compact == null) {
+                compact = neid$NOT_SMALLER;
+            }
+            neid$compact = compact;
+        }
+        if (compact == neid$NOT_SMALLER) {
+            return;
+        }
+        buf.writeInt(field_148863_a.chunkXPos);
+        buf.writeInt(field_148863_a.chunkZPos);
+        buf.writeShort(SectionDelta.EXTENDED_MARKER | MultiBlockChangeCodec.FORMAT_COMPACT_RECORDS);
+        buf.writeInt(compact.length);
+        buf.writeBytes(compact);
+        ci.cancel();
+    }
+
 }
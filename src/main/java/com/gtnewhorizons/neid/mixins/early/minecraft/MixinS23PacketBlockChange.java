@@ -14,6 +14,7 @@ import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
 
 import com.gtnewhorizon.gtnhlib.util.data.BlockMeta;
 import com.gtnewhorizons.neid.ClientBlockTransformerRegistry;
+import com.gtnewhorizons.neid.network.BlockChangeStats;
 
 import io.netty.buffer.ByteBuf;
 
@@ -27,9 +28,11 @@ public class MixinS23PacketBlockChange {
 
     @Inject(method = "<init>(IIILnet/minecraft/world/World;)V", at = @At("TAIL"))
     public void neid$transformBlock(int x, int y, int z, World world, CallbackInfo ci) {
-        BlockMeta bm = new BlockMeta(field_148883_d, field_148884_e);
+        BlockChangeStats.onBlockChange();
+        BlockMeta bm = ClientBlockTransformerRegistry
+                .transformPooled(world, x, y, z, field_148883_d, field_148884_e);
 
-        if (ClientBlockTransformerRegistry.transformBlock(world, x, y, z, bm)) {
+        if (bm != null) {
             field_148883_d = bm.getBlock();
             field_148884_e = bm.getBlockMeta();
         }
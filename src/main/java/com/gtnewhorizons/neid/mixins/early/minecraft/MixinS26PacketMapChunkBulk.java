@@ -1,15 +1,119 @@
 package com.gtnewhorizons.neid.mixins.early.minecraft;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import javax.annotation.Nullable;
+
+import net.minecraft.network.PacketBuffer;
 import net.minecraft.network.play.server.S26PacketMapChunkBulk;
 
 import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Shadow;
+import org.spongepowered.asm.mixin.Unique;
+import org.spongepowered.asm.mixin.injection.At;
 import org.spongepowered.asm.mixin.injection.Constant;
+import org.spongepowered.asm.mixin.injection.Inject;
 import org.spongepowered.asm.mixin.injection.ModifyConstant;
+import org.spongepowered.asm.mixin.injection.ModifyVariable;
+import org.spongepowered.asm.mixin.injection.Redirect;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
 
 import com.gtnewhorizons.neid.Constants;
+import com.gtnewhorizons.neid.NEIDConfig;
+import com.gtnewhorizons.neid.NEIDEvents;
+import com.gtnewhorizons.neid.NEIDMetrics;
+import com.gtnewhorizons.neid.mixins.interfaces.IChunkPacketMixin;
+import com.gtnewhorizons.neid.network.CachedPayloads;
+import com.gtnewhorizons.neid.network.ChunkDeflater;
+import com.gtnewhorizons.neid.network.ChunkDictionary;
+import com.gtnewhorizons.neid.network.ChunkEncodeExecutor;
+import com.gtnewhorizons.neid.network.ChunkEncoding;
+import com.gtnewhorizons.neid.network.ChunkPacketContext;
+import com.gtnewhorizons.neid.network.ChunkPayloadCodec;
+import com.gtnewhorizons.neid.network.ClientSectionCache;
+import com.gtnewhorizons.neid.network.CompressedPayloads;
+import com.gtnewhorizons.neid.network.ConnectionState;
+import com.gtnewhorizons.neid.network.DecodedChunk;
+import com.gtnewhorizons.neid.network.MessageSectionCacheMiss;
+import com.gtnewhorizons.neid.network.NEIDNetwork;
+import com.gtnewhorizons.neid.network.SectionPayload;
+import com.llamalad7.mixinextras.sugar.Local;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 
 @Mixin(S26PacketMapChunkBulk.class)
-public class MixinS26PacketMapChunkBulk {
+public class MixinS26PacketMapChunkBulk implements IChunkPacketMixin {
+
+    @Shadow
+    private int[] field_149266_a;
+    @Shadow
+    private int[] field_149264_b;
+    @Shadow
+    private int[] field_149265_c;
+    @Shadow
+    private int[] field_149262_d;
+    @Shadow
+    private byte[][] field_149260_f;
+    @Shadow
+    private boolean field_149267_h;
+
+    @Unique
+    private ChunkEncoding neid$layout = ChunkEncoding.LEGACY;
+    @Unique
+    private SectionPayload[] neid$sections;
+    @Unique
+    private CompressedPayloads neid$payloads;
+    // Null if the packet was not built with a payload for every section
+    @Unique
+    private CachedPayloads neid$cached;
+    // Chunks whose sections were missing from the client's section cache, by index in the packet
+    @Unique
+    private List<Integer> neid$missedChunks;
+    @Unique
+    private List<Long> neid$missedHashes;
+    // Kept after the misses were reported, so that the client leaves those chunks alone, see neid$hasCacheMisses
+    @Unique
+    private boolean[] neid$cacheMisses;
+    // The length of the raw payload vanilla splits into the chunks, and the most its paletted form can take
+    @Unique
+    private int neid$expectedLength;
+    @Unique
+    private int neid$maxPalettedLength;
+    // Sections of each chunk unpacked on the network thread, by index in the packet
+    @Unique
+    private DecodedChunk[] neid$decoded;
+    // Ref counts of the sections of each chunk, by index in the packet, null entries if the server did not send them
+    @Unique
+    private List<int[]> neid$refCounts;
+
+    @Override
+    public ChunkEncoding neid$getLayout() {
+        return neid$layout;
+    }
+
+    @Nullable
+    @Override
+    public DecodedChunk neid$takeDecoded(byte[] data) {
+        if (neid$decoded != null) {
+            for (DecodedChunk decoded : neid$decoded) {
+                if (decoded.take(data)) {
+                    return decoded;
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public boolean neid$hasCacheMisses(int chunk) {
+        return neid$cacheMisses != null && neid$cacheMisses[chunk];
+    }
 
     @ModifyConstant(
             method = "readPacketData",
@@ -18,4 +122,313 @@ public class MixinS26PacketMapChunkBulk {
     private static int neid$readPacketConstantUpdate(int i) {
         return Constants.BYTES_PER_EBS_MINUS_LIGHTING_BUT_INCLUDE_MSB;
     }
+
+    @Redirect(
+            method = "readPacketData",
+            at = @At(
+                    value = "INVOKE",
+                    target = "Lnet/minecraft/network/play/server/S21PacketChunkData;func_149275_c()I"),
+            require = 1)
+    private int neid$skipWorstCaseBuffer() {
+        return 0;
+    }
+
+    /**
+     * Vanilla inflates into a new array sized for full chunks. The chunk masks follow the compressed data, so the exact
+     * size is known up front and a per thread buffer is used instead, the chunks are copied out of it anyway.
+     */
+    @ModifyVariable(method = "readPacketData", at = @At("STORE"), ordinal = 0, require = 1)
+    private byte[] neid$useExactBuffer(byte[] placeholder, @Local(argsOnly = true) PacketBuffer buf) {
+        final int start = buf.readerIndex();
+        int length = 0;
+        int palettedLength = 0;
+        for (int i = 0; i < field_149266_a.length; ++i) {
+            // x, z, mask, add mask
+            final int sections = Integer.bitCount(buf.getUnsignedShort(start + i * 12 + 8));
+            final int msbSections = Integer.bitCount(buf.getUnsignedShort(start + i * 12 + 10));
+            length += Constants.BYTES_PER_EBS_MINUS_LIGHTING_BUT_INCLUDE_MSB * sections + 2048 * msbSections
+                    + (field_149267_h ? 2048 * sections : 0)
+                    + 256;
+            palettedLength += ChunkPayloadCodec
+                    .maxEncodedLength(sections, ChunkPayloadCodec.rawLength(sections, field_149267_h, true));
+        }
+        neid$expectedLength = length;
+        neid$maxPalettedLength = palettedLength;
+        return ChunkPayloadCodec.rawBuffer(length);
+    }
+
+    @Inject(method = "<init>(Ljava/util/List;)V", at = @At("RETURN"), require = 1)
+    private void neid$captureLayout(List<?> chunks, CallbackInfo ci) {
+        neid$layout = ChunkPacketContext.takeBuiltLayout();
+        neid$sections = ChunkPacketContext.takeBuiltSections();
+        if (neid$layout == ChunkEncoding.RAW16) {
+            // Bulk packets go to a single player, so their payload is compressed when it is written
+            neid$payloads = new CompressedPayloads(this::neid$compress);
+            if (neid$sections.length == neid$totalSections()) {
+                neid$cached = new CachedPayloads(neid$sections, this::neid$compressCached);
+            }
+        }
+    }
+
+    @Override
+    public void neid$prepareFor(ConnectionState state) {
+        if (neid$cached != null) {
+            final int[] sections = new int[field_149265_c.length];
+            for (int i = 0; i < sections.length; ++i) {
+                sections[i] = Integer.bitCount(field_149265_c[i] & 65535);
+            }
+            neid$cached.prepare(state, field_149266_a, field_149264_b, sections);
+        }
+    }
+
+    @Inject(method = "writePacketData", at = @At("HEAD"), cancellable = true, require = 1)
+    private void neid$writeEncoded(PacketBuffer buf, CallbackInfo ci) {
+        if (neid$layout != ChunkEncoding.RAW16) {
+            return;
+        }
+        ChunkEncoding encoding = ConnectionState.currentChunkEncoding();
+        if (encoding == ChunkEncoding.LEGACY) {
+            return;
+        }
+
+        byte[] compressed = null;
+        if (encoding == ChunkEncoding.PALETTED && neid$cached != null) {
+            compressed = neid$cached.take(ConnectionState.current());
+        }
+        if (compressed != null) {
+            encoding = ChunkEncoding.CACHED_PALETTED;
+        } else {
+            compressed = neid$payloads.get(
+                    encoding,
+                    ConnectionState.currentDeflateLevel(),
+                    ConnectionState.currentDictionary(),
+                    ConnectionState.currentProtocolVersion() >= ChunkPayloadCodec.REF_COUNTS_PROTOCOL_VERSION);
+        }
+        if (NEIDMetrics.isEnabled()) {
+            NEIDMetrics.packetWritten(encoding, neid$rawLength(), compressed.length);
+        }
+        buf.writeShort(field_149266_a.length);
+        buf.writeInt(compressed.length);
+        buf.writeByte(ChunkEncoding.toTag(field_149267_h, encoding));
+        buf.writeBytes(compressed);
+        for (int i = 0; i < field_149266_a.length; ++i) {
+            buf.writeInt(field_149266_a[i]);
+            buf.writeInt(field_149264_b[i]);
+            buf.writeShort((short) (field_149265_c[i] & 65535));
+            buf.writeShort((short) (field_149262_d[i] & 65535));
+        }
+        ci.cancel();
+    }
+
+    @Unique
+    private int neid$totalSections() {
+        int sections = 0;
+        for (int mask : field_149265_c) {
+            sections += Integer.bitCount(mask & 65535);
+        }
+        return sections;
+    }
+
+    /**
+     * Encodes and compresses the payload for one connection with a section cache, see {@link CachedPayloads}. The
+     * chunks are encoded in parallel.
+     */
+    @Unique
+    private byte[] neid$compressCached(byte[] sectionKinds, int level, @Nullable ChunkDictionary dictionary,
+            boolean refCounts) {
+        final Object event = NEIDEvents.beginChunkPacketCompress();
+        final List<ByteBuf> parts = ChunkEncodeExecutor
+                .invokeAll(neid$encodeTasks(neid$sections, sectionKinds, refCounts), ByteBuf::release);
+        final byte[] compressed = ChunkDeflater.deflateParts(parts, level, dictionary);
+        if (event != null) {
+            NEIDEvents.endChunkPacketCompress(
+                    event,
+                    ChunkEncoding.CACHED_PALETTED.name(),
+                    level,
+                    neid$rawLength(),
+                    compressed.length);
+        }
+        return compressed;
+    }
+
+    /**
+     * @return A task encoding each chunk to PALETTED, or CACHED_PALETTED if {@code sectionKinds} is given.
+     */
+    @Unique
+    private List<Callable<ByteBuf>> neid$encodeTasks(@Nullable SectionPayload[] payloads,
+            @Nullable byte[] sectionKinds, boolean refCounts) {
+        final List<Callable<ByteBuf>> tasks = new ArrayList<>(field_149260_f.length);
+        int firstSection = 0;
+        for (int i = 0; i < field_149260_f.length; ++i) {
+            final byte[] data = field_149260_f[i];
+            final int sections = Integer.bitCount(field_149265_c[i] & 65535);
+            final int first = firstSection;
+            tasks.add(
+                    () -> ChunkPayloadCodec.encodePooled(
+                            data,
+                            0,
+                            data.length,
+                            sections,
+                            true,
+                            payloads,
+                            first,
+                            sectionKinds,
+                            refCounts));
+            firstSection += sections;
+        }
+        return tasks;
+    }
+
+    /**
+     * Compresses the payload for one combination, see {@link CompressedPayloads}. Bulk packets are usually written
+     * once, but the result is kept in case the packet is sent again. The chunks are encoded and compressed in
+     * parallel.
+     */
+    @Unique
+    private byte[] neid$compress(ChunkEncoding encoding, int level, @Nullable ChunkDictionary dictionary,
+            boolean refCounts) {
+        final Object event = NEIDEvents.beginChunkPacketCompress();
+        final List<ByteBuf> parts;
+        if (encoding == ChunkEncoding.PALETTED) {
+            final SectionPayload[] payloads = neid$sections.length == neid$totalSections() ? neid$sections : null;
+            parts = ChunkEncodeExecutor.invokeAll(neid$encodeTasks(payloads, null, refCounts), ByteBuf::release);
+        } else {
+            parts = new ArrayList<>(field_149260_f.length);
+            for (byte[] data : field_149260_f) {
+                parts.add(Unpooled.wrappedBuffer(data));
+            }
+        }
+        final byte[] compressed = ChunkDeflater.deflateParts(parts, level, dictionary);
+        if (event != null) {
+            NEIDEvents.endChunkPacketCompress(event, encoding.name(), level, neid$rawLength(), compressed.length);
+        }
+        return compressed;
+    }
+
+    @Unique
+    private int neid$rawLength() {
+        int length = 0;
+        for (byte[] data : field_149260_f) {
+            length += data.length;
+        }
+        return length;
+    }
+
+    @Redirect(
+            method = "readPacketData",
+            at = @At(value = "INVOKE", target = "Lnet/minecraft/network/PacketBuffer;readBoolean()Z"),
+            require = 1)
+    private boolean neid$readTag(PacketBuffer buf) {
+        final int tag = buf.readUnsignedByte();
+        neid$layout = ChunkEncoding.fromTag(tag);
+        return ChunkEncoding.flagFromTag(tag);
+    }
+
+    /**
+     * PALETTED chunks are self delimiting, so they are decoded back to back into the buffer that vanilla then splits
+     * by section masks exactly as it would split RAW16 data.
+     */
+    @Redirect(
+            method = "readPacketData",
+            at = @At(value = "INVOKE", target = "Ljava/util/zip/Inflater;inflate([B)I"),
+            require = 1)
+    private int neid$inflate(Inflater inflater, byte[] out) throws DataFormatException {
+        if (neid$layout == ChunkEncoding.PALETTED) {
+            try {
+                neid$refCounts = new ArrayList<>();
+                final ByteBuffer in = ChunkDeflater.inflateAll(inflater, neid$maxPalettedLength);
+                final int length = neid$checkLength(ChunkPayloadCodec.decodeAll(in, out, neid$refCounts));
+                neid$layout = ChunkEncoding.RAW16;
+                return length;
+            } catch (RuntimeException e) {
+                throw new DataFormatException("Bad paletted chunk data: " + e);
+            }
+        }
+        if (neid$layout != ChunkEncoding.CACHED_PALETTED) {
+            final int length = neid$checkLength(ChunkDeflater.inflate(inflater, out));
+            if (!inflater.finished()) {
+                throw new DataFormatException("Chunk data is longer than its section masks");
+            }
+            return length;
+        }
+        try {
+            final ByteBuffer in = ChunkDeflater.inflateAll(inflater, neid$maxPalettedLength);
+            int length = 0;
+            neid$refCounts = new ArrayList<>();
+            for (int chunk = 0; in.hasRemaining(); chunk++) {
+                final int[] refCounts = ChunkPayloadCodec.hasRefCounts(in) ? new int[32] : null;
+                length += ChunkPayloadCodec.decode(in, out, length, true, refCounts);
+                final long[] misses = ClientSectionCache.takeMisses();
+                // The missing sections were decoded as air, which the counts do not describe
+                neid$refCounts.add(misses.length > 0 ? null : refCounts);
+                if (misses.length > 0) {
+                    if (neid$missedChunks == null) {
+                        neid$missedChunks = new ArrayList<>();
+                        neid$missedHashes = new ArrayList<>();
+                        neid$cacheMisses = new boolean[field_149266_a.length];
+                    }
+                    neid$missedChunks.add(chunk);
+                    neid$cacheMisses[chunk] = true;
+                    for (long hash : misses) {
+                        neid$missedHashes.add(hash);
+                    }
+                }
+            }
+            neid$layout = ChunkEncoding.RAW16;
+            return neid$checkLength(length);
+        } catch (RuntimeException e) {
+            throw new DataFormatException("Bad cached chunk data: " + e);
+        }
+    }
+
+    /**
+     * Vanilla splits the payload into the chunks by their section masks, so it has to be exactly that long.
+     */
+    @Unique
+    private int neid$checkLength(int length) throws DataFormatException {
+        if (length != neid$expectedLength) {
+            throw new DataFormatException(
+                    "Chunk data of " + length + " bytes does not match the section masks, expected "
+                            + neid$expectedLength);
+        }
+        return length;
+    }
+
+    /**
+     * Decodes the sections of every chunk here on the network thread, so that the client thread only copies them in.
+     */
+    @Inject(method = "readPacketData", at = @At("RETURN"), require = 1)
+    private void neid$decodeSections(PacketBuffer buf, CallbackInfo ci) {
+        if (neid$layout == ChunkEncoding.RAW16 && NEIDConfig.DecodeChunksOnNetworkThread) {
+            final boolean counted = neid$refCounts != null && neid$refCounts.size() == field_149260_f.length;
+            neid$decoded = new DecodedChunk[field_149260_f.length];
+            for (int i = 0; i < field_149260_f.length; ++i) {
+                final int[] refCounts = counted ? neid$refCounts.get(i) : null;
+                neid$decoded[i] = DecodedChunk.decode(field_149260_f[i], field_149265_c[i], refCounts);
+            }
+        }
+    }
+
+    /**
+     * The chunk positions follow the chunk data, so sections missing from the cache are reported once the whole
+     * packet has been read.
+     */
+    @Inject(method = "readPacketData", at = @At("RETURN"), require = 1)
+    private void neid$reportCacheMisses(PacketBuffer buf, CallbackInfo ci) {
+        if (neid$missedChunks == null) {
+            return;
+        }
+        final int[] chunks = new int[neid$missedChunks.size() * 2];
+        for (int i = 0; i < neid$missedChunks.size(); i++) {
+            chunks[i * 2] = field_149266_a[neid$missedChunks.get(i)];
+            chunks[i * 2 + 1] = field_149264_b[neid$missedChunks.get(i)];
+        }
+        final long[] hashes = new long[neid$missedHashes.size()];
+        for (int i = 0; i < hashes.length; i++) {
+            hashes[i] = neid$missedHashes.get(i);
+        }
+        neid$missedChunks = null;
+        neid$missedHashes = null;
+        NEIDNetwork.CHANNEL.sendToServer(new MessageSectionCacheMiss(chunks, hashes));
+    }
 }
@@ -7,14 +7,13 @@ import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
 import org.spongepowered.asm.mixin.Mixin;
 import org.spongepowered.asm.mixin.Shadow;
 import org.spongepowered.asm.mixin.injection.At;
-import org.spongepowered.asm.mixin.injection.Constant;
 import org.spongepowered.asm.mixin.injection.Inject;
-import org.spongepowered.asm.mixin.injection.ModifyConstant;
 import org.spongepowered.asm.mixin.injection.Redirect;
 import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
 
-import com.gtnewhorizons.neid.Constants;
-import com.gtnewhorizons.neid.mixins.interfaces.IExtendedBlockStorageMixin;
+import com.gtnewhorizons.neid.network.ChunkDecodeContext;
+import com.gtnewhorizons.neid.network.ChunkEncoding;
+import com.gtnewhorizons.neid.network.ChunkPacketContext;
 import com.llamalad7.mixinextras.injector.WrapWithCondition;
 import com.llamalad7.mixinextras.sugar.Local;
 import com.llamalad7.mixinextras.sugar.ref.LocalIntRef;
@@ -25,18 +24,6 @@ public class MixinChunk {
     private static final byte[] fakeByteArray = new byte[0];
     private static final NibbleArray fakeNibbleArray = new NibbleArray(0, 0);
 
-    // Track Ultramine grouped format: [all LSB][all Meta][all BL][all SL][all MSB][biome]
-    private static final ThreadLocal<Integer> ultramineEbsCount = new ThreadLocal<>();
-    private static final ThreadLocal<Integer> ultramineCurrentLsbIndex = new ThreadLocal<>();
-    private static final ThreadLocal<Integer> ultramineCurrentMetaIndex = new ThreadLocal<>();
-    private static final ThreadLocal<Boolean> ultramineHasSkylight = new ThreadLocal<>();
-
-    // CRITICAL: Temporary storage for chunk data during fillChunk()
-    // EBS objects are SHARED between chunks, so we can't store data in EBS fields directly!
-    // Instead, store data here and copy to EBS only after fillChunk() completes
-    private static final ThreadLocal<short[][]> tempBlockData = ThreadLocal.withInitial(() -> new short[16][]);
-    private static final ThreadLocal<short[][]> tempMetaData = ThreadLocal.withInitial(() -> new short[16][]);
-
     @Shadow
     private ExtendedBlockStorage[] storageArrays;
 
@@ -52,22 +39,9 @@ public class MixinChunk {
     @Inject(method = "fillChunk", at = @At("HEAD"))
     private void neid$initUltramineTracking(byte[] data, int mask, int additionalMask, boolean skylight,
             CallbackInfo ci) {
-        System.err.println("[NEID CLIENT] fillChunk HEAD called! mask=" + mask + ", additionalMask=" + additionalMask);
-        int ebsCount = Integer.bitCount(mask);
-        ultramineEbsCount.set(ebsCount);
-        ultramineCurrentLsbIndex.set(0);
-        ultramineCurrentMetaIndex.set(0);
-        ultramineHasSkylight.set(skylight);
-
-        // CRITICAL: Clear temp storage for THIS chunk!
-        // Vanilla may process multiple chunks in sequence on same thread,
-        // so we must clear temp data to prevent one chunk from seeing another chunk's data!
-        short[][] tempBlocks = tempBlockData.get();
-        short[][] tempMeta = tempMetaData.get();
-        for (int i = 0; i < 16; i++) {
-            tempBlocks[i] = null;
-            tempMeta[i] = null;
-        }
+        final boolean raw16 = ChunkPacketContext.getFillLayout() == ChunkEncoding.RAW16;
+        ChunkDecodeContext.get().captureRenderState(storageArrays, ((Chunk) (Object) this).getBiomeArray());
+        ChunkDecodeContext.get().begin(mask, skylight, raw16, raw16 ? ChunkPacketContext.getFillDecoded() : null);
     }
 
     @Redirect(
@@ -78,42 +52,7 @@ public class MixinChunk {
             require = 1)
     private byte[] neid$injectNewDataCopy(ExtendedBlockStorage ebs, @Local(ordinal = 0) byte[] thebytes,
             @Local(ordinal = 2) LocalIntRef offset) {
-        int currentIndex = ultramineCurrentLsbIndex.get();
-
-        // CRITICAL: Store data in TEMPORARY ThreadLocal storage, NOT in EBS!
-        // EBS objects are SHARED between chunks during fillChunk(), so storing in EBS
-        // would cause one chunk to overwrite another chunk's data!
-        short[][] blocks = tempBlockData.get();
-        short[][] metadata = tempMetaData.get();
-
-        // Initialize arrays if needed
-        if (blocks[currentIndex] == null) {
-            blocks[currentIndex] = new short[Constants.BLOCKS_PER_EBS];
-            metadata[currentIndex] = new short[Constants.BLOCKS_PER_EBS];
-        }
-
-        // Ultramine groups all LSB together at start of packet
-        int lsbOffset = currentIndex * 4096;
-        System.err.println("[NEID CLIENT] LSB for EBS #" + currentIndex + " at offset=" + lsbOffset);
-
-        // Read LSB (4096 bytes) from Ultramine grouped position into TEMP storage
-        for (int i = 0; i < Constants.BLOCKS_PER_EBS; i++) {
-            int lsb = thebytes[lsbOffset + i] & 0xFF;
-            blocks[currentIndex][i] = (short) lsb;
-        }
-
-        // Count non-air blocks
-        int nonAir = 0;
-        for (short s : blocks[currentIndex]) {
-            if ((s & 0xFFFF) != 0) nonAir++;
-        }
-        System.err.println("[NEID CLIENT] LSB read: nonAir=" + nonAir);
-
-        // Increment index for next EBS
-        ultramineCurrentLsbIndex.set(currentIndex + 1);
-
-        // CRITICAL: Advance vanilla offset so blocklight/skylight/biome read from correct positions
-        offset.set(offset.get() + 4096);
+        offset.set(offset.get() + ChunkDecodeContext.get().readIds(storageArrays, ebs, thebytes));
         return fakeByteArray;
     }
 
@@ -125,26 +64,7 @@ public class MixinChunk {
             require = 1)
     private NibbleArray neid$injectNewMetadataCopy(ExtendedBlockStorage ebs, @Local(ordinal = 0) byte[] thebytes,
             @Local(ordinal = 2) LocalIntRef offset) {
-        int currentIndex = ultramineCurrentMetaIndex.get();
-        short[][] metadata = tempMetaData.get();
-        int ebsCount = ultramineEbsCount.get();
-
-        // Ultramine groups all Metadata after all LSB
-        int metaOffset = (ebsCount * 4096) + (currentIndex * 2048);
-
-        // Read metadata (2048 bytes = 4096 nibbles) from Ultramine grouped position into TEMP storage
-        for (int i = 0; i < Constants.BLOCKS_PER_EBS; i++) {
-            int byteIndex = i / 2;
-            int nibble = (i & 1) == 0 ? (thebytes[metaOffset + byteIndex] & 0x0F)
-                    : ((thebytes[metaOffset + byteIndex] >> 4) & 0x0F);
-            metadata[currentIndex][i] = (short) nibble;
-        }
-
-        // Increment index for next EBS
-        ultramineCurrentMetaIndex.set(currentIndex + 1);
-
-        // CRITICAL: Advance vanilla offset so blocklight/skylight/biome read from correct positions
-        offset.set(offset.get() + 2048);
+        offset.set(offset.get() + ChunkDecodeContext.get().readMetas(thebytes));
         return fakeNibbleArray;
     }
 
@@ -170,13 +90,6 @@ public class MixinChunk {
         return false;
     }
 
-    @ModifyConstant(method = "fillChunk", constant = @Constant(intValue = 0, ordinal = 10), require = 0)
-    private int neid$AllowMSBForLoop(int i) {
-        // Allow MSB loop to run + reset index for MSB reading
-        ultramineCurrentLsbIndex.set(0);
-        return 0;
-    }
-
     @Redirect(
             method = "fillChunk",
             at = @At(
@@ -185,119 +98,52 @@ public class MixinChunk {
             require = 0)
     private NibbleArray neid$injectMSBRead(ExtendedBlockStorage ebs, @Local(ordinal = 0) byte[] thebytes,
             @Local(ordinal = 2) LocalIntRef offset) {
-        int currentIndex = ultramineCurrentLsbIndex.get();
-        short[][] blocks = tempBlockData.get();
-
-        System.err.println(
-                "[NEID CLIENT] MSB redirect for EBS=" + ebs
-                        + " (Y="
-                        + ebs.getYLocation()
-                        + "), currentIndex="
-                        + currentIndex);
-        int ebsCount = ultramineEbsCount.get();
-        boolean hasSkylight = ultramineHasSkylight.get();
-
-        // Ultramine groups all MSB after [LSB][Meta][Blocklight][Skylight]
-        int msbBaseOffset = (ebsCount * 4096) + (ebsCount * 2048) + (ebsCount * 2048);
-        if (hasSkylight) {
-            msbBaseOffset += (ebsCount * 2048);
-        }
-        int msbOffset = msbBaseOffset + (currentIndex * 2048);
-        System.err.println(
-                "[NEID CLIENT] MSB for EBS #" + currentIndex
-                        + " at offset="
-                        + msbOffset
-                        + " (skylight="
-                        + hasSkylight
-                        + ")");
-
-        // Read MSB from Ultramine grouped position and combine with LSB in TEMP storage
-        for (int i = 0; i < Constants.BLOCKS_PER_EBS; i++) {
-            int byteIndex = i / 2;
-            int nibble = (i & 1) == 0 ? (thebytes[msbOffset + byteIndex] & 0x0F)
-                    : ((thebytes[msbOffset + byteIndex] >> 4) & 0x0F);
-
-            int lsb = blocks[currentIndex][i] & 0xFF;
-            int blockId = lsb | (nibble << 8);
-            blocks[currentIndex][i] = (short) blockId;
+        final ChunkDecodeContext context = ChunkDecodeContext.get();
+        // RAW16 has no MSB data, returning null also skips the MSB clearing for full chunks
+        if (context.isRaw16()) {
+            return null;
         }
-
-        // Count blocks after combining
-        int nonAir = 0;
-        int over255 = 0;
-        for (short s : blocks[currentIndex]) {
-            int blockId = s & 0xFFFF;
-            if (blockId != 0) {
-                nonAir++;
-                if (blockId > 255) over255++;
-            }
-        }
-        System.err.println("[NEID CLIENT] After MSB: nonAir=" + nonAir + ", over255=" + over255);
-
-        // Increment index for next EBS
-        ultramineCurrentLsbIndex.set(currentIndex + 1);
-
-        // CRITICAL: Advance vanilla offset so biome data reads from correct position
-        offset.set(offset.get() + 2048);
+        offset.set(offset.get() + context.readMsb(thebytes));
         return fakeNibbleArray;
     }
 
     /**
-     * CRITICAL: Call removeInvalidBlocks() for each EBS after fillChunk to recalculate blockRefCount. Vanilla fillChunk
-     * doesn't call it on client, so isEmpty() returns true and chunks don't render! ALSO: Force render update to ensure
-     * renderer sees the new data (especially for newly generated chunks)!
+     * Copies sections that could not be decoded in place, see {@link ChunkDecodeContext}. CRITICAL: Call
+     * removeInvalidBlocks() for each EBS after fillChunk to recalculate blockRefCount. Vanilla fillChunk doesn't call
+     * it on client, so isEmpty() returns true and chunks don't render! ALSO: Force render update to ensure renderer
+     * sees the new data (especially for newly generated chunks)!
      */
     @Inject(method = "fillChunk", at = @At("RETURN"))
     private void neid$recalculateBlockCounts(byte[] data, int mask, int additionalMask, boolean skylight,
             CallbackInfo ci) {
-        System.err.println("[NEID CLIENT] fillChunk @At(RETURN) inject - copying temp data to EBS for mask=" + mask);
-
-        // CRITICAL: Copy data from TEMP storage to EBS!
-        // At this point, each storageArrays[i] belongs ONLY to THIS chunk, so it's safe to write to them.
-        short[][] tempBlocks = tempBlockData.get();
-        short[][] tempMeta = tempMetaData.get();
+        final ChunkDecodeContext context = ChunkDecodeContext.get();
+        final int counted = context.finish(storageArrays);
 
-        int sectionIndex = 0;
         for (int i = 0; i < storageArrays.length; i++) {
-            if (storageArrays[i] != null && (mask & (1 << i)) != 0) {
-                IExtendedBlockStorageMixin ebsMixin = (IExtendedBlockStorageMixin) storageArrays[i];
-
-                // Copy from temp storage to EBS
-                if (tempBlocks[sectionIndex] != null) {
-                    System.arraycopy(
-                            tempBlocks[sectionIndex],
-                            0,
-                            ebsMixin.getBlock16BArray(),
-                            0,
-                            Constants.BLOCKS_PER_EBS);
-                    System.arraycopy(
-                            tempMeta[sectionIndex],
-                            0,
-                            ebsMixin.getBlock16BMetaArray(),
-                            0,
-                            Constants.BLOCKS_PER_EBS);
-
-                    // Clear temp storage to free memory
-                    tempBlocks[sectionIndex] = null;
-                    tempMeta[sectionIndex] = null;
-                }
-
-                sectionIndex++;
-
-                System.err
-                        .println("[NEID CLIENT] Calling removeInvalidBlocks on EBS #" + i + " from @At(RETURN) inject");
+            if (storageArrays[i] != null && (mask & (1 << i)) != 0 && (counted & (1 << i)) == 0) {
                 storageArrays[i].removeInvalidBlocks();
             }
         }
-        // System.out.println("[NEID CLIENT] fillChunk() RETURN: called removeInvalidBlocks() for mask=" + mask);
 
         // CRITICAL: Force render update! Renderer may have cached "empty chunk" state before fillChunk
         // This is especially important for newly generated chunks that didn't exist on client before
+        // Only the sections that actually look different are rebuilt, runs of them with one call
         if (worldObj != null && worldObj.isRemote) {
             int minX = xPosition << 4;
             int minZ = zPosition << 4;
-            worldObj.markBlockRangeForRenderUpdate(minX, 0, minZ, minX + 15, 256, minZ + 15);
-            // System.out.println("[NEID CLIENT] Forced render update for chunk " + xPosition + "," + zPosition);
+            // The last fillChunk argument is the full chunk flag, which also replaces biomes
+            final int changed = context
+                    .changedSections(storageArrays, mask, skylight, ((Chunk) (Object) this).getBiomeArray());
+            for (int y = 0; y < 16; y++) {
+                if ((changed & 1 << y) == 0) {
+                    continue;
+                }
+                final int first = y;
+                while (y + 1 < 16 && (changed & 1 << y + 1) != 0) {
+                    y++;
+                }
+                worldObj.markBlockRangeForRenderUpdate(minX, first << 4, minZ, minX + 15, (y << 4) + 15, minZ + 15);
+            }
         }
     }
 }
@@ -0,0 +1,26 @@
+package com.gtnewhorizons.neid.mixins.early.minecraft.client;
+
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+import com.gtnewhorizons.neid.mixins.interfaces.IExtendedBlockStorageMixin;
+
+/**
+ * Forgets the render hash of an EBS when the client relights it, block and metadata changes already invalidate it
+ * through the modification count.
+ */
+@Mixin(ExtendedBlockStorage.class)
+public class MixinExtendedBlockStorageLight {
+
+    @Inject(
+            method = { "setExtSkylightValue", "setExtBlocklightValue", "setSkylightArray", "setBlocklightArray" },
+            at = @At("HEAD"),
+            require = 4)
+    private void neid$invalidateRenderHash(CallbackInfo ci) {
+        ((IExtendedBlockStorageMixin) this).neid$setRenderHash(0);
+    }
+}
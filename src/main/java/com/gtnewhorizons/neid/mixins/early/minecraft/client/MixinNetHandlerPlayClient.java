@@ -4,19 +4,87 @@ import java.io.DataInputStream;
 import java.io.IOException;
 
 import net.minecraft.block.Block;
+import net.minecraft.client.multiplayer.WorldClient;
 import net.minecraft.client.network.NetHandlerPlayClient;
+import net.minecraft.network.play.server.S01PacketJoinGame;
+import net.minecraft.network.play.server.S21PacketChunkData;
+import net.minecraft.network.play.server.S22PacketMultiBlockChange;
+import net.minecraft.network.play.server.S26PacketMapChunkBulk;
+import net.minecraft.world.ChunkCoordIntPair;
+import net.minecraft.world.chunk.Chunk;
 
 import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Shadow;
 import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
 import org.spongepowered.asm.mixin.injection.ModifyArg;
 import org.spongepowered.asm.mixin.injection.Redirect;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
 
 import com.gtnewhorizons.neid.Constants;
+import com.gtnewhorizons.neid.NEID;
+import com.gtnewhorizons.neid.mixins.interfaces.IChunkPacketMixin;
+import com.gtnewhorizons.neid.network.ChunkEncoding;
+import com.gtnewhorizons.neid.network.ChunkPacketContext;
+import com.gtnewhorizons.neid.network.ClientSession;
+import com.gtnewhorizons.neid.network.MultiBlockChangeCodec;
+import com.gtnewhorizons.neid.network.SectionDelta;
+import com.llamalad7.mixinextras.injector.wrapoperation.Operation;
+import com.llamalad7.mixinextras.injector.wrapoperation.WrapOperation;
 import com.llamalad7.mixinextras.sugar.Local;
 
 @Mixin(NetHandlerPlayClient.class)
 public class MixinNetHandlerPlayClient {
 
+    @Shadow
+    private WorldClient clientWorldController;
+
+    /**
+     * Section deltas and compact records are applied block by block through the world, like vanilla records, so that
+     * lighting, render updates and tile entities follow the changes. Extended packets in a format this client does not
+     * know are dropped rather than passed to vanilla.
+     */
+    @Inject(method = "handleMultiBlockChange", at = @At("HEAD"), cancellable = true, require = 1)
+    private void neid$handleExtendedMultiBlockChange(S22PacketMultiBlockChange packet, CallbackInfo ci) {
+        final int recordCount = packet.func_148853_f();
+        if (!SectionDelta.isExtended(recordCount)) {
+            return;
+        }
+        final ChunkCoordIntPair pos = packet.func_148856_e();
+        final int x0 = pos.chunkXPos * 16;
+        final int z0 = pos.chunkZPos * 16;
+        switch (SectionDelta.getFormat(recordCount)) {
+            case SectionDelta.FORMAT_SECTION_DELTA:
+                SectionDelta.decode(
+                        packet.func_148857_g(),
+                        (section, index, id, meta) -> clientWorldController.func_147492_c(
+                                x0 + (index & 15),
+                                section << 4 | index >> 8,
+                                z0 + (index >> 4 & 15),
+                                Block.getBlockById(id),
+                                meta & Constants.METADATA_MASK));
+                break;
+            case MultiBlockChangeCodec.FORMAT_COMPACT_RECORDS:
+                MultiBlockChangeCodec.decode(
+                        packet.func_148857_g(),
+                        (position, id, meta) -> clientWorldController.func_147492_c(
+                                x0 + (position >> 12 & 15),
+                                position & 255,
+                                z0 + (position >> 8 & 15),
+                                Block.getBlockById(id),
+                                meta & Constants.METADATA_MASK));
+                break;
+            default:
+                // Vanilla would read the payload as 4 byte records, drop the packet instead
+                NEID.LOG.warn(
+                        "Dropped a multi block change for chunk {} in unknown record format {}",
+                        pos,
+                        SectionDelta.getFormat(recordCount));
+                break;
+        }
+        ci.cancel();
+    }
+
     @Redirect(
             method = "handleMultiBlockChange",
             at = @At(
@@ -38,4 +106,72 @@ public class MixinNetHandlerPlayClient {
         return datainputstream.readShort() & Constants.METADATA_MASK;
     }
 
+    @Inject(method = "handleJoinGame", at = @At("HEAD"), require = 1)
+    private void neid$resetSession(S01PacketJoinGame packet, CallbackInfo ci) {
+        ClientSession.reset();
+    }
+
+    /**
+     * A chunk with sections missing from the section cache would get air in their place until the server resends it.
+     * It is held back instead, so the client keeps what it had, or nothing, until the resend.
+     */
+    @Inject(method = "handleChunkData", at = @At("HEAD"), cancellable = true, require = 1)
+    private void neid$holdChunkWithCacheMisses(S21PacketChunkData packet, CallbackInfo ci) {
+        if (((IChunkPacketMixin) packet).neid$hasCacheMisses(0)) {
+            ci.cancel();
+        }
+    }
+
+    /**
+     * Loading the chunk would replace what the client has with an empty chunk, see
+     * {@link #neid$holdChunkWithCacheMisses}.
+     */
+    @WrapOperation(
+            method = "handleMapChunkBulk",
+            at = @At(value = "INVOKE", target = "Lnet/minecraft/client/multiplayer/WorldClient;doPreChunk(IIZ)V"),
+            require = 1)
+    private void neid$holdBulkChunkWithCacheMisses(WorldClient world, int chunkX, int chunkZ, boolean load,
+            Operation<Void> original, @Local(argsOnly = true) S26PacketMapChunkBulk packet,
+            @Local(ordinal = 0) int index) {
+        if (!((IChunkPacketMixin) packet).neid$hasCacheMisses(index)) {
+            original.call(world, chunkX, chunkZ, load);
+        }
+    }
+
+    @WrapOperation(
+            method = "handleChunkData",
+            at = @At(value = "INVOKE", target = "Lnet/minecraft/world/chunk/Chunk;fillChunk([BIIZ)V"),
+            require = 1)
+    private void neid$fillChunkData(Chunk chunk, byte[] data, int mask, int additionalMask, boolean full,
+            Operation<Void> original, @Local(argsOnly = true) S21PacketChunkData packet) {
+        ChunkPacketContext.setFillLayout(ClientSession.resolveLayout(((IChunkPacketMixin) packet).neid$getLayout()));
+        ChunkPacketContext.setFillDecoded(((IChunkPacketMixin) packet).neid$takeDecoded(data));
+        try {
+            original.call(chunk, data, mask, additionalMask, full);
+        } finally {
+            ChunkPacketContext.setFillLayout(ChunkEncoding.LEGACY);
+            ChunkPacketContext.setFillDecoded(null);
+        }
+    }
+
+    @WrapOperation(
+            method = "handleMapChunkBulk",
+            at = @At(value = "INVOKE", target = "Lnet/minecraft/world/chunk/Chunk;fillChunk([BIIZ)V"),
+            require = 1)
+    private void neid$fillMapChunkBulk(Chunk chunk, byte[] data, int mask, int additionalMask, boolean full,
+            Operation<Void> original, @Local(argsOnly = true) S26PacketMapChunkBulk packet,
+            @Local(ordinal = 0) int index) {
+        if (((IChunkPacketMixin) packet).neid$hasCacheMisses(index)) {
+            return;
+        }
+        ChunkPacketContext.setFillLayout(ClientSession.resolveLayout(((IChunkPacketMixin) packet).neid$getLayout()));
+        ChunkPacketContext.setFillDecoded(((IChunkPacketMixin) packet).neid$takeDecoded(data));
+        try {
+            original.call(chunk, data, mask, additionalMask, full);
+        } finally {
+            ChunkPacketContext.setFillLayout(ChunkEncoding.LEGACY);
+            ChunkPacketContext.setFillDecoded(null);
+        }
+    }
+
 }
@@ -1,14 +1,18 @@
 package com.gtnewhorizons.neid.mixins.interfaces;
 
 import java.nio.ShortBuffer;
+import java.util.BitSet;
 import java.util.function.IntToLongFunction;
 
+import javax.annotation.Nullable;
+
 import net.minecraft.block.Block;
 import net.minecraft.init.Blocks;
 import net.minecraft.world.World;
 
 import com.gtnewhorizon.gtnhlib.util.CoordinatePacker;
 import com.gtnewhorizon.gtnhlib.util.data.BlockMeta;
+import com.gtnewhorizons.neid.Constants;
 
 /**
  * An object that can transform a block before it is sent to the client. This is useful for situations where the client
@@ -29,6 +33,20 @@ public interface ClientBlockTransformer {
      */
     boolean transformBlock(World world, int x, int y, int z, BlockMeta blockMeta);
 
+    /**
+     * The ids of the blocks this transformer may change. When a set is given, sections without any of these blocks are
+     * not passed to the transformer at all, and within other sections {@link #transformBlock} is only called at the
+     * positions that hold one of them ({@link #transformSection} and {@link #transformBulk} are not used). The set is
+     * read when the transformer is registered and again on
+     * {@link com.gtnewhorizons.neid.ClientBlockTransformerRegistry#refreshInterests()}.
+     *
+     * @return The block ids, or null to see every block.
+     */
+    @Nullable
+    default BitSet getInterestingBlockIds() {
+        return null;
+    }
+
     /**
      * Transforms a buffer of block ids + metas. The block and meta buffers are guaranteed to be the same length.
      * 
@@ -65,6 +83,30 @@ public interface ClientBlockTransformer {
         }
     }
 
+    /**
+     * Transforms one section. The arrays are in section order, index {@code y << 8 | z << 4 | x}. The default
+     * implementation adapts to {@link #transformBulk}, transformers that handle many blocks should override this
+     * instead and loop over the arrays directly.
+     *
+     * @param world      The world
+     * @param cx         The world-space x coord of the section's first block
+     * @param ebsY       The world-space y coord of the section's first block
+     * @param cz         The world-space z coord of the section's first block
+     * @param ids        The block ids, {@link com.gtnewhorizons.neid.Constants#BLOCKS_PER_EBS} from {@code idOffset}
+     * @param metas      The meta values, {@link com.gtnewhorizons.neid.Constants#BLOCKS_PER_EBS} from
+     *                   {@code metaOffset}
+     */
+    default void transformSection(World world, int cx, int ebsY, int cz, short[] ids, int idOffset, short[] metas,
+            int metaOffset) {
+        final IntToLongFunction coord = blockIndex -> CoordinatePacker
+                .pack(cx + (blockIndex & 15), ebsY + (blockIndex >> 8 & 255), cz + (blockIndex >> 4 & 15));
+        transformBulk(
+                world,
+                coord,
+                ShortBuffer.wrap(ids, idOffset, Constants.BLOCKS_PER_EBS).slice(),
+                ShortBuffer.wrap(metas, metaOffset, Constants.BLOCKS_PER_EBS).slice());
+    }
+
     class BlockIdCache {
 
         public Block block;
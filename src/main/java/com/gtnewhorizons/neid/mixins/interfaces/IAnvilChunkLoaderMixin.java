@@ -0,0 +1,10 @@
+package com.gtnewhorizons.neid.mixins.interfaces;
+
+public interface IAnvilChunkLoaderMixin {
+
+    /**
+     * @return True if the chunk is queued for saving and the region file does not hold its latest data yet.
+     */
+    boolean neid$isSavePending(int chunkX, int chunkZ);
+
+}
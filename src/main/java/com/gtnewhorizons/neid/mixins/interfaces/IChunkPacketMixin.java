@@ -0,0 +1,42 @@
+package com.gtnewhorizons.neid.mixins.interfaces;
+
+import javax.annotation.Nullable;
+
+import com.gtnewhorizons.neid.network.ChunkEncoding;
+import com.gtnewhorizons.neid.network.ConnectionState;
+import com.gtnewhorizons.neid.network.DecodedChunk;
+
+/**
+ * Implemented by S21PacketChunkData and S26PacketMapChunkBulk.
+ */
+public interface IChunkPacketMixin {
+
+    /**
+     * @return The layout of the uncompressed chunk data held by the packet, {@link ChunkEncoding#LEGACY} if it was
+     *         received untagged. Never {@link ChunkEncoding#PALETTED}, that is only used on the wire.
+     */
+    ChunkEncoding neid$getLayout();
+
+    /**
+     * @param data The chunk data about to be passed to {@code Chunk.fillChunk}
+     * @return The sections of {@code data} unpacked while the packet was read, null if they were not. Only returned
+     *         once.
+     */
+    @Nullable
+    DecodedChunk neid$takeDecoded(byte[] data);
+
+    /**
+     * @param chunk The index of the chunk in the packet, 0 for S21PacketChunkData
+     * @return True if sections of the chunk were missing from the client's section cache. The chunk is then left as it
+     *         is until the server resends it, rather than filled with air where the sections are missing.
+     */
+    boolean neid$hasCacheMisses(int chunk);
+
+    /**
+     * Called on the thread that sends the packet to a connection, before it is queued for writing. Starts compressing
+     * the payload the connection will need, see {@link com.gtnewhorizons.neid.network.CompressedPayloads} and
+     * {@link com.gtnewhorizons.neid.network.CachedPayloads}.
+     */
+    void neid$prepareFor(ConnectionState state);
+
+}
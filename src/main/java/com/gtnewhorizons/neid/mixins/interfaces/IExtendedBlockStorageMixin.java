@@ -1,5 +1,7 @@
 package com.gtnewhorizons.neid.mixins.interfaces;
 
+import javax.annotation.Nullable;
+
 public interface IExtendedBlockStorageMixin {
 
     short[] getBlock16BArray();
@@ -21,4 +23,34 @@ public interface IExtendedBlockStorageMixin {
 
     byte[] getVanillaMSB();
 
+    /**
+     * @return A value that changes whenever the block or metadata arrays are written through this interface or the
+     *         EBS setters, and that is never shared between two EBS instances.
+     */
+    long neid$getGeneration();
+
+    /**
+     * @return The hash the client recorded with {@link #neid$setRenderHash} after applying the last chunk packet, or 0
+     *         if none was recorded or the blocks, metadata or light changed since.
+     */
+    long neid$getRenderHash();
+
+    void neid$setRenderHash(long hash);
+
+    int neid$getBlockRefCount();
+
+    int neid$getTickRefCount();
+
+    /**
+     * Replaces the block and metadata arrays with arrays decoded elsewhere, which must not be used by anything else
+     * afterwards, together with their reference counts.
+     */
+    void neid$setArrays(short[] blocks, short[] metas, int blockRefCount, int tickRefCount);
+
+    /**
+     * @return Ultramine's MemSlot of this EBS, or null when not running on Ultramine.
+     */
+    @Nullable
+    Object neid$getUltramineSlot();
+
 }
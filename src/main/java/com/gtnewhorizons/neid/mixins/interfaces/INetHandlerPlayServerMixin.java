@@ -0,0 +1,12 @@
+package com.gtnewhorizons.neid.mixins.interfaces;
+
+import com.gtnewhorizons.neid.network.ConnectionState;
+
+public interface INetHandlerPlayServerMixin {
+
+    /**
+     * @return The NEID handshake state of this player's connection.
+     */
+    ConnectionState neid$getConnectionState();
+
+}
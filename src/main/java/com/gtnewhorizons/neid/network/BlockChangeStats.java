@@ -0,0 +1,99 @@
+package com.gtnewhorizons.neid.network;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts how block changes reach clients: how many changes were flagged and how many of those were repeats coalesced
+ * into an update already pending for the tick, and how many packets of each kind carried them, see
+ * MixinPlayerInstance. Packets are counted once when they are built, not once per receiving player. Packet rates cover
+ * the last {@link #WINDOW_SECONDS} seconds, from samples of the counters taken once a second on the server thread.
+ */
+public class BlockChangeStats {
+
+    public static final int WINDOW_SECONDS = 60;
+
+    private static final LongAdder flagged = new LongAdder();
+    private static final LongAdder coalesced = new LongAdder();
+    private static final LongAdder blockChanges = new LongAdder();
+    private static final LongAdder multiBlockChanges = new LongAdder();
+    private static final LongAdder multiBlockRecords = new LongAdder();
+    private static final LongAdder sectionDeltas = new LongAdder();
+    private static final LongAdder sectionResends = new LongAdder();
+
+    // Ring of samples from sample(): the time, then the packet counters in the order of packetCounters()
+    private static final long[][] samples = new long[WINDOW_SECONDS + 1][];
+    private static int nextSample;
+    private static int sampleCount;
+    private static volatile long since = System.nanoTime();
+
+    public static void onFlagged(boolean duplicate) {
+        flagged.increment();
+        if (duplicate) {
+            coalesced.increment();
+        }
+    }
+
+    public static void onBlockChange() {
+        blockChanges.increment();
+    }
+
+    public static void onMultiBlockChange(int records) {
+        multiBlockChanges.increment();
+        multiBlockRecords.add(records);
+    }
+
+    public static void onSectionDelta(int deltaSections, int resentSections) {
+        if (deltaSections > 0) {
+            sectionDeltas.increment();
+        }
+        sectionResends.add(resentSections);
+    }
+
+    public static void reset() {
+        flagged.reset();
+        coalesced.reset();
+        blockChanges.reset();
+        multiBlockChanges.reset();
+        multiBlockRecords.reset();
+        sectionDeltas.reset();
+        sectionResends.reset();
+        sampleCount = 0;
+        since = System.nanoTime();
+    }
+
+    /**
+     * Samples the packet counters, called once a second from the server thread.
+     */
+    public static void sample() {
+        samples[nextSample] = packetCounters();
+        nextSample = (nextSample + 1) % samples.length;
+        sampleCount = Math.min(sampleCount + 1, samples.length);
+    }
+
+    private static long[] packetCounters() {
+        return new long[] { System.nanoTime(), blockChanges.sum(), multiBlockChanges.sum(), multiBlockRecords.sum(),
+                sectionDeltas.sum(), sectionResends.sum() };
+    }
+
+    /**
+     * Called from the server thread, like {@link #sample()}.
+     */
+    public static String getStats() {
+        final long[] now = packetCounters();
+        // The oldest sample in the window, or the counters as they were reset
+        final long[] start = sampleCount == 0 ? new long[] { since, 0, 0, 0, 0, 0 }
+                : samples[(nextSample - sampleCount + samples.length) % samples.length];
+        final double seconds = Math.max(1e9, now[0] - start[0]) / 1e9;
+        return String.format(
+                "Block changes: %d flagged, %d coalesced; per second over the last %.0fs: %.1f S23, %.1f S22 "
+                        + "(%.1f records), %.1f deltas, %.1f resent sections",
+                flagged.sum(),
+                coalesced.sum(),
+                seconds,
+                (now[1] - start[1]) / seconds,
+                (now[2] - start[2]) / seconds,
+                (now[3] - start[3]) / seconds,
+                (now[4] - start[4]) / seconds,
+                (now[5] - start[5]) / seconds);
+    }
+}
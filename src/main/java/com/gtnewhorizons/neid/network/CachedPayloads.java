@@ -0,0 +1,116 @@
+package com.gtnewhorizons.neid.network;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import javax.annotation.Nullable;
+
+/**
+ * The {@link ChunkEncoding#CACHED_PALETTED} payloads of one chunk packet, by connection. What a client has cached
+ * differs per connection, so these are neither shared nor kept. Which sections are sent as references is decided when
+ * the packet is sent, on the thread that sends it and so in the order the connection writes its packets. The payload
+ * is then encoded and compressed on the {@link ChunkEncodeExecutor}, and the network thread that writes the packet
+ * only waits for it.
+ */
+public class CachedPayloads {
+
+    public interface Compressor {
+
+        /**
+         * @param sectionKinds See {@link ChunkPayloadCodec#planCachedSections}
+         * @param refCounts    True if the connection accepts ref counts
+         */
+        byte[] compress(byte[] sectionKinds, int level, @Nullable ChunkDictionary dictionary, boolean refCounts);
+    }
+
+    private final SectionPayload[] sections;
+    private final Compressor compressor;
+    private final Map<ConnectionState, Pending> pending = new ConcurrentHashMap<>();
+
+    /**
+     * @param sections Every section of the packet, in payload order
+     */
+    public CachedPayloads(SectionPayload[] sections, Compressor compressor) {
+        this.sections = sections;
+        this.compressor = compressor;
+    }
+
+    /**
+     * Plans the payload for a connection the packet is being sent to, if the connection has a section cache. Chunks
+     * that reference cached sections are recorded with the connection, see {@link ConnectionState#sentReferences}.
+     *
+     * @param chunkX        The x coordinate of every chunk in the packet
+     * @param chunkZ        The z coordinate of every chunk in the packet
+     * @param chunkSections The number of sections of every chunk in the packet
+     */
+    public void prepare(ConnectionState state, int[] chunkX, int[] chunkZ, int[] chunkSections) {
+        final SectionCacheMirror mirror = state.getSectionCache();
+        // A packet sent twice before it was written goes out the second time without references
+        if (mirror == null || state.getChunkEncoding() != ChunkEncoding.PALETTED || pending.containsKey(state)) {
+            return;
+        }
+        final byte[] kinds = ChunkPayloadCodec.planCachedSections(sections, mirror);
+        int firstSection = 0;
+        for (int i = 0; i < chunkSections.length; i++) {
+            if (ChunkPayloadCodec.hasReferences(kinds, firstSection, chunkSections[i])) {
+                state.sentReferences(chunkX[i], chunkZ[i]);
+            }
+            firstSection += chunkSections[i];
+        }
+
+        final int level = state.getDeflateLevel();
+        final ChunkDictionary dictionary = state.getDictionary();
+        final boolean refCounts = state.getProtocolVersion() >= ChunkPayloadCodec.REF_COUNTS_PROTOCOL_VERSION;
+        final Pending task = new Pending(() -> compressor.compress(kinds, level, dictionary, refCounts));
+        pending.put(state, task);
+        if (ChunkEncodeExecutor.isEnabled() && !ChunkEncodeExecutor.isBacklogged()) {
+            ChunkEncodeExecutor.execute(task);
+        }
+    }
+
+    /**
+     * @return The payload prepared for the connection, compressed by this call if no encoder thread got to it. Null if
+     *         the packet was not prepared for the connection, it then has to be written without the section cache.
+     */
+    @Nullable
+    public byte[] take(ConnectionState state) {
+        final Pending task = pending.remove(state);
+        if (task == null) {
+            return null;
+        }
+        // Does nothing if an encoder thread already runs it
+        task.run();
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return task.compress();
+        } catch (ExecutionException e) {
+            // The plan is already recorded in the mirror, so the same payload has to be written
+            return task.compress();
+        }
+    }
+
+    private static class Pending extends FutureTask<byte[]> {
+
+        private final Callable<byte[]> work;
+
+        Pending(Callable<byte[]> work) {
+            super(work);
+            this.work = work;
+        }
+
+        byte[] compress() {
+            try {
+                return work.call();
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+}
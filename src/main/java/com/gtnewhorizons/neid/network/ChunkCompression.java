@@ -0,0 +1,127 @@
+package com.gtnewhorizons.neid.network;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.Deflater;
+
+import net.minecraft.entity.player.EntityPlayerMP;
+import net.minecraft.server.MinecraftServer;
+
+import com.gtnewhorizons.neid.NEIDConfig;
+import com.gtnewhorizons.neid.ServerLoad;
+import com.gtnewhorizons.neid.mixins.interfaces.INetHandlerPlayServerMixin;
+
+/**
+ * Picks the deflate level of chunk packets per connection and keeps count of what compression costs and saves.
+ *
+ * Connections are re-rated once a second. A connection whose channel stopped being writable is limited by its link,
+ * so it gets the highest level. Otherwise a busy server (ticks slower than
+ * {@link NEIDConfig#ChunkCompressionBusyTickMillis} or a backlog in the {@link ChunkEncodeExecutor}) gets the lowest
+ * level, and the level scales with the player's ping between {@link NEIDConfig#ChunkCompressionLowPingMillis} and
+ * {@link NEIDConfig#ChunkCompressionHighPingMillis}.
+ */
+public class ChunkCompression {
+
+    public static final int LEVELS = Deflater.BEST_COMPRESSION + 1;
+
+    private static final LongAdder[] rawBytes = adders();
+    private static final LongAdder[] compressedBytes = adders();
+    private static final LongAdder[] compressNanos = adders();
+
+    private static LongAdder[] adders() {
+        final LongAdder[] adders = new LongAdder[LEVELS];
+        for (int i = 0; i < LEVELS; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    public static int minLevel() {
+        return Math.min(NEIDConfig.ChunkCompressionMinLevel, NEIDConfig.ChunkCompressionMaxLevel);
+    }
+
+    public static int maxLevel() {
+        return Math.max(NEIDConfig.ChunkCompressionMinLevel, NEIDConfig.ChunkCompressionMaxLevel);
+    }
+
+    /**
+     * @return The level of connections that have not been rated yet, also used to compress packets ahead of sending.
+     */
+    public static int defaultLevel() {
+        return (minLevel() + maxLevel() + 1) / 2;
+    }
+
+    static int selectLevel(int pingMillis, boolean congested, boolean serverBusy) {
+        final int min = minLevel();
+        final int max = maxLevel();
+        if (congested) {
+            return max;
+        }
+        if (serverBusy) {
+            return min;
+        }
+
+        final int low = NEIDConfig.ChunkCompressionLowPingMillis;
+        final int high = Math.max(low + 1, NEIDConfig.ChunkCompressionHighPingMillis);
+        if (pingMillis <= low) {
+            return min;
+        }
+        if (pingMillis >= high) {
+            return max;
+        }
+        return min + (max - min) * (pingMillis - low) / (high - low);
+    }
+
+    /**
+     * Re-rates every player's connection, called once a second on the server thread.
+     */
+    public static void updateLevels(MinecraftServer server) {
+        final boolean busy = !ServerLoad.isKeepingUp(server, NEIDConfig.ChunkCompressionBusyTickMillis)
+                || ChunkEncodeExecutor.isBacklogged();
+        for (Object o : server.getConfigurationManager().playerEntityList) {
+            final EntityPlayerMP player = (EntityPlayerMP) o;
+            if (player.playerNetServerHandler != null) {
+                final ConnectionState state = ((INetHandlerPlayServerMixin) player.playerNetServerHandler)
+                        .neid$getConnectionState();
+                state.updateDeflateLevel(player.ping, busy);
+            }
+        }
+    }
+
+    static void record(int level, int raw, int compressed, long nanos) {
+        rawBytes[level].add(raw);
+        compressedBytes[level].add(compressed);
+        compressNanos[level].add(nanos);
+    }
+
+    public static String getStats() {
+        final StringBuilder levels = new StringBuilder();
+        long raw = 0;
+        long compressed = 0;
+        long nanos = 0;
+        for (int level = 0; level < LEVELS; level++) {
+            final long levelRaw = rawBytes[level].sum();
+            if (levelRaw == 0) {
+                continue;
+            }
+            final long levelCompressed = compressedBytes[level].sum();
+            final long levelNanos = compressNanos[level].sum();
+            levels.append(
+                    String.format(
+                            ", level %d: %d KiB -> %d KiB in %d ms",
+                            level,
+                            levelRaw / 1024,
+                            levelCompressed / 1024,
+                            TimeUnit.NANOSECONDS.toMillis(levelNanos)));
+            raw += levelRaw;
+            compressed += levelCompressed;
+            nanos += levelNanos;
+        }
+        return String.format(
+                "Chunk compression: %d KiB saved (%.1f%%), %d ms CPU%s",
+                (raw - compressed) / 1024,
+                raw == 0 ? 0.0 : (raw - compressed) * 100.0 / raw,
+                TimeUnit.NANOSECONDS.toMillis(nanos),
+                levels);
+    }
+}
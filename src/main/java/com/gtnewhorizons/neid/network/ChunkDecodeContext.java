@@ -0,0 +1,311 @@
+package com.gtnewhorizons.neid.network;
+
+import javax.annotation.Nullable;
+
+import net.minecraft.world.chunk.NibbleArray;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+
+import com.gtnewhorizons.neid.Constants;
+import com.gtnewhorizons.neid.mixins.interfaces.IExtendedBlockStorageMixin;
+
+/**
+ * Per thread state of the client {@code Chunk.fillChunk} mixin while it decodes one chunk packet payload.
+ *
+ * Vanilla creates the EBS of every section in the mask before reading its data, so a section decodes straight into its
+ * EBS when the EBS handed to the redirect is the one the chunk holds at that section. Anything else is staged in
+ * buffers owned by this context and copied over in {@link #finish}. Payloads already unpacked on the network thread
+ * into a {@link DecodedChunk} have their arrays swapped into the EBS instead.
+ */
+public class ChunkDecodeContext {
+
+    private static final ThreadLocal<ChunkDecodeContext> CURRENT = ThreadLocal.withInitial(ChunkDecodeContext::new);
+
+    // Section index in the chunk of each section in the payload
+    private final int[] sectionY = new int[16];
+    // Where the ids and metas of each payload section are decoded to, the EBS arrays or the staging buffers
+    private final short[][] idTargets = new short[16][];
+    private final short[][] metaTargets = new short[16][];
+    private final boolean[] staged = new boolean[16];
+    private final short[][] stagedIds = new short[16][];
+    private final short[][] stagedMetas = new short[16][];
+
+    private int sections;
+    private boolean skylight;
+    private boolean raw16;
+    @Nullable
+    private DecodedChunk decoded;
+    // Sections whose reference counts came with the decoded chunk
+    private int countedMask;
+
+    private int idCursor;
+    private int metaCursor;
+    private int msbCursor;
+
+    // Render hashes of the sections in the payload that were computed on the network thread, by section index
+    private final long[] renderHashes = new long[16];
+    private int hashedMask;
+    // Sections that existed and the biome hash before the payload was applied, see captureRenderState
+    private int presentMask;
+    private long biomeHash;
+
+    public static ChunkDecodeContext get() {
+        return CURRENT.get();
+    }
+
+    public void begin(int mask, boolean skylight, boolean raw16, @Nullable DecodedChunk decoded) {
+        sections = 0;
+        for (int i = 0; i < 16; i++) {
+            if ((mask & 1 << i) != 0) {
+                sectionY[sections++] = i;
+            }
+        }
+        this.skylight = skylight;
+        this.raw16 = raw16;
+        this.decoded = decoded != null && decoded.sections() == sections ? decoded : null;
+        countedMask = 0;
+        hashedMask = 0;
+        idCursor = 0;
+        metaCursor = 0;
+        msbCursor = 0;
+    }
+
+    public boolean isRaw16() {
+        return raw16;
+    }
+
+    /**
+     * Decodes the ids of the next section, the 16 bit ids of the RAW16 layout or the LSBs of the Ultramine layout.
+     *
+     * @return The number of payload bytes the ids take up.
+     */
+    public int readIds(ExtendedBlockStorage[] storage, ExtendedBlockStorage ebs, byte[] data) {
+        final int index = idCursor++;
+        if (decoded != null) {
+            if (index < sections) {
+                renderHashes[sectionY[index]] = decoded.renderHashes[index];
+                hashedMask |= 1 << sectionY[index];
+            }
+            if (owns(index, storage, ebs)) {
+                ((IExtendedBlockStorageMixin) ebs).neid$setArrays(
+                        decoded.ids[index],
+                        decoded.metas[index],
+                        decoded.blockRefCounts[index],
+                        decoded.tickRefCounts[index]);
+                idTargets[index] = decoded.ids[index];
+                metaTargets[index] = decoded.metas[index];
+                countedMask |= 1 << sectionY[index];
+            } else {
+                stage(index);
+                System.arraycopy(decoded.ids[index], 0, idTargets[index], 0, Constants.BLOCKS_PER_EBS);
+                System.arraycopy(decoded.metas[index], 0, metaTargets[index], 0, Constants.BLOCKS_PER_EBS);
+            }
+            return ChunkPayloadCodec.ID_BYTES;
+        }
+        final short[] ids = claim(index, storage, ebs);
+
+        if (raw16) {
+            int offset = index * ChunkPayloadCodec.ID_BYTES;
+            for (int i = 0; i < Constants.BLOCKS_PER_EBS; i++, offset += 2) {
+                ids[i] = (short) (data[offset] << 8 | data[offset + 1] & 0xFF);
+            }
+            return ChunkPayloadCodec.ID_BYTES;
+        }
+
+        // Ultramine groups all LSBs together at the start of the packet
+        final int offset = index * Constants.BLOCKS_PER_EBS;
+        for (int i = 0; i < Constants.BLOCKS_PER_EBS; i++) {
+            ids[i] = (short) (data[offset + i] & 0xFF);
+        }
+        return Constants.BLOCKS_PER_EBS;
+    }
+
+    /**
+     * Decodes the metadata of the next section.
+     *
+     * @return The number of payload bytes the metadata takes up.
+     */
+    public int readMetas(byte[] data) {
+        final int index = metaCursor++;
+        final short[] metas = metaTargets[index];
+
+        if (decoded != null) {
+            return ChunkPayloadCodec.META_BYTES;
+        }
+        if (raw16) {
+            int offset = sections * ChunkPayloadCodec.ID_BYTES + index * ChunkPayloadCodec.META_BYTES;
+            for (int i = 0; i < Constants.BLOCKS_PER_EBS; i++, offset += 2) {
+                metas[i] = (short) (data[offset] << 8 | data[offset + 1] & 0xFF);
+            }
+            return ChunkPayloadCodec.META_BYTES;
+        }
+
+        // Ultramine groups all metadata nibbles after all LSBs
+        final int offset = sections * Constants.BLOCKS_PER_EBS + index * ChunkPayloadCodec.LIGHT_BYTES;
+        unpackNibbles(data, offset, metas);
+        return ChunkPayloadCodec.LIGHT_BYTES;
+    }
+
+    /**
+     * Adds the Ultramine MSB nibbles of the next section to its ids.
+     *
+     * @return The number of payload bytes the MSBs take up.
+     */
+    public int readMsb(byte[] data) {
+        final int index = msbCursor++;
+        final short[] ids = idTargets[index];
+
+        // Ultramine groups all MSBs after [LSB][Meta][Blocklight][Skylight]
+        final int offset = sections * (Constants.BLOCKS_PER_EBS + ChunkPayloadCodec.LIGHT_BYTES * (skylight ? 3 : 2))
+                + index * ChunkPayloadCodec.LIGHT_BYTES;
+        for (int i = 0, j = offset; i < Constants.BLOCKS_PER_EBS; i += 2, j++) {
+            final int b = data[j];
+            ids[i] = (short) (ids[i] & 0xFF | (b & 0x0F) << 8);
+            ids[i + 1] = (short) (ids[i + 1] & 0xFF | (b & 0xF0) << 4);
+        }
+        return ChunkPayloadCodec.LIGHT_BYTES;
+    }
+
+    /**
+     * Copies the staged sections into the EBS of the chunk and forgets the targets of this payload.
+     *
+     * @return The sections whose reference counts are already up to date.
+     */
+    public int finish(ExtendedBlockStorage[] storage) {
+        for (int index = 0; index < idCursor; index++) {
+            final ExtendedBlockStorage ebs = storage[sectionY[index]];
+            if (staged[index] && ebs != null) {
+                final IExtendedBlockStorageMixin ebsMixin = (IExtendedBlockStorageMixin) ebs;
+                System.arraycopy(idTargets[index], 0, ebsMixin.getBlock16BArray(), 0, Constants.BLOCKS_PER_EBS);
+                System.arraycopy(metaTargets[index], 0, ebsMixin.getBlock16BMetaArray(), 0, Constants.BLOCKS_PER_EBS);
+            }
+            staged[index] = false;
+            idTargets[index] = null;
+            metaTargets[index] = null;
+        }
+        idCursor = 0;
+        decoded = null;
+        return countedMask;
+    }
+
+    /**
+     * Remembers which sections exist and what the biomes of the chunk look like before the payload is applied, called
+     * before {@link #begin}.
+     */
+    public void captureRenderState(ExtendedBlockStorage[] storage, byte[] biomes) {
+        presentMask = 0;
+        for (int i = 0; i < storage.length; i++) {
+            if (storage[i] != null) {
+                presentMask |= 1 << i;
+            }
+        }
+        biomeHash = hash(biomes, 0, biomes.length, 0x9E3779B97F4A7C15L);
+    }
+
+    /**
+     * Compares the render hash of each section in {@code mask} with the one the EBS kept from the previous payload and
+     * keeps the new one. Sections decoded on the client thread are hashed here, all others were hashed by
+     * {@link DecodedChunk}.
+     *
+     * @return The sections that look different after the payload was applied: those in {@code mask} whose ids,
+     *         metadata or light changed, and for full chunks the sections that were removed. All sections if the
+     *         biomes changed.
+     */
+    public int changedSections(ExtendedBlockStorage[] storage, int mask, boolean full, byte[] biomes) {
+        int changed = full && hash(biomes, 0, biomes.length, 0x9E3779B97F4A7C15L) != biomeHash ? 0xFFFF : 0;
+        for (int i = 0; i < storage.length; i++) {
+            final boolean present = (presentMask & 1 << i) != 0;
+            if ((mask & 1 << i) != 0) {
+                if (storage[i] == null) {
+                    changed |= 1 << i;
+                    continue;
+                }
+                final IExtendedBlockStorageMixin ebsMixin = (IExtendedBlockStorageMixin) storage[i];
+                final long hash = (hashedMask & 1 << i) != 0 ? renderHashes[i] : renderHash(storage[i]);
+                // A hash of 0 means the EBS is new or was changed since, and is never computed
+                if (!present || ebsMixin.neid$getRenderHash() != hash) {
+                    changed |= 1 << i;
+                }
+                ebsMixin.neid$setRenderHash(hash);
+            } else if (full && present && storage[i] == null) {
+                changed |= 1 << i;
+            }
+        }
+        return changed;
+    }
+
+    private static long renderHash(ExtendedBlockStorage ebs) {
+        final IExtendedBlockStorageMixin ebsMixin = (IExtendedBlockStorageMixin) ebs;
+        final NibbleArray skyLight = ebs.getSkylightArray();
+        return renderHash(
+                ebsMixin.getBlock16BArray(),
+                ebsMixin.getBlock16BMetaArray(),
+                ebs.getBlocklightArray().data,
+                0,
+                skyLight != null ? skyLight.data : null,
+                0);
+    }
+
+    /**
+     * @return A hash of the ids, metadata and light of one section that is never 0.
+     */
+    static long renderHash(short[] ids, short[] metas, byte[] blockLight, int blockLightOffset,
+            @Nullable byte[] skyLight, int skyLightOffset) {
+        long hash = hash(ids, 0x9E3779B97F4A7C15L);
+        hash = hash(metas, hash);
+        hash = hash(blockLight, blockLightOffset, ChunkPayloadCodec.LIGHT_BYTES, hash);
+        if (skyLight != null) {
+            hash = hash(skyLight, skyLightOffset, ChunkPayloadCodec.LIGHT_BYTES, hash);
+        }
+        return hash != 0 ? hash : 1;
+    }
+
+    private static long hash(short[] values, long seed) {
+        long hash = seed;
+        for (short value : values) {
+            hash = (hash ^ value) * 0x100000001B3L;
+        }
+        return hash;
+    }
+
+    private static long hash(byte[] values, int offset, int length, long seed) {
+        long hash = seed;
+        for (int i = offset, end = offset + length; i < end; i++) {
+            hash = (hash ^ values[i]) * 0x100000001B3L;
+        }
+        return hash;
+    }
+
+    private boolean owns(int index, ExtendedBlockStorage[] storage, ExtendedBlockStorage ebs) {
+        return index < sections && storage[sectionY[index]] == ebs;
+    }
+
+    private short[] claim(int index, ExtendedBlockStorage[] storage, ExtendedBlockStorage ebs) {
+        if (owns(index, storage, ebs)) {
+            final IExtendedBlockStorageMixin ebsMixin = (IExtendedBlockStorageMixin) ebs;
+            idTargets[index] = ebsMixin.getBlock16BArray();
+            metaTargets[index] = ebsMixin.getBlock16BMetaArray();
+            staged[index] = false;
+        } else {
+            stage(index);
+        }
+        return idTargets[index];
+    }
+
+    private void stage(int index) {
+        if (stagedIds[index] == null) {
+            stagedIds[index] = new short[Constants.BLOCKS_PER_EBS];
+            stagedMetas[index] = new short[Constants.BLOCKS_PER_EBS];
+        }
+        idTargets[index] = stagedIds[index];
+        metaTargets[index] = stagedMetas[index];
+        staged[index] = true;
+    }
+
+    private static void unpackNibbles(byte[] data, int offset, short[] out) {
+        for (int i = 0, j = offset; i < Constants.BLOCKS_PER_EBS; i += 2, j++) {
+            final int b = data[j];
+            out[i] = (short) (b & 0x0F);
+            out[i + 1] = (short) (b >> 4 & 0x0F);
+        }
+    }
+}
@@ -0,0 +1,343 @@
+package com.gtnewhorizons.neid.network;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import javax.annotation.Nullable;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+
+/**
+ * zlib helpers for chunk packets that NEID writes or reads itself. Deflaters and output buffers are kept per thread,
+ * intermediate data lives in pooled heap buffers: Java 8's Deflater only reads arrays, so direct buffers would only add
+ * a copy. The only allocation per packet is the exact size result, which is kept on the packet and written to every
+ * client it is sent to.
+ */
+public class ChunkDeflater {
+
+    private static final int WINDOW_SIZE = 32768;
+    private static final int ADLER_BASE = 65521;
+
+    // One deflater per level and thread, created when a level is first used
+    private static final ThreadLocal<Deflater[]> DEFLATERS = ThreadLocal
+            .withInitial(() -> new Deflater[ChunkCompression.LEVELS]);
+    private static final ThreadLocal<Deflater[]> RAW_DEFLATERS = ThreadLocal
+            .withInitial(() -> new Deflater[ChunkCompression.LEVELS]);
+    private static final ThreadLocal<byte[]> DEFLATE_BUFFER = ThreadLocal.withInitial(() -> new byte[65536]);
+    private static final ThreadLocal<byte[]> INFLATE_BUFFER = ThreadLocal.withInitial(() -> new byte[65536]);
+    // Larger inflate buffers are only used for the packet that needed them
+    private static final int KEPT_INFLATE_BYTES = 1 << 20;
+    private static final ThreadLocal<byte[]> WINDOW_BUFFER = ThreadLocal.withInitial(() -> new byte[WINDOW_SIZE]);
+
+    /**
+     * @param dictionary Preset dictionary, or null to compress without one
+     * @return The compressed bytes, the array is exactly as long as the compressed data.
+     */
+    public static byte[] deflate(byte[] data, int offset, int length, int level,
+            @Nullable ChunkDictionary dictionary) {
+        final long start = System.nanoTime();
+        final int size = deflateToBuffer(data, offset, length, level, dictionary);
+        ChunkCompression.record(level, length, size, System.nanoTime() - start);
+        return Arrays.copyOf(DEFLATE_BUFFER.get(), size);
+    }
+
+    // Compresses into the thread's deflate buffer and returns the compressed size
+    private static int deflateToBuffer(byte[] data, int offset, int length, int level,
+            @Nullable ChunkDictionary dictionary) {
+        final Deflater deflater = getDeflater(DEFLATERS, level, false);
+        deflater.reset();
+        if (dictionary != null) {
+            deflater.setDictionary(dictionary.data);
+        }
+        deflater.setInput(data, offset, length);
+        deflater.finish();
+
+        byte[] out = DEFLATE_BUFFER.get();
+        int size = 0;
+        while (!deflater.finished()) {
+            if (size == out.length) {
+                out = Arrays.copyOf(out, out.length * 2);
+                DEFLATE_BUFFER.set(out);
+            }
+            size += deflater.deflate(out, size, out.length - size);
+        }
+        return size;
+    }
+
+    /**
+     * Deflates the readable bytes of a heap buffer.
+     */
+    public static byte[] deflate(ByteBuf buf, int level, @Nullable ChunkDictionary dictionary) {
+        return deflate(buf.array(), buf.arrayOffset() + buf.readerIndex(), buf.readableBytes(), level, dictionary);
+    }
+
+    private static Deflater getDeflater(ThreadLocal<Deflater[]> deflaters, int level, boolean nowrap) {
+        final Deflater[] byLevel = deflaters.get();
+        if (byLevel[level] == null) {
+            byLevel[level] = new Deflater(level, nowrap);
+        }
+        return byLevel[level];
+    }
+
+    /**
+     * Compresses the concatenation of {@code parts} as one zlib stream without joining them. Every part is deflated in
+     * place in parallel on the {@link ChunkEncodeExecutor}, the way pigz does: each one is a raw deflate block sequence
+     * ending on a sync flush and primed with the 32 KiB that precede it (the tail of the preset dictionary standing in
+     * for missing data at the start), so the joined stream compresses almost as well as a serial one and inflates
+     * with a plain {@link Inflater}. Takes ownership of the parts and releases them.
+     */
+    public static byte[] deflateParts(List<ByteBuf> parts, int level, @Nullable ChunkDictionary dictionary) {
+        try {
+            if (parts.size() < 2 || !ChunkEncodeExecutor.isEnabled()) {
+                return deflateSerial(parts, level, dictionary);
+            }
+
+            final List<Callable<Segment>> tasks = new ArrayList<>(parts.size());
+            for (int i = 0; i < parts.size(); i++) {
+                final int index = i;
+                tasks.add(() -> deflateSegment(parts, index, level, dictionary));
+            }
+            final List<Segment> segments = ChunkEncodeExecutor.invokeAll(tasks, segment -> segment.data.release());
+
+            try {
+                int size = 2 + (dictionary != null ? 4 : 0) + 2 + 4;
+                for (Segment segment : segments) {
+                    size += segment.data.readableBytes();
+                }
+                final ByteBuffer out = ByteBuffer.allocate(size);
+                out.putShort((short) zlibHeader(level, dictionary != null));
+                if (dictionary != null) {
+                    out.putInt(dictionary.adler);
+                }
+                long adler = 1;
+                for (Segment segment : segments) {
+                    segment.data.readBytes(out);
+                    adler = combineAdler32(adler, segment.adler, segment.length);
+                }
+                // Empty final block with fixed Huffman codes
+                out.put((byte) 0x03).put((byte) 0x00);
+                out.putInt((int) adler);
+                return out.array();
+            } finally {
+                for (Segment segment : segments) {
+                    segment.data.release();
+                }
+            }
+        } finally {
+            for (ByteBuf part : parts) {
+                part.release();
+            }
+        }
+    }
+
+    // One zlib stream fed the parts one after another
+    private static byte[] deflateSerial(List<ByteBuf> parts, int level, @Nullable ChunkDictionary dictionary) {
+        final long start = System.nanoTime();
+        final Deflater deflater = getDeflater(DEFLATERS, level, false);
+        deflater.reset();
+        if (dictionary != null) {
+            deflater.setDictionary(dictionary.data);
+        }
+        byte[] out = DEFLATE_BUFFER.get();
+        int size = 0;
+        int length = 0;
+        for (int i = 0; i < parts.size(); i++) {
+            final ByteBuf part = parts.get(i);
+            length += part.readableBytes();
+            deflater.setInput(part.array(), part.arrayOffset() + part.readerIndex(), part.readableBytes());
+            final boolean last = i == parts.size() - 1;
+            if (last) {
+                deflater.finish();
+            }
+            while (last ? !deflater.finished() : !deflater.needsInput()) {
+                if (size == out.length) {
+                    out = Arrays.copyOf(out, out.length * 2);
+                    DEFLATE_BUFFER.set(out);
+                }
+                size += deflater.deflate(out, size, out.length - size);
+            }
+        }
+        if (parts.isEmpty()) {
+            deflater.finish();
+            while (!deflater.finished()) {
+                size += deflater.deflate(out, size, out.length - size);
+            }
+        }
+        ChunkCompression.record(level, length, size, System.nanoTime() - start);
+        return Arrays.copyOf(out, size);
+    }
+
+    /**
+     * @return The zlib stream header: CMF = deflate with a 32 KiB window, FLG = FLEVEL (informational), FDICT and the
+     *         check bits.
+     */
+    private static int zlibHeader(int level, boolean dictionary) {
+        final int flevel = level < 2 ? 0 : level < 6 ? 1 : level == 6 ? 2 : 3;
+        final int header = 0x7800 | flevel << 6 | (dictionary ? 0x20 : 0);
+        return header % 31 == 0 ? header : header + 31 - header % 31;
+    }
+
+    private static Segment deflateSegment(List<ByteBuf> parts, int index, int level,
+            @Nullable ChunkDictionary dictionary) {
+        final long start = System.nanoTime();
+        final ByteBuf part = parts.get(index);
+        final byte[] data = part.array();
+        final int offset = part.arrayOffset() + part.readerIndex();
+        final int length = part.readableBytes();
+        final Deflater deflater = getDeflater(RAW_DEFLATERS, level, true);
+        deflater.reset();
+        setWindow(deflater, parts, index, dictionary);
+        deflater.setInput(data, offset, length);
+
+        final ByteBuf out = PooledByteBufAllocator.DEFAULT.heapBuffer(Math.max(64, length / 4));
+        try {
+            int written, writable;
+            do {
+                out.ensureWritable(Math.max(64, out.writableBytes()));
+                writable = out.writableBytes();
+                written = deflater
+                        .deflate(out.array(), out.arrayOffset() + out.writerIndex(), writable, Deflater.SYNC_FLUSH);
+                out.writerIndex(out.writerIndex() + written);
+            } while (written == writable);
+        } catch (RuntimeException e) {
+            out.release();
+            throw e;
+        }
+
+        final Adler32 adler = new Adler32();
+        adler.update(data, offset, length);
+        ChunkCompression.record(level, length, out.readableBytes(), System.nanoTime() - start);
+        return new Segment(out, adler.getValue(), length);
+    }
+
+    /**
+     * Primes a part's deflater with the 32 KiB before the part, taken straight from the previous part if that one is
+     * long enough and gathered into a per thread window otherwise.
+     */
+    private static void setWindow(Deflater deflater, List<ByteBuf> parts, int index,
+            @Nullable ChunkDictionary dictionary) {
+        if (index > 0) {
+            final ByteBuf previous = parts.get(index - 1);
+            if (previous.readableBytes() >= WINDOW_SIZE) {
+                deflater.setDictionary(
+                        previous.array(),
+                        previous.arrayOffset() + previous.writerIndex() - WINDOW_SIZE,
+                        WINDOW_SIZE);
+                return;
+            }
+        }
+        int preceding = 0;
+        for (int i = index - 1; i >= 0 && preceding < WINDOW_SIZE; i--) {
+            preceding += parts.get(i).readableBytes();
+        }
+        preceding = Math.min(preceding, WINDOW_SIZE);
+        final int fromPreset = dictionary != null ? Math.min(WINDOW_SIZE - preceding, dictionary.data.length) : 0;
+        final int size = fromPreset + preceding;
+        if (size == 0) {
+            return;
+        }
+
+        // setDictionary copies the window, so the buffer can be reused right away
+        final byte[] window = WINDOW_BUFFER.get();
+        if (fromPreset > 0) {
+            System.arraycopy(dictionary.data, dictionary.data.length - fromPreset, window, 0, fromPreset);
+        }
+        int end = size;
+        for (int i = index - 1; end > fromPreset; i--) {
+            final ByteBuf part = parts.get(i);
+            final int n = Math.min(part.readableBytes(), end - fromPreset);
+            System.arraycopy(part.array(), part.arrayOffset() + part.writerIndex() - n, window, end - n, n);
+            end -= n;
+        }
+        deflater.setDictionary(window, 0, size);
+    }
+
+    /**
+     * @return The Adler-32 of the concatenation of two inputs, see adler32_combine in zlib.
+     */
+    static long combineAdler32(long adler1, long adler2, long length2) {
+        final long remainder = length2 % ADLER_BASE;
+        long sum1 = adler1 & 0xFFFF;
+        long sum2 = remainder * sum1 % ADLER_BASE;
+        sum1 += (adler2 & 0xFFFF) + ADLER_BASE - 1;
+        sum2 += (adler1 >>> 16 & 0xFFFF) + (adler2 >>> 16 & 0xFFFF) + ADLER_BASE - remainder;
+        if (sum1 >= ADLER_BASE) sum1 -= ADLER_BASE;
+        if (sum1 >= ADLER_BASE) sum1 -= ADLER_BASE;
+        if (sum2 >= (long) ADLER_BASE << 1) sum2 -= (long) ADLER_BASE << 1;
+        if (sum2 >= ADLER_BASE) sum2 -= ADLER_BASE;
+        return sum1 | sum2 << 16;
+    }
+
+    /**
+     * {@link Inflater#inflate(byte[])} that supplies the preset dictionary when the stream asks for it.
+     */
+    public static int inflate(Inflater inflater, byte[] out) throws DataFormatException {
+        int size = inflater.inflate(out);
+        if (size == 0 && inflater.needsDictionary()) {
+            setDictionary(inflater);
+            size = inflater.inflate(out);
+        }
+        return size;
+    }
+
+    private static void setDictionary(Inflater inflater) throws DataFormatException {
+        final ChunkDictionary dictionary = ChunkDictionary.forAdler(inflater.getAdler());
+        if (dictionary == null) {
+            throw new DataFormatException("Chunk data was compressed with an unknown preset dictionary");
+        }
+        inflater.setDictionary(dictionary.data);
+    }
+
+    /**
+     * Inflates everything left in the inflater into a per thread buffer.
+     *
+     * @param maxLength The most the data may inflate to, known from the section masks of the packet
+     * @return The inflated bytes, only valid until the next call on this thread.
+     * @throws DataFormatException If the data inflates to more than {@code maxLength} bytes
+     */
+    public static ByteBuffer inflateAll(Inflater inflater, int maxLength) throws DataFormatException {
+        byte[] out = INFLATE_BUFFER.get();
+        int size = 0;
+        while (!inflater.finished() && size <= maxLength) {
+            if (size == out.length) {
+                // One byte past the limit tells data that is too long from data that ends exactly at it
+                out = Arrays.copyOf(out, (int) Math.min(out.length * 2L, maxLength + 1L));
+                if (out.length <= KEPT_INFLATE_BYTES) {
+                    INFLATE_BUFFER.set(out);
+                }
+            }
+            final int inflated = inflater.inflate(out, size, out.length - size);
+            if (inflated == 0 && inflater.needsDictionary()) {
+                setDictionary(inflater);
+            } else if (inflated == 0 && inflater.needsInput()) {
+                throw new DataFormatException("Truncated chunk data");
+            }
+            size += inflated;
+        }
+        if (size > maxLength) {
+            throw new DataFormatException("Chunk data inflates to more than " + maxLength + " bytes");
+        }
+        return ByteBuffer.wrap(out, 0, size);
+    }
+
+    private static class Segment {
+
+        final ByteBuf data;
+        final long adler;
+        final int length;
+
+        Segment(ByteBuf data, long adler, int length) {
+            this.data = data;
+            this.adler = adler;
+            this.length = length;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.gtnewhorizons.neid.network;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.zip.Adler32;
+
+import javax.annotation.Nullable;
+
+import com.gtnewhorizons.neid.NEID;
+import com.gtnewhorizons.neid.NEIDConfig;
+
+/**
+ * A preset dictionary for chunk packet compression, trained offline from existing worlds with the ChunkDictionaryTool
+ * in the tools source set. Both sides load it from {@link #FILE_NAME} in the config directory, the client announces its
+ * hash in the {@link MessageClientHello} and the server only deflates with it for clients that have the same
+ * dictionary. Streams compressed with it carry its Adler-32 in the zlib header, so the client recognizes them without
+ * any extra tagging.
+ */
+public class ChunkDictionary {
+
+    public static final String FILE_NAME = "neid_chunk_dictionary.bin";
+
+    /**
+     * Deflate only looks back 32 KiB, anything before that can never be referenced.
+     */
+    public static final int MAX_SIZE = 32768;
+
+    private static volatile ChunkDictionary loaded;
+
+    public final byte[] data;
+    /**
+     * First 8 bytes of the SHA-256 of {@link #data}, identifies the dictionary in the handshake.
+     */
+    public final long hash;
+    /**
+     * The zlib dictionary id.
+     */
+    public final int adler;
+
+    public ChunkDictionary(byte[] data) {
+        this.data = data.length > MAX_SIZE ? Arrays.copyOfRange(data, data.length - MAX_SIZE, data.length) : data;
+        this.hash = sha256Prefix(this.data);
+        final Adler32 adler32 = new Adler32();
+        adler32.update(this.data);
+        this.adler = (int) adler32.getValue();
+    }
+
+    public static void load(File configDir) {
+        loaded = null;
+        if (!NEIDConfig.ChunkPacketDictionary) {
+            return;
+        }
+        final File file = new File(configDir, FILE_NAME);
+        if (!file.isFile()) {
+            return;
+        }
+        try {
+            final ChunkDictionary dictionary = new ChunkDictionary(Files.readAllBytes(file.toPath()));
+            if (dictionary.data.length > 0) {
+                loaded = dictionary;
+                NEID.LOG.info(
+                        "Loaded chunk packet dictionary {} ({} bytes, hash {})",
+                        file,
+                        dictionary.data.length,
+                        Long.toHexString(dictionary.hash));
+            }
+        } catch (IOException e) {
+            NEID.LOG.warn("Failed to read chunk packet dictionary {}", file, e);
+        }
+    }
+
+    @Nullable
+    public static ChunkDictionary get() {
+        return loaded;
+    }
+
+    /**
+     * @return The hash of the loaded dictionary, 0 if there is none.
+     */
+    public static long currentHash() {
+        final ChunkDictionary dictionary = loaded;
+        return dictionary == null ? 0 : dictionary.hash;
+    }
+
+    /**
+     * @return The loaded dictionary if the zlib stream asks for it, otherwise null.
+     */
+    @Nullable
+    static ChunkDictionary forAdler(int adler) {
+        final ChunkDictionary dictionary = loaded;
+        return dictionary != null && dictionary.adler == adler ? dictionary : null;
+    }
+
+    /**
+     * @return The first 8 bytes of the SHA-256 of {@code data}.
+     */
+    static long sha256Prefix(byte[] data) {
+        try {
+            return ByteBuffer.wrap(MessageDigest.getInstance("SHA-256").digest(data)).getLong();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
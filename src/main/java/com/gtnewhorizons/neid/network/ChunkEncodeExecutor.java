@@ -0,0 +1,145 @@
+package com.gtnewhorizons.neid.network;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import com.gtnewhorizons.neid.NEID;
+import com.gtnewhorizons.neid.NEIDConfig;
+
+/**
+ * Worker pool for chunk packet encoding and compression, sized by {@link NEIDConfig#ChunkEncodeThreads}. Packets
+ * submit their encoding when they are constructed on the server thread, the network thread that writes them later
+ * only waits for the result, so packets still go out in the order they were sent.
+ */
+public class ChunkEncodeExecutor {
+
+    private static ForkJoinPool pool;
+
+    public static boolean isEnabled() {
+        return NEIDConfig.ChunkEncodeThreads > 0;
+    }
+
+    private static synchronized ForkJoinPool getPool() {
+        if (pool == null) {
+            final AtomicInteger threadId = new AtomicInteger();
+            final ClassLoader classLoader = ChunkEncodeExecutor.class.getClassLoader();
+            pool = new ForkJoinPool(NEIDConfig.ChunkEncodeThreads, p -> {
+                final ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+                thread.setName("NEID Chunk Encoder #" + threadId.incrementAndGet());
+                thread.setContextClassLoader(classLoader);
+                return thread;
+            }, (thread, e) -> NEID.LOG.error("Uncaught exception in {}", thread.getName(), e), false);
+        }
+        return pool;
+    }
+
+    /**
+     * Runs a task in the background, failures are logged. Must only be used for work that the consumer can redo
+     * itself.
+     */
+    public static void execute(Runnable task) {
+        getPool().execute(() -> {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                NEID.LOG.warn("Background chunk encoding failed", e);
+            }
+        });
+    }
+
+    /**
+     * Runs the tasks in parallel and waits for all of them, or runs them one after another when the pool is disabled.
+     *
+     * @return The results, in task order.
+     */
+    public static <T> List<T> invokeAll(List<Callable<T>> tasks) {
+        return invokeAll(tasks, result -> {});
+    }
+
+    /**
+     * {@link #invokeAll(List)} for results that hold resources, such as pooled buffers. If a task fails, the others
+     * are still waited for, the results they produced are passed to {@code discard} and the first failure is rethrown.
+     */
+    public static <T> List<T> invokeAll(List<Callable<T>> tasks, Consumer<? super T> discard) {
+        final List<T> results = new ArrayList<>(tasks.size());
+        if (!isEnabled()) {
+            try {
+                for (Callable<T> task : tasks) {
+                    results.add(ForkJoinTask.adapt(task).invoke());
+                }
+            } catch (RuntimeException | Error e) {
+                results.forEach(discard);
+                throw e;
+            }
+            return results;
+        }
+
+        final ForkJoinPool pool = getPool();
+        final List<ForkJoinTask<T>> forks = new ArrayList<>(tasks.size());
+        for (Callable<T> task : tasks) {
+            forks.add(ForkJoinTask.adapt(task));
+        }
+        if (forks.isEmpty()) {
+            return results;
+        }
+        if (ForkJoinTask.getPool() == pool) {
+            // Called from one of our workers, fork so that the waiting worker helps instead of blocking
+            for (int i = forks.size() - 1; i > 0; i--) {
+                forks.get(i).fork();
+            }
+            // Run the first task here, its failure is picked up by the join below like any other
+            forks.get(0).quietlyInvoke();
+        } else {
+            for (ForkJoinTask<T> fork : forks) {
+                pool.execute(fork);
+            }
+        }
+
+        Throwable failure = null;
+        for (ForkJoinTask<T> fork : forks) {
+            fork.quietlyJoin();
+            if (fork.isCompletedAbnormally()) {
+                if (failure == null) {
+                    failure = fork.getException();
+                }
+            } else {
+                results.add(fork.getRawResult());
+            }
+        }
+        if (failure != null) {
+            results.forEach(discard);
+            if (failure instanceof Error) {
+                throw (Error) failure;
+            }
+            throw failure instanceof RuntimeException ? (RuntimeException) failure : new RuntimeException(failure);
+        }
+        return results;
+    }
+
+    /**
+     * @return True if more work is queued than the pool's threads will get to soon.
+     */
+    public static synchronized boolean isBacklogged() {
+        return pool != null
+                && pool.getQueuedSubmissionCount() + pool.getQueuedTaskCount() > pool.getParallelism() * 4L;
+    }
+
+    public static synchronized void shutdown() {
+        if (pool != null) {
+            pool.shutdown();
+            try {
+                pool.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            pool = null;
+        }
+    }
+}
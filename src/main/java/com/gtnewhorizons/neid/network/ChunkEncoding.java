@@ -0,0 +1,116 @@
+package com.gtnewhorizons.neid.network;
+
+import com.gtnewhorizons.neid.NEIDConfig;
+
+/**
+ * Wire encodings of the block data in S21/S26 chunk packets. The encoding is stored in the upper bits of the boolean
+ * that both packets already carry (full chunk flag for S21, skylight flag for S26), so an untagged packet reads as
+ * {@link #LEGACY}. Servers only tag packets for clients that negotiated an encoding, see {@link NEIDNetwork}.
+ */
+public enum ChunkEncoding {
+
+    /**
+     * Untagged packet. The payload is whatever the server built: the layout announced in the server's hello, or
+     * Ultramine's grouped vanilla layout [LSB][metadata nibbles][block light][sky light][MSB][biomes] without one.
+     */
+    LEGACY(0),
+    /**
+     * NEID layout: [16-bit ids][16-bit metadata][block light][sky light][biomes], every section group in section order.
+     */
+    RAW16(1),
+    /**
+     * {@link #RAW16} with every section's ids and metadata replaced by a palette and bit packed indices, see
+     * {@link ChunkPayloadCodec}. Clients decode it back to {@link #RAW16} when the packet is read.
+     */
+    PALETTED(2),
+    /**
+     * {@link #PALETTED} where sections the client already holds in its {@link ClientSectionCache} are sent as a
+     * reference. Written per connection in place of {@link #PALETTED} once both sides agreed on a cache, never
+     * negotiated through the encoding masks.
+     */
+    CACHED_PALETTED(3);
+
+    private static final ChunkEncoding[] BY_ID = values();
+
+    /**
+     * Encodings in the order the server prefers them, cheapest on the wire first.
+     */
+    private static final ChunkEncoding[] PREFERENCE = { PALETTED, RAW16 };
+
+    public final int id;
+
+    ChunkEncoding(int id) {
+        this.id = id;
+    }
+
+    public int mask() {
+        return 1 << id;
+    }
+
+    public boolean isIn(int mask) {
+        return (mask & mask()) != 0;
+    }
+
+    /**
+     * @return False if the server has been configured not to send this encoding.
+     */
+    public boolean isEnabled() {
+        return this != PALETTED || NEIDConfig.PalettedChunkPackets;
+    }
+
+    /**
+     * @return True for the encodings that {@link ChunkPayloadCodec} decodes back to {@link #RAW16} when read.
+     */
+    public boolean isPaletted() {
+        return this == PALETTED || this == CACHED_PALETTED;
+    }
+
+    public static ChunkEncoding byId(int id) {
+        return id >= 0 && id < BY_ID.length ? BY_ID[id] : LEGACY;
+    }
+
+    public static ChunkEncoding fromTag(int tag) {
+        return byId((tag & 0xFF) >>> 1);
+    }
+
+    public static boolean flagFromTag(int tag) {
+        return (tag & 1) != 0;
+    }
+
+    public static int toTag(boolean flag, ChunkEncoding encoding) {
+        return (flag ? 1 : 0) | encoding.id << 1;
+    }
+
+    /**
+     * @return The encodings this side can decode.
+     */
+    public static int supportedMask() {
+        return RAW16.mask() | PALETTED.mask();
+    }
+
+    /**
+     * @return The encodings this server is willing to send.
+     */
+    public static int serverMask() {
+        int mask = 0;
+        for (ChunkEncoding encoding : PREFERENCE) {
+            if (encoding.isEnabled()) {
+                mask |= encoding.mask();
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * @param mask Encodings both sides support
+     * @return The cheapest enabled encoding in the mask, {@link #LEGACY} if there is none.
+     */
+    public static ChunkEncoding select(int mask) {
+        for (ChunkEncoding encoding : PREFERENCE) {
+            if (encoding.isIn(mask) && encoding.isEnabled()) {
+                return encoding;
+            }
+        }
+        return LEGACY;
+    }
+}
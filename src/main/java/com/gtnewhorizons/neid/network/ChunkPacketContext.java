@@ -0,0 +1,122 @@
+package com.gtnewhorizons.neid.network;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+
+/**
+ * Carries the layout of chunk packet payloads from where it is known to where it is needed.
+ *
+ * On the server, the S21 mixins mark the payload built by {@code func_149269_a} as {@link ChunkEncoding#RAW16} and
+ * record the {@link SectionPayload}s it was built from, the S21/S26 constructors then take both and remember them per
+ * packet. Ultramine builds its own payloads, which stay {@link ChunkEncoding#LEGACY}.
+ *
+ * On the client, the packet handlers publish the layout of the packet being applied so that {@code Chunk.fillChunk}
+ * knows how to read its data, along with its {@link DecodedChunk} if the network thread already unpacked it.
+ */
+public class ChunkPacketContext {
+
+    private static final ThreadLocal<Boolean> builtRaw16 = ThreadLocal.withInitial(() -> false);
+    private static final ThreadLocal<Built> built = ThreadLocal.withInitial(Built::new);
+
+    private static class Built {
+
+        // Sections of the chunk currently being built, by section index
+        final SectionPayload[] chunk = new SectionPayload[16];
+        // Sections of every chunk built since the last take, in payload order
+        final List<SectionPayload> packet = new ArrayList<>();
+    }
+
+    private static ChunkEncoding fillLayout = ChunkEncoding.LEGACY;
+    @Nullable
+    private static DecodedChunk fillDecoded;
+
+    /**
+     * @return The number of sections {@code func_149269_a} writes for these arguments.
+     */
+    public static int extractedSections(Chunk chunk, boolean full, int mask) {
+        final ExtendedBlockStorage[] storage = chunk.getBlockStorageArray();
+        int sections = 0;
+        for (int i = 0; i < storage.length; i++) {
+            if (storage[i] != null && (!full || !storage[i].isEmpty()) && (mask & 1 << i) != 0) {
+                sections++;
+            }
+        }
+        return sections;
+    }
+
+    /**
+     * @return The exact length of the RAW16 payload {@code func_149269_a} builds for these arguments.
+     */
+    public static int extractedLength(Chunk chunk, boolean full, int mask) {
+        return ChunkPayloadCodec
+                .rawLength(extractedSections(chunk, full, mask), !chunk.worldObj.provider.hasNoSky, full);
+    }
+
+    public static void markRaw16Built() {
+        builtRaw16.set(true);
+    }
+
+    /**
+     * Called while the ids of a section are written, in payload order.
+     */
+    public static void addBuiltSection(int sectionIndex, SectionPayload payload) {
+        final Built state = built.get();
+        state.chunk[sectionIndex] = payload;
+        state.packet.add(payload);
+    }
+
+    /**
+     * @return The section recorded by {@link #addBuiltSection} for the chunk currently being built.
+     */
+    public static SectionPayload getBuiltSection(int sectionIndex) {
+        return built.get().chunk[sectionIndex];
+    }
+
+    /**
+     * @return The sections built on this thread since the last call, in payload order.
+     */
+    public static SectionPayload[] takeBuiltSections() {
+        final Built state = built.get();
+        final SectionPayload[] sections = state.packet.toArray(new SectionPayload[0]);
+        state.packet.clear();
+        Arrays.fill(state.chunk, null);
+        return sections;
+    }
+
+    /**
+     * @return The layout of the payloads built on this thread since the last call.
+     */
+    public static ChunkEncoding takeBuiltLayout() {
+        if (!builtRaw16.get()) {
+            return ChunkEncoding.LEGACY;
+        }
+        builtRaw16.set(false);
+        return ChunkEncoding.RAW16;
+    }
+
+    public static void setFillLayout(ChunkEncoding layout) {
+        fillLayout = layout;
+    }
+
+    public static ChunkEncoding getFillLayout() {
+        return fillLayout;
+    }
+
+    public static void setFillDecoded(@Nullable DecodedChunk decoded) {
+        fillDecoded = decoded;
+    }
+
+    /**
+     * @return The sections of the packet being applied if they were already unpacked on the network thread.
+     */
+    @Nullable
+    public static DecodedChunk getFillDecoded() {
+        return fillDecoded;
+    }
+}
@@ -0,0 +1,352 @@
+package com.gtnewhorizons.neid.network;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+import com.gtnewhorizons.neid.Constants;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+
+/**
+ * Converts the payload of one chunk between {@link ChunkEncoding#RAW16} and {@link ChunkEncoding#PALETTED}.
+ *
+ * <pre>
+ * RAW16:    [ids 8192 x n][meta 8192 x n][block light 2048 x n][sky light 2048 x n]?[biomes 256]?
+ * PALETTED: byte flags (1 = biomes, 2 = sky light, 4 = ref counts), byte n, n x section (see
+ *           {@link PalettedSectionCodec}), with ref counts n x (ushort blocks, ushort ticking blocks), then the light
+ *           and biome bytes of the RAW16 payload verbatim
+ * </pre>
+ *
+ * The ref counts are the {@code blockRefCount} and {@code tickRefCount} of each section, which saves the client a
+ * registry lookup per block. They are only written for connections of at least {@link #REF_COUNTS_PROTOCOL_VERSION}.
+ *
+ * In {@link ChunkEncoding#CACHED_PALETTED} every section starts with a kind byte: {@link #SECTION_PLAIN} followed by
+ * the section, {@link #SECTION_STORE} followed by its hash and the section, which the client adds to its
+ * {@link ClientSectionCache}, or {@link #SECTION_REFERENCE} followed only by the hash of a section the client has.
+ *
+ * A PALETTED payload knows its own length, so the chunks of a bulk packet can simply be decoded one after another.
+ */
+public class ChunkPayloadCodec {
+
+    public static final int ID_BYTES = Constants.BLOCKS_PER_EBS * 2;
+    public static final int META_BYTES = Constants.BLOCKS_PER_EBS * 2;
+    public static final int LIGHT_BYTES = Constants.BLOCKS_PER_EBS / 2;
+    public static final int BIOME_BYTES = 256;
+
+    public static final int REF_COUNTS_PROTOCOL_VERSION = 6;
+
+    private static final int FLAG_BIOMES = 1;
+    private static final int FLAG_SKY_LIGHT = 2;
+    private static final int FLAG_REF_COUNTS = 4;
+    private static final int REF_COUNT_BYTES = 4;
+
+    private static final int SECTION_PLAIN = 0;
+    private static final int SECTION_STORE = 1;
+    private static final int SECTION_REFERENCE = 2;
+    private static final int SECTION_HEADER_BYTES = 9;
+    // Smaller sections (uniform ones take 3 bytes) are cheaper to send than their hash
+    private static final int MIN_CACHED_SECTION_BYTES = 32;
+
+    private static final ThreadLocal<byte[]> RAW_BUFFER = ThreadLocal.withInitial(() -> new byte[0]);
+    private static final ThreadLocal<short[]> IDS = ThreadLocal
+            .withInitial(() -> new short[Constants.BLOCKS_PER_EBS]);
+    private static final ThreadLocal<short[]> METAS = ThreadLocal
+            .withInitial(() -> new short[Constants.BLOCKS_PER_EBS]);
+
+    public static int rawLength(int sections, boolean skyLight, boolean biomes) {
+        return sections * (ID_BYTES + META_BYTES + LIGHT_BYTES + (skyLight ? LIGHT_BYTES : 0))
+                + (biomes ? BIOME_BYTES : 0);
+    }
+
+    /**
+     * @return The length of an untagged payload in the vanilla layout, see {@link ChunkEncoding#LEGACY}.
+     */
+    public static int legacyLength(int sections, int msbSections, boolean skyLight, boolean biomes) {
+        return sections * (Constants.BLOCKS_PER_EBS + LIGHT_BYTES * 2 + (skyLight ? LIGHT_BYTES : 0))
+                + msbSections * LIGHT_BYTES
+                + (biomes ? BIOME_BYTES : 0);
+    }
+
+    /**
+     * @return A buffer of this thread holding at least {@code length} bytes. Raw payloads are assembled and taken apart
+     *         in it and copied out at their exact size, which keeps worst case sized arrays off the packet path.
+     */
+    public static byte[] rawBuffer(int length) {
+        byte[] buffer = RAW_BUFFER.get();
+        if (buffer.length < length) {
+            buffer = new byte[length];
+            RAW_BUFFER.set(buffer);
+        }
+        return buffer;
+    }
+
+    /**
+     * @return An upper bound of the PALETTED size of a RAW16 payload.
+     */
+    public static int maxEncodedLength(int sections, int rawLength) {
+        return 2 + sections * (SECTION_HEADER_BYTES + PalettedSectionCodec.MAX_ENCODED_SIZE + REF_COUNT_BYTES)
+                + rawLength;
+    }
+
+    /**
+     * Encodes a RAW16 chunk payload.
+     *
+     * @param sections The number of sections in the payload, the bit count of the packet's section mask
+     * @param biomes   True if the payload ends with biome data (full chunk)
+     */
+    public static void encode(byte[] raw, int offset, int length, int sections, boolean biomes, ByteBuffer out) {
+        encode(raw, offset, length, sections, biomes, null, 0, out);
+    }
+
+    /**
+     * Encodes a RAW16 chunk payload, taking already encoded sections from {@code payloads} when they are known.
+     *
+     * @param payloads     The sections the payload was built from, or null
+     * @param firstPayload Index of the first section of this chunk in {@code payloads}
+     */
+    public static void encode(byte[] raw, int offset, int length, int sections, boolean biomes,
+            SectionPayload[] payloads, int firstPayload, ByteBuffer out) {
+        encode(raw, offset, length, sections, biomes, payloads, firstPayload, null, false, out);
+    }
+
+    /**
+     * Decides how each section is written in {@link ChunkEncoding#CACHED_PALETTED}, and records in the mirror what the
+     * client will hold once it has read them. Must be called in the order the payloads are written to the connection,
+     * the encoding itself can then happen anywhere.
+     *
+     * @return The kind of every section, by index in {@code payloads}.
+     */
+    public static byte[] planCachedSections(SectionPayload[] payloads, SectionCacheMirror mirror) {
+        final byte[] kinds = new byte[payloads.length];
+        for (int i = 0; i < payloads.length; i++) {
+            final int length = payloads[i].getPaletted().length;
+            if (length < MIN_CACHED_SECTION_BYTES) {
+                kinds[i] = SECTION_PLAIN;
+            } else {
+                kinds[i] = (byte) (mirror.reference(payloads[i].getHash(), length) ? SECTION_REFERENCE : SECTION_STORE);
+            }
+        }
+        return kinds;
+    }
+
+    /**
+     * @return True if any of {@code count} sections from {@code first} is sent as a reference.
+     */
+    public static boolean hasReferences(byte[] kinds, int first, int count) {
+        for (int i = first; i < first + count; i++) {
+            if (kinds[i] == SECTION_REFERENCE) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Encodes a RAW16 chunk payload, as {@link ChunkEncoding#CACHED_PALETTED} if {@code sectionKinds} is given.
+     *
+     * @param sectionKinds The kinds from {@link #planCachedSections}, only used if {@code payloads} is given
+     * @param refCounts    Whether the connection accepts ref counts, they are only written if {@code payloads} is given
+     */
+    public static void encode(byte[] raw, int offset, int length, int sections, boolean biomes,
+            SectionPayload[] payloads, int firstPayload, @Nullable byte[] sectionKinds, boolean refCounts,
+            ByteBuffer out) {
+        final boolean skyLight = length == rawLength(sections, true, biomes);
+        if (!skyLight && length != rawLength(sections, false, biomes)) {
+            throw new IllegalArgumentException(
+                    "Unexpected chunk payload length " + length + " for " + sections + " section(s)");
+        }
+
+        final boolean withRefCounts = refCounts && payloads != null;
+        out.put(
+                (byte) ((biomes ? FLAG_BIOMES : 0) | (skyLight ? FLAG_SKY_LIGHT : 0)
+                        | (withRefCounts ? FLAG_REF_COUNTS : 0)));
+        out.put((byte) sections);
+
+        final short[] ids = IDS.get();
+        final short[] metas = METAS.get();
+        final ByteBuffer in = ByteBuffer.wrap(raw, offset, length);
+        final int metaStart = offset + sections * ID_BYTES;
+        for (int i = 0; i < sections; i++) {
+            if (payloads != null) {
+                final SectionPayload payload = payloads[firstPayload + i];
+                final int kind = sectionKinds == null ? -1 : sectionKinds[firstPayload + i];
+                if (kind >= 0) {
+                    out.put((byte) kind);
+                }
+                if (kind == SECTION_STORE || kind == SECTION_REFERENCE) {
+                    out.putLong(payload.getHash());
+                }
+                if (kind != SECTION_REFERENCE) {
+                    out.put(payload.getPaletted());
+                }
+                continue;
+            }
+            if (sectionKinds != null) {
+                out.put((byte) SECTION_PLAIN);
+            }
+            ((ByteBuffer) in.position(offset + i * ID_BYTES)).asShortBuffer().get(ids);
+            ((ByteBuffer) in.position(metaStart + i * META_BYTES)).asShortBuffer().get(metas);
+            PalettedSectionCodec.encode(ids, 0, metas, 0, out);
+        }
+        if (withRefCounts) {
+            for (int i = 0; i < sections; i++) {
+                final SectionPayload payload = payloads[firstPayload + i];
+                out.putShort((short) payload.getBlockRefCount());
+                out.putShort((short) payload.getTickRefCount());
+            }
+        }
+
+        final int tailStart = metaStart + sections * META_BYTES;
+        out.put(raw, tailStart, offset + length - tailStart);
+    }
+
+    /**
+     * {@link #encode(byte[], int, int, int, boolean, SectionPayload[], int, ByteBuffer)} into a heap buffer from the
+     * pooled allocator. The caller owns the returned buffer and has to release it.
+     */
+    public static ByteBuf encodePooled(byte[] raw, int offset, int length, int sections, boolean biomes,
+            SectionPayload[] payloads, int firstPayload) {
+        return encodePooled(raw, offset, length, sections, biomes, payloads, firstPayload, null, false);
+    }
+
+    public static ByteBuf encodePooled(byte[] raw, int offset, int length, int sections, boolean biomes,
+            SectionPayload[] payloads, int firstPayload, @Nullable byte[] sectionKinds, boolean refCounts) {
+        final int capacity = maxEncodedLength(sections, length);
+        final ByteBuf buf = PooledByteBufAllocator.DEFAULT.heapBuffer(capacity, capacity);
+        try {
+            final ByteBuffer out = buf.nioBuffer(0, capacity);
+            final int start = out.position();
+            encode(raw, offset, length, sections, biomes, payloads, firstPayload, sectionKinds, refCounts, out);
+            buf.writerIndex(out.position() - start);
+            return buf;
+        } catch (RuntimeException e) {
+            buf.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Decodes one PALETTED chunk payload into its RAW16 form.
+     *
+     * @return The number of bytes written to {@code out}
+     */
+    public static int decode(ByteBuffer in, byte[] out, int offset) {
+        return decode(in, out, offset, false, null);
+    }
+
+    /**
+     * Decodes one PALETTED or, if {@code cached}, {@link ChunkEncoding#CACHED_PALETTED} chunk payload. Sections that
+     * are missing from the {@link ClientSectionCache} are decoded as air and reported by
+     * {@link ClientSectionCache#takeMisses()}, a chunk with misses must not be applied.
+     *
+     * @param refCounts Receives the block and tick ref count of every section, see {@link #hasRefCounts}
+     * @return The number of bytes written to {@code out}
+     */
+    public static int decode(ByteBuffer in, byte[] out, int offset, boolean cached, @Nullable int[] refCounts) {
+        final int flags = in.get();
+        final int sections = in.get() & 0xFF;
+        if (sections > 16) {
+            throw new IllegalArgumentException("Invalid chunk section count " + sections);
+        }
+        final boolean biomes = (flags & FLAG_BIOMES) != 0;
+        final boolean skyLight = (flags & FLAG_SKY_LIGHT) != 0;
+        final int length = rawLength(sections, skyLight, biomes);
+
+        final short[] ids = IDS.get();
+        final short[] metas = METAS.get();
+        final ByteBuffer raw = ByteBuffer.wrap(out, offset, length);
+        final int metaStart = offset + sections * ID_BYTES;
+        for (int i = 0; i < sections; i++) {
+            if (cached) {
+                decodeCachedSection(in, ids, metas);
+            } else {
+                PalettedSectionCodec.decode(in, ids, 0, metas, 0);
+            }
+            ((ByteBuffer) raw.position(offset + i * ID_BYTES)).asShortBuffer().put(ids);
+            ((ByteBuffer) raw.position(metaStart + i * META_BYTES)).asShortBuffer().put(metas);
+        }
+        if ((flags & FLAG_REF_COUNTS) != 0) {
+            for (int i = 0; i < sections; i++) {
+                final int blockRefCount = in.getShort() & 0xFFFF;
+                final int tickRefCount = in.getShort() & 0xFFFF;
+                if (refCounts != null) {
+                    refCounts[i * 2] = blockRefCount;
+                    refCounts[i * 2 + 1] = tickRefCount;
+                }
+            }
+        }
+
+        final int tailStart = metaStart + sections * META_BYTES;
+        in.get(out, tailStart, offset + length - tailStart);
+        return length;
+    }
+
+    private static void decodeCachedSection(ByteBuffer in, short[] ids, short[] metas) {
+        final int kind = in.get();
+        if (kind == SECTION_PLAIN) {
+            PalettedSectionCodec.decode(in, ids, 0, metas, 0);
+        } else if (kind == SECTION_STORE) {
+            final long hash = in.getLong();
+            final int start = in.position();
+            PalettedSectionCodec.decode(in, ids, 0, metas, 0);
+            ClientSectionCache.store(
+                    hash,
+                    Arrays.copyOfRange(in.array(), in.arrayOffset() + start, in.arrayOffset() + in.position()));
+        } else if (kind == SECTION_REFERENCE) {
+            final byte[] section = ClientSectionCache.lookup(in.getLong());
+            if (section != null) {
+                PalettedSectionCodec.decode(ByteBuffer.wrap(section), ids, 0, metas, 0);
+            } else {
+                Arrays.fill(ids, (short) 0);
+                Arrays.fill(metas, (short) 0);
+            }
+        } else {
+            throw new IllegalArgumentException("Unknown cached section kind " + kind);
+        }
+    }
+
+    /**
+     * @return Whether the PALETTED chunk payload at the position of {@code in} carries ref counts, without consuming
+     *         it.
+     */
+    public static boolean hasRefCounts(ByteBuffer in) {
+        return (in.get(in.position()) & FLAG_REF_COUNTS) != 0;
+    }
+
+    /**
+     * @return The raw length of the PALETTED chunk payload at the position of {@code in}, without consuming it.
+     */
+    public static int decodedLength(ByteBuffer in) {
+        final int flags = in.get(in.position());
+        final int sections = in.get(in.position() + 1) & 0xFF;
+        return rawLength(sections, (flags & FLAG_SKY_LIGHT) != 0, (flags & FLAG_BIOMES) != 0);
+    }
+
+    /**
+     * Decodes PALETTED chunk payloads until {@code in} is exhausted, writing the RAW16 payloads back to back.
+     *
+     * @return The number of bytes written to {@code out}
+     */
+    public static int decodeAll(ByteBuffer in, byte[] out) {
+        return decodeAll(in, out, null);
+    }
+
+    /**
+     * @param refCounts Receives the ref counts of each chunk, or null for chunks sent without them
+     */
+    public static int decodeAll(ByteBuffer in, byte[] out, @Nullable List<int[]> refCounts) {
+        int written = 0;
+        while (in.hasRemaining()) {
+            final int[] counts = refCounts != null && hasRefCounts(in) ? new int[32] : null;
+            written += decode(in, out, written, false, counts);
+            if (refCounts != null) {
+                refCounts.add(counts);
+            }
+        }
+        return written;
+    }
+}
@@ -0,0 +1,185 @@
+package com.gtnewhorizons.neid.network;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import com.gtnewhorizons.neid.NEID;
+import com.gtnewhorizons.neid.NEIDConfig;
+
+/**
+ * Client side cache of the PALETTED sections received during a session, keyed by their content hash (see
+ * {@link SectionPayload#getHash()}), so that the server can send a reference instead of a section the client already
+ * has. The server keeps a {@link SectionCacheMirror} of the index, which only works as long as this cache evicts
+ * exactly like the mirror: plain LRU by number of entries, updated in packet order.
+ *
+ * The most recently used {@link NEIDConfig#ClientSectionCacheEntries} sections are kept in memory, up to
+ * {@link NEIDConfig#ClientSectionCacheDiskEntries} more are spilled to files.
+ */
+public class ClientSectionCache {
+
+    private static File spillDir;
+
+    // Every cached section in LRU order, the value is true while the section is in memory
+    private static final LinkedHashMap<Long, Boolean> index = new LinkedHashMap<Long, Boolean>(1024, 0.75f, true) {
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Boolean> eldest) {
+            if (size() <= capacity()) {
+                return false;
+            }
+            resident.remove(eldest.getKey());
+            spillFile(eldest.getKey()).delete();
+            return true;
+        }
+    };
+    private static final LinkedHashMap<Long, byte[]> resident = new LinkedHashMap<Long, byte[]>(1024, 0.75f, true) {
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest) {
+            if (size() <= NEIDConfig.ClientSectionCacheEntries) {
+                return false;
+            }
+            spill(eldest.getKey(), eldest.getValue());
+            return true;
+        }
+    };
+    private static final List<Long> misses = new ArrayList<>();
+
+    private static long hitCount;
+    private static long missCount;
+    private static long storeCount;
+    private static long savedBytes;
+
+    public static void init(File gameDir) {
+        spillDir = new File(gameDir, "neid_section_cache");
+    }
+
+    /**
+     * @return The number of sections the cache holds, announced to the server in the {@link MessageClientHello}.
+     */
+    public static int capacity() {
+        if (NEIDConfig.ClientSectionCacheEntries <= 0) {
+            return 0;
+        }
+        return NEIDConfig.ClientSectionCacheEntries + (spillDir != null ? NEIDConfig.ClientSectionCacheDiskEntries : 0);
+    }
+
+    static synchronized void store(long hash, byte[] section) {
+        index.put(hash, Boolean.TRUE);
+        resident.put(hash, section);
+        storeCount++;
+    }
+
+    /**
+     * @return The section, or null if it is not cached after all. Misses are remembered for {@link #takeMisses()}.
+     */
+    @Nullable
+    static synchronized byte[] lookup(long hash) {
+        byte[] section = null;
+        if (index.get(hash) != null) {
+            section = resident.get(hash);
+            if (section == null) {
+                section = unspill(hash);
+                if (section != null) {
+                    resident.put(hash, section);
+                }
+            }
+        }
+        if (section == null) {
+            index.remove(hash);
+            misses.add(hash);
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        savedBytes += section.length - 8;
+        return section;
+    }
+
+    /**
+     * @return The hashes of the references that could not be resolved since the last call.
+     */
+    public static synchronized long[] takeMisses() {
+        final long[] result = new long[misses.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = misses.get(i);
+        }
+        misses.clear();
+        return result;
+    }
+
+    /**
+     * Called when joining a world, the server starts with an empty mirror for every connection.
+     */
+    public static synchronized void reset() {
+        if (hitCount + missCount + storeCount > 0) {
+            NEID.LOG.info(getStats());
+        }
+        index.clear();
+        resident.clear();
+        misses.clear();
+        hitCount = missCount = storeCount = savedBytes = 0;
+        final File[] spilled = spillDir != null ? spillDir.listFiles() : null;
+        if (spilled != null) {
+            for (File file : spilled) {
+                file.delete();
+            }
+        }
+    }
+
+    public static synchronized String getStats() {
+        final long lookups = hitCount + missCount;
+        return String.format(
+                "Section cache: %d sections (%d in memory), %d stored, hit rate %.1f%% (%d hits, %d misses), "
+                        + "%d KiB saved",
+                index.size(),
+                resident.size(),
+                storeCount,
+                lookups == 0 ? 0.0 : hitCount * 100.0 / lookups,
+                hitCount,
+                missCount,
+                savedBytes / 1024);
+    }
+
+    private static File spillFile(long hash) {
+        return new File(spillDir, Long.toHexString(hash) + ".bin");
+    }
+
+    private static void spill(long hash, byte[] section) {
+        if (spillDir == null || NEIDConfig.ClientSectionCacheDiskEntries <= 0) {
+            return;
+        }
+        final File file = spillFile(hash);
+        if (file.exists()) {
+            return;
+        }
+        try {
+            Files.createDirectories(spillDir.toPath());
+            Files.write(file.toPath(), section);
+        } catch (IOException e) {
+            // Reported as a miss once the section is referenced
+            NEID.LOG.warn("Failed to spill cached section to {}", file, e);
+        }
+    }
+
+    @Nullable
+    private static byte[] unspill(long hash) {
+        if (spillDir == null) {
+            return null;
+        }
+        final File file = spillFile(hash);
+        try {
+            return file.isFile() ? Files.readAllBytes(file.toPath()) : null;
+        } catch (IOException e) {
+            NEID.LOG.warn("Failed to read cached section {}", file, e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.gtnewhorizons.neid.network;
+
+/**
+ * What the client learned about the server it is connected to from the {@link MessageServerHello}. Until a hello
+ * arrives (or if it never does, on servers without NEID or with an older NEID) untagged chunk packets are read in the
+ * {@link ChunkEncoding#LEGACY} layout, as before the handshake existed.
+ */
+public class ClientSession {
+
+    private static int serverProtocolVersion;
+    private static int serverEncodings;
+    private static ChunkEncoding untaggedLayout = ChunkEncoding.LEGACY;
+
+    /**
+     * Called when joining a world, before the server's hello can arrive.
+     */
+    public static void reset() {
+        serverProtocolVersion = 0;
+        serverEncodings = 0;
+        untaggedLayout = ChunkEncoding.LEGACY;
+        ClientSectionCache.reset();
+    }
+
+    static void onServerHello(int protocolVersion, int encodings, ChunkEncoding untagged) {
+        serverProtocolVersion = protocolVersion;
+        serverEncodings = encodings;
+        untaggedLayout = untagged;
+    }
+
+    /**
+     * @param packetLayout The layout recorded on a received chunk packet
+     * @return The layout {@code Chunk.fillChunk} should read the packet's data in.
+     */
+    public static ChunkEncoding resolveLayout(ChunkEncoding packetLayout) {
+        return packetLayout == ChunkEncoding.LEGACY ? untaggedLayout : packetLayout;
+    }
+
+    public static int getServerProtocolVersion() {
+        return serverProtocolVersion;
+    }
+
+    public static int getServerEncodings() {
+        return serverEncodings;
+    }
+}
@@ -0,0 +1,97 @@
+package com.gtnewhorizons.neid.network;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.annotation.Nullable;
+
+/**
+ * The compressed payloads of one chunk packet, by encoding, deflate level, dictionary and ref count use. The same
+ * packet is written to every player watching the chunk, possibly from several network threads. When the packet is sent
+ * to a connection, the payload that connection will need is compressed ahead of time on the
+ * {@link ChunkEncodeExecutor}. Every payload is compressed once, and a write that needs one that is still being
+ * compressed only waits for that one.
+ */
+public class CompressedPayloads {
+
+    public interface Compressor {
+
+        /**
+         * @param refCounts True to write section ref counts, only ever set for {@link ChunkEncoding#PALETTED}
+         */
+        byte[] compress(ChunkEncoding encoding, int level, @Nullable ChunkDictionary dictionary, boolean refCounts);
+    }
+
+    static final int KEYS = ChunkEncoding.values().length * ChunkCompression.LEVELS * 4;
+
+    private final Compressor compressor;
+    private final AtomicReferenceArray<FutureTask<byte[]>> payloads = new AtomicReferenceArray<>(KEYS);
+
+    public CompressedPayloads(Compressor compressor) {
+        this.compressor = compressor;
+    }
+
+    static int key(ChunkEncoding encoding, int level, boolean dictionary, boolean refCounts) {
+        // Only PALETTED payloads carry ref counts
+        final boolean withRefCounts = refCounts && encoding == ChunkEncoding.PALETTED;
+        return ((encoding.ordinal() * ChunkCompression.LEVELS + level) * 2 + (dictionary ? 1 : 0)) * 2
+                + (withRefCounts ? 1 : 0);
+    }
+
+    /**
+     * Starts compressing the payload a connection the packet is being sent to will need, unless it is already being
+     * compressed or the connection encodes its own, see {@link ConnectionState#sharedPayloadKey()}.
+     */
+    public void precompress(ConnectionState state) {
+        final int key = state.sharedPayloadKey();
+        if (key < 0 || payloads.get(key) != null || !ChunkEncodeExecutor.isEnabled()
+                || ChunkEncodeExecutor.isBacklogged()) {
+            return;
+        }
+        final ChunkEncoding encoding = state.getChunkEncoding();
+        final int level = state.getDeflateLevel();
+        final ChunkDictionary dictionary = state.getDictionary();
+        final boolean refCounts = state.getProtocolVersion() >= ChunkPayloadCodec.REF_COUNTS_PROTOCOL_VERSION;
+        ChunkEncodeExecutor.execute(() -> get(encoding, level, dictionary, refCounts));
+    }
+
+    /**
+     * @param refCounts True if the connection accepts ref counts
+     * @return The payload, compressed by this call if nothing compressed it before.
+     */
+    public byte[] get(ChunkEncoding encoding, int level, @Nullable ChunkDictionary dictionary, boolean refCounts) {
+        final boolean withRefCounts = refCounts && encoding == ChunkEncoding.PALETTED;
+        final int key = key(encoding, level, dictionary != null, withRefCounts);
+        while (true) {
+            FutureTask<byte[]> task = payloads.get(key);
+            boolean owner = false;
+            if (task == null) {
+                final FutureTask<byte[]> created = new FutureTask<>(
+                        () -> compressor.compress(encoding, level, dictionary, withRefCounts));
+                if (!payloads.compareAndSet(key, null, created)) {
+                    continue;
+                }
+                task = created;
+                owner = true;
+                task.run();
+            }
+            try {
+                return task.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return compressor.compress(encoding, level, dictionary, withRefCounts);
+            } catch (ExecutionException e) {
+                // Forget the failure, a write that waited for a compression ahead of time does it again itself
+                payloads.compareAndSet(key, task, null);
+                if (owner) {
+                    final Throwable cause = e.getCause();
+                    if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw cause instanceof RuntimeException ? (RuntimeException) cause : new RuntimeException(cause);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package com.gtnewhorizons.neid.network;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+import javax.annotation.Nullable;
+
+import com.gtnewhorizons.neid.NEIDConfig;
+
+import io.netty.channel.Channel;
+import io.netty.util.Attribute;
+import io.netty.util.AttributeKey;
+
+/**
+ * The outcome of the NEID handshake for one connection. It is owned by the connection's NetHandlerPlayServer (see
+ * INetHandlerPlayServerMixin) and also stored on the netty channel, so that packets, which do not know their
+ * connection, can look it up while they are being serialized on a network thread.
+ */
+public class ConnectionState {
+
+    private static final AttributeKey<ConnectionState> KEY = new AttributeKey<>("neid:connection");
+
+    /**
+     * The connection whose packets are currently being serialized on this thread, set by MixinMessageSerializer.
+     */
+    private static final ThreadLocal<ConnectionState> current = new ThreadLocal<>();
+
+    /**
+     * Chunks remembered as sent with section references, and chunks waiting to be resent, at most this many each.
+     */
+    private static final int MAX_TRACKED_CHUNKS = 4096;
+    private static final long[] NO_CHUNKS = new long[0];
+
+    private final Channel channel;
+    private volatile int protocolVersion;
+    private volatile int clientEncodings;
+    private volatile ChunkEncoding chunkEncoding = ChunkEncoding.LEGACY;
+    private volatile int deflateLevel = ChunkCompression.defaultLevel();
+    @Nullable
+    private volatile ChunkDictionary dictionary;
+    @Nullable
+    private volatile SectionCacheMirror sectionCache;
+    // Chunks sent with section references since they were last resent, the only ones a cache miss may name. Both are
+    // guarded by this.
+    private final LinkedHashSet<Long> referencedChunks = new LinkedHashSet<>();
+    private final LinkedHashSet<Long> resends = new LinkedHashSet<>();
+
+    private ConnectionState(Channel channel) {
+        this.channel = channel;
+    }
+
+    public static ConnectionState get(Channel channel) {
+        final Attribute<ConnectionState> attribute = channel.attr(KEY);
+        ConnectionState state = attribute.get();
+        if (state == null) {
+            final ConnectionState created = new ConnectionState(channel);
+            state = attribute.setIfAbsent(created);
+            if (state == null) {
+                state = created;
+            }
+        }
+        return state;
+    }
+
+    @Nullable
+    public static ConnectionState peek(Channel channel) {
+        return channel.attr(KEY).get();
+    }
+
+    public static void setCurrent(@Nullable ConnectionState state) {
+        current.set(state);
+    }
+
+    /**
+     * @return The connection that is currently being written to, null outside of packet serialization.
+     */
+    @Nullable
+    public static ConnectionState current() {
+        return current.get();
+    }
+
+    /**
+     * @return The encoding chunk packets should use for the connection that is currently being written to.
+     */
+    public static ChunkEncoding currentChunkEncoding() {
+        final ConnectionState state = current.get();
+        return state == null ? ChunkEncoding.LEGACY : state.chunkEncoding;
+    }
+
+    /**
+     * @return The deflate level chunk packets should use for the connection that is currently being written to.
+     */
+    public static int currentDeflateLevel() {
+        final ConnectionState state = current.get();
+        return state == null ? ChunkCompression.defaultLevel() : state.deflateLevel;
+    }
+
+    /**
+     * @return The preset dictionary chunk packets should use for the connection that is currently being written to.
+     */
+    @Nullable
+    public static ChunkDictionary currentDictionary() {
+        final ConnectionState state = current.get();
+        return state == null ? null : state.dictionary;
+    }
+
+    /**
+     * @return The negotiated protocol version of the connection that is currently being written to, 0 if none.
+     */
+    public static int currentProtocolVersion() {
+        final ConnectionState state = current.get();
+        return state == null ? 0 : state.protocolVersion;
+    }
+
+    /**
+     * Completes the handshake with what the client announced in its {@link MessageClientHello}.
+     */
+    public void negotiate(int clientProtocolVersion, int clientEncodings, long clientDictionaryHash,
+            int clientSectionCacheEntries) {
+        this.protocolVersion = Math.min(clientProtocolVersion, NEIDNetwork.PROTOCOL_VERSION);
+        this.clientEncodings = clientEncodings;
+        this.chunkEncoding = ChunkEncoding.select(clientEncodings & ChunkEncoding.serverMask());
+        final ChunkDictionary serverDictionary = ChunkDictionary.get();
+        final boolean sameDictionary = serverDictionary != null && serverDictionary.hash == clientDictionaryHash;
+        this.dictionary = sameDictionary ? serverDictionary : null;
+        final int mirrorEntries = Math.min(clientSectionCacheEntries, NEIDConfig.SectionCacheMirrorEntries);
+        this.sectionCache = chunkEncoding == ChunkEncoding.PALETTED && mirrorEntries > 0
+                ? new SectionCacheMirror(mirrorEntries)
+                : null;
+    }
+
+    /**
+     * @return The protocol version both sides speak, 0 until the handshake completed.
+     */
+    public int getProtocolVersion() {
+        return protocolVersion;
+    }
+
+    public int getClientEncodings() {
+        return clientEncodings;
+    }
+
+    public ChunkEncoding getChunkEncoding() {
+        return chunkEncoding;
+    }
+
+    /**
+     * See {@link ChunkCompression#updateLevels}.
+     */
+    void updateDeflateLevel(int pingMillis, boolean serverBusy) {
+        deflateLevel = ChunkCompression.selectLevel(pingMillis, !channel.isWritable(), serverBusy);
+    }
+
+    public int getDeflateLevel() {
+        return deflateLevel;
+    }
+
+    /**
+     * @return The {@link CompressedPayloads} key of the payload written to this connection, -1 if it gets vanilla
+     *         packets or encodes its own because of its section cache.
+     */
+    int sharedPayloadKey() {
+        final ChunkEncoding encoding = chunkEncoding;
+        if (encoding == ChunkEncoding.LEGACY || encoding == ChunkEncoding.PALETTED && sectionCache != null) {
+            return -1;
+        }
+        return CompressedPayloads.key(
+                encoding,
+                deflateLevel,
+                dictionary != null,
+                protocolVersion >= ChunkPayloadCodec.REF_COUNTS_PROTOCOL_VERSION);
+    }
+
+    /**
+     * Records that a chunk was sent with references to cached sections, see {@link CachedPayloads}.
+     */
+    synchronized void sentReferences(int chunkX, int chunkZ) {
+        final Long chunk = chunkKey(chunkX, chunkZ);
+        // Moved to the end, so that the oldest chunks are dropped first
+        referencedChunks.remove(chunk);
+        referencedChunks.add(chunk);
+        if (referencedChunks.size() > MAX_TRACKED_CHUNKS) {
+            final Iterator<Long> eldest = referencedChunks.iterator();
+            eldest.next();
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Queues a chunk the client reported cache misses for. Only chunks sent with references since their last resend
+     * are accepted, anything else the client names is ignored.
+     */
+    synchronized void requestResend(int chunkX, int chunkZ) {
+        final Long chunk = chunkKey(chunkX, chunkZ);
+        if (resends.size() < MAX_TRACKED_CHUNKS && referencedChunks.remove(chunk)) {
+            resends.add(chunk);
+        }
+    }
+
+    /**
+     * @return Up to {@code max} queued resends as chunk keys, x in the high and z in the low half.
+     */
+    synchronized long[] pollResends(int max) {
+        if (resends.isEmpty()) {
+            return NO_CHUNKS;
+        }
+        final long[] chunks = new long[Math.min(max, resends.size())];
+        final Iterator<Long> iterator = resends.iterator();
+        for (int i = 0; i < chunks.length; i++) {
+            chunks[i] = iterator.next();
+            iterator.remove();
+        }
+        return chunks;
+    }
+
+    private static Long chunkKey(int chunkX, int chunkZ) {
+        return (long) chunkX << 32 | chunkZ & 0xFFFFFFFFL;
+    }
+
+    @Nullable
+    public ChunkDictionary getDictionary() {
+        return dictionary;
+    }
+
+    @Nullable
+    public SectionCacheMirror getSectionCache() {
+        return sectionCache;
+    }
+}
@@ -0,0 +1,131 @@
+package com.gtnewhorizons.neid.network;
+
+import javax.annotation.Nullable;
+
+import net.minecraft.block.Block;
+import net.minecraft.init.Blocks;
+
+import com.gtnewhorizons.neid.Constants;
+import com.gtnewhorizons.neid.NEID;
+import com.gtnewhorizons.neid.NEIDConfig;
+
+/**
+ * The sections of a received RAW16 chunk payload, unpacked into 16 bit arrays together with their reference counts
+ * while the packet is read on the network thread. {@code Chunk.fillChunk} on the client thread then only has to swap
+ * the arrays into the chunk's EBS, see {@link ChunkDecodeContext}. The reference counts are taken from the payload
+ * when the server sent them, and only recounted with {@link NEIDConfig#VerifySectionRefCounts}. The render hash of
+ * each section is computed here as well, so that the client thread only compares it with the one kept on the EBS.
+ */
+public class DecodedChunk {
+
+    private final byte[] source;
+    final short[][] ids;
+    final short[][] metas;
+    final int[] blockRefCounts;
+    final int[] tickRefCounts;
+    final long[] renderHashes;
+    // Each section can only be handed to one EBS
+    private boolean taken;
+
+    private DecodedChunk(byte[] source, int sections) {
+        this.source = source;
+        this.ids = new short[sections][];
+        this.metas = new short[sections][];
+        this.blockRefCounts = new int[sections];
+        this.tickRefCounts = new int[sections];
+        this.renderHashes = new long[sections];
+    }
+
+    /**
+     * @param data      The RAW16 payload of one chunk
+     * @param mask      The sections in the payload
+     * @param refCounts The block and tick ref count of each section as sent by the server, or null to count them
+     */
+    public static DecodedChunk decode(byte[] data, int mask, @Nullable int[] refCounts) {
+        final int sections = Integer.bitCount(mask & 65535);
+        final DecodedChunk decoded = new DecodedChunk(data, sections);
+        final int metaStart = sections * ChunkPayloadCodec.ID_BYTES;
+        final boolean count = refCounts == null || NEIDConfig.VerifySectionRefCounts;
+        final int blockLightStart = metaStart + sections * ChunkPayloadCodec.META_BYTES;
+        // The packet does not say whether it carries sky light, the payload length does
+        final boolean skyLight = data.length >= ChunkPayloadCodec.rawLength(sections, true, false);
+        final int skyLightStart = blockLightStart + sections * ChunkPayloadCodec.LIGHT_BYTES;
+        for (int index = 0; index < sections; index++) {
+            final short[] ids = new short[Constants.BLOCKS_PER_EBS];
+            final short[] metas = new short[Constants.BLOCKS_PER_EBS];
+            int idOffset = index * ChunkPayloadCodec.ID_BYTES;
+            int metaOffset = metaStart + index * ChunkPayloadCodec.META_BYTES;
+            int blockRefCount = 0;
+            int tickRefCount = 0;
+            for (int i = 0; i < Constants.BLOCKS_PER_EBS; i++, idOffset += 2, metaOffset += 2) {
+                metas[i] = (short) (data[metaOffset] << 8 | data[metaOffset + 1] & 0xFF);
+                final int id = (data[idOffset] & 0xFF) << 8 | data[idOffset + 1] & 0xFF;
+                if (id == 0) {
+                    continue;
+                }
+                if (!count) {
+                    ids[i] = (short) id;
+                    continue;
+                }
+                // Same rules as ExtendedBlockStorage.removeInvalidBlocks
+                final Block block = (Block) Block.blockRegistry.getObjectById(id);
+                if (block == null) {
+                    if (!NEIDConfig.RemoveInvalidBlocks) {
+                        ids[i] = (short) id;
+                    }
+                    continue;
+                }
+                ids[i] = (short) id;
+                if (block != Blocks.air) {
+                    blockRefCount++;
+                    if (block.getTickRandomly()) {
+                        tickRefCount++;
+                    }
+                }
+            }
+            if (refCounts != null) {
+                if (count && (blockRefCount != refCounts[index * 2] || tickRefCount != refCounts[index * 2 + 1])) {
+                    // Keep the counted values, they describe what the client actually holds
+                    NEID.LOG.warn(
+                            "Section {} ref counts from the server ({} blocks, {} ticking) differ from the counted ones"
+                                    + " ({} blocks, {} ticking)",
+                            index,
+                            refCounts[index * 2],
+                            refCounts[index * 2 + 1],
+                            blockRefCount,
+                            tickRefCount);
+                } else {
+                    blockRefCount = refCounts[index * 2];
+                    tickRefCount = refCounts[index * 2 + 1];
+                }
+            }
+            decoded.ids[index] = ids;
+            decoded.metas[index] = metas;
+            decoded.blockRefCounts[index] = blockRefCount;
+            decoded.tickRefCounts[index] = tickRefCount;
+            decoded.renderHashes[index] = ChunkDecodeContext.renderHash(
+                    ids,
+                    metas,
+                    data,
+                    blockLightStart + index * ChunkPayloadCodec.LIGHT_BYTES,
+                    skyLight ? data : null,
+                    skyLightStart + index * ChunkPayloadCodec.LIGHT_BYTES);
+        }
+        return decoded;
+    }
+
+    /**
+     * @return Whether this was decoded from {@code data} and has not been applied yet. Marks it as applied.
+     */
+    public boolean take(byte[] data) {
+        if (taken || data != source) {
+            return false;
+        }
+        taken = true;
+        return true;
+    }
+
+    public int sections() {
+        return ids.length;
+    }
+}
@@ -0,0 +1,68 @@
+package com.gtnewhorizons.neid.network;
+
+import net.minecraft.network.NetHandlerPlayServer;
+
+import com.gtnewhorizons.neid.mixins.interfaces.INetHandlerPlayServerMixin;
+
+import io.netty.buffer.ByteBuf;
+
+import cpw.mods.fml.common.network.simpleimpl.IMessage;
+import cpw.mods.fml.common.network.simpleimpl.IMessageHandler;
+import cpw.mods.fml.common.network.simpleimpl.MessageContext;
+
+/**
+ * The client's answer to {@link MessageServerHello}: its protocol version, the chunk encodings it can decode as a
+ * {@link ChunkEncoding} bit mask, since version 2 the hash of its {@link ChunkDictionary} and since version 4 the
+ * capacity of its {@link ClientSectionCache}.
+ */
+public class MessageClientHello implements IMessage {
+
+    private int protocolVersion;
+    private int encodings;
+    private long dictionaryHash;
+    private int sectionCacheEntries;
+
+    public MessageClientHello() {}
+
+    public MessageClientHello(int protocolVersion, int encodings, long dictionaryHash, int sectionCacheEntries) {
+        this.protocolVersion = protocolVersion;
+        this.encodings = encodings;
+        this.dictionaryHash = dictionaryHash;
+        this.sectionCacheEntries = sectionCacheEntries;
+    }
+
+    @Override
+    public void fromBytes(ByteBuf buf) {
+        protocolVersion = buf.readInt();
+        encodings = buf.readInt();
+        if (protocolVersion >= 2) {
+            dictionaryHash = buf.readLong();
+        }
+        if (protocolVersion >= 4) {
+            sectionCacheEntries = buf.readInt();
+        }
+    }
+
+    @Override
+    public void toBytes(ByteBuf buf) {
+        buf.writeInt(protocolVersion);
+        buf.writeInt(encodings);
+        buf.writeLong(dictionaryHash);
+        buf.writeInt(sectionCacheEntries);
+    }
+
+    public static class Handler implements IMessageHandler<MessageClientHello, IMessage> {
+
+        @Override
+        public IMessage onMessage(MessageClientHello message, MessageContext ctx) {
+            final NetHandlerPlayServer handler = ctx.getServerHandler();
+            ((INetHandlerPlayServerMixin) handler).neid$getConnectionState()
+                    .negotiate(
+                            message.protocolVersion,
+                            message.encodings,
+                            message.dictionaryHash,
+                            message.sectionCacheEntries);
+            return null;
+        }
+    }
+}
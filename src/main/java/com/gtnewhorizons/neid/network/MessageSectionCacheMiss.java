@@ -0,0 +1,70 @@
+package com.gtnewhorizons.neid.network;
+
+import com.gtnewhorizons.neid.mixins.interfaces.INetHandlerPlayServerMixin;
+
+import io.netty.buffer.ByteBuf;
+
+import cpw.mods.fml.common.network.simpleimpl.IMessage;
+import cpw.mods.fml.common.network.simpleimpl.IMessageHandler;
+import cpw.mods.fml.common.network.simpleimpl.MessageContext;
+
+/**
+ * Sent by the client when a chunk packet referenced sections that are not in its {@link ClientSectionCache}. The
+ * server drops them from its {@link SectionCacheMirror} and resends the chunks, which then carry them in full. Only
+ * chunks the server sent with references since it last resent them are resent, see
+ * {@link ConnectionState#requestResend}.
+ */
+public class MessageSectionCacheMiss implements IMessage {
+
+    // Chunk x and z pairs
+    private int[] chunks;
+    private long[] hashes;
+
+    public MessageSectionCacheMiss() {}
+
+    public MessageSectionCacheMiss(int[] chunks, long[] hashes) {
+        this.chunks = chunks;
+        this.hashes = hashes;
+    }
+
+    @Override
+    public void fromBytes(ByteBuf buf) {
+        chunks = new int[buf.readUnsignedShort() * 2];
+        for (int i = 0; i < chunks.length; i++) {
+            chunks[i] = buf.readInt();
+        }
+        hashes = new long[buf.readUnsignedShort()];
+        for (int i = 0; i < hashes.length; i++) {
+            hashes[i] = buf.readLong();
+        }
+    }
+
+    @Override
+    public void toBytes(ByteBuf buf) {
+        buf.writeShort(chunks.length / 2);
+        for (int coordinate : chunks) {
+            buf.writeInt(coordinate);
+        }
+        buf.writeShort(hashes.length);
+        for (long hash : hashes) {
+            buf.writeLong(hash);
+        }
+    }
+
+    public static class Handler implements IMessageHandler<MessageSectionCacheMiss, IMessage> {
+
+        @Override
+        public IMessage onMessage(MessageSectionCacheMiss message, MessageContext ctx) {
+            final ConnectionState state = ((INetHandlerPlayServerMixin) ctx.getServerHandler())
+                    .neid$getConnectionState();
+            final SectionCacheMirror mirror = state.getSectionCache();
+            if (mirror != null) {
+                mirror.forget(message.hashes);
+            }
+            for (int i = 0; i + 1 < message.chunks.length; i += 2) {
+                state.requestResend(message.chunks[i], message.chunks[i + 1]);
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.gtnewhorizons.neid.network;
+
+import io.netty.buffer.ByteBuf;
+
+import cpw.mods.fml.common.network.simpleimpl.IMessage;
+import cpw.mods.fml.common.network.simpleimpl.IMessageHandler;
+import cpw.mods.fml.common.network.simpleimpl.MessageContext;
+
+/**
+ * First half of the NEID handshake, sent by the server when a player logs in. The client answers with a
+ * {@link MessageClientHello}.
+ */
+public class MessageServerHello implements IMessage {
+
+    private int protocolVersion;
+    private int encodings;
+    private int untaggedLayout;
+
+    public MessageServerHello() {}
+
+    public MessageServerHello(int protocolVersion, int encodings, ChunkEncoding untaggedLayout) {
+        this.protocolVersion = protocolVersion;
+        this.encodings = encodings;
+        this.untaggedLayout = untaggedLayout.id;
+    }
+
+    @Override
+    public void fromBytes(ByteBuf buf) {
+        protocolVersion = buf.readInt();
+        encodings = buf.readInt();
+        untaggedLayout = buf.readUnsignedByte();
+    }
+
+    @Override
+    public void toBytes(ByteBuf buf) {
+        buf.writeInt(protocolVersion);
+        buf.writeInt(encodings);
+        buf.writeByte(untaggedLayout);
+    }
+
+    public static class Handler implements IMessageHandler<MessageServerHello, IMessage> {
+
+        @Override
+        public IMessage onMessage(MessageServerHello message, MessageContext ctx) {
+            ClientSession.onServerHello(
+                    message.protocolVersion,
+                    message.encodings,
+                    ChunkEncoding.byId(message.untaggedLayout));
+            return new MessageClientHello(
+                    NEIDNetwork.PROTOCOL_VERSION,
+                    ChunkEncoding.supportedMask(),
+                    ChunkDictionary.currentHash(),
+                    ClientSectionCache.capacity());
+        }
+    }
+}
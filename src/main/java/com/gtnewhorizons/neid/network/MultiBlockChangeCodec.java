@@ -0,0 +1,102 @@
+package com.gtnewhorizons.neid.network;
+
+import java.nio.ByteBuffer;
+
+import javax.annotation.Nullable;
+
+/**
+ * Compact form of the S22 records NEID writes. The server builds every S22 with 6 byte records (short position, short
+ * id, short metadata) and rewrites them per connection for clients that understand this format, if it is smaller:
+ *
+ * <pre>
+ * varint count, byte flags (1 = all metadata is 0), count x (short position, varint id, varint metadata?)
+ * </pre>
+ *
+ * Marked like {@link SectionDelta}s by {@link SectionDelta#EXTENDED_MARKER} in the record count, with
+ * {@link #FORMAT_COMPACT_RECORDS} as the format.
+ */
+public class MultiBlockChangeCodec {
+
+    /**
+     * The protocol version from which clients understand compact records.
+     */
+    public static final int PROTOCOL_VERSION = 5;
+    public static final int FORMAT_COMPACT_RECORDS = 2;
+
+    private static final int FLAG_ALL_META_ZERO = 1;
+    private static final int RECORD_BYTES = 6;
+
+    public interface RecordSink {
+
+        /**
+         * @param position The vanilla record position, {@code x << 12 | z << 8 | y}
+         */
+        void set(int position, int id, int meta);
+    }
+
+    /**
+     * Ids from 16384 and metadata from 128 take more bytes as varints than in the 6 byte form, so the compact form is
+     * not always smaller.
+     *
+     * @param records {@code count} records in NEID's 6 byte form
+     * @return The records in the compact form, null if that is not smaller than the 6 byte form.
+     */
+    @Nullable
+    public static byte[] compactIfSmaller(byte[] records, int count) {
+        final int size = compactSize(records, count);
+        return size < count * RECORD_BYTES ? compact(records, count, size) : null;
+    }
+
+    private static byte[] compact(byte[] records, int count, int size) {
+        final ByteBuffer in = ByteBuffer.wrap(records);
+        final boolean allMetaZero = isAllMetaZero(records, count);
+        final ByteBuffer out = ByteBuffer.allocate(size);
+        PalettedSectionCodec.writeVarInt(out, count);
+        out.put((byte) (allMetaZero ? FLAG_ALL_META_ZERO : 0));
+        for (int i = 0; i < count; i++) {
+            final int record = i * RECORD_BYTES;
+            out.putShort(in.getShort(record));
+            PalettedSectionCodec.writeVarInt(out, in.getShort(record + 2) & 0xFFFF);
+            if (!allMetaZero) {
+                PalettedSectionCodec.writeVarInt(out, in.getShort(record + 4) & 0xFFFF);
+            }
+        }
+        return out.array();
+    }
+
+    public static int compactSize(byte[] records, int count) {
+        final ByteBuffer in = ByteBuffer.wrap(records);
+        final boolean allMetaZero = isAllMetaZero(records, count);
+        int size = PalettedSectionCodec.varIntSize(count) + 1;
+        for (int i = 0; i < count; i++) {
+            final int record = i * RECORD_BYTES;
+            size += 2 + PalettedSectionCodec.varIntSize(in.getShort(record + 2) & 0xFFFF);
+            if (!allMetaZero) {
+                size += PalettedSectionCodec.varIntSize(in.getShort(record + 4) & 0xFFFF);
+            }
+        }
+        return size;
+    }
+
+    public static void decode(byte[] data, RecordSink sink) {
+        final ByteBuffer in = ByteBuffer.wrap(data);
+        final int count = PalettedSectionCodec.readVarInt(in);
+        final boolean allMetaZero = (in.get() & FLAG_ALL_META_ZERO) != 0;
+        for (int i = 0; i < count; i++) {
+            final int position = in.getShort() & 0xFFFF;
+            final int id = PalettedSectionCodec.readVarInt(in);
+            final int meta = allMetaZero ? 0 : PalettedSectionCodec.readVarInt(in);
+            sink.set(position, id, meta);
+        }
+    }
+
+    public static boolean isAllMetaZero(byte[] records, int count) {
+        for (int i = 0; i < count; i++) {
+            final int meta = i * RECORD_BYTES + 4;
+            if (records[meta] != 0 || records[meta + 1] != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,60 @@
+package com.gtnewhorizons.neid.network;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import com.gtnewhorizons.neid.NEID;
+
+/**
+ * Records the S22 packets the server builds, for the MultiBlockChangeSizeTool in the tools source set. Every packet is
+ * stored as a short record count followed by its 6 byte records. Toggled with {@code /neid record}.
+ */
+public class MultiBlockChangeRecorder {
+
+    public static final String FILE_NAME = "neid_s22_traffic.bin";
+
+    private static volatile DataOutputStream out;
+    private static long packets;
+
+    public static synchronized void start(File file) throws IOException {
+        stop();
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+        packets = 0;
+    }
+
+    /**
+     * @return The number of packets recorded since {@link #start}.
+     */
+    public static synchronized long stop() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                NEID.LOG.warn("Failed to close the S22 recording", e);
+            }
+            out = null;
+        }
+        return packets;
+    }
+
+    public static boolean isRecording() {
+        return out != null;
+    }
+
+    public static synchronized void record(int count, byte[] records) {
+        if (out == null) {
+            return;
+        }
+        try {
+            out.writeShort(count);
+            out.write(records, 0, count * 6);
+            packets++;
+        } catch (IOException e) {
+            NEID.LOG.warn("Failed to record S22 packet, recording stopped", e);
+            stop();
+        }
+    }
+}
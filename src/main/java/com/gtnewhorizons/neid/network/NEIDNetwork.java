@@ -0,0 +1,111 @@
+package com.gtnewhorizons.neid.network;
+
+import net.minecraft.entity.player.EntityPlayerMP;
+import net.minecraft.network.play.server.S21PacketChunkData;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.world.WorldServer;
+import net.minecraft.world.chunk.Chunk;
+
+import com.gtnewhorizons.neid.mixins.interfaces.INetHandlerPlayServerMixin;
+
+import cpw.mods.fml.common.FMLCommonHandler;
+import cpw.mods.fml.common.eventhandler.SubscribeEvent;
+import cpw.mods.fml.common.gameevent.PlayerEvent;
+import cpw.mods.fml.common.gameevent.TickEvent;
+import cpw.mods.fml.common.network.NetworkRegistry;
+import cpw.mods.fml.common.network.simpleimpl.SimpleNetworkWrapper;
+import cpw.mods.fml.relauncher.Side;
+
+/**
+ * The NEID channel. Every connection starts with a handshake: the server sends a {@link MessageServerHello} on login,
+ * the client answers with a {@link MessageClientHello} and the server then picks the chunk encoding for that
+ * connection, see {@link ConnectionState#negotiate}. Peers without NEID never answer and keep getting vanilla packets.
+ */
+public class NEIDNetwork {
+
+    /**
+     * Bump when the meaning of an existing message or encoding changes. New encodings only need a new
+     * {@link ChunkEncoding} entry, they are negotiated through the encoding masks.
+     */
+    public static final int PROTOCOL_VERSION = 6;
+
+    public static final SimpleNetworkWrapper CHANNEL = NetworkRegistry.INSTANCE.newSimpleChannel("NEID");
+
+    /**
+     * Chunks resent to one connection per tick at most, after its client reported section cache misses.
+     */
+    private static final int RESENDS_PER_TICK = 4;
+
+    /**
+     * Layout of the chunk packets this server builds, which is what they carry when they are sent untagged. Ultramine
+     * builds its own grouped payloads, everything else goes through MixinS21PacketChunkData.
+     */
+    private static final ChunkEncoding UNTAGGED_LAYOUT = isUltramine() ? ChunkEncoding.LEGACY : ChunkEncoding.RAW16;
+
+    public static void init() {
+        CHANNEL.registerMessage(MessageClientHello.Handler.class, MessageClientHello.class, 0, Side.SERVER);
+        CHANNEL.registerMessage(MessageServerHello.Handler.class, MessageServerHello.class, 1, Side.CLIENT);
+        CHANNEL.registerMessage(
+                MessageSectionCacheMiss.Handler.class,
+                MessageSectionCacheMiss.class,
+                2,
+                Side.SERVER);
+        FMLCommonHandler.instance().bus().register(new NEIDNetwork());
+    }
+
+    @SubscribeEvent
+    public void onPlayerLoggedIn(PlayerEvent.PlayerLoggedInEvent event) {
+        if (event.player instanceof EntityPlayerMP) {
+            CHANNEL.sendTo(
+                    new MessageServerHello(PROTOCOL_VERSION, ChunkEncoding.serverMask(), UNTAGGED_LAYOUT),
+                    (EntityPlayerMP) event.player);
+        }
+    }
+
+    @SubscribeEvent
+    public void onServerTick(TickEvent.ServerTickEvent event) {
+        final MinecraftServer server = MinecraftServer.getServer();
+        if (event.phase != TickEvent.Phase.END) {
+            return;
+        }
+        if (server.getTickCounter() % 20 == 0) {
+            ChunkCompression.updateLevels(server);
+            BlockChangeStats.sample();
+        }
+        for (Object entity : server.getConfigurationManager().playerEntityList) {
+            resendChunks((EntityPlayerMP) entity);
+        }
+    }
+
+    /**
+     * Resends whole chunks the player's client is missing cached sections of, if the player still watches them.
+     */
+    private static void resendChunks(EntityPlayerMP player) {
+        if (player.playerNetServerHandler == null) {
+            return;
+        }
+        final ConnectionState state = ((INetHandlerPlayServerMixin) player.playerNetServerHandler)
+                .neid$getConnectionState();
+        final WorldServer world = player.getServerForPlayer();
+        for (long resend : state.pollResends(RESENDS_PER_TICK)) {
+            final int chunkX = (int) (resend >> 32);
+            final int chunkZ = (int) resend;
+            if (world.getPlayerManager().isPlayerWatchingChunk(player, chunkX, chunkZ)) {
+                final Chunk chunk = world.getChunkFromChunkCoords(chunkX, chunkZ);
+                player.playerNetServerHandler.sendPacket(new S21PacketChunkData(chunk, true, 65535));
+            }
+        }
+    }
+
+    /**
+     * @return True on Ultramine, which replaces the vanilla chunk loader, chunk packets and PlayerManager.
+     */
+    public static boolean isUltramine() {
+        try {
+            Class.forName("org.ultramine.server.UltraminePlugin", false, NEIDNetwork.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+}
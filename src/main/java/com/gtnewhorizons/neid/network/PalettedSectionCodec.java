@@ -0,0 +1,209 @@
+package com.gtnewhorizons.neid.network;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import com.gtnewhorizons.neid.Constants;
+
+/**
+ * Encodes the ids and metadata of one section as a palette of distinct (id, meta) states followed by bit packed
+ * indices into it.
+ *
+ * <pre>
+ * varint paletteSize
+ * paletteSize == 0: 4096 x (short id, short meta)        direct, used when the palette would not be smaller
+ * paletteSize  > 0: paletteSize x (varint id, varint meta)
+ *                   64 * bits longs of packed indices     bits = ceil(log2(paletteSize)), 0 for a uniform section
+ * </pre>
+ *
+ * Indices are packed little end first and may span two longs, which keeps every bit width dense.
+ */
+public class PalettedSectionCodec {
+
+    /**
+     * Upper bound of an encoded section: the direct form plus its marker.
+     */
+    public static final int MAX_ENCODED_SIZE = 1 + Constants.BLOCKS_PER_EBS * 4;
+
+    private static final int DIRECT_SIZE = MAX_ENCODED_SIZE;
+    private static final int TABLE_SIZE = Constants.BLOCKS_PER_EBS * 2;
+    private static final int TABLE_MASK = TABLE_SIZE - 1;
+
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    private static class Scratch {
+
+        // Open addressing state -> palette index table, a slot is only valid if its stamp matches
+        final int[] keys = new int[TABLE_SIZE];
+        final int[] indices = new int[TABLE_SIZE];
+        final int[] stamps = new int[TABLE_SIZE];
+        int stamp;
+
+        final int[] palette = new int[Constants.BLOCKS_PER_EBS];
+        final int[] paletteIndex = new int[Constants.BLOCKS_PER_EBS];
+        final long[] packed = new long[Constants.BLOCKS_PER_EBS * 12 / 64];
+    }
+
+    public static void encode(short[] ids, int idOffset, short[] metas, int metaOffset, ByteBuffer out) {
+        final Scratch s = SCRATCH.get();
+        if (++s.stamp == 0) {
+            Arrays.fill(s.stamps, 0);
+            s.stamp = 1;
+        }
+
+        int paletteSize = 0;
+        int paletteBytes = 0;
+        for (int i = 0; i < Constants.BLOCKS_PER_EBS; i++) {
+            final int id = ids[idOffset + i] & 0xFFFF;
+            final int meta = metas[metaOffset + i] & 0xFFFF;
+            final int state = id << 16 | meta;
+
+            int slot = mix(state) & TABLE_MASK;
+            while (true) {
+                if (s.stamps[slot] != s.stamp) {
+                    s.stamps[slot] = s.stamp;
+                    s.keys[slot] = state;
+                    s.indices[slot] = paletteSize;
+                    s.palette[paletteSize] = state;
+                    s.paletteIndex[i] = paletteSize++;
+                    paletteBytes += varIntSize(id) + varIntSize(meta);
+                    break;
+                }
+                if (s.keys[slot] == state) {
+                    s.paletteIndex[i] = s.indices[slot];
+                    break;
+                }
+                slot = (slot + 1) & TABLE_MASK;
+            }
+        }
+
+        final int bits = bitsFor(paletteSize);
+        final int longs = Constants.BLOCKS_PER_EBS * bits / 64;
+        if (varIntSize(paletteSize) + paletteBytes + longs * 8 >= DIRECT_SIZE) {
+            out.put((byte) 0);
+            for (int i = 0; i < Constants.BLOCKS_PER_EBS; i++) {
+                out.putShort(ids[idOffset + i]);
+                out.putShort(metas[metaOffset + i]);
+            }
+            return;
+        }
+
+        writeVarInt(out, paletteSize);
+        for (int i = 0; i < paletteSize; i++) {
+            writeVarInt(out, s.palette[i] >>> 16);
+            writeVarInt(out, s.palette[i] & 0xFFFF);
+        }
+        if (bits == 0) {
+            return;
+        }
+
+        final long[] packed = s.packed;
+        Arrays.fill(packed, 0, longs, 0L);
+        for (int i = 0; i < Constants.BLOCKS_PER_EBS; i++) {
+            final long value = s.paletteIndex[i];
+            final int bitIndex = i * bits;
+            final int word = bitIndex >>> 6;
+            final int shift = bitIndex & 63;
+            packed[word] |= value << shift;
+            if (shift + bits > 64) {
+                packed[word + 1] |= value >>> (64 - shift);
+            }
+        }
+        for (int i = 0; i < longs; i++) {
+            out.putLong(packed[i]);
+        }
+    }
+
+    public static void decode(ByteBuffer in, short[] ids, int idOffset, short[] metas, int metaOffset) {
+        final int paletteSize = readVarInt(in);
+        if (paletteSize == 0) {
+            for (int i = 0; i < Constants.BLOCKS_PER_EBS; i++) {
+                ids[idOffset + i] = in.getShort();
+                metas[metaOffset + i] = in.getShort();
+            }
+            return;
+        }
+        if (paletteSize > Constants.BLOCKS_PER_EBS) {
+            throw new IllegalArgumentException("Invalid section palette size " + paletteSize);
+        }
+
+        final Scratch s = SCRATCH.get();
+        final int[] palette = s.palette;
+        for (int i = 0; i < paletteSize; i++) {
+            final int id = readVarInt(in);
+            final int meta = readVarInt(in);
+            palette[i] = id << 16 | meta & 0xFFFF;
+        }
+
+        final int bits = bitsFor(paletteSize);
+        if (bits == 0) {
+            final short id = (short) (palette[0] >>> 16);
+            final short meta = (short) palette[0];
+            Arrays.fill(ids, idOffset, idOffset + Constants.BLOCKS_PER_EBS, id);
+            Arrays.fill(metas, metaOffset, metaOffset + Constants.BLOCKS_PER_EBS, meta);
+            return;
+        }
+
+        final long[] packed = s.packed;
+        final int longs = Constants.BLOCKS_PER_EBS * bits / 64;
+        for (int i = 0; i < longs; i++) {
+            packed[i] = in.getLong();
+        }
+
+        final long valueMask = (1L << bits) - 1;
+        for (int i = 0; i < Constants.BLOCKS_PER_EBS; i++) {
+            final int bitIndex = i * bits;
+            final int word = bitIndex >>> 6;
+            final int shift = bitIndex & 63;
+            long value = packed[word] >>> shift;
+            if (shift + bits > 64) {
+                value |= packed[word + 1] << (64 - shift);
+            }
+            final int index = (int) (value & valueMask);
+            if (index >= paletteSize) {
+                throw new IllegalArgumentException("Section palette index out of range: " + index);
+            }
+            final int state = palette[index];
+            ids[idOffset + i] = (short) (state >>> 16);
+            metas[metaOffset + i] = (short) state;
+        }
+    }
+
+    static int bitsFor(int paletteSize) {
+        return paletteSize <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(paletteSize - 1);
+    }
+
+    private static int mix(int state) {
+        final int h = state * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    public static int varIntSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    public static void writeVarInt(ByteBuffer out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.put((byte) (value & 0x7F | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    public static int readVarInt(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            final byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("VarInt too big");
+    }
+}
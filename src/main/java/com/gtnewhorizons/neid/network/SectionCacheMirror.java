@@ -0,0 +1,73 @@
+package com.gtnewhorizons.neid.network;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The server's copy of the index of one client's {@link ClientSectionCache}. Both sides see the same sections in the
+ * same order and run the same LRU, so a hash the mirror still holds is still held by the client: the mirror can be
+ * smaller than the client's cache, but never larger, and an LRU of a smaller size only ever holds a subset of what a
+ * larger one holds. Sections the client lost anyway (a failed disk read) are reported back and resent, see
+ * {@link MessageSectionCacheMiss}.
+ */
+public class SectionCacheMirror {
+
+    private static final LongAdder references = new LongAdder();
+    private static final LongAdder stores = new LongAdder();
+    private static final LongAdder savedBytes = new LongAdder();
+    private static final LongAdder clientMisses = new LongAdder();
+
+    private final LinkedHashMap<Long, Boolean> hashes;
+
+    SectionCacheMirror(int capacity) {
+        this.hashes = new LinkedHashMap<Long, Boolean>(Math.min(capacity, 1024), 0.75f, true) {
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Boolean> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Called for every cacheable section in the order they are written to the connection.
+     *
+     * @param length The encoded size of the section
+     * @return True if the client holds the section and a reference can be sent instead.
+     */
+    public synchronized boolean reference(long hash, int length) {
+        if (hashes.get(hash) != null) {
+            references.increment();
+            savedBytes.add(length - 8);
+            return true;
+        }
+        hashes.put(hash, Boolean.TRUE);
+        stores.increment();
+        // The hash that goes along with the section
+        savedBytes.add(-8);
+        return false;
+    }
+
+    /**
+     * Drops sections the client reported missing, so that they are sent in full again.
+     */
+    synchronized void forget(long[] missing) {
+        for (long hash : missing) {
+            hashes.remove(hash);
+        }
+        clientMisses.add(missing.length);
+    }
+
+    public static String getStats() {
+        final long referenceCount = references.sum();
+        final long total = referenceCount + stores.sum();
+        return String.format(
+                "Client section caches: hit rate %.1f%% (%d of %d sections), %d KiB saved, %d misses resent",
+                total == 0 ? 0.0 : referenceCount * 100.0 / total,
+                referenceCount,
+                total,
+                savedBytes.sum() / 1024,
+                clientMisses.sum());
+    }
+}
@@ -0,0 +1,68 @@
+package com.gtnewhorizons.neid.network;
+
+import java.util.Arrays;
+
+/**
+ * The blocks of one chunk that changed since its pending updates were last sent, as a bitmap per section. Kept by
+ * every chunk that has watching players (see MixinPlayerInstance), it answers "was this block already flagged" in
+ * constant time and tells {@link SectionDelta} exactly which blocks to send.
+ */
+public class SectionChangeJournal {
+
+    private static final int WORDS_PER_SECTION = 64;
+
+    // Allocated on the first change in a section and kept for the next ticks, most chunks only ever touch one or two
+    private final long[][] bits = new long[16][];
+    private final int[] counts = new int[16];
+    private int sectionMask;
+
+    /**
+     * @param x Block x within the chunk
+     * @param y Block y
+     * @param z Block z within the chunk
+     * @return True if the block was not flagged since the last {@link #clear()}.
+     */
+    public boolean mark(int x, int y, int z) {
+        final int section = y >> 4;
+        long[] sectionBits = bits[section];
+        if (sectionBits == null) {
+            sectionBits = bits[section] = new long[WORDS_PER_SECTION];
+        }
+        final int index = (y & 15) << 8 | z << 4 | x;
+        final long bit = 1L << index;
+        if ((sectionBits[index >> 6] & bit) != 0) {
+            return false;
+        }
+        sectionBits[index >> 6] |= bit;
+        counts[section]++;
+        sectionMask |= 1 << section;
+        return true;
+    }
+
+    /**
+     * @return The sections with at least one change, one bit per section.
+     */
+    public int getSectionMask() {
+        return sectionMask;
+    }
+
+    public int getChanges(int section) {
+        return counts[section];
+    }
+
+    /**
+     * @return The changed blocks of a section as 64 words, bit {@code y << 8 | z << 4 | x} set for every change.
+     */
+    public long[] getBits(int section) {
+        return bits[section];
+    }
+
+    public void clear() {
+        for (int mask = sectionMask; mask != 0; mask &= mask - 1) {
+            final int section = Integer.numberOfTrailingZeros(mask);
+            Arrays.fill(bits[section], 0L);
+            counts[section] = 0;
+        }
+        sectionMask = 0;
+    }
+}
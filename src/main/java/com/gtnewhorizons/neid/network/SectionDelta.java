@@ -0,0 +1,229 @@
+package com.gtnewhorizons.neid.network;
+
+import java.nio.ByteBuffer;
+
+import javax.annotation.Nullable;
+
+import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+
+import com.gtnewhorizons.neid.Constants;
+
+/**
+ * Compact updates for chunks where many blocks changed in one tick. Vanilla sends such chunks as S22 records of 6
+ * bytes per block and, from Forge's clumping threshold on, resends every touched section in full. A delta lists only
+ * the changed blocks of each section and their new values, and sections are resent in full only when that is smaller.
+ *
+ * Deltas travel as S22 packets, so the client applies them in order with every other block change. The record count
+ * has {@link #EXTENDED_MARKER} set and holds the format, the data is
+ *
+ * <pre>
+ * [section count] then per section [section y][form][changed indices][values]
+ * </pre>
+ *
+ * where the indices are a varint count and one short per block ({@link #FORM_LIST}) or a 512 byte bitmap
+ * ({@link #FORM_BITMAP}), whichever is smaller, and the values are a varint id and a varint metadata per changed
+ * block, in index order.
+ */
+public class SectionDelta {
+
+    /**
+     * The protocol version from which clients understand deltas.
+     */
+    public static final int PROTOCOL_VERSION = 3;
+
+    /**
+     * Set in the record count of S22 packets that carry one of NEID's formats instead of vanilla records: a section
+     * delta or {@link MultiBlockChangeCodec#FORMAT_COMPACT_RECORDS}.
+     */
+    public static final int EXTENDED_MARKER = 0x8000;
+    public static final int FORMAT_SECTION_DELTA = 1;
+
+    private static final int FORM_LIST = 0;
+    private static final int FORM_BITMAP = 1;
+    private static final int BITMAP_BYTES = Constants.BLOCKS_PER_EBS / 8;
+    /**
+     * Assumed compressed size of one 2048 byte light array in a chunk packet.
+     */
+    private static final int LIGHT_ESTIMATE_BYTES = 512;
+
+    public interface BlockSink {
+
+        /**
+         * @param index Block index within the section, {@code y << 8 | z << 4 | x}
+         */
+        void set(int sectionY, int index, int id, int meta);
+    }
+
+    /**
+     * What to send for the pending changes of a chunk.
+     */
+    public static class Plan {
+
+        /**
+         * The delta for the sections in {@link #deltaMask}, null if there are none.
+         */
+        @Nullable
+        public final byte[] data;
+        public final int deltaMask;
+        /**
+         * Sections that are cheaper to resend in full.
+         */
+        public final int fullMask;
+
+        Plan(@Nullable byte[] data, int deltaMask, int fullMask) {
+            this.data = data;
+            this.deltaMask = deltaMask;
+            this.fullMask = fullMask;
+        }
+    }
+
+    public static boolean isExtended(int recordCount) {
+        return (recordCount & EXTENDED_MARKER) != 0;
+    }
+
+    public static int getFormat(int recordCount) {
+        return recordCount & ~EXTENDED_MARKER;
+    }
+
+    /**
+     * @return The size of the vanilla S22 packet for this many changes: position, count, length and 6 byte records.
+     */
+    public static int multiBlockChangeSize(int changes) {
+        return 14 + 6 * changes;
+    }
+
+    /**
+     * Picks the cheapest way to send the changes in the journal.
+     *
+     * @param resend True if vanilla would resend the touched sections, false if it would send an S22
+     * @return The plan, or null if vanilla's own packet is at least as small.
+     */
+    @Nullable
+    public static Plan plan(Chunk chunk, SectionChangeJournal journal, boolean resend) {
+        final ExtendedBlockStorage[] storage = chunk.getBlockStorageArray();
+        final boolean sky = !chunk.worldObj.provider.hasNoSky;
+        final SectionPayload[] payloads = new SectionPayload[16];
+        int deltaMask = 0;
+        int fullMask = 0;
+        int deltaSize = 1;
+        int changes = 0;
+        for (int section = 0; section < 16; section++) {
+            if ((journal.getSectionMask() & 1 << section) == 0) {
+                continue;
+            }
+            final ExtendedBlockStorage ebs = storage[section];
+            if (ebs == null) {
+                return null;
+            }
+            final SectionPayload payload = SectionPayloadCache.get(chunk, ebs);
+            final int size = sectionSize(journal.getBits(section), journal.getChanges(section), payload);
+            changes += journal.getChanges(section);
+            if (resend && fullSize(payload, sky) < size) {
+                fullMask |= 1 << section;
+            } else {
+                payloads[section] = payload;
+                deltaMask |= 1 << section;
+                deltaSize += size;
+            }
+        }
+        if (deltaMask == 0) {
+            return fullMask == 0 ? null : new Plan(null, 0, fullMask);
+        }
+        if (!resend && deltaSize >= multiBlockChangeSize(changes)) {
+            return null;
+        }
+
+        final ByteBuffer out = ByteBuffer.allocate(deltaSize);
+        out.put((byte) Integer.bitCount(deltaMask));
+        for (int section = 0; section < 16; section++) {
+            if ((deltaMask & 1 << section) != 0) {
+                writeSection(out, section, journal.getBits(section), journal.getChanges(section), payloads[section]);
+            }
+        }
+        return new Plan(out.array(), deltaMask, fullMask);
+    }
+
+    // Estimate of what the section adds to a chunk packet. This runs on the server thread for every touched section,
+    // so nothing is compressed: paletted data is already packed and deflates little, light gets a fixed allowance
+    private static int fullSize(SectionPayload payload, boolean sky) {
+        return payload.getPaletted().length + (sky ? 2 : 1) * LIGHT_ESTIMATE_BYTES;
+    }
+
+    private static int indicesSize(int changes) {
+        return Math.min(PalettedSectionCodec.varIntSize(changes) + 2 * changes, BITMAP_BYTES);
+    }
+
+    static int sectionSize(long[] bits, int changes, SectionPayload payload) {
+        int size = 2 + indicesSize(changes);
+        for (int word = 0; word < bits.length; word++) {
+            for (long remaining = bits[word]; remaining != 0; remaining &= remaining - 1) {
+                final int index = word << 6 | Long.numberOfTrailingZeros(remaining);
+                size += PalettedSectionCodec.varIntSize(payload.getId(index))
+                        + PalettedSectionCodec.varIntSize(payload.getMeta(index));
+            }
+        }
+        return size;
+    }
+
+    static void writeSection(ByteBuffer out, int section, long[] bits, int changes, SectionPayload payload) {
+        out.put((byte) section);
+        if (PalettedSectionCodec.varIntSize(changes) + 2 * changes <= BITMAP_BYTES) {
+            out.put((byte) FORM_LIST);
+            PalettedSectionCodec.writeVarInt(out, changes);
+            for (int word = 0; word < bits.length; word++) {
+                for (long remaining = bits[word]; remaining != 0; remaining &= remaining - 1) {
+                    out.putShort((short) (word << 6 | Long.numberOfTrailingZeros(remaining)));
+                }
+            }
+        } else {
+            out.put((byte) FORM_BITMAP);
+            for (long word : bits) {
+                out.putLong(word);
+            }
+        }
+        for (int word = 0; word < bits.length; word++) {
+            for (long remaining = bits[word]; remaining != 0; remaining &= remaining - 1) {
+                final int index = word << 6 | Long.numberOfTrailingZeros(remaining);
+                PalettedSectionCodec.writeVarInt(out, payload.getId(index));
+                PalettedSectionCodec.writeVarInt(out, payload.getMeta(index));
+            }
+        }
+    }
+
+    /**
+     * Reads a delta and passes every changed block to {@code sink}.
+     */
+    public static void decode(byte[] data, BlockSink sink) {
+        final ByteBuffer in = ByteBuffer.wrap(data);
+        final int[] indices = new int[Constants.BLOCKS_PER_EBS];
+        final int sections = in.get() & 0xFF;
+        for (int s = 0; s < sections; s++) {
+            final int section = in.get() & 15;
+            final int form = in.get();
+            int changes = 0;
+            if (form == FORM_LIST) {
+                changes = PalettedSectionCodec.readVarInt(in);
+                if (changes > Constants.BLOCKS_PER_EBS) {
+                    throw new IllegalArgumentException("Too many changes in section delta: " + changes);
+                }
+                for (int i = 0; i < changes; i++) {
+                    indices[i] = in.getShort() & (Constants.BLOCKS_PER_EBS - 1);
+                }
+            } else if (form == FORM_BITMAP) {
+                for (int word = 0; word < BITMAP_BYTES / 8; word++) {
+                    for (long remaining = in.getLong(); remaining != 0; remaining &= remaining - 1) {
+                        indices[changes++] = word << 6 | Long.numberOfTrailingZeros(remaining);
+                    }
+                }
+            } else {
+                throw new IllegalArgumentException("Unknown section delta form " + form);
+            }
+            for (int i = 0; i < changes; i++) {
+                final int id = PalettedSectionCodec.readVarInt(in);
+                final int meta = PalettedSectionCodec.readVarInt(in);
+                sink.set(section, indices[i], id, meta);
+            }
+        }
+    }
+}
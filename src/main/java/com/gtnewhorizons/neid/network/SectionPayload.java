@@ -0,0 +1,159 @@
+package com.gtnewhorizons.neid.network;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import net.minecraft.block.Block;
+import net.minecraft.init.Blocks;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+
+import com.gtnewhorizons.neid.ClientBlockTransformerRegistry;
+import com.gtnewhorizons.neid.Constants;
+import com.gtnewhorizons.neid.mixins.interfaces.IExtendedBlockStorageMixin;
+
+/**
+ * The block data of one section as it is sent to clients: a snapshot of the ids and metadata with the client block
+ * transformers applied. Immutable once built, so it can be shared by every packet that carries the section.
+ */
+public class SectionPayload {
+
+    final long generation;
+    final int transformerEpoch;
+    private final short[] ids;
+    private final short[] metas;
+    private final int blockRefCount;
+    private final int tickRefCount;
+    private volatile byte[] paletted;
+    private volatile long hash;
+
+    // Guarded by the cache lock
+    boolean cached;
+    int accountedBytes;
+
+    SectionPayload(long generation, int transformerEpoch, short[] ids, short[] metas, int blockRefCount,
+            int tickRefCount) {
+        this.generation = generation;
+        this.transformerEpoch = transformerEpoch;
+        this.ids = ids;
+        this.metas = metas;
+        this.blockRefCount = blockRefCount;
+        this.tickRefCount = tickRefCount;
+    }
+
+    static SectionPayload build(Chunk chunk, ExtendedBlockStorage ebs, long generation, int transformerEpoch) {
+        final IExtendedBlockStorageMixin ebsMixin = (IExtendedBlockStorageMixin) ebs;
+        final short[] ids = ebsMixin.getBlock16BArray().clone();
+        final short[] metas = ebsMixin.getBlock16BMetaArray().clone();
+
+        if (!ClientBlockTransformerRegistry.hasTransformers()) {
+            return new SectionPayload(
+                    generation,
+                    transformerEpoch,
+                    ids,
+                    metas,
+                    ebsMixin.neid$getBlockRefCount(),
+                    ebsMixin.neid$getTickRefCount());
+        }
+        ClientBlockTransformerRegistry.transformSection(
+                chunk.worldObj,
+                chunk.xPosition * 16,
+                ebs.getYLocation(),
+                chunk.zPosition * 16,
+                ids,
+                0,
+                metas,
+                0);
+        // The transformers may have changed which blocks the client sees, count them as removeInvalidBlocks would
+        int blockRefCount = 0;
+        int tickRefCount = 0;
+        for (short id : ids) {
+            if (id != 0) {
+                final Block block = Block.getBlockById(id & 0xFFFF);
+                if (block != null && block != Blocks.air) {
+                    blockRefCount++;
+                    if (block.getTickRandomly()) {
+                        tickRefCount++;
+                    }
+                }
+            }
+        }
+        return new SectionPayload(generation, transformerEpoch, ids, metas, blockRefCount, tickRefCount);
+    }
+
+    /**
+     * Writes the ids in the RAW16 layout (big-endian shorts).
+     */
+    public void writeIds(byte[] out, int offset) {
+        ByteBuffer.wrap(out, offset, ChunkPayloadCodec.ID_BYTES).asShortBuffer().put(ids);
+    }
+
+    /**
+     * Writes the metadata in the RAW16 layout (big-endian shorts).
+     */
+    public void writeMetas(byte[] out, int offset) {
+        ByteBuffer.wrap(out, offset, ChunkPayloadCodec.META_BYTES).asShortBuffer().put(metas);
+    }
+
+    /**
+     * @param index Block index within the section, {@code y << 8 | z << 4 | x}
+     * @return The id the client sees at that index.
+     */
+    public int getId(int index) {
+        return ids[index] & 0xFFFF;
+    }
+
+    /**
+     * @param index Block index within the section, {@code y << 8 | z << 4 | x}
+     * @return The metadata the client sees at that index.
+     */
+    public int getMeta(int index) {
+        return metas[index] & 0xFFFF;
+    }
+
+    /**
+     * @return The number of non-air blocks the client sees, its {@code blockRefCount}.
+     */
+    public int getBlockRefCount() {
+        return blockRefCount;
+    }
+
+    /**
+     * @return The number of randomly ticking blocks the client sees, its {@code tickRefCount}.
+     */
+    public int getTickRefCount() {
+        return tickRefCount;
+    }
+
+    /**
+     * @return The section in the PALETTED section format, encoded on first use.
+     */
+    public byte[] getPaletted() {
+        byte[] result = paletted;
+        if (result == null) {
+            final ByteBuffer out = ByteBuffer.allocate(PalettedSectionCodec.MAX_ENCODED_SIZE);
+            PalettedSectionCodec.encode(ids, 0, metas, 0, out);
+            result = Arrays.copyOf(out.array(), out.position());
+            paletted = result;
+            SectionPayloadCache.onPalettedEncoded(this, result.length);
+        }
+        return result;
+    }
+
+    /**
+     * @return The content hash of {@link #getPaletted()}, what the section is known by in the client's section cache.
+     */
+    public long getHash() {
+        long result = hash;
+        if (result == 0) {
+            result = ChunkDictionary.sha256Prefix(getPaletted());
+            hash = result;
+        }
+        return result;
+    }
+
+    int sizeInBytes() {
+        final byte[] encoded = paletted;
+        return 64 + Constants.BLOCKS_PER_EBS * 4 + (encoded == null ? 0 : encoded.length);
+    }
+}
@@ -0,0 +1,162 @@
+package com.gtnewhorizons.neid.network;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+
+import com.gtnewhorizons.neid.ClientBlockTransformerRegistry;
+import com.gtnewhorizons.neid.NEIDConfig;
+import com.gtnewhorizons.neid.mixins.interfaces.IExtendedBlockStorageMixin;
+
+/**
+ * Server side LRU cache of {@link SectionPayload}s, so that a section sent to many players is copied and transformed
+ * once. Entries are keyed by world and section position and are only reused while the section's generation (see
+ * {@link IExtendedBlockStorageMixin#neid$getGeneration()}) and the transformer registry are unchanged, the memory they
+ * may use is bounded by {@link NEIDConfig#SectionCacheMegabytes}.
+ *
+ * Only compressed whole packets are shared, not pre-deflated sections: a zlib stream cannot be spliced together from
+ * independently compressed parts without losing most of the ratio.
+ */
+public class SectionPayloadCache {
+
+    private static final AtomicLong nextStamp = new AtomicLong();
+
+    private static final LinkedHashMap<Key, SectionPayload> entries = new LinkedHashMap<>(1024, 0.75f, true);
+    private static long bytes;
+
+    private static final LongAdder hits = new LongAdder();
+    private static final LongAdder misses = new LongAdder();
+    private static final LongAdder evictions = new LongAdder();
+
+    /**
+     * @return A value that is unique for the lifetime of the server, used as the upper half of section generations.
+     */
+    public static long nextStamp() {
+        return nextStamp.incrementAndGet();
+    }
+
+    public static SectionPayload get(Chunk chunk, ExtendedBlockStorage ebs) {
+        final long generation = ((IExtendedBlockStorageMixin) ebs).neid$getGeneration();
+        final int epoch = ClientBlockTransformerRegistry.getEpoch();
+        final long budget = NEIDConfig.SectionCacheMegabytes * 1024L * 1024L;
+        if (budget <= 0) {
+            misses.increment();
+            return SectionPayload.build(chunk, ebs, generation, epoch);
+        }
+
+        final Key key = new Key(
+                chunk.worldObj.provider.dimensionId,
+                chunk.xPosition,
+                chunk.zPosition,
+                ebs.getYLocation() >> 4);
+        synchronized (entries) {
+            final SectionPayload payload = entries.get(key);
+            if (payload != null && payload.generation == generation && payload.transformerEpoch == epoch) {
+                hits.increment();
+                return payload;
+            }
+        }
+
+        misses.increment();
+        final SectionPayload payload = SectionPayload.build(chunk, ebs, generation, epoch);
+        synchronized (entries) {
+            final SectionPayload replaced = entries.put(key, payload);
+            if (replaced != null) {
+                replaced.cached = false;
+                bytes -= replaced.accountedBytes;
+            }
+            payload.cached = true;
+            payload.accountedBytes = payload.sizeInBytes();
+            bytes += payload.accountedBytes;
+            evict(budget);
+        }
+        return payload;
+    }
+
+    static void onPalettedEncoded(SectionPayload payload, int length) {
+        synchronized (entries) {
+            if (payload.cached) {
+                final int size = payload.sizeInBytes();
+                bytes += size - payload.accountedBytes;
+                payload.accountedBytes = size;
+                evict(NEIDConfig.SectionCacheMegabytes * 1024L * 1024L);
+            }
+        }
+    }
+
+    private static void evict(long budget) {
+        final Iterator<Map.Entry<Key, SectionPayload>> it = entries.entrySet().iterator();
+        while (bytes > budget && it.hasNext()) {
+            final SectionPayload payload = it.next().getValue();
+            it.remove();
+            payload.cached = false;
+            bytes -= payload.accountedBytes;
+            evictions.increment();
+        }
+    }
+
+    public static void clear() {
+        synchronized (entries) {
+            for (SectionPayload payload : entries.values()) {
+                payload.cached = false;
+            }
+            entries.clear();
+            bytes = 0;
+        }
+    }
+
+    public static String getStats() {
+        final long hitCount = hits.sum();
+        final long missCount = misses.sum();
+        final long total = hitCount + missCount;
+        final int size;
+        final long usedBytes;
+        synchronized (entries) {
+            size = entries.size();
+            usedBytes = bytes;
+        }
+        return String.format(
+                "Section cache: %d entries, %d/%d KiB, hit rate %.1f%% (%d hits, %d misses, %d evictions)",
+                size,
+                usedBytes / 1024,
+                NEIDConfig.SectionCacheMegabytes * 1024L,
+                total == 0 ? 0.0 : hitCount * 100.0 / total,
+                hitCount,
+                missCount,
+                evictions.sum());
+    }
+
+    private static class Key {
+
+        final int dimension, x, z, sectionY;
+
+        Key(int dimension, int x, int z, int sectionY) {
+            this.dimension = dimension;
+            this.x = x;
+            this.z = z;
+            this.sectionY = sectionY;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) o;
+            return dimension == other.dimension && x == other.x && z == other.z && sectionY == other.sectionY;
+        }
+
+        @Override
+        public int hashCode() {
+            int h = dimension;
+            h = h * 31 + x;
+            h = h * 31 + z;
+            return h * 16 + sectionY;
+        }
+    }
+}
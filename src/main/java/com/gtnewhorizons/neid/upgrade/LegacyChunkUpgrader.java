@@ -0,0 +1,302 @@
+package com.gtnewhorizons.neid.upgrade;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.world.WorldServer;
+import net.minecraft.world.chunk.storage.AnvilChunkLoader;
+import net.minecraft.world.chunk.storage.IChunkLoader;
+import net.minecraft.world.chunk.storage.RegionFile;
+import net.minecraft.world.chunk.storage.RegionFileCache;
+import net.minecraft.world.storage.IThreadedFileIO;
+import net.minecraft.world.storage.ThreadedFileIOBase;
+import net.minecraftforge.common.DimensionManager;
+
+import com.google.common.io.CountingInputStream;
+import com.gtnewhorizons.neid.NEID;
+import com.gtnewhorizons.neid.NEIDConfig;
+import com.gtnewhorizons.neid.SectionCodec;
+import com.gtnewhorizons.neid.ServerLoad;
+import com.gtnewhorizons.neid.mixins.interfaces.IAnvilChunkLoaderMixin;
+
+import cpw.mods.fml.common.FMLCommonHandler;
+import cpw.mods.fml.common.eventhandler.SubscribeEvent;
+import cpw.mods.fml.common.gameevent.TickEvent;
+
+/**
+ * Walks the region files of every loaded dimension in the background and re-saves chunks that still only carry the
+ * legacy Blocks/Add/Data arrays in the NEID format, so the widening conversion in MixinAnvilChunkLoader is paid once
+ * instead of on every load.
+ *
+ * The work is split in three parts:
+ * <ul>
+ * <li>A low priority scanner thread reads region files (rate limited by
+ * {@link NEIDConfig#LegacyUpgradeBytesPerSecond}) and queues chunks that contain legacy sections.</li>
+ * <li>The server thread hands queued chunks that are neither loaded nor waiting to be saved to the chunk I/O thread,
+ * a few per tick and only while the server keeps up.</li>
+ * <li>The chunk I/O thread re-reads, converts and writes the chunk. As it is the same queue that chunk saves go
+ * through, a later save of the same chunk can never be overwritten by the upgrade.</li>
+ * </ul>
+ * Chunks that are loaded while the upgrade runs are marked modified on load and get converted by their next save.
+ */
+public class LegacyChunkUpgrader {
+
+    private static LegacyChunkUpgrader instance;
+
+    private final MinecraftServer server;
+    private final List<Target> targets;
+    private final BlockingQueue<PendingChunk> queue = new ArrayBlockingQueue<>(256);
+    private final AtomicLong upgradedChunks = new AtomicLong();
+    private final Thread thread;
+    private volatile boolean running = true;
+    private long nextReadNanos;
+
+    private LegacyChunkUpgrader(MinecraftServer server, List<Target> targets) {
+        this.server = server;
+        this.targets = targets;
+        this.thread = new Thread(this::scan, "NEID Legacy Chunk Upgrader");
+        this.thread.setDaemon(true);
+        this.thread.setPriority(Thread.MIN_PRIORITY);
+    }
+
+    public static synchronized void start(MinecraftServer server) {
+        if (instance != null) {
+            return;
+        }
+
+        final List<Target> targets = new ArrayList<>();
+        for (WorldServer world : DimensionManager.getWorlds()) {
+            final IChunkLoader loader = world.theChunkProviderServer.currentChunkLoader;
+            // The pending save accessor is not applied on Ultramine, which stores chunks differently
+            if (loader instanceof AnvilChunkLoader && loader instanceof IAnvilChunkLoaderMixin) {
+                final File saveDir = ((AnvilChunkLoader) loader).chunkSaveLocation;
+                targets.add(new Target(world.provider.dimensionId, saveDir, UpgradeProgress.load(saveDir)));
+            }
+        }
+        if (targets.isEmpty()) {
+            NEID.LOG.info("Legacy chunk upgrade enabled, but no dimension uses the Anvil chunk loader");
+            return;
+        }
+
+        instance = new LegacyChunkUpgrader(server, targets);
+        FMLCommonHandler.instance().bus().register(instance);
+        instance.thread.start();
+        NEID.LOG.info("Started legacy chunk upgrade for {} dimension(s)", targets.size());
+    }
+
+    public static synchronized void stop() {
+        if (instance == null) {
+            return;
+        }
+
+        instance.running = false;
+        instance.thread.interrupt();
+        try {
+            instance.thread.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        FMLCommonHandler.instance().bus().unregister(instance);
+        NEID.LOG.info("Stopped legacy chunk upgrade, {} chunk(s) upgraded", instance.upgradedChunks.get());
+        instance = null;
+    }
+
+    @SubscribeEvent
+    public void onServerTick(TickEvent.ServerTickEvent event) {
+        if (event.phase != TickEvent.Phase.END || !isServerHealthy()) {
+            return;
+        }
+
+        for (int i = 0; i < NEIDConfig.LegacyUpgradeChunksPerTick; i++) {
+            final PendingChunk chunk = queue.poll();
+            if (chunk == null) {
+                return;
+            }
+
+            final WorldServer world = DimensionManager.getWorld(chunk.target.dimension);
+            if (world != null && (world.theChunkProviderServer.chunkExists(chunk.x, chunk.z)
+                    || ((IAnvilChunkLoaderMixin) world.theChunkProviderServer.currentChunkLoader)
+                            .neid$isSavePending(chunk.x, chunk.z))) {
+                // Loaded chunks were marked modified on load, pending saves already are in the NEID format
+                chunk.outstanding.decrementAndGet();
+                continue;
+            }
+            ThreadedFileIOBase.threadedIOInstance.queueIO(chunk);
+        }
+    }
+
+    private boolean isServerHealthy() {
+        return ServerLoad.isKeepingUp(server, NEIDConfig.LegacyUpgradeMaxTickMillis);
+    }
+
+    private void scan() {
+        try {
+            for (Target target : targets) {
+                final File[] regions = new File(target.saveDir, "region")
+                        .listFiles((dir, name) -> name.startsWith("r.") && name.endsWith(".mca"));
+                if (regions == null) {
+                    continue;
+                }
+                Arrays.sort(regions);
+
+                for (File region : regions) {
+                    if (!running) {
+                        return;
+                    }
+                    if (!target.progress.isDone(region.getName()) && scanRegion(target, region)) {
+                        target.progress.markDone(region.getName());
+                    }
+                }
+            }
+            NEID.LOG.info("Legacy chunk upgrade finished, {} chunk(s) upgraded", upgradedChunks.get());
+        } catch (InterruptedException ignored) {
+            // Server is stopping, progress of finished regions is already saved
+        }
+    }
+
+    /**
+     * @return True if every chunk of the region has been checked and upgraded where needed.
+     */
+    private boolean scanRegion(Target target, File file) throws InterruptedException {
+        final String[] parts = file.getName().split("\\.");
+        final int regionX, regionZ;
+        try {
+            regionX = Integer.parseInt(parts[1]);
+            regionZ = Integer.parseInt(parts[2]);
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            return false;
+        }
+
+        final AtomicInteger outstanding = new AtomicInteger();
+        boolean complete = true;
+
+        for (int localX = 0; localX < 32; localX++) {
+            for (int localZ = 0; localZ < 32; localZ++) {
+                final int chunkX = (regionX << 5) + localX;
+                final int chunkZ = (regionZ << 5) + localZ;
+                // The chunk IO thread may close cached region files at any time, so every chunk looks its file up again
+                final RegionFile region = RegionFileCache.createOrLoadRegionFile(target.saveDir, chunkX, chunkZ);
+                if (!region.isChunkSaved(localX, localZ)) {
+                    continue;
+                }
+                waitForServer();
+
+                final DataInputStream data = RegionFileCache.getChunkInputStream(target.saveDir, chunkX, chunkZ);
+                if (data == null) {
+                    // Saved but unreadable, possibly because its file was closed underneath: try again next start
+                    complete = false;
+                    continue;
+                }
+                final NBTTagCompound root;
+                try (CountingInputStream in = new CountingInputStream(data)) {
+                    root = CompressedStreamTools.read(new DataInputStream(in));
+                    throttle(in.getCount());
+                } catch (IOException e) {
+                    // Unreadable chunks are left alone, the chunk loader will report them when they get loaded
+                    continue;
+                }
+
+                if (root.hasKey("Level", 10) && SectionCodec.hasLegacySections(root.getCompoundTag("Level"))) {
+                    final PendingChunk chunk = new PendingChunk(target, chunkX, chunkZ, outstanding);
+                    outstanding.incrementAndGet();
+                    while (!queue.offer(chunk, 1, TimeUnit.SECONDS)) {
+                        if (!running) {
+                            return false;
+                        }
+                    }
+                }
+            }
+        }
+
+        // Only mark the region done once all of its queued chunks have been written
+        while (outstanding.get() > 0) {
+            if (!running) {
+                return false;
+            }
+            Thread.sleep(100);
+        }
+        if (!complete) {
+            NEID.LOG.warn("Could not read every chunk of {}, it will be scanned again on the next start", file);
+        }
+        return complete;
+    }
+
+    private void waitForServer() throws InterruptedException {
+        while (!isServerHealthy()) {
+            Thread.sleep(1000);
+        }
+    }
+
+    private void throttle(long bytesRead) throws InterruptedException {
+        final long now = System.nanoTime();
+        nextReadNanos = Math.max(nextReadNanos, now)
+                + bytesRead * TimeUnit.SECONDS.toNanos(1) / NEIDConfig.LegacyUpgradeBytesPerSecond;
+        if (nextReadNanos > now) {
+            TimeUnit.NANOSECONDS.sleep(nextReadNanos - now);
+        }
+    }
+
+    private static class Target {
+
+        final int dimension;
+        final File saveDir;
+        final UpgradeProgress progress;
+
+        Target(int dimension, File saveDir, UpgradeProgress progress) {
+            this.dimension = dimension;
+            this.saveDir = saveDir;
+            this.progress = progress;
+        }
+    }
+
+    private class PendingChunk implements IThreadedFileIO {
+
+        final Target target;
+        final int x, z;
+        final AtomicInteger outstanding;
+
+        PendingChunk(Target target, int x, int z, AtomicInteger outstanding) {
+            this.target = target;
+            this.x = x;
+            this.z = z;
+            this.outstanding = outstanding;
+        }
+
+        /**
+         * Runs on the chunk I/O thread. The chunk is read again because it may have been saved since it was scanned.
+         */
+        @Override
+        public boolean writeNextIO() {
+            try (DataInputStream in = RegionFileCache.getChunkInputStream(target.saveDir, x, z)) {
+                if (in == null) {
+                    return false;
+                }
+                final NBTTagCompound root = CompressedStreamTools.read(in);
+                if (root.hasKey("Level", 10) && SectionCodec.upgradeChunk(root.getCompoundTag("Level"))) {
+                    try (DataOutputStream out = RegionFileCache.getChunkOutputStream(target.saveDir, x, z)) {
+                        CompressedStreamTools.write(root, out);
+                    }
+                    upgradedChunks.incrementAndGet();
+                }
+            } catch (IOException e) {
+                NEID.LOG.warn("Failed to upgrade legacy chunk {}, {} in {}", x, z, target.saveDir, e);
+            } finally {
+                outstanding.decrementAndGet();
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.gtnewhorizons.neid.upgrade;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashSet;
+import java.util.Set;
+
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagList;
+import net.minecraft.nbt.NBTTagString;
+
+import com.gtnewhorizons.neid.NEID;
+
+/**
+ * Remembers which region files of a save directory the legacy chunk upgrader has finished, so that the upgrade resumes
+ * where it stopped after a restart.
+ */
+class UpgradeProgress {
+
+    private static final String FILE_NAME = "neid_upgrade.dat";
+
+    private final File file;
+    private final Set<String> doneRegions = new HashSet<>();
+
+    private UpgradeProgress(File file) {
+        this.file = file;
+    }
+
+    static UpgradeProgress load(File saveDir) {
+        final UpgradeProgress progress = new UpgradeProgress(new File(saveDir, FILE_NAME));
+        if (progress.file.isFile()) {
+            try (InputStream in = new FileInputStream(progress.file)) {
+                final NBTTagList list = CompressedStreamTools.readCompressed(in).getTagList("DoneRegions", 8);
+                for (int i = 0; i < list.tagCount(); i++) {
+                    progress.doneRegions.add(list.getStringTagAt(i));
+                }
+            } catch (IOException e) {
+                NEID.LOG.warn("Could not read legacy upgrade progress from {}, starting over", progress.file, e);
+            }
+        }
+        return progress;
+    }
+
+    synchronized boolean isDone(String regionName) {
+        return doneRegions.contains(regionName);
+    }
+
+    synchronized void markDone(String regionName) {
+        if (doneRegions.add(regionName)) {
+            save();
+        }
+    }
+
+    private void save() {
+        final NBTTagList list = new NBTTagList();
+        for (String name : doneRegions) {
+            list.appendTag(new NBTTagString(name));
+        }
+        final NBTTagCompound tag = new NBTTagCompound();
+        tag.setTag("DoneRegions", list);
+
+        final File tmp = new File(file.getPath() + ".tmp");
+        try {
+            try (OutputStream out = new FileOutputStream(tmp)) {
+                CompressedStreamTools.writeCompressed(tag, out);
+            }
+            if (file.exists() && !file.delete()) {
+                throw new IOException("Could not replace " + file);
+            }
+            if (!tmp.renameTo(file)) {
+                throw new IOException("Could not rename " + tmp + " to " + file);
+            }
+        } catch (IOException e) {
+            NEID.LOG.warn("Could not save legacy upgrade progress to {}", file, e);
+        }
+    }
+}
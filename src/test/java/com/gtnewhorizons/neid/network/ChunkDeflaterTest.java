@@ -0,0 +1,174 @@
+package com.gtnewhorizons.neid.network;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.gtnewhorizons.neid.NEIDConfig;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+public class ChunkDeflaterTest {
+
+    private static final int LEVEL = 6;
+    private static final byte[] POOL = new byte[8192];
+
+    static {
+        new Random(0).nextBytes(POOL);
+    }
+
+    private final int encodeThreads = NEIDConfig.ChunkEncodeThreads;
+
+    @AfterEach
+    public void restoreConfig() {
+        NEIDConfig.ChunkEncodeThreads = encodeThreads;
+    }
+
+    @Test
+    public void partsShorterThanTheWindow() throws DataFormatException {
+        NEIDConfig.ChunkEncodeThreads = 2;
+        assertPartsRoundTrip(new int[] { 1000, 5000, 100, 20000, 7 }, null);
+    }
+
+    @Test
+    public void partsLongerThanTheWindow() throws DataFormatException {
+        NEIDConfig.ChunkEncodeThreads = 2;
+        assertPartsRoundTrip(new int[] { 40000, 70000, 32768, 10 }, null);
+    }
+
+    @Test
+    public void emptyParts() throws DataFormatException {
+        NEIDConfig.ChunkEncodeThreads = 2;
+        assertPartsRoundTrip(new int[] { 0, 3000, 0, 0, 12000, 0 }, null);
+        assertPartsRoundTrip(new int[] { 0, 0 }, null);
+    }
+
+    @Test
+    public void presetDictionary() throws DataFormatException {
+        NEIDConfig.ChunkEncodeThreads = 2;
+        final ChunkDictionary dictionary = new ChunkDictionary(data(new Random(1), 20000));
+        assertPartsRoundTrip(new int[] { 100, 0, 2000, 40000, 500 }, dictionary);
+        assertPartsRoundTrip(new int[] { 0, 0 }, dictionary);
+    }
+
+    @Test
+    public void serialParts() throws DataFormatException {
+        NEIDConfig.ChunkEncodeThreads = 0;
+        assertPartsRoundTrip(new int[] { 1000, 0, 40000 }, null);
+        assertPartsRoundTrip(new int[] { 3000 }, new ChunkDictionary(data(new Random(2), 1000)));
+        assertPartsRoundTrip(new int[0], null);
+    }
+
+    @Test
+    public void combineAdler32() {
+        final Random random = new Random(3);
+        for (int length1 : new int[] { 0, 1, 5552, 65521, 100000 }) {
+            for (int length2 : new int[] { 0, 1, 5552, 65521, 65522, 200000 }) {
+                final byte[] first = data(random, length1);
+                final byte[] second = data(random, length2);
+                final Adler32 joined = new Adler32();
+                joined.update(first);
+                joined.update(second);
+                assertEquals(
+                        joined.getValue(),
+                        ChunkDeflater.combineAdler32(adler(first), adler(second), length2),
+                        length1 + " + " + length2 + " bytes");
+            }
+        }
+    }
+
+    @Test
+    public void inflateAllStopsAtTheLimit() throws DataFormatException {
+        final byte[] data = data(new Random(4), 200000);
+        final byte[] compressed = ChunkDeflater.deflate(data, 0, data.length, LEVEL, null);
+
+        final Inflater inflater = new Inflater();
+        inflater.setInput(compressed);
+        assertArrayEquals(data, remaining(ChunkDeflater.inflateAll(inflater, data.length)));
+
+        final Inflater tooShort = new Inflater();
+        tooShort.setInput(compressed);
+        assertThrows(DataFormatException.class, () -> ChunkDeflater.inflateAll(tooShort, data.length - 1));
+
+        final Inflater truncated = new Inflater();
+        truncated.setInput(compressed, 0, compressed.length / 2);
+        assertThrows(DataFormatException.class, () -> ChunkDeflater.inflateAll(truncated, data.length));
+    }
+
+    private static void assertPartsRoundTrip(int[] lengths, ChunkDictionary dictionary) throws DataFormatException {
+        final Random random = new Random(lengths.length);
+        final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        final List<ByteBuf> parts = new ArrayList<>();
+        for (int length : lengths) {
+            final byte[] part = data(random, length);
+            expected.write(part, 0, part.length);
+            parts.add(Unpooled.buffer(length).writeBytes(part));
+        }
+
+        final byte[] compressed = ChunkDeflater.deflateParts(parts, LEVEL, dictionary);
+        for (ByteBuf part : parts) {
+            assertEquals(0, part.refCnt());
+        }
+
+        final Inflater inflater = new Inflater();
+        inflater.setInput(compressed);
+        final byte[] out = new byte[expected.size() + 1];
+        int size = inflater.inflate(out);
+        if (dictionary != null) {
+            assertTrue(inflater.needsDictionary());
+            assertEquals(dictionary.adler, inflater.getAdler());
+            inflater.setDictionary(dictionary.data);
+            size = inflater.inflate(out);
+        }
+        assertTrue(inflater.finished());
+        assertEquals(0, inflater.getRemaining());
+        assertEquals(expected.size(), size);
+        assertArrayEquals(expected.toByteArray(), remaining(ByteBuffer.wrap(out, 0, size)));
+    }
+
+    /**
+     * @return Random bytes mixed with runs from a pool that every call draws from, so that parts repeat each other.
+     */
+    private static byte[] data(Random random, int length) {
+        final byte[] data = new byte[length];
+        int i = 0;
+        while (i < length) {
+            final int run = Math.min(length - i, 1 + random.nextInt(64));
+            if (random.nextBoolean()) {
+                System.arraycopy(POOL, random.nextInt(POOL.length - run), data, i, run);
+                i += run;
+            } else {
+                for (int end = i + run; i < end; i++) {
+                    data[i] = (byte) random.nextInt(16);
+                }
+            }
+        }
+        return data;
+    }
+
+    private static long adler(byte[] data) {
+        final Adler32 adler = new Adler32();
+        adler.update(data);
+        return adler.getValue();
+    }
+
+    private static byte[] remaining(ByteBuffer buffer) {
+        final byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,143 @@
+package com.gtnewhorizons.neid.network;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class ChunkPayloadCodecTest {
+
+    @BeforeEach
+    public void resetSectionCache() {
+        ClientSectionCache.reset();
+    }
+
+    @Test
+    public void palettedRoundTrip() {
+        final Random random = new Random(8);
+        for (int sections : new int[] { 0, 1, 5, 16 }) {
+            for (boolean skyLight : new boolean[] { false, true }) {
+                for (boolean biomes : new boolean[] { false, true }) {
+                    final SectionPayload[] payloads = payloads(random, sections);
+                    final byte[] raw = raw(random, payloads, skyLight, biomes);
+
+                    final ByteBuffer out = ByteBuffer
+                            .allocate(ChunkPayloadCodec.maxEncodedLength(sections, raw.length));
+                    ChunkPayloadCodec.encode(raw, 0, raw.length, sections, biomes, out);
+                    out.flip();
+                    assertEquals(raw.length, ChunkPayloadCodec.decodedLength(out));
+
+                    final byte[] decoded = new byte[raw.length];
+                    assertEquals(raw.length, ChunkPayloadCodec.decode(out, decoded, 0));
+                    assertEquals(0, out.remaining());
+                    assertArrayEquals(raw, decoded);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void refCountsAndConsecutiveChunks() {
+        final Random random = new Random(9);
+        final SectionPayload[] first = payloads(random, 3);
+        final SectionPayload[] second = payloads(random, 16);
+        final byte[] firstRaw = raw(random, first, true, true);
+        final byte[] secondRaw = raw(random, second, false, true);
+
+        final ByteBuffer out = ByteBuffer.allocate(
+                ChunkPayloadCodec.maxEncodedLength(3, firstRaw.length)
+                        + ChunkPayloadCodec.maxEncodedLength(16, secondRaw.length));
+        ChunkPayloadCodec.encode(firstRaw, 0, firstRaw.length, 3, true, first, 0, null, true, out);
+        ChunkPayloadCodec.encode(secondRaw, 0, secondRaw.length, 16, true, second, 0, null, false, out);
+        out.flip();
+
+        final byte[] decoded = new byte[firstRaw.length + secondRaw.length];
+        final List<int[]> refCounts = new ArrayList<>();
+        assertEquals(decoded.length, ChunkPayloadCodec.decodeAll(out, decoded, refCounts));
+        assertArrayEquals(firstRaw, Arrays.copyOfRange(decoded, 0, firstRaw.length));
+        assertArrayEquals(secondRaw, Arrays.copyOfRange(decoded, firstRaw.length, decoded.length));
+
+        assertEquals(2, refCounts.size());
+        for (int i = 0; i < first.length; i++) {
+            assertEquals(first[i].getBlockRefCount(), refCounts.get(0)[i * 2]);
+            assertEquals(first[i].getTickRefCount(), refCounts.get(0)[i * 2 + 1]);
+        }
+        assertNull(refCounts.get(1));
+    }
+
+    @Test
+    public void cachedSections() {
+        final Random random = new Random(10);
+        final SectionPayload[] payloads = payloads(random, 4);
+        final byte[] raw = raw(random, payloads, true, true);
+        final SectionCacheMirror mirror = new SectionCacheMirror(16);
+
+        // Stored the first time, referenced the second time
+        final byte[] stored = encodeCached(raw, payloads, mirror);
+        final byte[] referenced = encodeCached(raw, payloads, mirror);
+        assertTrue(referenced.length < stored.length);
+        assertArrayEquals(raw, decodeCached(stored));
+        assertArrayEquals(raw, decodeCached(referenced));
+        assertEquals(0, ClientSectionCache.takeMisses().length);
+
+        // Without the stored sections the references come out as air and are reported
+        ClientSectionCache.reset();
+        final byte[] missed = decodeCached(referenced);
+        final long[] misses = ClientSectionCache.takeMisses();
+        assertEquals(payloads.length, misses.length);
+        for (int i = 0; i < payloads.length; i++) {
+            assertEquals(payloads[i].getHash(), misses[i]);
+        }
+        final int tail = payloads.length * (ChunkPayloadCodec.ID_BYTES + ChunkPayloadCodec.META_BYTES);
+        assertArrayEquals(new byte[tail], Arrays.copyOf(missed, tail));
+        assertArrayEquals(
+                Arrays.copyOfRange(raw, tail, raw.length),
+                Arrays.copyOfRange(missed, tail, missed.length));
+    }
+
+    private static byte[] encodeCached(byte[] raw, SectionPayload[] payloads, SectionCacheMirror mirror) {
+        final byte[] kinds = ChunkPayloadCodec.planCachedSections(payloads, mirror);
+        final ByteBuffer out = ByteBuffer.allocate(ChunkPayloadCodec.maxEncodedLength(payloads.length, raw.length));
+        ChunkPayloadCodec.encode(raw, 0, raw.length, payloads.length, true, payloads, 0, kinds, true, out);
+        return Arrays.copyOf(out.array(), out.position());
+    }
+
+    private static byte[] decodeCached(byte[] encoded) {
+        final ByteBuffer in = ByteBuffer.wrap(encoded);
+        final byte[] decoded = new byte[ChunkPayloadCodec.decodedLength(in)];
+        ChunkPayloadCodec.decode(in, decoded, 0, true, new int[32]);
+        assertEquals(0, in.remaining());
+        return decoded;
+    }
+
+    private static SectionPayload[] payloads(Random random, int sections) {
+        final SectionPayload[] payloads = new SectionPayload[sections];
+        for (int i = 0; i < sections; i++) {
+            payloads[i] = TestSections.edgeValuePayload(random);
+        }
+        return payloads;
+    }
+
+    /**
+     * @return The RAW16 payload of the sections, with random light and biomes.
+     */
+    private static byte[] raw(Random random, SectionPayload[] payloads, boolean skyLight, boolean biomes) {
+        final int sections = payloads.length;
+        final byte[] raw = new byte[ChunkPayloadCodec.rawLength(sections, skyLight, biomes)];
+        random.nextBytes(raw);
+        for (int i = 0; i < sections; i++) {
+            payloads[i].writeIds(raw, i * ChunkPayloadCodec.ID_BYTES);
+            payloads[i].writeMetas(raw, sections * ChunkPayloadCodec.ID_BYTES + i * ChunkPayloadCodec.META_BYTES);
+        }
+        return raw;
+    }
+}
@@ -0,0 +1,82 @@
+package com.gtnewhorizons.neid.network;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.nio.ByteBuffer;
+
+import org.junit.jupiter.api.Test;
+
+public class MultiBlockChangeCodecTest {
+
+    @Test
+    public void edgeValues() {
+        final int[] values = TestSections.EDGE_VALUES;
+        final int[][] changes = new int[values.length * values.length][];
+        for (int i = 0; i < changes.length; i++) {
+            changes[i] = new int[] { 15 << 12 | i << 8 | 255 - i, values[i % values.length],
+                    values[i / values.length] };
+        }
+        // Small changes keep the compact form smaller than 6 bytes per record overall
+        assertRoundTrip(concat(changes, repeat(new int[] { 0x1234, 1, 0 }, 64)));
+    }
+
+    @Test
+    public void allMetadataZero() {
+        final int[][] changes = { { 0, 0, 0 }, { 0xFFFF, 65535, 0 }, { 0x0F0F, 4095, 0 }, { 0xF0F0, 32767, 0 } };
+        final byte[] compact = assertRoundTrip(changes);
+        assertEquals(1 + 1 + 2 * 4 + 1 + 3 + 2 + 3, compact.length);
+    }
+
+    @Test
+    public void notSmaller() {
+        final int[][] changes = { { 1, 16384, 128 }, { 2, 65535, 65535 }, { 3, 32767, 4095 } };
+        assertNull(MultiBlockChangeCodec.compactIfSmaller(records(changes), changes.length));
+    }
+
+    private static byte[] assertRoundTrip(int[][] changes) {
+        final byte[] compact = MultiBlockChangeCodec.compactIfSmaller(records(changes), changes.length);
+        assertNotNull(compact);
+        assertEquals(MultiBlockChangeCodec.compactSize(records(changes), changes.length), compact.length);
+
+        final int[][] decoded = new int[changes.length][];
+        final int[] count = { 0 };
+        MultiBlockChangeCodec.decode(compact, (position, id, meta) -> {
+            decoded[count[0]++] = new int[] { position, id, meta };
+        });
+        assertEquals(changes.length, count[0]);
+        for (int i = 0; i < changes.length; i++) {
+            assertArrayEquals(changes[i], decoded[i], "record " + i);
+        }
+        return compact;
+    }
+
+    /**
+     * @param changes (position, id, metadata) of every record
+     * @return The records in NEID's 6 byte form.
+     */
+    private static byte[] records(int[][] changes) {
+        final ByteBuffer records = ByteBuffer.allocate(changes.length * 6);
+        for (int[] change : changes) {
+            records.putShort((short) change[0]).putShort((short) change[1]).putShort((short) change[2]);
+        }
+        return records.array();
+    }
+
+    private static int[][] repeat(int[] change, int times) {
+        final int[][] changes = new int[times][];
+        for (int i = 0; i < times; i++) {
+            changes[i] = change.clone();
+        }
+        return changes;
+    }
+
+    private static int[][] concat(int[][] first, int[][] second) {
+        final int[][] joined = new int[first.length + second.length][];
+        System.arraycopy(first, 0, joined, 0, first.length);
+        System.arraycopy(second, 0, joined, first.length, second.length);
+        return joined;
+    }
+}
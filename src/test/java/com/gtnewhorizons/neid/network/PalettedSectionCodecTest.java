@@ -0,0 +1,111 @@
+package com.gtnewhorizons.neid.network;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import com.gtnewhorizons.neid.Constants;
+
+public class PalettedSectionCodecTest {
+
+    private static final int[] EDGE_VALUES = TestSections.EDGE_VALUES;
+
+    @Test
+    public void uniformSections() {
+        for (int id : EDGE_VALUES) {
+            for (int meta : EDGE_VALUES) {
+                final short[] ids = new short[Constants.BLOCKS_PER_EBS];
+                final short[] metas = new short[Constants.BLOCKS_PER_EBS];
+                Arrays.fill(ids, (short) id);
+                Arrays.fill(metas, (short) meta);
+                final int size = assertRoundTrip(ids, metas);
+                assertEquals(1 + PalettedSectionCodec.varIntSize(id) + PalettedSectionCodec.varIntSize(meta), size);
+            }
+        }
+    }
+
+    @Test
+    public void edgeValues() {
+        final short[] ids = new short[Constants.BLOCKS_PER_EBS];
+        final short[] metas = new short[Constants.BLOCKS_PER_EBS];
+        for (int i = 0; i < Constants.BLOCKS_PER_EBS; i++) {
+            ids[i] = (short) EDGE_VALUES[i % EDGE_VALUES.length];
+            metas[i] = (short) EDGE_VALUES[i / EDGE_VALUES.length % EDGE_VALUES.length];
+        }
+        assertRoundTrip(ids, metas);
+    }
+
+    @Test
+    public void paletteSizes() {
+        final Random random = new Random(5);
+        // Every bit width, including the ones whose indices span two longs
+        for (int paletteSize : new int[] { 2, 3, 5, 8, 9, 17, 33, 100, 257, 600, 1025, 2049 }) {
+            final int[] states = new int[paletteSize];
+            for (int i = 0; i < paletteSize; i++) {
+                states[i] = EDGE_VALUES[i % EDGE_VALUES.length] << 16 | i;
+            }
+            final short[] ids = new short[Constants.BLOCKS_PER_EBS];
+            final short[] metas = new short[Constants.BLOCKS_PER_EBS];
+            for (int i = 0; i < Constants.BLOCKS_PER_EBS; i++) {
+                final int state = states[i < paletteSize ? i : random.nextInt(paletteSize)];
+                ids[i] = (short) (state >>> 16);
+                metas[i] = (short) state;
+            }
+            assertRoundTrip(ids, metas);
+        }
+    }
+
+    @Test
+    public void directForm() {
+        final Random random = new Random(6);
+        final short[] ids = new short[Constants.BLOCKS_PER_EBS];
+        final short[] metas = new short[Constants.BLOCKS_PER_EBS];
+        for (int i = 0; i < Constants.BLOCKS_PER_EBS; i++) {
+            ids[i] = (short) random.nextInt(65536);
+            metas[i] = (short) (i < EDGE_VALUES.length ? EDGE_VALUES[i] : random.nextInt(65536));
+        }
+        assertEquals(PalettedSectionCodec.MAX_ENCODED_SIZE, assertRoundTrip(ids, metas));
+    }
+
+    @Test
+    public void varInts() {
+        for (int value : new int[] { 0, 1, 127, 128, 4095, 16383, 16384, 32767, 65535, Integer.MAX_VALUE, -1 }) {
+            final ByteBuffer buffer = ByteBuffer.allocate(5);
+            PalettedSectionCodec.writeVarInt(buffer, value);
+            assertEquals(PalettedSectionCodec.varIntSize(value), buffer.position());
+            buffer.flip();
+            assertEquals(value, PalettedSectionCodec.readVarInt(buffer));
+            assertEquals(0, buffer.remaining());
+        }
+    }
+
+    /**
+     * Encodes at an offset into arrays that are larger than a section and decodes the result.
+     *
+     * @return The encoded size.
+     */
+    private static int assertRoundTrip(short[] ids, short[] metas) {
+        final short[] paddedIds = new short[Constants.BLOCKS_PER_EBS + 7];
+        final short[] paddedMetas = new short[Constants.BLOCKS_PER_EBS + 3];
+        System.arraycopy(ids, 0, paddedIds, 7, Constants.BLOCKS_PER_EBS);
+        System.arraycopy(metas, 0, paddedMetas, 3, Constants.BLOCKS_PER_EBS);
+
+        final ByteBuffer out = ByteBuffer.allocate(PalettedSectionCodec.MAX_ENCODED_SIZE + 1);
+        PalettedSectionCodec.encode(paddedIds, 7, paddedMetas, 3, out);
+        final int size = out.position();
+        out.put((byte) 0x55).flip();
+
+        final short[] decodedIds = new short[Constants.BLOCKS_PER_EBS + 1];
+        final short[] decodedMetas = new short[Constants.BLOCKS_PER_EBS + 2];
+        PalettedSectionCodec.decode(out, decodedIds, 1, decodedMetas, 2);
+        assertEquals(size, out.position());
+        assertArrayEquals(ids, Arrays.copyOfRange(decodedIds, 1, Constants.BLOCKS_PER_EBS + 1));
+        assertArrayEquals(metas, Arrays.copyOfRange(decodedMetas, 2, Constants.BLOCKS_PER_EBS + 2));
+        return size;
+    }
+}
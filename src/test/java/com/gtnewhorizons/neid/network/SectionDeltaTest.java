@@ -0,0 +1,74 @@
+package com.gtnewhorizons.neid.network;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import com.gtnewhorizons.neid.Constants;
+
+public class SectionDeltaTest {
+
+    @Test
+    public void listAndBitmapForms() {
+        final Random random = new Random(7);
+        // A handful of changes are listed, most of a section is sent as a bitmap
+        final int[] changeCounts = { 1, 4, 250, 3000, Constants.BLOCKS_PER_EBS };
+        final SectionPayload[] payloads = new SectionPayload[changeCounts.length];
+        final long[][] bits = new long[changeCounts.length][];
+        for (int s = 0; s < changeCounts.length; s++) {
+            payloads[s] = TestSections.edgeValuePayload(random);
+            bits[s] = new long[Constants.BLOCKS_PER_EBS / 64];
+            // The first and the last block of a section are always among the changes
+            int changes = 0;
+            for (int index : new int[] { 0, Constants.BLOCKS_PER_EBS - 1 }) {
+                if (changes < changeCounts[s]) {
+                    bits[s][index >>> 6] |= 1L << index;
+                    changes++;
+                }
+            }
+            while (changes < changeCounts[s]) {
+                final int index = random.nextInt(Constants.BLOCKS_PER_EBS);
+                if ((bits[s][index >>> 6] & 1L << index) == 0) {
+                    bits[s][index >>> 6] |= 1L << index;
+                    changes++;
+                }
+            }
+        }
+
+        int size = 1;
+        for (int s = 0; s < changeCounts.length; s++) {
+            size += SectionDelta.sectionSize(bits[s], changeCounts[s], payloads[s]);
+        }
+        final ByteBuffer out = ByteBuffer.allocate(size);
+        out.put((byte) changeCounts.length);
+        for (int s = 0; s < changeCounts.length; s++) {
+            SectionDelta.writeSection(out, s * 3, bits[s], changeCounts[s], payloads[s]);
+        }
+        assertEquals(size, out.position());
+
+        final List<int[]> decoded = new ArrayList<>();
+        SectionDelta.decode(
+                out.array(),
+                (sectionY, index, id, meta) -> decoded.add(new int[] { sectionY, index, id, meta }));
+
+        int next = 0;
+        for (int s = 0; s < changeCounts.length; s++) {
+            for (int index = 0; index < Constants.BLOCKS_PER_EBS; index++) {
+                if ((bits[s][index >>> 6] & 1L << index) == 0) {
+                    continue;
+                }
+                final int[] change = decoded.get(next++);
+                assertEquals(s * 3, change[0]);
+                assertEquals(index, change[1]);
+                assertEquals(payloads[s].getId(index), change[2]);
+                assertEquals(payloads[s].getMeta(index), change[3]);
+            }
+        }
+        assertEquals(decoded.size(), next);
+    }
+}
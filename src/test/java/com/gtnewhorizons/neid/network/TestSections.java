@@ -0,0 +1,35 @@
+package com.gtnewhorizons.neid.network;
+
+import java.util.Random;
+
+import com.gtnewhorizons.neid.Constants;
+
+/**
+ * Section contents shared by the codec tests.
+ */
+class TestSections {
+
+    /**
+     * Ids and metadata that sit on the boundaries of the wire formats: air, the largest 12 bit value, the largest
+     * block id and the largest unsigned short.
+     */
+    static final int[] EDGE_VALUES = { 0, 4095, 32767, 65535 };
+
+    /**
+     * @return A section made of a few states built from {@link #EDGE_VALUES}, with every edge value at its start.
+     */
+    static SectionPayload edgeValuePayload(Random random) {
+        final short[] ids = new short[Constants.BLOCKS_PER_EBS];
+        final short[] metas = new short[Constants.BLOCKS_PER_EBS];
+        for (int i = 0; i < Constants.BLOCKS_PER_EBS; i++) {
+            if (i < EDGE_VALUES.length * EDGE_VALUES.length) {
+                ids[i] = (short) EDGE_VALUES[i % EDGE_VALUES.length];
+                metas[i] = (short) EDGE_VALUES[i / EDGE_VALUES.length];
+            } else {
+                ids[i] = (short) EDGE_VALUES[random.nextInt(EDGE_VALUES.length)];
+                metas[i] = (short) random.nextInt(16);
+            }
+        }
+        return new SectionPayload(0, 0, ids, metas, random.nextInt(4097), random.nextInt(4097));
+    }
+}
@@ -0,0 +1,358 @@
+package com.gtnewhorizons.neid.tools;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagList;
+import net.minecraft.world.chunk.storage.RegionFile;
+
+import com.gtnewhorizons.neid.SectionCodec;
+import com.gtnewhorizons.neid.network.ChunkDictionary;
+import com.gtnewhorizons.neid.network.ChunkPayloadCodec;
+
+/**
+ * Trains a {@link ChunkDictionary} from the chunks of existing worlds and reports how much it helps. Run it with the
+ * mod's runtime classpath, e.g. {@code gradlew trainChunkDictionary -PtoolArgs="<world dir> <output file>"}:
+ *
+ * <pre>
+ * ChunkDictionaryTool &lt;world dir&gt;... &lt;output file&gt; [--size bytes] [--chunks count] [--raw16]
+ * </pre>
+ *
+ * Chunks are turned into the payloads the server would send (PALETTED unless {@code --raw16} is given), every fifth
+ * chunk is held back, the dictionary is trained on the rest and then every held back payload is compressed on its own,
+ * with and without the dictionary, as a single chunk packet would be.
+ *
+ * Training follows zstd's COVER algorithm: the training data is split into one epoch per dictionary segment, each
+ * epoch contributes the segment whose 8 byte substrings are the most frequent over all samples, and the substrings of
+ * a chosen segment stop counting for later ones. Segments chosen first end up last, closest to the data.
+ */
+public class ChunkDictionaryTool {
+
+    private static final int SEGMENT_SIZE = 64;
+    private static final int DMER_SIZE = 8;
+    private static final int COUNT_BITS = 22;
+    private static final int[] BENCHMARK_LEVELS = { 1, 6, 9 };
+
+    public static void main(String[] args) throws IOException {
+        final List<File> worlds = new ArrayList<>();
+        int size = ChunkDictionary.MAX_SIZE;
+        int maxChunks = 20000;
+        boolean raw16 = false;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--size":
+                    size = Math.min(ChunkDictionary.MAX_SIZE, Integer.parseInt(args[++i]));
+                    break;
+                case "--chunks":
+                    maxChunks = Integer.parseInt(args[++i]);
+                    break;
+                case "--raw16":
+                    raw16 = true;
+                    break;
+                default:
+                    worlds.add(new File(args[i]));
+            }
+        }
+        if (worlds.size() < 2) {
+            System.err.println(
+                    "Usage: ChunkDictionaryTool <world dir>... <output file>"
+                            + " [--size bytes] [--chunks count] [--raw16]");
+            System.exit(1);
+        }
+        final File output = worlds.remove(worlds.size() - 1);
+
+        final List<byte[]> training = new ArrayList<>();
+        final List<byte[]> test = new ArrayList<>();
+        for (File world : worlds) {
+            collectSamples(world, raw16, maxChunks, training, test);
+        }
+        if (training.isEmpty()) {
+            System.err.println("No chunks found");
+            System.exit(1);
+        }
+        System.out.printf(
+                Locale.ROOT,
+                "%d training and %d test payloads, %d KiB in total%n",
+                training.size(),
+                test.size(),
+                (totalLength(training) + totalLength(test)) / 1024);
+
+        long start = System.nanoTime();
+        final byte[] dictionary = train(training, size);
+        System.out.printf(
+                Locale.ROOT,
+                "Trained a %d byte dictionary in %d ms%n",
+                dictionary.length,
+                (System.nanoTime() - start) / 1000000);
+        Files.write(output.toPath(), dictionary);
+        System.out.printf(
+                Locale.ROOT,
+                "Wrote %s, hash %s%n",
+                output,
+                Long.toHexString(new ChunkDictionary(dictionary).hash));
+
+        benchmark(test.isEmpty() ? training : test, dictionary);
+    }
+
+    private static void collectSamples(File world, boolean raw16, int maxChunks, List<byte[]> training,
+            List<byte[]> test) throws IOException {
+        final List<File> regionDirs = new ArrayList<>();
+        regionDirs.add(new File(world, "region"));
+        final File[] dimensions = world.listFiles((dir, name) -> name.startsWith("DIM"));
+        if (dimensions != null) {
+            for (File dimension : dimensions) {
+                regionDirs.add(new File(dimension, "region"));
+            }
+        }
+
+        for (File regionDir : regionDirs) {
+            final File[] regions = regionDir.listFiles((dir, name) -> name.endsWith(".mca"));
+            if (regions == null) {
+                continue;
+            }
+            Arrays.sort(regions);
+            for (File file : regions) {
+                final RegionFile region = new RegionFile(file);
+                try {
+                    for (int x = 0; x < 32; x++) {
+                        for (int z = 0; z < 32; z++) {
+                            if (training.size() + test.size() >= maxChunks) {
+                                return;
+                            }
+                            final DataInputStream in = region.getChunkDataInputStream(x, z);
+                            if (in == null) {
+                                continue;
+                            }
+                            final NBTTagCompound root;
+                            try {
+                                root = CompressedStreamTools.read(in);
+                            } finally {
+                                in.close();
+                            }
+                            final byte[] payload = toPayload(root.getCompoundTag("Level"), raw16);
+                            if (payload != null) {
+                                ((training.size() + test.size()) % 5 == 4 ? test : training).add(payload);
+                            }
+                        }
+                    }
+                } finally {
+                    region.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The payload of a full chunk packet of the chunk, null if it has no blocks.
+     */
+    private static byte[] toPayload(NBTTagCompound level, boolean raw16) {
+        final NBTTagList sectionList = level.getTagList("Sections", 10);
+        final List<NBTTagCompound> sections = new ArrayList<>();
+        boolean skyLight = true;
+        for (int i = 0; i < sectionList.tagCount(); i++) {
+            final NBTTagCompound section = (NBTTagCompound) sectionList.getCompoundTagAt(i).copy();
+            SectionCodec.upgradeSection(section);
+            if (!isEmpty(section.getByteArray("Blocks16"))) {
+                sections.add(section);
+                skyLight &= section.getByteArray("SkyLight").length == ChunkPayloadCodec.LIGHT_BYTES;
+            }
+        }
+        if (sections.isEmpty()) {
+            return null;
+        }
+        sections.sort(Comparator.comparingInt(section -> section.getByte("Y")));
+
+        final ByteBuffer raw = ByteBuffer
+                .allocate(ChunkPayloadCodec.rawLength(sections.size(), skyLight, true));
+        for (NBTTagCompound section : sections) {
+            raw.put(section.getByteArray("Blocks16"));
+        }
+        for (NBTTagCompound section : sections) {
+            raw.put(section.getByteArray("Data16"));
+        }
+        for (NBTTagCompound section : sections) {
+            raw.put(section.getByteArray("BlockLight"));
+        }
+        if (skyLight) {
+            for (NBTTagCompound section : sections) {
+                raw.put(section.getByteArray("SkyLight"));
+            }
+        }
+        final byte[] biomes = level.getByteArray("Biomes");
+        raw.put(biomes.length == ChunkPayloadCodec.BIOME_BYTES ? biomes : new byte[ChunkPayloadCodec.BIOME_BYTES]);
+        if (raw16) {
+            return raw.array();
+        }
+
+        final ByteBuffer encoded = ByteBuffer
+                .allocate(ChunkPayloadCodec.maxEncodedLength(sections.size(), raw.capacity()));
+        ChunkPayloadCodec.encode(raw.array(), 0, raw.capacity(), sections.size(), true, encoded);
+        return Arrays.copyOf(encoded.array(), encoded.position());
+    }
+
+    private static boolean isEmpty(byte[] ids) {
+        for (byte b : ids) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static byte[] train(List<byte[]> samples, int size) {
+        final int[] counts = new int[1 << COUNT_BITS];
+        for (byte[] sample : samples) {
+            for (int i = 0; i + DMER_SIZE <= sample.length; i++) {
+                counts[dmerIndex(sample, i)]++;
+            }
+        }
+
+        final int epochs = Math.max(1, size / SEGMENT_SIZE);
+        final int perEpoch = Math.max(1, samples.size() / epochs);
+        final List<byte[]> segments = new ArrayList<>();
+        int length = 0;
+        for (int epoch = 0; epoch < epochs && length < size; epoch++) {
+            final int first = epoch * perEpoch % samples.size();
+            final int last = Math.min(samples.size(), first + perEpoch);
+
+            long bestScore = 0;
+            byte[] bestSample = null;
+            int bestOffset = 0;
+            for (int s = first; s < last; s++) {
+                final byte[] sample = samples.get(s);
+                if (sample.length < SEGMENT_SIZE) {
+                    continue;
+                }
+                // Sliding sum over the dmers of a segment
+                long score = 0;
+                for (int i = 0; i <= SEGMENT_SIZE - DMER_SIZE; i++) {
+                    score += counts[dmerIndex(sample, i)];
+                }
+                for (int offset = 0;; offset++) {
+                    if (score > bestScore) {
+                        bestScore = score;
+                        bestSample = sample;
+                        bestOffset = offset;
+                    }
+                    if (offset + SEGMENT_SIZE >= sample.length) {
+                        break;
+                    }
+                    score -= counts[dmerIndex(sample, offset)];
+                    score += counts[dmerIndex(sample, offset + SEGMENT_SIZE - DMER_SIZE + 1)];
+                }
+            }
+            if (bestSample == null) {
+                continue;
+            }
+
+            for (int i = 0; i <= SEGMENT_SIZE - DMER_SIZE; i++) {
+                counts[dmerIndex(bestSample, bestOffset + i)] = 0;
+            }
+            final int take = Math.min(SEGMENT_SIZE, size - length);
+            segments.add(Arrays.copyOfRange(bestSample, bestOffset, bestOffset + take));
+            length += take;
+        }
+
+        final ByteBuffer dictionary = ByteBuffer.allocate(length);
+        for (int i = segments.size() - 1; i >= 0; i--) {
+            dictionary.put(segments.get(i));
+        }
+        return dictionary.array();
+    }
+
+    private static int dmerIndex(byte[] data, int offset) {
+        long value = 0;
+        for (int i = 0; i < DMER_SIZE; i++) {
+            value = value << 8 | (data[offset + i] & 0xFF);
+        }
+        return (int) (value * 0x9E3779B97F4A7C15L >>> (64 - COUNT_BITS));
+    }
+
+    private static void benchmark(List<byte[]> samples, byte[] dictionary) {
+        final long raw = totalLength(samples);
+        System.out.printf(Locale.ROOT, "%-6s %-10s %12s %8s %12s %12s%n", "level", "dictionary", "bytes", "ratio",
+                "deflate MB/s", "inflate MB/s");
+        for (int level : BENCHMARK_LEVELS) {
+            for (byte[] preset : new byte[][] { null, dictionary }) {
+                final Deflater deflater = new Deflater(level);
+                final Inflater inflater = new Inflater();
+                final List<byte[]> compressed = new ArrayList<>(samples.size());
+                byte[] buffer = new byte[65536];
+
+                long start = System.nanoTime();
+                long compressedBytes = 0;
+                for (byte[] sample : samples) {
+                    deflater.reset();
+                    if (preset != null) {
+                        deflater.setDictionary(preset);
+                    }
+                    deflater.setInput(sample);
+                    deflater.finish();
+                    int size = 0;
+                    while (!deflater.finished()) {
+                        if (size == buffer.length) {
+                            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                        }
+                        size += deflater.deflate(buffer, size, buffer.length - size);
+                    }
+                    compressed.add(Arrays.copyOf(buffer, size));
+                    compressedBytes += size;
+                }
+                final long deflateNanos = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                try {
+                    for (int i = 0; i < samples.size(); i++) {
+                        inflater.reset();
+                        inflater.setInput(compressed.get(i));
+                        final byte[] out = new byte[samples.get(i).length];
+                        int size = 0;
+                        while (!inflater.finished()) {
+                            final int inflated = inflater.inflate(out, size, out.length - size);
+                            if (inflated == 0 && inflater.needsDictionary()) {
+                                inflater.setDictionary(preset);
+                            }
+                            size += inflated;
+                        }
+                    }
+                } catch (DataFormatException e) {
+                    throw new IllegalStateException(e);
+                }
+                final long inflateNanos = System.nanoTime() - start;
+                deflater.end();
+                inflater.end();
+
+                System.out.printf(
+                        Locale.ROOT,
+                        "%-6d %-10s %12d %7.2f%% %12.1f %12.1f%n",
+                        level,
+                        preset != null ? "yes" : "no",
+                        compressedBytes,
+                        compressedBytes * 100.0 / raw,
+                        raw * 1000.0 / deflateNanos,
+                        raw * 1000.0 / inflateNanos);
+            }
+        }
+    }
+
+    private static long totalLength(List<byte[]> samples) {
+        long length = 0;
+        for (byte[] sample : samples) {
+            length += sample.length;
+        }
+        return length;
+    }
+}
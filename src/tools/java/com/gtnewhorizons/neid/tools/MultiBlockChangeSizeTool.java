@@ -0,0 +1,79 @@
+package com.gtnewhorizons.neid.tools;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Locale;
+
+import com.gtnewhorizons.neid.network.MultiBlockChangeCodec;
+import com.gtnewhorizons.neid.network.MultiBlockChangeRecorder;
+
+/**
+ * Compares the wire size of recorded S22 packets in NEID's 6 byte records and in the compact records of
+ * {@link MultiBlockChangeCodec}. Record traffic on a server with {@code /neid record start}, then run
+ * {@code gradlew measureMultiBlockChanges -PtoolArgs="<recording>"}:
+ *
+ * <pre>
+ * MultiBlockChangeSizeTool &lt;recording&gt;...
+ * </pre>
+ *
+ * Sizes include the packet's position, count and length fields; 1.7.10 does not compress packets.
+ */
+public class MultiBlockChangeSizeTool {
+
+    private static final int HEADER_BYTES = 14;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: MultiBlockChangeSizeTool <" + MultiBlockChangeRecorder.FILE_NAME + ">...");
+            System.exit(1);
+        }
+
+        long packets = 0, records = 0, allMetaZero = 0;
+        long legacyBytes = 0, compactBytes = 0;
+        for (String path : args) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path)))) {
+                while (true) {
+                    final int count;
+                    try {
+                        count = in.readUnsignedShort();
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    final byte[] legacy = new byte[count * 6];
+                    in.readFully(legacy);
+
+                    packets++;
+                    records += count;
+                    if (MultiBlockChangeCodec.isAllMetaZero(legacy, count)) {
+                        allMetaZero++;
+                    }
+                    legacyBytes += HEADER_BYTES + legacy.length;
+                    // The server falls back to the 6 byte records when the compact form is not smaller
+                    compactBytes += HEADER_BYTES
+                            + Math.min(MultiBlockChangeCodec.compactSize(legacy, count), legacy.length);
+                }
+            }
+        }
+
+        System.out.printf(
+                Locale.ROOT,
+                "%d packets, %d records, %.1f%% of packets with all metadata 0%n",
+                packets,
+                records,
+                packets == 0 ? 0.0 : allMetaZero * 100.0 / packets);
+        System.out.printf(
+                Locale.ROOT,
+                "6 byte records:  %d bytes, %.2f per record%n",
+                legacyBytes,
+                records == 0 ? 0.0 : (double) legacyBytes / records);
+        System.out.printf(
+                Locale.ROOT,
+                "Compact records: %d bytes, %.2f per record, %.1f%% smaller%n",
+                compactBytes,
+                records == 0 ? 0.0 : (double) compactBytes / records,
+                legacyBytes == 0 ? 0.0 : 100.0 - compactBytes * 100.0 / legacyBytes);
+    }
+}